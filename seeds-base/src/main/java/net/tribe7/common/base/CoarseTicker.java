@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.base;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+
+/**
+ * A ticker which returns a cached reading of {@link System#nanoTime}, refreshed by a daemon thread
+ * at a fixed resolution. Reading it is a single volatile read, which is much cheaper than calling
+ * {@code nanoTime} where the clock is virtualized, but the time it returns may be up to one
+ * resolution old, or older while the refreshing thread is not scheduled; see
+ * {@link #maximumStaleness}. The time returned never decreases.
+ *
+ * <p>This is intended for code which reads the time very frequently but only needs it to a coarse
+ * precision, such as caches with expiration: see {@code CacheBuilder.ticker}. Since each ticker
+ * has its own thread, a ticker should be shared by all such code; {@link #shared} returns one with
+ * a resolution of one millisecond. The thread of a ticker stops once the ticker is no longer
+ * referenced.
+ */
+@Beta
+@GwtIncompatible("Thread")
+public final class CoarseTicker extends Ticker {
+  private final long resolutionNanos;
+
+  /** The last reading, only written by the refreshing thread. */
+  private volatile long nanos;
+
+  /** The longest interval observed between two consecutive readings. */
+  private volatile long maximumStalenessNanos;
+
+  private CoarseTicker(long resolutionNanos) {
+    this.resolutionNanos = resolutionNanos;
+    this.nanos = Platform.systemNanoTime();
+  }
+
+  /**
+   * Returns the shared coarse ticker, with a resolution of one millisecond. Its thread is started
+   * by the first call to this method.
+   */
+  public static CoarseTicker shared() {
+    return SharedTickerHolder.SHARED_TICKER;
+  }
+
+  private static final class SharedTickerHolder {
+    static final CoarseTicker SHARED_TICKER = create(1, MILLISECONDS);
+  }
+
+  /**
+   * Returns a new coarse ticker, whose reading is refreshed every {@code resolution} by a new
+   * daemon thread.
+   *
+   * @throws IllegalArgumentException if {@code resolution} is not positive
+   */
+  public static CoarseTicker create(long resolution, TimeUnit unit) {
+    checkArgument(resolution > 0, "resolution must be positive: %s", resolution);
+    CoarseTicker ticker = new CoarseTicker(unit.toNanos(resolution));
+    Thread thread = new Thread(new Refresher(ticker),
+        "CoarseTicker-" + ticker.resolutionNanos + "ns");
+    thread.setDaemon(true);
+    thread.start();
+    return ticker;
+  }
+
+  /** Returns the cached reading of {@link System#nanoTime}. */
+  @Override
+  public long read() {
+    return nanos;
+  }
+
+  /** Returns the interval at which the reading of this ticker is refreshed. */
+  public long resolution(TimeUnit unit) {
+    return unit.convert(resolutionNanos, NANOSECONDS);
+  }
+
+  /**
+   * Returns how long ago the current reading was taken. This calls {@link System#nanoTime}, and is
+   * meant for monitoring rather than in place of {@link #read}.
+   */
+  public long staleness(TimeUnit unit) {
+    return unit.convert(Platform.systemNanoTime() - nanos, NANOSECONDS);
+  }
+
+  /**
+   * Returns the longest interval observed so far between two consecutive refreshes of the
+   * reading, which is the most any reading has lagged behind {@link System#nanoTime}. This exceeds
+   * the resolution by however long the refreshing thread took to be scheduled.
+   */
+  public long maximumStaleness(TimeUnit unit) {
+    return unit.convert(maximumStalenessNanos, NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "CoarseTicker{resolution=" + resolutionNanos + "ns}";
+  }
+
+  private void refresh() {
+    long now = Platform.systemNanoTime();
+    long interval = now - nanos;
+    if (interval > maximumStalenessNanos) {
+      maximumStalenessNanos = interval;
+    }
+    nanos = now;
+  }
+
+  /**
+   * Refreshes the reading of a ticker until the ticker is garbage collected. Only a weak reference
+   * is held, so that the thread does not keep the ticker reachable.
+   */
+  private static final class Refresher implements Runnable {
+    final WeakReference<CoarseTicker> tickerReference;
+    final long resolutionNanos;
+
+    Refresher(CoarseTicker ticker) {
+      this.tickerReference = new WeakReference<CoarseTicker>(checkNotNull(ticker));
+      this.resolutionNanos = ticker.resolutionNanos;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          NANOSECONDS.sleep(resolutionNanos);
+        } catch (InterruptedException e) {
+          // the thread belongs to the ticker, which keeps it running while it is reachable
+        }
+        CoarseTicker ticker = tickerReference.get();
+        if (ticker == null) {
+          return;
+        }
+        ticker.refresh();
+      }
+    }
+  }
+}
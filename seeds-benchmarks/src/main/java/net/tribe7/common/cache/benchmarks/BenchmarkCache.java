@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.cache.CacheLoader;
+import net.tribe7.common.cache.LoadingCache;
+import net.tribe7.common.cache.LongKeyLoadingCache;
+
+/**
+ * The operations measured by the benchmarks, as implemented by a {@link CacheType}. Keys are
+ * boxed by the callers ahead of time, so that boxing is not measured and weakly referenced keys
+ * remain reachable.
+ */
+public abstract class BenchmarkCache {
+
+  /** Loads the value of a key, which is the key itself. */
+  static final CacheLoader<Long, Long> LOADER = new CacheLoader<Long, Long>() {
+    @Override
+    public Long load(Long key) {
+      return key;
+    }
+  };
+
+  /** Returns the value of {@code key}, or {@code null} if it is not cached. */
+  @Nullable
+  abstract Long getIfPresent(Long key);
+
+  /** Returns the value of {@code key}, loading it if it is not cached. */
+  abstract Long get(Long key);
+
+  abstract void put(Long key, Long value);
+
+  /** The baseline: a {@link ConcurrentHashMap}, which never evicts or expires its entries. */
+  static final class MapCache extends BenchmarkCache {
+    final ConcurrentMap<Long, Long> map = new ConcurrentHashMap<Long, Long>();
+
+    @Override
+    Long getIfPresent(Long key) {
+      return map.get(key);
+    }
+
+    @Override
+    Long get(Long key) {
+      Long value = map.get(key);
+      if (value == null) {
+        value = key;
+        Long previous = map.putIfAbsent(key, value);
+        if (previous != null) {
+          value = previous;
+        }
+      }
+      return value;
+    }
+
+    @Override
+    void put(Long key, Long value) {
+      map.put(key, value);
+    }
+  }
+
+  static final class LoadingCacheAdapter extends BenchmarkCache {
+    final LoadingCache<Long, Long> cache;
+
+    LoadingCacheAdapter(LoadingCache<Long, Long> cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    Long getIfPresent(Long key) {
+      return cache.getIfPresent(key);
+    }
+
+    @Override
+    Long get(Long key) {
+      return cache.getUnchecked(key);
+    }
+
+    @Override
+    void put(Long key, Long value) {
+      cache.put(key, value);
+    }
+  }
+
+  /** Looks up values by primitive key, as callers of a long-keyed cache would. */
+  static final class LongKeyCacheAdapter extends BenchmarkCache {
+    final LongKeyLoadingCache<Long> cache;
+
+    LongKeyCacheAdapter(LongKeyLoadingCache<Long> cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    Long getIfPresent(Long key) {
+      return cache.getIfPresent(key.longValue());
+    }
+
+    @Override
+    Long get(Long key) {
+      return cache.getUnchecked(key.longValue());
+    }
+
+    @Override
+    void put(Long key, Long value) {
+      cache.put(key, value);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import net.tribe7.common.collect.Lists;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module with 1, 2, 4 and so on up to as many threads as there are
+ * processors, writing the results of each thread count as JSON to
+ * {@code <directory>/threads-<count>.json}, so that the results of different commits can be
+ * compared. The remaining arguments are passed to JMH; for example {@code GetIfPresent} runs only
+ * that benchmark, and {@code -t 4} runs only with four threads.
+ *
+ * <p>Usage: {@code Benchmarks <directory> [JMH options]}
+ */
+public final class Benchmarks {
+  private Benchmarks() {}
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    checkArgument(args.length > 0, "usage: Benchmarks <directory> [JMH options]");
+    File directory = new File(args[0]);
+    checkArgument(directory.isDirectory() || directory.mkdirs(),
+        "cannot create results directory %s", directory);
+    Options options = new CommandLineOptions(Arrays.copyOfRange(args, 1, args.length));
+    List<Integer> threadCounts = options.getThreads().hasValue()
+        ? Arrays.asList(options.getThreads().get())
+        : threadCounts(Runtime.getRuntime().availableProcessors());
+    for (int threads : threadCounts) {
+      Options run = new OptionsBuilder()
+          .parent(options)
+          .threads(threads)
+          .resultFormat(ResultFormatType.JSON)
+          .result(new File(directory, "threads-" + threads + ".json").getPath())
+          .build();
+      new Runner(run).run();
+    }
+  }
+
+  /** Returns 1, 2, 4 and so on up to {@code processors}, which is always included. */
+  static List<Integer> threadCounts(int processors) {
+    List<Integer> counts = Lists.newArrayList();
+    for (int threads = 1; threads < processors; threads <<= 1) {
+      counts.add(threads);
+    }
+    counts.add(processors);
+    return counts;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.tribe7.common.cache.CacheBuilder;
+import net.tribe7.common.cache.benchmarks.BenchmarkCache.LoadingCacheAdapter;
+import net.tribe7.common.cache.benchmarks.BenchmarkCache.LongKeyCacheAdapter;
+import net.tribe7.common.cache.benchmarks.BenchmarkCache.MapCache;
+
+/**
+ * The caches under benchmark: a {@link java.util.concurrent.ConcurrentHashMap} as the baseline,
+ * and a cache for each kind of entry the cache creates. The kinds of entries differ in how they
+ * hold their keys (strongly, weakly or as primitive {@code long}s), and in whether they record
+ * their access time, for a maximum size, and their write time, for expiration after write.
+ */
+public enum CacheType {
+  CONCURRENT_HASH_MAP(false, false, false, false),
+  STRONG(false, false, false, false),
+  STRONG_ACCESS(false, false, true, false),
+  STRONG_WRITE(false, false, false, true),
+  STRONG_ACCESS_WRITE(false, false, true, true),
+  WEAK(true, false, false, false),
+  WEAK_ACCESS(true, false, true, false),
+  WEAK_WRITE(true, false, false, true),
+  WEAK_ACCESS_WRITE(true, false, true, true),
+  LONG(false, true, false, false),
+  LONG_ACCESS(false, true, true, false),
+  LONG_WRITE(false, true, false, true),
+  LONG_ACCESS_WRITE(false, true, true, true);
+
+  private final boolean weakKeys;
+  private final boolean longKeys;
+  private final boolean access;
+  private final boolean write;
+
+  private CacheType(boolean weakKeys, boolean longKeys, boolean access, boolean write) {
+    this.weakKeys = weakKeys;
+    this.longKeys = longKeys;
+    this.access = access;
+    this.write = write;
+  }
+
+  /** Returns whether the caches of this type evict entries beyond their maximum size. */
+  boolean isBounded() {
+    return access;
+  }
+
+  /**
+   * Returns a new, empty cache of this type. Types which record access times hold at most
+   * {@code maximumSize} entries; types which record write times expire entries a day after they
+   * are written, which is never during a benchmark.
+   */
+  BenchmarkCache create(int maximumSize) {
+    if (this == CONCURRENT_HASH_MAP) {
+      return new MapCache();
+    }
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (weakKeys) {
+      builder.weakKeys();
+    }
+    if (access) {
+      builder.maximumSize(maximumSize);
+    }
+    if (write) {
+      builder.expireAfterWrite(1, TimeUnit.DAYS);
+    }
+    return longKeys
+        ? new LongKeyCacheAdapter(builder.buildLongKeyed(BenchmarkCache.LOADER))
+        : new LoadingCacheAdapter(builder.build(BenchmarkCache.LOADER));
+  }
+}
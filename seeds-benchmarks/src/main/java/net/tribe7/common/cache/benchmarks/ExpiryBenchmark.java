@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.tribe7.common.cache.CacheBuilder;
+import net.tribe7.common.cache.Expiry;
+import net.tribe7.common.cache.LoadingCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LoadingCache#get} on a cache whose entries expire after a few hundred
+ * microseconds, so that lookups continually find expired entries and reload them, and the
+ * expiration queues are drained on most writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpiryBenchmark {
+  static final int ITEMS = 1 << 16;
+
+  /** The ways in which entries expire. */
+  public enum Expiration {
+    AFTER_WRITE {
+      @Override
+      void configure(CacheBuilder<Object, Object> builder, long nanos) {
+        builder.expireAfterWrite(nanos, TimeUnit.NANOSECONDS);
+      }
+    },
+    AFTER_ACCESS {
+      @Override
+      void configure(CacheBuilder<Object, Object> builder, long nanos) {
+        builder.expireAfterAccess(nanos, TimeUnit.NANOSECONDS);
+      }
+    },
+    VARIABLE {
+      @Override
+      void configure(CacheBuilder<Object, Object> builder, final long nanos) {
+        builder.expireAfter(new Expiry<Object, Object>() {
+          @Override
+          public long expireAfterCreate(Object key, Object value, long currentTime) {
+            return nanos;
+          }
+
+          @Override
+          public long expireAfterUpdate(
+              Object key, Object value, long currentTime, long currentDuration) {
+            return nanos;
+          }
+
+          @Override
+          public long expireAfterRead(
+              Object key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        });
+      }
+    };
+
+    abstract void configure(CacheBuilder<Object, Object> builder, long nanos);
+  }
+
+  @Param
+  Expiration expiration;
+
+  @Param({"100", "1000"})
+  long lifetimeMicros;
+
+  @Param({"false", "true"})
+  boolean bounded;
+
+  LoadingCache<Long, Long> cache;
+  Long[] requests;
+
+  @Setup
+  public void setUp() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    expiration.configure(builder, TimeUnit.MICROSECONDS.toNanos(lifetimeMicros));
+    if (bounded) {
+      builder.maximumSize(ITEMS / 4);
+    }
+    cache = builder.build(BenchmarkCache.LOADER);
+    requests = Keys.zipf(Keys.distinct(ITEMS), 1.0);
+  }
+
+  @Benchmark
+  public Long get(KeyCursor cursor) {
+    return cache.getUnchecked(requests[cursor.next()]);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A thread's position in a stream of requests created by {@link Keys}. Each thread starts at a
+ * random position, so that threads do not request the same keys at the same time.
+ */
+@State(Scope.Thread)
+public class KeyCursor {
+  int index;
+
+  @Setup
+  public void setUp() {
+    index = new Random().nextInt();
+  }
+
+  /** Returns the index of the next request, wrapping around at the end of the stream. */
+  int next() {
+    return (index++) & Keys.STREAM_MASK;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import net.tribe7.common.cache.simulator.Traces;
+
+/**
+ * Static methods which create the keys requested by the benchmarks. Requests are precomputed as
+ * a stream of {@link #STREAM_SIZE} boxed keys, which each thread reads from a different position
+ * with a {@link KeyCursor}.
+ */
+final class Keys {
+  private Keys() {}
+
+  /** The number of requests in a stream. This must be a power of two. */
+  static final int STREAM_SIZE = 1 << 20;
+
+  static final int STREAM_MASK = STREAM_SIZE - 1;
+
+  /** Returns the keys {@code 0} to {@code items - 1}. */
+  static Long[] distinct(int items) {
+    Long[] keys = new Long[items];
+    for (int i = 0; i < items; i++) {
+      keys[i] = Long.valueOf(i);
+    }
+    return keys;
+  }
+
+  /**
+   * Returns a stream of requests for {@code keys} following a Zipf distribution with the given
+   * exponent, in which the first keys are the most frequently requested. The stream holds the
+   * instances of {@code keys}, rather than equal ones.
+   */
+  static Long[] zipf(Long[] keys, double exponent) {
+    long[] ranks = Traces.zipf(STREAM_SIZE, keys.length, exponent, 0x5DEECE66DL);
+    Long[] stream = new Long[STREAM_SIZE];
+    for (int i = 0; i < STREAM_SIZE; i++) {
+      stream[i] = keys[(int) ranks[i]];
+    }
+    return stream;
+  }
+}
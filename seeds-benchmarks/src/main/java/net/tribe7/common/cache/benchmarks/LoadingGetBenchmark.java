@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link net.tribe7.common.cache.LoadingCache#get}, both on a cache holding every
+ * requested key and on a bounded cache sixteen times smaller than the requested keys, in which
+ * many lookups miss, load the key and evict another entry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadingGetBenchmark {
+  static final int ITEMS = 1 << 16;
+
+  /** A cache holding every requested key. */
+  @State(Scope.Benchmark)
+  public static class Hits {
+    @Param
+    CacheType cacheType;
+
+    @Param({"0.8", "1.2"})
+    double zipfExponent;
+
+    BenchmarkCache cache;
+    Long[] requests;
+
+    @Setup
+    public void setUp() {
+      Long[] keys = Keys.distinct(ITEMS);
+      // the maximum size is divided among the segments, so leave room for an uneven division
+      cache = cacheType.create(2 * ITEMS);
+      for (Long key : keys) {
+        cache.get(key);
+      }
+      requests = Keys.zipf(keys, zipfExponent);
+    }
+  }
+
+  /**
+   * A cache too small for the requested keys. Only the bounded types are measured, since the
+   * others would eventually hold every key.
+   */
+  @State(Scope.Benchmark)
+  public static class Misses {
+    @Param({"STRONG_ACCESS", "STRONG_ACCESS_WRITE", "WEAK_ACCESS", "WEAK_ACCESS_WRITE",
+        "LONG_ACCESS", "LONG_ACCESS_WRITE"})
+    CacheType cacheType;
+
+    @Param({"0.8", "1.2"})
+    double zipfExponent;
+
+    BenchmarkCache cache;
+    Long[] requests;
+
+    @Setup
+    public void setUp() {
+      cache = cacheType.create(ITEMS / 16);
+      requests = Keys.zipf(Keys.distinct(ITEMS), zipfExponent);
+    }
+  }
+
+  @Benchmark
+  public Long hit(Hits hits, KeyCursor cursor) {
+    return hits.cache.get(hits.requests[cursor.next()]);
+  }
+
+  @Benchmark
+  public Long miss(Misses misses, KeyCursor cursor) {
+    return misses.cache.get(misses.requests[cursor.next()]);
+  }
+}
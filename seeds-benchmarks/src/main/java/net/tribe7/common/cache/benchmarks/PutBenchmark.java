@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link net.tribe7.common.cache.Cache#put} of keys drawn from four times as many keys
+ * as a bounded cache holds, so that the bounded types evict an entry on most insertions. The
+ * other types, including the baseline, hold every key and only replace values once warmed up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PutBenchmark {
+  static final int ITEMS = 1 << 16;
+
+  @Param
+  CacheType cacheType;
+
+  @Param({"0.8", "1.2"})
+  double zipfExponent;
+
+  BenchmarkCache cache;
+  Long[] requests;
+
+  @Setup
+  public void setUp() {
+    cache = cacheType.create(ITEMS / 4);
+    requests = Keys.zipf(Keys.distinct(ITEMS), zipfExponent);
+  }
+
+  @Benchmark
+  public void put(KeyCursor cursor) {
+    Long key = requests[cursor.next()];
+    cache.put(key, key);
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH benchmarks of the hot paths of the caches built by
+ * {@link net.tribe7.common.cache.CacheBuilder}: hits of {@code getIfPresent} and {@code get},
+ * loading misses, insertions under eviction, and lookups of rapidly expiring entries. Each
+ * benchmark is parameterized by the kind of cache entry, with a
+ * {@link java.util.concurrent.ConcurrentHashMap} as the baseline, and requests keys following a
+ * Zipf distribution.
+ *
+ * <p>Run them with {@code gradle :seeds-benchmarks:benchmarks}, which writes JSON results for each
+ * thread count to {@code seeds-benchmarks/build/reports/jmh}. JMH options, such as a benchmark
+ * name pattern, may be passed with {@code -PjmhArgs="..."}; see
+ * {@link net.tribe7.common.cache.benchmarks.Benchmarks}.
+ */
+package net.tribe7.common.cache.benchmarks;
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect.benchmarks;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Estimates the heap retained per mapping by each {@link ImmutableMapLayout}, by measuring the
+ * used heap before and after building maps of that layout. The keys and values are allocated
+ * beforehand, so the estimate only covers the structure of the maps. The estimate is only
+ * meaningful on an otherwise idle JVM.
+ *
+ * <p>Usage: {@code ImmutableMapFootprint [<size>]}, with 1,000,000 mappings by default.
+ */
+public final class ImmutableMapFootprint {
+  /** The number of mappings measured for each layout, which is rounded down to whole maps. */
+  private static final int MEASURED_MAPPINGS = 4000000;
+
+  private ImmutableMapFootprint() {}
+
+  public static void main(String[] args) {
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    Entry<Long, Long>[] entries = ImmutableMapLayout.randomEntries(size, new Random(0));
+    System.out.printf(Locale.ROOT, "%-22s %14s%n", "layout", "bytes/entry");
+    for (ImmutableMapLayout layout : ImmutableMapLayout.values()) {
+      System.out.printf(Locale.ROOT, "%-22s %14.1f%n", layout, footprint(layout, entries));
+    }
+  }
+
+  /**
+   * Returns the heap retained per mapping by maps of {@code layout} holding {@code entries}. Small
+   * maps are built many times over, so that unrelated allocations don't dominate the estimate.
+   */
+  private static double footprint(ImmutableMapLayout layout, Entry<Long, Long>[] entries) {
+    int copies = Math.max(1, MEASURED_MAPPINGS / entries.length);
+    Object[] maps = new Object[copies];
+    long before = usedHeap();
+    for (int i = 0; i < copies; i++) {
+      maps[i] = layout.create(entries);
+    }
+    long after = usedHeap();
+    if (((Map<?, ?>) maps[0]).size() != entries.length) {
+      throw new IllegalStateException("duplicate keys");
+    }
+    return (after - before) / ((double) copies * entries.length);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // a few collections, until the used heap no longer shrinks
+    for (int i = 0; i < 8; i++) {
+      System.gc();
+      long current = runtime.totalMemory() - runtime.freeMemory();
+      if (current >= used) {
+        break;
+      }
+      used = current;
+    }
+    return used;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect.benchmarks;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of {@link Map#get} for each {@link ImmutableMapLayout}, for keys
+ * which are present and keys which are absent. The requested keys are equal to, but not the same
+ * instances as, the keys of the map, and are requested in a random order so that large maps miss
+ * the processor caches as they would in a real lookup table. The retained size of each layout is
+ * measured by {@link ImmutableMapFootprint}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImmutableMapGetBenchmark {
+  /** The number of requests, which must be a power of two. */
+  static final int REQUESTS = 1 << 20;
+
+  static final int REQUEST_MASK = REQUESTS - 1;
+
+  @Param
+  ImmutableMapLayout layout;
+
+  @Param({"100", "10000", "1000000"})
+  int size;
+
+  Map<Long, Long> map;
+  Long[] presentKeys;
+  Long[] absentKeys;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0x5DEECE66DL);
+    Entry<Long, Long>[] entries = ImmutableMapLayout.randomEntries(size, random);
+    map = layout.create(entries);
+    presentKeys = new Long[REQUESTS];
+    absentKeys = new Long[REQUESTS];
+    for (int i = 0; i < REQUESTS; i++) {
+      presentKeys[i] = new Long(entries[random.nextInt(size)].getKey());
+      Long absent;
+      do {
+        absent = random.nextLong();
+      } while (map.containsKey(absent));
+      absentKeys[i] = absent;
+    }
+  }
+
+  /** A thread's position in the requests, starting at a random one. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int index;
+
+    @Setup
+    public void setUp() {
+      index = new Random().nextInt();
+    }
+
+    int next() {
+      return (index++) & REQUEST_MASK;
+    }
+  }
+
+  @Benchmark
+  public Long getPresent(Cursor cursor) {
+    return map.get(presentKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public Long getAbsent(Cursor cursor) {
+    return map.get(absentKeys[cursor.next()]);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect.benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import net.tribe7.common.base.Throwables;
+import net.tribe7.common.collect.ImmutableMap;
+import net.tribe7.common.collect.Maps;
+import net.tribe7.common.collect.Sets;
+
+/**
+ * The maps compared by {@link ImmutableMapGetBenchmark} and {@link ImmutableMapFootprint}. At the
+ * sizes they measure, {@link ImmutableMap} stores its mappings in a single array of interleaved
+ * keys and values, found through an open-addressed table. The baseline is the layout it replaced,
+ * {@code RegularImmutableMap}, which chains an entry object per mapping into its buckets.
+ */
+public enum ImmutableMapLayout {
+  /** {@link ImmutableMap.Builder}, with interleaved keys and values probed linearly. */
+  COMPACT_IMMUTABLE_MAP {
+    @Override
+    <K, V> Map<K, V> create(Entry<K, V>[] entries) {
+      ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+      for (Entry<K, V> entry : entries) {
+        builder.put(entry);
+      }
+      return builder.build();
+    }
+  },
+
+  /**
+   * {@code RegularImmutableMap}, with an entry object per mapping chained into buckets. Since
+   * {@link ImmutableMap} only uses it for small maps, it is constructed reflectively.
+   */
+  REGULAR_IMMUTABLE_MAP {
+    @Override
+    <K, V> Map<K, V> create(Entry<K, V>[] entries) {
+      try {
+        @SuppressWarnings("unchecked") // the map holds the given entries
+        Map<K, V> map = (Map<K, V>) RegularImmutableMapHolder.CONSTRUCTOR.newInstance(
+            (Object) entries);
+        return map;
+      } catch (InvocationTargetException e) {
+        throw Throwables.propagate(e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      } catch (InstantiationException e) {
+        throw new AssertionError(e);
+      }
+    }
+  };
+
+  /** Returns a map of this layout holding {@code entries}. */
+  abstract <K, V> Map<K, V> create(Entry<K, V>[] entries);
+
+  /** The constructor of {@code RegularImmutableMap} from an array of entries. */
+  private static final class RegularImmutableMapHolder {
+    static final Constructor<?> CONSTRUCTOR;
+
+    static {
+      try {
+        CONSTRUCTOR = Class.forName("net.tribe7.common.collect.RegularImmutableMap")
+            .getDeclaredConstructor(Entry[].class);
+        CONSTRUCTOR.setAccessible(true);
+      } catch (Exception e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code size} distinct random keys, each mapped to itself. Random keys spread over the
+   * table like real keys, rather than filling it in order as small {@code Long}s would.
+   */
+  static Entry<Long, Long>[] randomEntries(int size, Random random) {
+    Set<Long> keys = Sets.newHashSetWithExpectedSize(size);
+    while (keys.size() < size) {
+      keys.add(random.nextLong());
+    }
+    @SuppressWarnings("unchecked") // generic array creation
+    Entry<Long, Long>[] entries = (Entry<Long, Long>[]) new Entry<?, ?>[size];
+    int i = 0;
+    for (Long key : keys) {
+      entries[i++] = Maps.immutableEntry(key, key);
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tribe7.common.collect.ImmutableSortedMap;
+import net.tribe7.common.collect.ImmutableSortedSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the point and range lookups of an {@link ImmutableSortedSet} of random {@code Long}s,
+ * with and without a {@linkplain ImmutableSortedSet.Builder#withSearchIndex search index}. Point
+ * lookups are {@code contains} of present keys and {@code floor} of arbitrary keys; range lookups
+ * find both bounds of a {@code subSet}. {@link ImmutableSortedMap} searches its keys the same way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImmutableSortedSetSearchBenchmark {
+  /** The number of requests, which must be a power of two. */
+  static final int REQUESTS = 1 << 20;
+
+  static final int REQUEST_MASK = REQUESTS - 1;
+
+  @Param({"false", "true"})
+  boolean searchIndex;
+
+  @Param({"1000", "100000", "1000000"})
+  int size;
+
+  ImmutableSortedSet<Long> set;
+  Long[] presentKeys;
+  Long[] arbitraryKeys;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0x5DEECE66DL);
+    ImmutableSortedSet.Builder<Long> builder = ImmutableSortedSet.naturalOrder();
+    if (searchIndex) {
+      builder.withSearchIndex();
+    }
+    Long[] keys = new Long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = random.nextLong();
+      builder.add(keys[i]);
+    }
+    set = builder.build();
+    presentKeys = new Long[REQUESTS];
+    arbitraryKeys = new Long[REQUESTS];
+    for (int i = 0; i < REQUESTS; i++) {
+      presentKeys[i] = new Long(keys[random.nextInt(size)]);
+      arbitraryKeys[i] = random.nextLong();
+    }
+  }
+
+  /** A thread's position in the requests, starting at a random one. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int index;
+
+    @Setup
+    public void setUp() {
+      index = new Random().nextInt();
+    }
+
+    int next() {
+      return (index++) & REQUEST_MASK;
+    }
+  }
+
+  @Benchmark
+  public boolean contains(Cursor cursor) {
+    return set.contains(presentKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public Long floor(Cursor cursor) {
+    return set.floor(arbitraryKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public int subSet(Cursor cursor) {
+    Long from = arbitraryKeys[cursor.next()];
+    Long to = arbitraryKeys[cursor.next()];
+    return (from < to) ? set.subSet(from, to).size() : set.subSet(to, from).size();
+  }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH benchmarks and footprint measurements of the immutable collections of
+ * {@link net.tribe7.common.collect}, which use their public API except to construct the layouts
+ * they are compared against. Run a benchmark with
+ * {@code gradle :seeds-benchmarks:benchmarks -PjmhArgs="<name pattern>"}.
+ */
+package net.tribe7.common.collect.benchmarks;
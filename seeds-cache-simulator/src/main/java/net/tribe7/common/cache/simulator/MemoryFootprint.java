@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import java.util.List;
+import java.util.Locale;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.cache.Cache;
+import net.tribe7.common.cache.CacheBuilder;
+import net.tribe7.common.cache.CacheLoader;
+import net.tribe7.common.cache.LongKeyLoadingCache;
+import net.tribe7.common.collect.ImmutableList;
+
+/**
+ * Estimates the heap used per entry by caches built with several configurations, by measuring the
+ * used heap before and after filling a cache. The keys and the single shared value are allocated
+ * beforehand, so the estimate only covers the entries, their value references and the segment
+ * tables. The estimate is only meaningful on an otherwise idle JVM.
+ *
+ * <p>Usage: <pre>   {@code
+ *
+ *   MemoryFootprint [<entries>] [<spec> ...]}</pre>
+ *
+ * <p>Each argument after the number of entries, 1,000,000 by default, adds a configuration in
+ * the format of {@link CacheBuilder#from(String)}, such as {@code maximumSize=2000000}. Without
+ * them, a set of common configurations is measured, including a {@link LongKeyLoadingCache}.
+ */
+@Beta
+public final class MemoryFootprint {
+  private static final List<String> DEFAULT_SPECS = ImmutableList.of(
+      "",
+      "maximumSize=%d",
+      "expireAfterAccess=1h",
+      "expireAfterWrite=1h",
+      "maximumSize=%d,expireAfterWrite=1h",
+      "maximumSize=%d,frequencyAdmission",
+      "weakKeys",
+      "softValues");
+
+  private static final Object VALUE = new Object();
+
+  private MemoryFootprint() {}
+
+  public static void main(String[] args) {
+    int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    List<String> specs = (args.length > 1)
+        ? ImmutableList.copyOf(args).subList(1, args.length)
+        : DEFAULT_SPECS;
+    Long[] keys = new Long[entries];
+    for (int i = 0; i < entries; i++) {
+      keys[i] = Long.valueOf(i);
+    }
+
+    System.out.printf(Locale.ROOT, "%-40s %14s%n", "configuration", "bytes/entry");
+    for (String spec : specs) {
+      // the maximum size must not evict any of the entries
+      String resolved = String.format(Locale.ROOT, spec, 2 * entries);
+      print(resolved.isEmpty() ? "(default)" : resolved, cacheBytesPerEntry(resolved, keys));
+    }
+    if (args.length <= 1) {
+      print("buildLongKeyed", longKeyedBytesPerEntry(keys));
+    }
+  }
+
+  private static void print(String configuration, double bytesPerEntry) {
+    System.out.printf(Locale.ROOT, "%-40s %14.1f%n", configuration, bytesPerEntry);
+  }
+
+  /** Returns the heap used per entry by a cache built from {@code spec} holding {@code keys}. */
+  public static double cacheBytesPerEntry(String spec, Long[] keys) {
+    long before = usedMemory();
+    Cache<Object, Object> cache = CacheBuilder.from(spec).build();
+    for (Long key : keys) {
+      cache.put(key, VALUE);
+    }
+    long after = usedMemory();
+    if (cache.size() != keys.length) {
+      throw new IllegalStateException("entries were evicted or collected: " + spec);
+    }
+    return (double) (after - before) / keys.length;
+  }
+
+  /**
+   * Returns the heap used per entry by a {@link LongKeyLoadingCache} holding {@code keys}. Its
+   * keys are not retained, so the boxed keys are not counted either.
+   */
+  public static double longKeyedBytesPerEntry(Long[] keys) {
+    long before = usedMemory();
+    LongKeyLoadingCache<Object> cache = CacheBuilder.newBuilder().buildLongKeyed(
+        new CacheLoader<Long, Object>() {
+          @Override
+          public Object load(Long key) {
+            return VALUE;
+          }
+        });
+    for (Long key : keys) {
+      cache.getUnchecked(key.longValue());
+    }
+    long after = usedMemory();
+    if (cache.size() != keys.length) {
+      throw new IllegalStateException("entries were evicted");
+    }
+    return (double) (after - before) / keys.length;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // a few collections, until the used heap no longer shrinks
+    for (int i = 0; i < 8; i++) {
+      System.gc();
+      long current = runtime.totalMemory() - runtime.freeMemory();
+      if (current >= used) {
+        break;
+      }
+      used = current;
+    }
+    return used;
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.cache.CacheBuilder;
+import net.tribe7.common.cache.CacheLoader;
+import net.tribe7.common.cache.LongKeyLoadingCache;
+import net.tribe7.common.collect.Maps;
+
+/**
+ * Static factories for the {@link Policy policies} compared by the {@link Simulator}: reference
+ * policies implemented directly, and caches built by {@link CacheBuilder}.
+ */
+@Beta
+public final class Policies {
+  private Policies() {}
+
+  /** Returns a factory of policies which evict the least recently used key. */
+  public static Policy.Factory lru() {
+    return new LinkedPolicyFactory("lru", true);
+  }
+
+  /** Returns a factory of policies which evict the key inserted first. */
+  public static Policy.Factory fifo() {
+    return new LinkedPolicyFactory("fifo", false);
+  }
+
+  /**
+   * Returns a factory of policies which evict the key whose next request is furthest in the
+   * future, as described by Belady. No online policy can have a higher hit rate, which makes it
+   * the upper bound against which the other policies are judged.
+   */
+  public static Policy.Factory optimal() {
+    return new Policy.Factory() {
+      @Override
+      public String name() {
+        return "optimal";
+      }
+
+      @Override
+      public Policy create(int maximumSize, long[] trace) {
+        return new OptimalPolicy(maximumSize, trace);
+      }
+    };
+  }
+
+  /**
+   * Returns a factory of policies backed by caches built from {@code spec}, in the format of
+   * {@link CacheBuilder#from(String)}, with each simulated maximum size. The spec must not itself
+   * specify a maximum size or weight.
+   *
+   * @param name the name of the policies, used to report their results
+   */
+  public static Policy.Factory cacheBuilder(final String name, final String spec) {
+    checkNotNull(name);
+    CacheBuilder.from(spec); // fail fast if the spec is malformed
+    return new Policy.Factory() {
+      @Override
+      public String name() {
+        return name;
+      }
+
+      @Override
+      public Policy create(int maximumSize, long[] trace) {
+        return new CacheBuilderPolicy(
+            CacheBuilder.from(spec).maximumSize(maximumSize).recordStats());
+      }
+    };
+  }
+
+  private static final class LinkedPolicyFactory implements Policy.Factory {
+    final String name;
+    final boolean accessOrder;
+
+    LinkedPolicyFactory(String name, boolean accessOrder) {
+      this.name = name;
+      this.accessOrder = accessOrder;
+    }
+
+    @Override
+    public String name() {
+      return name;
+    }
+
+    @Override
+    public Policy create(int maximumSize, long[] trace) {
+      return new LinkedPolicy(maximumSize, accessOrder);
+    }
+  }
+
+  /** A policy which evicts the eldest key of a linked hash map, in access or insertion order. */
+  private static final class LinkedPolicy implements Policy {
+    final Map<Long, Boolean> keys;
+    long evictionCount;
+
+    LinkedPolicy(final int maximumSize, boolean accessOrder) {
+      checkArgument(maximumSize >= 0);
+      keys = new LinkedHashMap<Long, Boolean>(16, 0.75f, accessOrder) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+          if (size() > maximumSize) {
+            evictionCount++;
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    @Override
+    public boolean record(long key) {
+      return keys.put(key, Boolean.TRUE) != null;
+    }
+
+    @Override
+    public long evictionCount() {
+      return evictionCount;
+    }
+  }
+
+  /**
+   * Belady's optimal policy. Each resident key is indexed by the position of its next request in
+   * the trace, and the key with the furthest next request is evicted. Keys which are never
+   * requested again are given distinct positions past the end of the trace.
+   */
+  private static final class OptimalPolicy implements Policy {
+    final int maximumSize;
+    final int[] nextRequest;
+    final Map<Long, Integer> residentNext = Maps.newHashMap();
+    final TreeMap<Integer, Long> residentsByNext = new TreeMap<Integer, Long>();
+    int position;
+    long evictionCount;
+
+    OptimalPolicy(int maximumSize, long[] trace) {
+      checkArgument(maximumSize >= 0);
+      this.maximumSize = maximumSize;
+      this.nextRequest = new int[trace.length];
+      Map<Long, Integer> lastSeen = Maps.newHashMap();
+      for (int i = trace.length - 1; i >= 0; i--) {
+        Integer next = lastSeen.put(trace[i], i);
+        nextRequest[i] = (next == null) ? trace.length + i : next;
+      }
+    }
+
+    @Override
+    public boolean record(long key) {
+      int next = nextRequest[position++];
+      Integer current = residentNext.remove(key);
+      if (current != null) {
+        residentsByNext.remove(current);
+        residentNext.put(key, next);
+        residentsByNext.put(next, key);
+        return true;
+      }
+      if (maximumSize == 0) {
+        return false;
+      }
+      if (residentNext.size() == maximumSize) {
+        Map.Entry<Integer, Long> victim = residentsByNext.lastEntry();
+        if (victim.getKey() < next) {
+          // the new key is requested later than every resident, so it is not worth admitting
+          evictionCount++;
+          return false;
+        }
+        residentsByNext.remove(victim.getKey());
+        residentNext.remove(victim.getValue());
+        evictionCount++;
+      }
+      residentNext.put(key, next);
+      residentsByNext.put(next, key);
+      return false;
+    }
+
+    @Override
+    public long evictionCount() {
+      return evictionCount;
+    }
+  }
+
+  /** A policy backed by a cache built by {@link CacheBuilder}, keyed by primitive longs. */
+  private static final class CacheBuilderPolicy implements Policy {
+    final LongKeyLoadingCache<Boolean> cache;
+
+    CacheBuilderPolicy(CacheBuilder<Object, Object> builder) {
+      cache = builder.buildLongKeyed(new CacheLoader<Long, Boolean>() {
+        @Override
+        public Boolean load(Long key) {
+          return Boolean.TRUE;
+        }
+      });
+    }
+
+    @Override
+    public boolean record(long key) {
+      if (cache.getIfPresent(key) != null) {
+        return true;
+      }
+      cache.put(key, Boolean.TRUE);
+      return false;
+    }
+
+    @Override
+    public long evictionCount() {
+      cache.cleanUp();
+      return cache.stats().evictionCount();
+    }
+  }
+}
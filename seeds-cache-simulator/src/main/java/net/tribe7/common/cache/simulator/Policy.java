@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import net.tribe7.common.annotations.Beta;
+
+/**
+ * A cache eviction policy being simulated. A policy tracks which keys it holds, but stores no
+ * values; each call to {@link #record} is a request for a key, which is inserted if it is absent.
+ *
+ * <p>Policies are not thread-safe, since a simulation replays its trace on a single thread.
+ */
+@Beta
+public interface Policy {
+
+  /**
+   * Records a request for {@code key}, inserting it if it is not held and evicting other keys as
+   * needed. Returns whether the key was held, which counts as a hit.
+   */
+  boolean record(long key);
+
+  /** Returns the number of keys evicted so far. */
+  long evictionCount();
+
+  /** Creates policies of a given maximum size, each for a single simulation. */
+  interface Factory {
+    /** Returns the name of the policies, used to report their results. */
+    String name();
+
+    /**
+     * Returns a new, empty policy holding at most {@code maximumSize} keys, which will be asked
+     * for the keys of {@code trace} in order. Only offline policies look at the trace.
+     */
+    Policy create(int maximumSize, long[] trace);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.base.Objects;
+
+/** The outcome of replaying a trace through one policy of one maximum size. */
+@Beta
+public final class SimulationResult {
+  private final String policyName;
+  private final int maximumSize;
+  private final long requestCount;
+  private final long hitCount;
+  private final long evictionCount;
+  private final long elapsedNanos;
+
+  public SimulationResult(String policyName, int maximumSize, long requestCount, long hitCount,
+      long evictionCount, long elapsedNanos) {
+    this.policyName = checkNotNull(policyName);
+    this.maximumSize = maximumSize;
+    this.requestCount = requestCount;
+    this.hitCount = hitCount;
+    this.evictionCount = evictionCount;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /** Returns the name of the simulated policy. */
+  public String policyName() {
+    return policyName;
+  }
+
+  /** Returns the maximum number of keys the policy could hold. */
+  public int maximumSize() {
+    return maximumSize;
+  }
+
+  /** Returns the number of requests replayed. */
+  public long requestCount() {
+    return requestCount;
+  }
+
+  /** Returns the number of requests for keys which the policy held. */
+  public long hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of keys which the policy evicted. */
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the time taken to replay the trace, in nanoseconds. */
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Returns the ratio of hits to requests. This is defined as {@code 1.0} when no requests were
+   * replayed.
+   */
+  public double hitRate() {
+    return (requestCount == 0) ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  /** Returns the number of requests replayed per second. */
+  public double throughput() {
+    return (elapsedNanos == 0) ? 0.0 : requestCount * 1e9 / elapsedNanos;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(policyName, maximumSize, requestCount, hitCount, evictionCount,
+        elapsedNanos);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object instanceof SimulationResult) {
+      SimulationResult other = (SimulationResult) object;
+      return policyName.equals(other.policyName)
+          && maximumSize == other.maximumSize
+          && requestCount == other.requestCount
+          && hitCount == other.hitCount
+          && evictionCount == other.evictionCount
+          && elapsedNanos == other.elapsedNanos;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("policyName", policyName)
+        .add("maximumSize", maximumSize)
+        .add("requestCount", requestCount)
+        .add("hitCount", hitCount)
+        .add("evictionCount", evictionCount)
+        .add("elapsedNanos", elapsedNanos)
+        .toString();
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.collect.ImmutableList;
+import net.tribe7.common.collect.Lists;
+
+/**
+ * Replays key-access traces through cache eviction policies, to compare their hit rates and
+ * throughput at several cache sizes. The policies may be reference policies or real caches built
+ * by {@code CacheBuilder}; see {@link Policies}.
+ *
+ * <p>Usage example: <pre>   {@code
+ *
+ *   long[] trace = Traces.zipf(10000000, 1000000, 0.9, 42);
+ *   List<SimulationResult> results = new Simulator()
+ *       .addPolicy(Policies.lru())
+ *       .addPolicy(Policies.optimal())
+ *       .addPolicy(Policies.cacheBuilder("tinylfu", "frequencyAdmission"))
+ *       .simulate(trace, 1000, 10000, 100000);
+ *   System.out.print(Simulator.format(results));}</pre>
+ *
+ * <p>The simulator can also be run from the command line; see {@link #main}.
+ */
+@Beta
+public final class Simulator {
+  private final List<Policy.Factory> factories = Lists.newArrayList();
+
+  /** Adds a policy to simulate. Policies are reported in the order they were added. */
+  public Simulator addPolicy(Policy.Factory factory) {
+    factories.add(checkNotNull(factory));
+    return this;
+  }
+
+  /**
+   * Replays {@code trace} through a new instance of each policy for each of {@code maximumSizes},
+   * and returns the results ordered by size and then by policy.
+   */
+  public List<SimulationResult> simulate(long[] trace, int... maximumSizes) {
+    checkArgument(!factories.isEmpty(), "no policies to simulate");
+    ImmutableList.Builder<SimulationResult> results = ImmutableList.builder();
+    for (int maximumSize : maximumSizes) {
+      for (Policy.Factory factory : factories) {
+        results.add(simulate(factory, trace, maximumSize));
+      }
+    }
+    return results.build();
+  }
+
+  /** Replays {@code trace} through a new policy created by {@code factory}. */
+  public static SimulationResult simulate(Policy.Factory factory, long[] trace, int maximumSize) {
+    Policy policy = factory.create(maximumSize, trace);
+    long hits = 0;
+    long start = System.nanoTime();
+    for (long key : trace) {
+      if (policy.record(key)) {
+        hits++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    return new SimulationResult(factory.name(), maximumSize, trace.length, hits,
+        policy.evictionCount(), elapsed);
+  }
+
+  /** Formats {@code results} as a table, one result per line. */
+  public static String format(List<SimulationResult> results) {
+    StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+        "%-16s %12s %12s %9s %12s %14s%n",
+        "policy", "maximumSize", "requests", "hitRate", "evictions", "requests/s"));
+    for (SimulationResult result : results) {
+      table.append(String.format(Locale.ROOT, "%-16s %12d %12d %8.2f%% %12d %14.0f%n",
+          result.policyName(), result.maximumSize(), result.requestCount(),
+          result.hitRate() * 100, result.evictionCount(), result.throughput()));
+    }
+    return table.toString();
+  }
+
+  /**
+   * Runs a simulation from the command line:
+   *
+   * <pre>   {@code
+   *
+   *   Simulator <trace> <size>[,<size>...] [<name>=<spec> ...]}</pre>
+   *
+   * <p>The trace is either a file, read with {@link Traces#readBinary} if its name ends with
+   * {@code .bin} and with {@link Traces#readText} otherwise, or one of the synthetic generators:
+   * {@code zipf:<length>:<items>:<exponent>}, {@code loop:<length>:<items>} or
+   * {@code scan:<length>:<items>:<exponent>:<interval>:<scanLength>}.
+   *
+   * <p>The LRU, FIFO and optimal policies are always simulated, as well as a cache with the
+   * default settings of {@code CacheBuilder}. Each additional argument adds a cache built from a
+   * {@linkplain net.tribe7.common.cache.CacheBuilderSpec spec}, such as
+   * {@code tinylfu=frequencyAdmission}.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: Simulator <trace> <size>[,<size>...] [<name>=<spec> ...]");
+      System.exit(1);
+    }
+    long[] trace = readTrace(args[0]);
+    String[] sizeArgs = args[1].split(",");
+    int[] maximumSizes = new int[sizeArgs.length];
+    for (int i = 0; i < sizeArgs.length; i++) {
+      maximumSizes[i] = Integer.parseInt(sizeArgs[i].trim());
+    }
+
+    Simulator simulator = new Simulator()
+        .addPolicy(Policies.lru())
+        .addPolicy(Policies.fifo())
+        .addPolicy(Policies.optimal())
+        .addPolicy(Policies.cacheBuilder("cache", ""));
+    for (int i = 2; i < args.length; i++) {
+      int separator = args[i].indexOf('=');
+      checkArgument(separator > 0, "expected <name>=<spec>: %s", args[i]);
+      simulator.addPolicy(
+          Policies.cacheBuilder(args[i].substring(0, separator), args[i].substring(separator + 1)));
+    }
+    System.out.print(format(simulator.simulate(trace, maximumSizes)));
+  }
+
+  private static long[] readTrace(String arg) throws IOException {
+    String[] parts = arg.split(":");
+    if (parts[0].equals("zipf") && parts.length == 4) {
+      return Traces.zipf(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+          Double.parseDouble(parts[3]), 0);
+    } else if (parts[0].equals("loop") && parts.length == 3) {
+      return Traces.loop(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    } else if (parts[0].equals("scan") && parts.length == 6) {
+      return Traces.scan(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+          Double.parseDouble(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5]), 0);
+    }
+    File file = new File(arg);
+    return arg.endsWith(".bin") ? Traces.readBinary(file) : Traces.readText(file);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.tribe7.common.annotations.Beta;
+
+/**
+ * Static methods which read key-access traces from files or generate synthetic ones. A trace is
+ * an array of the requested keys, in the order of the requests.
+ */
+@Beta
+public final class Traces {
+  private Traces() {}
+
+  /**
+   * Reads a text trace, in which each non-blank line holds a request. The key is the first
+   * whitespace-separated token of the line; a token which is not a decimal {@code long} is hashed
+   * to one, so keys may be arbitrary identifiers. Lines starting with {@code #} are ignored.
+   *
+   * @throws IOException if the file cannot be read
+   */
+  public static long[] readText(File file) throws IOException {
+    LongArrayBuilder keys = new LongArrayBuilder();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] tokens = line.split("\\s+", 2);
+        keys.add(parseKey(tokens[0]));
+      }
+    } finally {
+      reader.close();
+    }
+    return keys.build();
+  }
+
+  private static long parseKey(String token) {
+    try {
+      return Long.parseLong(token);
+    } catch (NumberFormatException e) {
+      // 64-bit FNV-1a
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < token.length(); i++) {
+        hash ^= token.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+      return hash;
+    }
+  }
+
+  /**
+   * Reads a binary trace, which is a sequence of big-endian 8-byte keys.
+   *
+   * @throws IOException if the file cannot be read, or its length is not a multiple of 8
+   */
+  public static long[] readBinary(File file) throws IOException {
+    checkArgument(file.length() % 8 == 0, "truncated binary trace: %s", file);
+    long[] keys = new long[(int) (file.length() / 8)];
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = in.readLong();
+      }
+    } catch (EOFException e) {
+      throw new IOException("binary trace changed while it was read: " + file, e);
+    } finally {
+      in.close();
+    }
+    return keys;
+  }
+
+  /**
+   * Returns {@code length} requests for keys {@code 0} to {@code items - 1} following a Zipf
+   * distribution, in which the probability of requesting the key of rank {@code k} is
+   * proportional to <code>1 / (k + 1)<sup>exponent</sup></code>. Typical web and database
+   * workloads have exponents between {@code 0.6} and {@code 1.0}.
+   */
+  public static long[] zipf(int length, int items, double exponent, long seed) {
+    checkArgument(length >= 0 && items > 0 && exponent >= 0);
+    double[] cumulative = new double[items];
+    double sum = 0;
+    for (int k = 0; k < items; k++) {
+      sum += 1 / Math.pow(k + 1, exponent);
+      cumulative[k] = sum;
+    }
+    Random random = new Random(seed);
+    long[] keys = new long[length];
+    for (int i = 0; i < length; i++) {
+      int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+      keys[i] = (index >= 0) ? index : Math.min(-index - 1, items - 1);
+    }
+    return keys;
+  }
+
+  /**
+   * Returns {@code length} requests cycling through keys {@code 0} to {@code items - 1}. A loop
+   * larger than the cache defeats LRU and FIFO, which evict each key just before it is requested
+   * again.
+   */
+  public static long[] loop(int length, int items) {
+    checkArgument(length >= 0 && items > 0);
+    long[] keys = new long[length];
+    for (int i = 0; i < length; i++) {
+      keys[i] = i % items;
+    }
+    return keys;
+  }
+
+  /**
+   * Returns {@code length} requests following a {@linkplain #zipf Zipf} distribution over
+   * {@code items} keys, interrupted every {@code scanInterval} requests by a scan of
+   * {@code scanLength} keys which are never requested again. Scans model batch jobs and full
+   * table reads, which flush recency-based caches of their hot keys.
+   */
+  public static long[] scan(int length, int items, double exponent, int scanInterval,
+      int scanLength, long seed) {
+    checkArgument(scanInterval > 0 && scanLength >= 0);
+    long[] keys = zipf(length, items, exponent, seed);
+    long nextScanKey = items;
+    for (int start = scanInterval; start < length; start += scanInterval + scanLength) {
+      for (int i = start; i < Math.min(start + scanLength, length); i++) {
+        keys[i] = nextScanKey++;
+      }
+    }
+    return keys;
+  }
+
+  /** A growable array of longs, which avoids boxing traces of millions of keys. */
+  private static final class LongArrayBuilder {
+    long[] keys = new long[1024];
+    int size;
+
+    void add(long key) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+      }
+      keys[size++] = key;
+    }
+
+    long[] build() {
+      return Arrays.copyOf(keys, size);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache.simulator;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the hit rate of caches built with {@code frequencyAdmission} to that of LRU caches, on
+ * traces whose expected outcome is known.
+ */
+public class FrequencyAdmissionHitRateTest extends TestCase {
+  private static final int ITEMS = 100000;
+  private static final int LENGTH = 500000;
+
+  public void testScanResistance() {
+    // a Zipf workload interrupted by scans of one-off keys, as run by batch jobs
+    long[] trace = Traces.scan(LENGTH, ITEMS, 0.9, 20000, 5000, 1);
+    for (int maximumSize : new int[] {1000, 5000}) {
+      double lru = hitRate(Policies.cacheBuilder("lru", ""), trace, maximumSize);
+      double tinyLfu = hitRate(Policies.cacheBuilder("tinylfu", "frequencyAdmission"), trace,
+          maximumSize);
+      assertTrue("lru: " + lru + ", tinylfu: " + tinyLfu, tinyLfu > lru + 0.05);
+    }
+  }
+
+  public void testZipf() {
+    long[] trace = Traces.zipf(LENGTH, ITEMS, 0.9, 1);
+    for (int maximumSize : new int[] {1000, 5000}) {
+      double lru = hitRate(Policies.cacheBuilder("lru", ""), trace, maximumSize);
+      double tinyLfu = hitRate(Policies.cacheBuilder("tinylfu", "frequencyAdmission"), trace,
+          maximumSize);
+      assertTrue("lru: " + lru + ", tinylfu: " + tinyLfu, tinyLfu > lru);
+    }
+  }
+
+  public void testLoop() {
+    // LRU evicts every key just before it is requested again
+    long[] trace = Traces.loop(LENGTH, 2000);
+    double lru = hitRate(Policies.cacheBuilder("lru", ""), trace, 1000);
+    double tinyLfu = hitRate(Policies.cacheBuilder("tinylfu", "frequencyAdmission"), trace, 1000);
+    assertEquals(0.0, lru, 0.01);
+    assertTrue("tinylfu: " + tinyLfu, tinyLfu > 0.25);
+  }
+
+  private static double hitRate(Policy.Factory factory, long[] trace, int maximumSize) {
+    return Simulator.simulate(factory, trace, maximumSize).hitRate();
+  }
+}
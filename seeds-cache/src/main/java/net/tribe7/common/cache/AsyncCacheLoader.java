@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.cache.CacheLoader.UnsupportedLoadingOperationException;
+import net.tribe7.common.util.concurrent.Futures;
+import net.tribe7.common.util.concurrent.ListenableFuture;
+import net.tribe7.common.util.concurrent.ListenableFutureTask;
+import net.tribe7.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Asynchronously computes or retrieves values, based on a key, for use in populating an
+ * {@link AsyncLoadingCache}.
+ *
+ * <p>Most implementations will only need to implement {@link #load}. Other methods may be
+ * overridden as desired.
+ *
+ * <p>Usage example: <pre>   {@code
+ *
+ *   AsyncCacheLoader<Key, Graph> loader = new AsyncCacheLoader<Key, Graph>() {
+ *     public ListenableFuture<Graph> load(Key key) {
+ *       return graphService.fetchGraph(key);
+ *     }
+ *   };
+ *   AsyncLoadingCache<Key, Graph> cache = CacheBuilder.newBuilder().buildAsync(loader);}</pre>
+ */
+@Beta
+@GwtIncompatible("Futures")
+public abstract class AsyncCacheLoader<K, V> {
+  /**
+   * Constructor for use by subclasses.
+   */
+  protected AsyncCacheLoader() {}
+
+  /**
+   * Starts computing or retrieving the value corresponding to {@code key}. This method should not
+   * block; any blocking work should be performed on another thread.
+   *
+   * @param key the non-null key whose value should be loaded
+   * @return a future for the value associated with {@code key}; <b>must not be null, must not
+   *     return null</b>
+   * @throws Exception if unable to start loading the result
+   */
+  public abstract ListenableFuture<V> load(K key) throws Exception;
+
+  /**
+   * Starts computing or retrieving a replacement value corresponding to an already-cached
+   * {@code key}. This method is called when an existing cache entry is refreshed by
+   * {@link CacheBuilder#refreshAfterWrite}, or through a call to {@link LoadingCache#refresh}.
+   *
+   * <p>This implementation delegates to {@link #load}.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown by this method will be logged and then swallowed</i>.
+   *
+   * @param key the non-null key whose value should be loaded
+   * @param oldValue the non-null old value corresponding to {@code key}
+   * @return a future for the new value associated with {@code key};
+   *     <b>must not be null, must not return null</b>
+   * @throws Exception if unable to start reloading the result
+   */
+  public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+    checkNotNull(key);
+    checkNotNull(oldValue);
+    return load(key);
+  }
+
+  /**
+   * Starts computing or retrieving the values corresponding to {@code keys}. This method is called
+   * by {@link AsyncLoadingCache#getAll} and {@link LoadingCache#getAll}, with the same contract as
+   * {@link CacheLoader#loadAll}.
+   *
+   * <p>This method should be overriden when bulk retrieval is significantly more efficient than
+   * many individual lookups. If it is not overriden, {@code getAll} will defer to individual
+   * calls to {@link #load}.
+   *
+   * @param keys the unique, non-null keys whose values should be loaded
+   * @return a future for a map from each key in {@code keys} to the value associated with that
+   *     key; <b>may not contain null values</b>
+   * @throws Exception if unable to start loading the result
+   */
+  public ListenableFuture<Map<K, V>> loadAll(Iterable<? extends K> keys) throws Exception {
+    // This will be caught by getAll(), causing it to fall back to multiple calls to load
+    throw new UnsupportedLoadingOperationException();
+  }
+
+  /**
+   * Returns an asynchronous cache loader which runs each call to {@code loader} on
+   * {@code executor}. This is convenient for loaders which block, as the blocking then happens on
+   * the executor's threads rather than on the threads requesting values from the cache.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @param executor the executor on which {@code loader} is run
+   */
+  public static <K, V> AsyncCacheLoader<K, V> from(
+      final CacheLoader<K, V> loader, final Executor executor) {
+    checkNotNull(loader);
+    checkNotNull(executor);
+    return new AsyncCacheLoader<K, V>() {
+      @Override
+      public ListenableFuture<V> load(final K key) {
+        return execute(new Callable<V>() {
+          @Override
+          public V call() throws Exception {
+            return loader.load(key);
+          }
+        });
+      }
+
+      @Override
+      public ListenableFuture<V> reload(final K key, final V oldValue) {
+        return Futures.dereference(execute(new Callable<ListenableFuture<V>>() {
+          @Override
+          public ListenableFuture<V> call() throws Exception {
+            return loader.reload(key, oldValue);
+          }
+        }));
+      }
+
+      @Override
+      public ListenableFuture<Map<K, V>> loadAll(final Iterable<? extends K> keys) {
+        return execute(new Callable<Map<K, V>>() {
+          @Override
+          public Map<K, V> call() throws Exception {
+            return loader.loadAll(keys);
+          }
+        });
+      }
+
+      private <T> ListenableFuture<T> execute(Callable<T> callable) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+        executor.execute(task);
+        return task;
+      }
+    };
+  }
+
+  /**
+   * Returns a cache loader which waits for the futures returned by {@code loader}, for use by the
+   * synchronous view of an {@link AsyncLoadingCache}. Reloads, including bulk reloads by
+   * {@code loadAll}, are not waited for, so refreshes remain asynchronous.
+   */
+  static <K, V> CacheLoader<K, V> synchronous(final AsyncCacheLoader<K, V> loader) {
+    checkNotNull(loader);
+    return new CacheLoader<K, V>() {
+      @Override
+      public V load(K key) throws Exception {
+        return getDone(loader.load(key));
+      }
+
+      @Override
+      public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+        return loader.reload(key, oldValue);
+      }
+
+      @Override
+      public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+        return getDone(loader.loadAll(keys));
+      }
+
+      @Override
+      public ListenableFuture<Map<K, V>> reloadAll(Map<K, V> oldValues) throws Exception {
+        return loader.loadAll(oldValues.keySet());
+      }
+    };
+  }
+
+  /**
+   * Waits uninterruptibly for {@code future}, rethrowing the cause of its failure as if it had
+   * been thrown by a synchronous loader.
+   */
+  static <T> T getDone(ListenableFuture<T> future) throws Exception {
+    if (future == null) {
+      return null;
+    }
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+}
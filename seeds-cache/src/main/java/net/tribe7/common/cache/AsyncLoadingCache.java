@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.collect.ImmutableMap;
+import net.tribe7.common.util.concurrent.ListenableFuture;
+
+/**
+ * A semi-persistent mapping from keys to values, whose values are loaded asynchronously by an
+ * {@link AsyncCacheLoader}. Lookups return a {@link ListenableFuture} instead of blocking the
+ * calling thread while a value is loaded.
+ *
+ * <p>While a value is loading, its future is stored in the cache in place of the value, so that
+ * all callers requesting the same key share a single load. Once loading completes successfully
+ * the value is stored in the cache, and is subject to the same eviction, expiration, weighing and
+ * statistics as the values of a {@link LoadingCache}. If loading fails, the entry is removed and
+ * the failure is reported through the returned future.
+ *
+ * <p>Cancelling a future returned by this cache does not cancel the underlying load, which may
+ * be shared with other callers.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe, and can be safely accessed
+ * by multiple concurrent threads.
+ *
+ * @param <K> the type of the cache's keys, which are not permitted to be null
+ * @param <V> the type of the cache's values, which are not permitted to be null
+ */
+@Beta
+@GwtIncompatible("Futures")
+public interface AsyncLoadingCache<K, V> {
+
+  /**
+   * Returns a future for the value associated with {@code key} in this cache, or {@code null} if
+   * there is no cached value and no load in progress for {@code key}. The future has already
+   * completed if a value is cached.
+   */
+  @Nullable
+  ListenableFuture<V> getIfPresent(Object key);
+
+  /**
+   * Returns a future for the value associated with {@code key} in this cache, first starting to
+   * load that value if necessary. This method never blocks on a load.
+   *
+   * <p>If another call is currently loading the value for {@code key}, returns a future for the
+   * result of that load. Note that values for distinct keys may be loaded concurrently.
+   *
+   * <p>If {@link AsyncCacheLoader#load} throws an exception or returns a failed future, the
+   * returned future fails with that exception, wrapped in an {@link ExecutionException} by
+   * {@link ListenableFuture#get}. If it returns {@code null} or a future of {@code null}, the
+   * returned future fails with an {@link CacheLoader.InvalidCacheLoadException}.
+   */
+  ListenableFuture<V> get(K key);
+
+  /**
+   * Returns a future for a map of the values associated with {@code keys}, starting to load those
+   * values which are not already cached. The returned map contains an entry for each of the
+   * distinct keys in {@code keys}, in the order they were first encountered.
+   *
+   * <p>The missing values are loaded with a single call to {@link AsyncCacheLoader#loadAll} if the
+   * loader implements it, and with individual calls to {@link #get} otherwise. As with
+   * {@link LoadingCache#getAll}, bulk loads do not take into account loads already in progress
+   * for the same keys.
+   */
+  ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys);
+
+  /**
+   * Returns a view of this cache as a {@link LoadingCache}, whose methods block until loading has
+   * completed. Both views share the same entries, loads and statistics.
+   */
+  LoadingCache<K, V> synchronous();
+}
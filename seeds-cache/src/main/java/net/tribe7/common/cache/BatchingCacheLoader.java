@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import net.tribe7.common.base.Stopwatch;
+import net.tribe7.common.cache.CacheLoader.InvalidCacheLoadException;
+import net.tribe7.common.cache.CacheLoader.UnsupportedLoadingOperationException;
+import net.tribe7.common.collect.Lists;
+import net.tribe7.common.util.concurrent.ListenableFuture;
+import net.tribe7.common.util.concurrent.SettableFuture;
+import net.tribe7.common.util.concurrent.Uninterruptibles;
+
+/**
+ * A cache loader which coalesces concurrent calls to {@link #load} into calls to the
+ * {@link CacheLoader#loadAll} method of another loader. Used by {@link LocalCache} when
+ * {@link CacheBuilder#batchLoads} is specified.
+ *
+ * <p>The first thread to request a load opens a batch and becomes its leader. Loads requested by
+ * other threads are added to the open batch until it holds the maximum number of keys or the
+ * maximum delay has elapsed, at which point the leader closes the batch and loads all of its keys
+ * on its own thread. Every thread waits for the outcome of its own key. If the delegate doesn't
+ * implement {@code loadAll}, the leader loads each key of the batch individually.
+ *
+ * <p>Reloads and explicit calls to {@link #loadAll} and {@link #reloadAll} are passed directly to
+ * the delegate.
+ */
+final class BatchingCacheLoader<K, V> extends CacheLoader<K, V> {
+  final CacheLoader<? super K, V> delegate;
+  final int maximumBatchSize;
+  final long maximumDelayNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Signalled when the open batch is closed because it is full. */
+  private final Condition batchClosed = lock.newCondition();
+
+  @GuardedBy("lock")
+  @Nullable
+  private Batch<K, V> openBatch;
+
+  @Nullable private final LongAddable batchCount;
+  @Nullable private final LongAddable batchedLoadCount;
+  @Nullable private final LongAddable totalBatchLoadTime;
+
+  BatchingCacheLoader(CacheLoader<? super K, V> delegate, int maximumBatchSize,
+      long maximumDelayNanos, boolean recordStats) {
+    checkArgument(maximumBatchSize > 0);
+    checkArgument(maximumDelayNanos >= 0);
+    this.delegate = checkNotNull(delegate);
+    this.maximumBatchSize = maximumBatchSize;
+    this.maximumDelayNanos = maximumDelayNanos;
+    this.batchCount = recordStats ? LongAddables.create() : null;
+    this.batchedLoadCount = recordStats ? LongAddables.create() : null;
+    this.totalBatchLoadTime = recordStats ? LongAddables.create() : null;
+  }
+
+  /** The keys of a batch, and the futures through which their values are returned. */
+  private static final class Batch<K, V> {
+    final List<K> keys = Lists.newArrayList();
+    final List<SettableFuture<V>> results = Lists.newArrayList();
+  }
+
+  @Override
+  public V load(K key) throws Exception {
+    checkNotNull(key);
+    SettableFuture<V> result = SettableFuture.create();
+    Batch<K, V> leading = null;
+
+    lock.lock();
+    try {
+      Batch<K, V> batch = openBatch;
+      if (batch == null) {
+        batch = openBatch = new Batch<K, V>();
+        leading = batch;
+      }
+      batch.keys.add(key);
+      batch.results.add(result);
+      if (batch.keys.size() >= maximumBatchSize) {
+        openBatch = null;
+        batchClosed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (leading != null) {
+      awaitClose(leading);
+      dispatch(leading);
+    }
+    return getDone(result);
+  }
+
+  /**
+   * Waits until {@code batch} is full or the maximum delay has elapsed, and then makes sure it is
+   * no longer open.
+   */
+  private void awaitClose(Batch<K, V> batch) {
+    boolean interrupted = false;
+    lock.lock();
+    try {
+      long deadline = System.nanoTime() + maximumDelayNanos;
+      long remainingNanos = maximumDelayNanos;
+      while (openBatch == batch && remainingNanos > 0) {
+        try {
+          batchClosed.awaitNanos(remainingNanos);
+        } catch (InterruptedException e) {
+          // the other threads of the batch are waiting for us; finish the load first
+          interrupted = true;
+        }
+        remainingNanos = deadline - System.nanoTime();
+      }
+      if (openBatch == batch) {
+        openBatch = null;
+      }
+    } finally {
+      lock.unlock();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Loads the keys of a closed batch, completing the future of each of them. */
+  private void dispatch(Batch<K, V> batch) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    try {
+      @SuppressWarnings("unchecked") // safe since all keys extend K
+      Map<K, V> values =
+          (Map<K, V>) delegate.loadAll(Collections.unmodifiableList(batch.keys));
+      if (values == null) {
+        throw new InvalidCacheLoadException(delegate + " returned null map from loadAll");
+      }
+      for (int i = 0; i < batch.keys.size(); i++) {
+        K key = batch.keys.get(i);
+        V value = values.get(key);
+        if (value == null) {
+          batch.results.get(i).setException(
+              new InvalidCacheLoadException("loadAll failed to return a value for " + key));
+        } else {
+          batch.results.get(i).set(value);
+        }
+      }
+    } catch (UnsupportedLoadingOperationException e) {
+      // loadAll not implemented, fallback to load
+      for (int i = 0; i < batch.keys.size(); i++) {
+        try {
+          batch.results.get(i).set(delegate.load(batch.keys.get(i)));
+        } catch (Throwable t) {
+          interruptIfNecessary(t);
+          batch.results.get(i).setException(t);
+        }
+      }
+    } catch (Throwable t) {
+      interruptIfNecessary(t);
+      for (SettableFuture<V> result : batch.results) {
+        result.setException(t);
+      }
+    } finally {
+      if (batchCount != null) {
+        batchCount.increment();
+        batchedLoadCount.add(batch.keys.size());
+        totalBatchLoadTime.add(stopwatch.elapsed(NANOSECONDS));
+      }
+    }
+  }
+
+  private static void interruptIfNecessary(Throwable t) {
+    if (t instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits uninterruptibly for {@code result}, rethrowing the cause of its failure as if it had been
+   * thrown by the delegate.
+   */
+  private static <V> V getDone(SettableFuture<V> result) throws Exception {
+    try {
+      return Uninterruptibles.getUninterruptibly(result);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+    return delegate.reload(key, oldValue);
+  }
+
+  @SuppressWarnings("unchecked") // safe since all keys extend K
+  @Override
+  public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+    return (Map<K, V>) delegate.loadAll(keys);
+  }
+
+  @SuppressWarnings("unchecked") // safe since all keys extend K
+  @Override
+  public ListenableFuture<Map<K, V>> reloadAll(Map<K, V> oldValues) throws Exception {
+    return ((CacheLoader<K, V>) delegate).reloadAll(oldValues);
+  }
+
+  /** Returns the batching statistics recorded by this loader. */
+  CacheStats stats() {
+    if (batchCount == null) {
+      return new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+    return new CacheStats(0, 0, 0, 0, 0, 0,
+        batchCount.sum(), batchedLoadCount.sum(), totalBatchLoadTime.sum(), 0, 0, 0, 0, 0);
+  }
+}
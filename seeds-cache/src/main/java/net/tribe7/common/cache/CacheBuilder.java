@@ -21,15 +21,19 @@ import static net.tribe7.common.base.Preconditions.checkArgument;
 import static net.tribe7.common.base.Preconditions.checkNotNull;
 import static net.tribe7.common.base.Preconditions.checkState;
 
+import java.io.File;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 import net.tribe7.common.annotations.Beta;
 import net.tribe7.common.annotations.GwtCompatible;
@@ -51,6 +55,7 @@ import net.tribe7.common.cache.LocalCache.Strength;
  * <ul>
  * <li>automatic loading of entries into the cache
  * <li>least-recently-used eviction when a maximum size is exceeded
+ * <li>frequency-based admission, protecting popular entries from size-based eviction
  * <li>time-based expiration of entries, measured since last access or last write
  * <li>keys automatically wrapped in {@linkplain WeakReference weak} references
  * <li>values automatically wrapped in {@linkplain WeakReference weak} or
@@ -219,9 +224,14 @@ public final class CacheBuilder<K, V> {
 
   int initialCapacity = UNSET_INT;
   int concurrencyLevel = UNSET_INT;
+  boolean adaptiveConcurrencyLevel;
   long maximumSize = UNSET_INT;
   long maximumWeight = UNSET_INT;
   Weigher<? super K, ? super V> weigher;
+  boolean frequencyAdmission;
+  ValueCodec<? super V> offHeapCodec;
+  long offHeapMaximumBytes = UNSET_INT;
+  File offHeapDirectory;
 
   Strength keyStrength;
   Strength valueStrength;
@@ -229,14 +239,25 @@ public final class CacheBuilder<K, V> {
   long expireAfterWriteNanos = UNSET_INT;
   long expireAfterAccessNanos = UNSET_INT;
   long refreshNanos = UNSET_INT;
+  ScheduledExecutorService refreshScheduler;
+  Expiry<? super K, ? super V> expiry;
+  int maximumLoadBatchSize = UNSET_INT;
+  long loadBatchDelayNanos = UNSET_INT;
+  int maximumRefreshBatchSize = UNSET_INT;
+  long refreshBatchDelayNanos = UNSET_INT;
+  ScheduledExecutorService refreshBatchScheduler;
+  Executor getAllExecutor;
+  int maximumGetAllLoads = UNSET_INT;
 
   Equivalence<Object> keyEquivalence;
   Equivalence<Object> valueEquivalence;
 
   RemovalListener<? super K, ? super V> removalListener;
+  Executor maintenanceExecutor;
   Ticker ticker;
 
   Supplier<? extends StatsCounter> statsCounterSupplier = NULL_STATS_COUNTER;
+  boolean detailedStats;
 
   // TODO(fry): make constructor private and update tests to use newBuilder
   CacheBuilder() {}
@@ -383,6 +404,42 @@ public final class CacheBuilder<K, V> {
     return (concurrencyLevel == UNSET_INT) ? DEFAULT_CONCURRENCY_LEVEL : concurrencyLevel;
   }
 
+  /**
+   * Specifies that the cache should adapt its concurrency level to the contention it observes. The
+   * cache starts with the segments given by the {@linkplain #concurrencyLevel concurrency level},
+   * and samples how often acquiring the lock of each segment has to wait for another thread. When
+   * a segment is found to be contended, the number of segments is doubled while the cache remains
+   * in use, up to a few segments per processor. As with the initial segments, a cache with a
+   * {@linkplain #maximumSize maximum size} keeps enough room for at least 10 entries in each
+   * segment.
+   *
+   * <p>Doubling the segments briefly locks all of them and copies every entry, so it is always
+   * performed by the {@linkplain #maintenanceExecutor maintenance executor}, which must be
+   * specified; callers never wait for it beyond the lock of the segment they access. The observed
+   * contention is reported by {@link CacheMetrics#lockCount} and
+   * {@link CacheMetrics#contendedLockCount} when {@linkplain #recordDetailedStats detailed
+   * statistics} are recorded.
+   *
+   * <p>Adaptive concurrency is only supported by caches with strong keys and values, a
+   * maintenance executor, and without {@link #frequencyAdmission}, an
+   * {@linkplain #offHeapTier off-heap tier}, or {@link #expireAfter}; building a cache which
+   * combines them throws {@link IllegalStateException}.
+   *
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalStateException if adaptive concurrency was already requested
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> adaptiveConcurrencyLevel() {
+    checkState(!adaptiveConcurrencyLevel, "adaptive concurrency level was already requested");
+    adaptiveConcurrencyLevel = true;
+    return this;
+  }
+
+  boolean adaptsConcurrencyLevel() {
+    return adaptiveConcurrencyLevel;
+  }
+
   /**
    * Specifies the maximum number of entries the cache may contain. Note that the cache <b>may evict
    * an entry before this limit is exceeded</b>. As the cache size grows close to the maximum, the
@@ -501,6 +558,126 @@ public final class CacheBuilder<K, V> {
     return (Weigher<K1, V1>) Objects.firstNonNull(weigher, OneWeigher.INSTANCE);
   }
 
+  /**
+   * Specifies that size-based eviction should take into account how often entries are accessed,
+   * and not only how recently. Newly added entries are held in a small admission window; once they
+   * leave it they are only retained if they have been accessed more often than the entry which
+   * would otherwise be evicted in their place. Access frequencies are estimated using a compact
+   * probabilistic sketch whose counts are periodically halved, so that entries which were once
+   * popular do not remain in the cache indefinitely.
+   *
+   * <p>This protects the frequently used entries of a cache from being flushed by a scan over keys
+   * which are each accessed only once, such as a batch job iterating over a large data set. It
+   * requires a small amount of additional bookkeeping on each access.
+   *
+   * <p>Use of this method requires a corresponding call to {@link #maximumSize(long)} or
+   * {@link #maximumWeight(long)} prior to calling {@link #build}.
+   *
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalStateException if frequency admission was already requested
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> frequencyAdmission() {
+    checkState(!frequencyAdmission, "frequency admission was already requested");
+    frequencyAdmission = true;
+    return this;
+  }
+
+  boolean usesFrequencyAdmission() {
+    return frequencyAdmission;
+  }
+
+  /**
+   * Specifies that entries evicted because of the {@linkplain #maximumSize maximum size} or
+   * {@linkplain #maximumWeight maximum weight} should be kept in a second tier, outside of the Java
+   * heap, which holds up to {@code maximumBytes} bytes of values serialized by {@code codec}. The
+   * values are stored in large direct buffers, which the garbage collector does not need to trace.
+   * A lookup which misses on the heap looks for the key in the off-heap tier, and if it finds it
+   * moves the entry back onto the heap.
+   *
+   * <p>When the tier is full, it evicts entries in roughly the order they were added to it, in
+   * chunks of at least an eighth of its capacity. The removal listener is only notified when an
+   * entry is evicted from the tier, since entries moved off the heap remain in the cache; the
+   * evicted values are decoded for this purpose if a removal listener was specified. Values are
+   * serialized after the eviction, once the lock of the evicting segment has been released; a value
+   * which encodes to more bytes than such a chunk is stored in a buffer of its own, and one which
+   * encodes to more bytes than the tier's share for a segment is evicted without being stored.
+   * Statistics about the tier, including such evictions, are reported separately, by
+   * {@link CacheStats#offHeapHitCount} and the related methods.
+   *
+   * <p>Entries in the off-heap tier are found by {@code get}, {@code getIfPresent},
+   * {@code getAll}, {@code getAllPresent} and {@code invalidate}, and are replaced by writes to
+   * their key. They are not counted by
+   * {@link Cache#size}, and are not visible to other operations on the {@link Cache#asMap} view.
+   * Expiration is preserved across the tiers.
+   *
+   * <p>Use of this method requires a corresponding call to {@link #maximumSize(long)} or
+   * {@link #maximumWeight(long)} prior to calling {@link #build}, and is incompatible with
+   * {@link #weakKeys}.
+   *
+   * <p><b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache
+   * builder reference; instead use the reference this method <i>returns</i>. At runtime, these
+   * point to the same instance, but only the returned reference has the correct generic type
+   * information so as to ensure type safety.
+   *
+   * @param codec the codec used to serialize the values of the off-heap tier
+   * @param maximumBytes the maximum total size of the serialized values
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumBytes} is not positive
+   * @throws IllegalStateException if an off-heap tier was already specified
+   */
+  @Beta
+  @GwtIncompatible("java.nio.ByteBuffer")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> offHeapTier(
+      ValueCodec<V1> codec, long maximumBytes) {
+    checkState(offHeapCodec == null, "off-heap tier was already specified");
+    checkArgument(maximumBytes > 0, "maximum bytes must be positive: %s", maximumBytes);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.offHeapCodec = checkNotNull(codec);
+    me.offHeapMaximumBytes = maximumBytes;
+    return me;
+  }
+
+  /**
+   * Specifies an off-heap tier as described by {@link #offHeapTier(ValueCodec, long)}, whose
+   * values are stored in memory-mapped files created in {@code directory} rather than in direct
+   * buffers. The files are deleted as soon as they are mapped, so their space is reclaimed by the
+   * operating system once the cache is garbage collected.
+   *
+   * @param codec the codec used to serialize the values of the off-heap tier
+   * @param maximumBytes the maximum total size of the serialized values
+   * @param directory the directory in which the memory-mapped files are created
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumBytes} is not positive
+   * @throws IllegalStateException if an off-heap tier was already specified
+   */
+  @Beta
+  @GwtIncompatible("java.nio.MappedByteBuffer")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> offHeapTier(
+      ValueCodec<V1> codec, long maximumBytes, File directory) {
+    CacheBuilder<K1, V1> me = offHeapTier(codec, maximumBytes);
+    me.offHeapDirectory = checkNotNull(directory);
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  <V1 extends V> ValueCodec<V1> getOffHeapCodec() {
+    return (ValueCodec<V1>) offHeapCodec;
+  }
+
+  long getOffHeapMaximumBytes() {
+    return offHeapMaximumBytes;
+  }
+
+  File getOffHeapDirectory() {
+    return offHeapDirectory;
+  }
+
   /**
    * Specifies that each key (not value) stored in the cache should be wrapped in a {@link
    * WeakReference} (by default, strong references are used).
@@ -606,6 +783,7 @@ public final class CacheBuilder<K, V> {
   public CacheBuilder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
     checkState(expireAfterWriteNanos == UNSET_INT, "expireAfterWrite was already set to %s ns",
         expireAfterWriteNanos);
+    checkState(expiry == null, "expireAfterWrite may not be used with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterWriteNanos = unit.toNanos(duration);
     return this;
@@ -640,6 +818,7 @@ public final class CacheBuilder<K, V> {
   public CacheBuilder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
     checkState(expireAfterAccessNanos == UNSET_INT, "expireAfterAccess was already set to %s ns",
         expireAfterAccessNanos);
+    checkState(expiry == null, "expireAfterAccess may not be used with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterAccessNanos = unit.toNanos(duration);
     return this;
@@ -650,6 +829,51 @@ public final class CacheBuilder<K, V> {
         ? DEFAULT_EXPIRATION_NANOS : expireAfterAccessNanos;
   }
 
+  /**
+   * Specifies that each entry should be automatically removed from the cache once a duration
+   * computed by {@code expiry} has elapsed. The expiry is consulted when an entry is created, when
+   * its value is replaced and when it is read, and may give each entry its own lifetime; for
+   * example, one derived from the value's own time to live.
+   *
+   * <p>Expired entries may be counted in {@link Cache#size}, but will never be visible to read or
+   * write operations. Expired entries are cleaned up as part of the routine maintenance described
+   * in the class javadoc, using a timer wheel which makes this cleanup take constant time per entry
+   * regardless of how the lifetimes of the entries vary. As a result, the cleanup of an expired
+   * entry may be delayed by about a second.
+   *
+   * <p><b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache
+   * builder reference; instead use the reference this method <i>returns</i>. At runtime, these
+   * point to the same instance, but only the returned reference has the correct generic type
+   * information so as to ensure type safety.
+   *
+   * @param expiry the expiry used to compute the lifetime of each entry
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalStateException if an expiry, time to live, time to idle or refresh interval was
+   *     already set
+   */
+  @Beta
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(
+      Expiry<? super K1, ? super V1> expiry) {
+    checkState(this.expiry == null, "expiry was already set to %s", this.expiry);
+    checkState(expireAfterWriteNanos == UNSET_INT,
+        "expireAfter may not be used with expireAfterWrite");
+    checkState(expireAfterAccessNanos == UNSET_INT,
+        "expireAfter may not be used with expireAfterAccess");
+    checkState(refreshNanos == UNSET_INT, "expireAfter may not be used with refreshAfterWrite");
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.expiry = checkNotNull(expiry);
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  <K1 extends K, V1 extends V> Expiry<K1, V1> getExpiry() {
+    return (Expiry<K1, V1>) expiry;
+  }
+
   /**
    * Specifies that active entries are eligible for automatic refresh once a fixed duration has
    * elapsed after the entry's creation, or the most recent replacement of its value. The semantics
@@ -680,6 +904,7 @@ public final class CacheBuilder<K, V> {
   public CacheBuilder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
     checkNotNull(unit);
     checkState(refreshNanos == UNSET_INT, "refresh was already set to %s ns", refreshNanos);
+    checkState(expiry == null, "refreshAfterWrite may not be used with expireAfter");
     checkArgument(duration > 0, "duration must be positive: %s %s", duration, unit);
     this.refreshNanos = unit.toNanos(duration);
     return this;
@@ -689,12 +914,202 @@ public final class CacheBuilder<K, V> {
     return (refreshNanos == UNSET_INT) ? DEFAULT_REFRESH_NANOS : refreshNanos;
   }
 
+  /**
+   * Specifies that the refreshes enabled by {@link #refreshAfterWrite} should be performed by a
+   * task running on {@code scheduler}, instead of when a stale entry is read. The task
+   * periodically looks for entries which have become eligible for refresh, and reloads them with a
+   * single call to {@link CacheLoader#reloadAll} per segment, falling back to individual calls to
+   * {@link CacheLoader#reload} if neither {@code reloadAll} nor {@code loadAll} is implemented.
+   * Reads therefore never wait for a refresh, and return the old value until the new one has been
+   * loaded.
+   *
+   * <p>Entries which have not been read since they were last loaded or refreshed are skipped, so
+   * that idle entries do not cause additional loads; they are refreshed again once they are read.
+   * Eligible entries are found within a quarter of the refresh interval.
+   *
+   * <p>The scheduled task does not prevent the cache from being garbage collected, and is
+   * cancelled once it has been. The scheduler is not shut down by the cache.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown during refresh will be logged and then swallowed</i>.
+   *
+   * @param scheduler the executor on which refreshes are scheduled and performed
+   * @throws IllegalStateException if a refresh scheduler was already set
+   */
+  @Beta
+  @GwtIncompatible("ScheduledExecutorService")
+  public CacheBuilder<K, V> refreshScheduler(ScheduledExecutorService scheduler) {
+    checkState(refreshScheduler == null, "refresh scheduler was already set to %s",
+        refreshScheduler);
+    this.refreshScheduler = checkNotNull(scheduler);
+    return this;
+  }
+
+  @Nullable
+  ScheduledExecutorService getRefreshScheduler() {
+    return refreshScheduler;
+  }
+
+  /**
+   * Specifies that loads of missing values which are requested concurrently should be combined
+   * into a single call to {@link CacheLoader#loadAll}. The first thread to miss opens a batch,
+   * which collects the keys missed by other threads until it holds {@code maximumBatchSize} keys
+   * or {@code maximumDelay} has elapsed. That thread then loads the whole batch, and every thread
+   * waiting on a key of the batch receives its value (or the failure of the batch).
+   *
+   * <p>This reduces the number of round trips to a backend which supports bulk retrieval, at the
+   * cost of adding up to {@code maximumDelay} to the latency of each load. If the
+   * {@code CacheLoader} does not implement {@code loadAll}, the keys of a batch are loaded
+   * individually by the thread that opened it.
+   *
+   * <p>Only loads of missing values by {@link LoadingCache#get} and
+   * {@link LoadingCache#getUnchecked} are batched; refreshes, {@link LoadingCache#getAll} and
+   * {@link Cache#get(Object, java.util.concurrent.Callable)} are unaffected. When
+   * {@linkplain #recordStats statistics are recorded}, the number and size of batches are
+   * reported by {@link CacheStats#loadBatchCount} and related methods.
+   *
+   * @param maximumBatchSize the maximum number of keys loaded together
+   * @param maximumDelay the maximum time to wait for a batch to fill up before loading it
+   * @param unit the unit that {@code maximumDelay} is expressed in
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumBatchSize} is not positive or
+   *     {@code maximumDelay} is negative
+   * @throws IllegalStateException if load batching was already specified
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> batchLoads(int maximumBatchSize, long maximumDelay, TimeUnit unit) {
+    checkNotNull(unit);
+    checkState(maximumLoadBatchSize == UNSET_INT,
+        "load batching was already set to a maximum of %s keys", maximumLoadBatchSize);
+    checkArgument(maximumBatchSize > 0, "maximum batch size must be positive");
+    checkArgument(maximumDelay >= 0, "maximum delay must not be negative: %s %s",
+        maximumDelay, unit);
+    this.maximumLoadBatchSize = maximumBatchSize;
+    this.loadBatchDelayNanos = unit.toNanos(maximumDelay);
+    return this;
+  }
+
+  boolean batchesLoads() {
+    return maximumLoadBatchSize != UNSET_INT;
+  }
+
+  int getMaximumLoadBatchSize() {
+    return maximumLoadBatchSize;
+  }
+
+  long getLoadBatchDelayNanos() {
+    return loadBatchDelayNanos;
+  }
+
+  /**
+   * Specifies that refreshes which become due around the same time should be combined into a
+   * single call to {@link CacheLoader#reloadAll}, run on {@code scheduler}. This applies to the
+   * refreshes triggered by reads of stale entries with {@link #refreshAfterWrite}, and to calls to
+   * {@link LoadingCache#refresh}. The first refresh opens a batch, which collects the refreshes
+   * requested after it until it holds {@code maximumBatchSize} keys or {@code maximumDelay} has
+   * elapsed; a task on {@code scheduler} then reloads the whole batch. Batches are closed by tasks
+   * scheduled on {@code scheduler} rather than by threads waiting for them to fill up. Each new
+   * value replaces the old one as soon as the batch completes, unless the entry was written in the
+   * meantime.
+   *
+   * <p>This avoids a storm of single-key reloads when many entries written together become stale
+   * together. Reads never wait for a batched refresh, and return the old value until the new one
+   * has been stored. If the {@code CacheLoader} implements neither {@code reloadAll} nor
+   * {@code loadAll}, the keys of a batch are reloaded individually with
+   * {@link CacheLoader#reload}.
+   *
+   * <p>Refreshes of values loaded by a {@code Callable} passed to
+   * {@link Cache#get(Object, java.util.concurrent.Callable)} are not batched.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown during refresh will be logged and then swallowed</i>.
+   *
+   * @param maximumBatchSize the maximum number of keys reloaded together
+   * @param maximumDelay the maximum time to wait for a batch to fill up before reloading it
+   * @param unit the unit that {@code maximumDelay} is expressed in
+   * @param scheduler the executor which closes batches after {@code maximumDelay} and reloads
+   *     them
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumBatchSize} is not positive or
+   *     {@code maximumDelay} is negative
+   * @throws IllegalStateException if refresh batching was already specified
+   */
+  @Beta
+  @GwtIncompatible("ScheduledExecutorService")
+  public CacheBuilder<K, V> batchRefreshes(int maximumBatchSize, long maximumDelay,
+      TimeUnit unit, ScheduledExecutorService scheduler) {
+    checkNotNull(unit);
+    checkState(refreshBatchScheduler == null,
+        "refresh batching was already set to a maximum of %s keys", maximumRefreshBatchSize);
+    checkArgument(maximumBatchSize > 0, "maximum batch size must be positive");
+    checkArgument(maximumDelay >= 0, "maximum delay must not be negative: %s %s",
+        maximumDelay, unit);
+    this.refreshBatchScheduler = checkNotNull(scheduler);
+    this.maximumRefreshBatchSize = maximumBatchSize;
+    this.refreshBatchDelayNanos = unit.toNanos(maximumDelay);
+    return this;
+  }
+
+  @Nullable
+  ScheduledExecutorService getRefreshBatchScheduler() {
+    return refreshBatchScheduler;
+  }
+
+  int getMaximumRefreshBatchSize() {
+    return maximumRefreshBatchSize;
+  }
+
+  long getRefreshBatchDelayNanos() {
+    return refreshBatchDelayNanos;
+  }
+
+  /**
+   * Specifies that when {@link LoadingCache#getAll} falls back to loading missing values
+   * individually, because the {@code CacheLoader} does not implement {@code loadAll}, those loads
+   * should run concurrently on {@code executor} instead of one after another on the calling
+   * thread. At most {@code maximumConcurrentLoads} of the loads of a single {@code getAll} are in
+   * progress at a time, and {@code getAll} returns once all of them have completed.
+   *
+   * <p>Each key is loaded as by {@link LoadingCache#get}, so keys which are already being loaded
+   * by other threads wait for that load rather than starting another one. If {@code executor}
+   * rejects a load, it is performed by the calling thread. The calling thread should not be one
+   * of the threads of a bounded {@code executor}, which could otherwise deadlock waiting for its
+   * own loads.
+   *
+   * @param executor the executor on which the individual loads are performed
+   * @param maximumConcurrentLoads the maximum number of loads of a single {@code getAll} in
+   *     progress at a time
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalArgumentException if {@code maximumConcurrentLoads} is not positive
+   * @throws IllegalStateException if parallel loading was already specified
+   */
+  @Beta
+  @GwtIncompatible("Executor")
+  public CacheBuilder<K, V> parallelGetAll(Executor executor, int maximumConcurrentLoads) {
+    checkState(getAllExecutor == null, "getAll executor was already set to %s", getAllExecutor);
+    checkArgument(maximumConcurrentLoads > 0, "maximum concurrent loads must be positive");
+    this.getAllExecutor = checkNotNull(executor);
+    this.maximumGetAllLoads = maximumConcurrentLoads;
+    return this;
+  }
+
+  @Nullable
+  Executor getGetAllExecutor() {
+    return getAllExecutor;
+  }
+
+  int getMaximumGetAllLoads() {
+    return maximumGetAllLoads;
+  }
+
   /**
    * Specifies a nanosecond-precision time source for use in determining when entries should be
    * expired. By default, {@link System#nanoTime} is used.
    *
    * <p>The primary intent of this method is to facilitate testing of caches which have been
-   * configured with {@link #expireAfterWrite} or {@link #expireAfterAccess}.
+   * configured with {@link #expireAfterWrite} or {@link #expireAfterAccess}. Caches which read the
+   * time on every access but only expire entries after much longer durations can also use
+   * {@link net.tribe7.common.base.CoarseTicker#shared}, which avoids calling
+   * {@code System.nanoTime} at the cost of a millisecond of precision.
    *
    * @throws IllegalStateException if a ticker was already set
    */
@@ -750,6 +1165,36 @@ public final class CacheBuilder<K, V> {
     return (RemovalListener<K1, V1>) Objects.firstNonNull(removalListener, NullListener.INSTANCE);
   }
 
+  /**
+   * Specifies that the routine maintenance described in the class documentation above should be
+   * performed by tasks running on {@code executor}, rather than by the threads accessing the
+   * cache. Reads which would otherwise clean up a segment, including reads which find an expired
+   * or collected entry, instead submit a task to do so, and the notifications of the
+   * {@linkplain #removalListener removal listener} are delivered in batches by tasks running on
+   * {@code executor}. At most one cleanup task per segment, and one notification task per cache,
+   * is waiting to run at any time.
+   *
+   * <p>Writes still remove expired entries from their segment before modifying it, since they
+   * hold its lock anyway. If {@code executor} rejects a task, the maintenance is performed by the
+   * current thread instead. The executor is not shut down by the cache.
+   *
+   * @param executor the executor on which maintenance is performed
+   * @throws IllegalStateException if a maintenance executor was already set
+   */
+  @Beta
+  @GwtIncompatible("Executor")
+  public CacheBuilder<K, V> maintenanceExecutor(Executor executor) {
+    checkState(maintenanceExecutor == null, "maintenance executor was already set to %s",
+        maintenanceExecutor);
+    this.maintenanceExecutor = checkNotNull(executor);
+    return this;
+  }
+
+  @Nullable
+  Executor getMaintenanceExecutor() {
+    return maintenanceExecutor;
+  }
+
   /**
    * Enable the accumulation of {@link CacheStats} during the operation of the cache. Without this
    * {@link Cache#stats} will return zero for all statistics. Note that recording stats requires
@@ -767,6 +1212,26 @@ public final class CacheBuilder<K, V> {
     return statsCounterSupplier == CACHE_STATS_COUNTER;
   }
 
+  /**
+   * Enables the accumulation of {@link CacheMetrics} as well as {@link CacheStats}, as if by
+   * {@link #recordStats}. Without this {@link CacheMetrics#of} will return zero for all metrics.
+   *
+   * <p>The detailed metrics include a histogram of load latencies, the number of removals for each
+   * {@link RemovalCause}, and the number of acquisitions, contended acquisitions and wait time of
+   * each segment lock. Recording them does not allocate, but timing contended lock acquisitions
+   * adds a call to {@link System#nanoTime} on each of them.
+   */
+  @Beta
+  public CacheBuilder<K, V> recordDetailedStats() {
+    statsCounterSupplier = CACHE_STATS_COUNTER;
+    detailedStats = true;
+    return this;
+  }
+
+  boolean isRecordingDetailedStats() {
+    return detailedStats;
+  }
+
   Supplier<? extends StatsCounter> getStatsCounterSupplier() {
     return statsCounterSupplier;
   }
@@ -786,9 +1251,72 @@ public final class CacheBuilder<K, V> {
   public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(
       CacheLoader<? super K1, V1> loader) {
     checkWeightWithWeigher();
+    checkFrequencyAdmission();
+    checkOffHeapTier();
+    checkAdaptiveConcurrencyLevel();
+    checkRefreshScheduler();
     return new LocalCache.LocalLoadingCache<K1, V1>(this, loader);
   }
 
+  /**
+   * Builds a cache which asynchronously loads values using the supplied {@code AsyncCacheLoader}.
+   * Lookups return a future for the value instead of waiting for it to load; while a value is
+   * loading, callers requesting the same key share its future. Values that have finished loading
+   * are evicted, expired, weighed and counted exactly as in a cache built by
+   * {@link #build(CacheLoader)}.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @return a cache having the requested features
+   */
+  @Beta
+  @GwtIncompatible("Futures")
+  public <K1 extends K, V1 extends V> AsyncLoadingCache<K1, V1> buildAsync(
+      AsyncCacheLoader<? super K1, V1> loader) {
+    checkWeightWithWeigher();
+    checkFrequencyAdmission();
+    checkOffHeapTier();
+    checkAdaptiveConcurrencyLevel();
+    checkRefreshScheduler();
+    return new LocalCache.LocalAsyncLoadingCache<K1, V1>(this, loader);
+  }
+
+  /**
+   * Builds a cache whose keys are {@code long} values, which either returns an already-loaded
+   * value for a given key or atomically computes or retrieves it using the supplied
+   * {@code CacheLoader}, exactly as a cache built by {@link #build(CacheLoader)}. The cache stores
+   * its keys as primitive values, and looks up cached values by a {@code long} key without boxing
+   * it.
+   *
+   * <p>Since the keys are {@code Long}s, any weigher, expiry or removal listener of this builder
+   * must accept them.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @return a cache having the requested features
+   * @throws IllegalStateException if weak keys or a key equivalence were requested
+   */
+  @Beta
+  @GwtIncompatible("not needed in GWT")
+  public <V1 extends V> LongKeyLoadingCache<V1> buildLongKeyed(
+      CacheLoader<? super Long, V1> loader) {
+    checkState(getKeyStrength() == Strength.STRONG, "long keys cannot be weak");
+    checkState(getKeyEquivalence().equals(Equivalence.equals()),
+        "long keys cannot have a custom key equivalence");
+    checkWeightWithWeigher();
+    checkFrequencyAdmission();
+    checkOffHeapTier();
+    checkAdaptiveConcurrencyLevel();
+    checkRefreshScheduler();
+    @SuppressWarnings("unchecked") // keys are Longs, as documented
+    CacheBuilder<Long, V1> self = (CacheBuilder<Long, V1>) this;
+    return new LocalCache.LocalLongKeyLoadingCache<V1>(self, loader);
+  }
+
   /**
    * Builds a cache which does not automatically load values when keys are requested.
    *
@@ -803,12 +1331,24 @@ public final class CacheBuilder<K, V> {
    */
   public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
     checkWeightWithWeigher();
+    checkFrequencyAdmission();
+    checkOffHeapTier();
+    checkAdaptiveConcurrencyLevel();
     checkNonLoadingCache();
     return new LocalCache.LocalManualCache<K1, V1>(this);
   }
 
   private void checkNonLoadingCache() {
     checkState(refreshNanos == UNSET_INT, "refreshAfterWrite requires a LoadingCache");
+    checkState(maximumLoadBatchSize == UNSET_INT, "batchLoads requires a LoadingCache");
+    checkState(refreshScheduler == null, "refreshScheduler requires a LoadingCache");
+    checkState(refreshBatchScheduler == null, "batchRefreshes requires a LoadingCache");
+    checkState(getAllExecutor == null, "parallelGetAll requires a LoadingCache");
+  }
+
+  private void checkRefreshScheduler() {
+    checkState(refreshScheduler == null || refreshNanos != UNSET_INT,
+        "refreshScheduler requires refreshAfterWrite");
   }
 
   private void checkWeightWithWeigher() {
@@ -825,6 +1365,41 @@ public final class CacheBuilder<K, V> {
     }
   }
 
+  private void checkOffHeapTier() {
+    if (offHeapCodec != null) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "offHeapTier requires maximumSize or maximumWeight");
+      checkState(getKeyStrength() == Strength.STRONG, "offHeapTier requires strong keys");
+    }
+  }
+
+  private void checkAdaptiveConcurrencyLevel() {
+    if (adaptiveConcurrencyLevel) {
+      checkState(getKeyStrength() == Strength.STRONG && getValueStrength() == Strength.STRONG,
+          "adaptiveConcurrencyLevel requires strong keys and values");
+      checkState(maintenanceExecutor != null,
+          "adaptiveConcurrencyLevel requires a maintenanceExecutor");
+      checkState(!frequencyAdmission,
+          "adaptiveConcurrencyLevel does not support frequencyAdmission");
+      checkState(offHeapCodec == null, "adaptiveConcurrencyLevel does not support offHeapTier");
+      checkState(expiry == null, "adaptiveConcurrencyLevel does not support expireAfter");
+    }
+  }
+
+  private void checkFrequencyAdmission() {
+    if (frequencyAdmission) {
+      boolean bounded = maximumSize != UNSET_INT || maximumWeight != UNSET_INT;
+      if (strictParsing) {
+        checkState(bounded, "frequencyAdmission requires maximumSize or maximumWeight");
+      } else {
+        if (!bounded) {
+          logger.log(Level.WARNING,
+              "ignoring frequencyAdmission specified without maximumSize or maximumWeight");
+        }
+      }
+    }
+  }
+
   /**
    * Returns a string representation for this CacheBuilder instance. The exact form of the returned
    * string is not specified.
@@ -838,18 +1413,50 @@ public final class CacheBuilder<K, V> {
     if (concurrencyLevel != UNSET_INT) {
       s.add("concurrencyLevel", concurrencyLevel);
     }
+    if (adaptiveConcurrencyLevel) {
+      s.addValue("adaptiveConcurrencyLevel");
+    }
     if (maximumSize != UNSET_INT) {
       s.add("maximumSize", maximumSize);
     }
     if (maximumWeight != UNSET_INT) {
       s.add("maximumWeight", maximumWeight);
     }
+    if (frequencyAdmission) {
+      s.addValue("frequencyAdmission");
+    }
+    if (offHeapCodec != null) {
+      s.add("offHeapMaximumBytes", offHeapMaximumBytes);
+    }
     if (expireAfterWriteNanos != UNSET_INT) {
       s.add("expireAfterWrite", expireAfterWriteNanos + "ns");
     }
     if (expireAfterAccessNanos != UNSET_INT) {
       s.add("expireAfterAccess", expireAfterAccessNanos + "ns");
     }
+    if (expiry != null) {
+      s.addValue("expiry");
+    }
+    if (refreshScheduler != null) {
+      s.addValue("refreshScheduler");
+    }
+    if (maintenanceExecutor != null) {
+      s.addValue("maintenanceExecutor");
+    }
+    if (detailedStats) {
+      s.addValue("recordDetailedStats");
+    }
+    if (maximumLoadBatchSize != UNSET_INT) {
+      s.add("maximumLoadBatchSize", maximumLoadBatchSize);
+      s.add("loadBatchDelay", loadBatchDelayNanos + "ns");
+    }
+    if (maximumRefreshBatchSize != UNSET_INT) {
+      s.add("maximumRefreshBatchSize", maximumRefreshBatchSize);
+      s.add("refreshBatchDelay", refreshBatchDelayNanos + "ns");
+    }
+    if (maximumGetAllLoads != UNSET_INT) {
+      s.add("maximumGetAllLoads", maximumGetAllLoads);
+    }
     if (keyStrength != null) {
       s.add("keyStrength", Ascii.toLowerCase(keyStrength.toString()));
     }
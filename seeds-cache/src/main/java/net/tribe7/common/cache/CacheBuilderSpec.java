@@ -44,6 +44,7 @@ import net.tribe7.common.collect.ImmutableMap;
  * <li>{@code initialCapacity=[integer]}: sets {@link CacheBuilder#initialCapacity}.
  * <li>{@code maximumSize=[long]}: sets {@link CacheBuilder#maximumSize}.
  * <li>{@code maximumWeight=[long]}: sets {@link CacheBuilder#maximumWeight}.
+ * <li>{@code frequencyAdmission}: sets {@link CacheBuilder#frequencyAdmission}.
  * <li>{@code expireAfterAccess=[duration]}: sets {@link CacheBuilder#expireAfterAccess}.
  * <li>{@code expireAfterWrite=[duration]}: sets {@link CacheBuilder#expireAfterWrite}.
  * <li>{@code refreshAfterWrite=[duration]}: sets {@link CacheBuilder#refreshAfterWrite}.
@@ -51,6 +52,7 @@ import net.tribe7.common.collect.ImmutableMap;
  * <li>{@code softValues}: sets {@link CacheBuilder#softValues}.
  * <li>{@code weakValues}: sets {@link CacheBuilder#weakValues}.
  * <li>{@code recordStats}: sets {@link CacheBuilder#recordStats}.
+ * <li>{@code recordDetailedStats}: sets {@link CacheBuilder#recordDetailedStats}.
  * </ul>
  *
  * <p>The set of supported keys will grow as {@code CacheBuilder} evolves, but existing keys
@@ -97,11 +99,13 @@ public final class CacheBuilderSpec {
           .put("initialCapacity", new InitialCapacityParser())
           .put("maximumSize", new MaximumSizeParser())
           .put("maximumWeight", new MaximumWeightParser())
+          .put("frequencyAdmission", new FrequencyAdmissionParser())
           .put("concurrencyLevel", new ConcurrencyLevelParser())
           .put("weakKeys", new KeyStrengthParser(Strength.WEAK))
           .put("softValues", new ValueStrengthParser(Strength.SOFT))
           .put("weakValues", new ValueStrengthParser(Strength.WEAK))
           .put("recordStats", new RecordStatsParser())
+          .put("recordDetailedStats", new RecordDetailedStatsParser())
           .put("expireAfterAccess", new AccessDurationParser())
           .put("expireAfterWrite", new WriteDurationParser())
           .put("refreshAfterWrite", new RefreshDurationParser())
@@ -111,10 +115,12 @@ public final class CacheBuilderSpec {
   @VisibleForTesting Integer initialCapacity;
   @VisibleForTesting Long maximumSize;
   @VisibleForTesting Long maximumWeight;
+  @VisibleForTesting Boolean frequencyAdmission;
   @VisibleForTesting Integer concurrencyLevel;
   @VisibleForTesting Strength keyStrength;
   @VisibleForTesting Strength valueStrength;
   @VisibleForTesting Boolean recordStats;
+  @VisibleForTesting Boolean recordDetailedStats;
   @VisibleForTesting long writeExpirationDuration;
   @VisibleForTesting TimeUnit writeExpirationTimeUnit;
   @VisibleForTesting long accessExpirationDuration;
@@ -201,9 +207,15 @@ public final class CacheBuilderSpec {
           throw new AssertionError();
       }
     }
+    if (frequencyAdmission != null && frequencyAdmission) {
+      builder.frequencyAdmission();
+    }
     if (recordStats != null && recordStats) {
       builder.recordStats();
     }
+    if (recordDetailedStats != null && recordDetailedStats) {
+      builder.recordDetailedStats();
+    }
     if (writeExpirationTimeUnit != null) {
       builder.expireAfterWrite(writeExpirationDuration, writeExpirationTimeUnit);
     }
@@ -242,10 +254,12 @@ public final class CacheBuilderSpec {
         initialCapacity,
         maximumSize,
         maximumWeight,
+        frequencyAdmission,
         concurrencyLevel,
         keyStrength,
         valueStrength,
         recordStats,
+        recordDetailedStats,
         durationInNanos(writeExpirationDuration, writeExpirationTimeUnit),
         durationInNanos(accessExpirationDuration, accessExpirationTimeUnit),
         durationInNanos(refreshDuration, refreshTimeUnit));
@@ -263,10 +277,12 @@ public final class CacheBuilderSpec {
     return Objects.equal(initialCapacity, that.initialCapacity)
         && Objects.equal(maximumSize, that.maximumSize)
         && Objects.equal(maximumWeight, that.maximumWeight)
+        && Objects.equal(frequencyAdmission, that.frequencyAdmission)
         && Objects.equal(concurrencyLevel, that.concurrencyLevel)
         && Objects.equal(keyStrength, that.keyStrength)
         && Objects.equal(valueStrength, that.valueStrength)
         && Objects.equal(recordStats, that.recordStats)
+        && Objects.equal(recordDetailedStats, that.recordDetailedStats)
         && Objects.equal(durationInNanos(writeExpirationDuration, writeExpirationTimeUnit),
             durationInNanos(that.writeExpirationDuration, that.writeExpirationTimeUnit))
         && Objects.equal(durationInNanos(accessExpirationDuration, accessExpirationTimeUnit),
@@ -393,6 +409,17 @@ public final class CacheBuilderSpec {
     }
   }
 
+  /** Parse frequencyAdmission */
+  static class FrequencyAdmissionParser implements ValueParser {
+
+    @Override
+    public void parse(CacheBuilderSpec spec, String key, @Nullable String value) {
+      checkArgument(value == null, "frequencyAdmission does not take values");
+      checkArgument(spec.frequencyAdmission == null, "frequencyAdmission already set");
+      spec.frequencyAdmission = true;
+    }
+  }
+
   /** Parse recordStats */
   static class RecordStatsParser implements ValueParser {
 
@@ -404,6 +431,17 @@ public final class CacheBuilderSpec {
     }
   }
 
+  /** Parse recordDetailedStats */
+  static class RecordDetailedStatsParser implements ValueParser {
+
+    @Override
+    public void parse(CacheBuilderSpec spec, String key, @Nullable String value) {
+      checkArgument(value == null, "recordDetailedStats does not take values");
+      checkArgument(spec.recordDetailedStats == null, "recordDetailedStats already set");
+      spec.recordDetailedStats = true;
+    }
+  }
+
   /** Base class for parsing times with durations */
   abstract static class DurationParser implements ValueParser {
     protected abstract void parseDuration(
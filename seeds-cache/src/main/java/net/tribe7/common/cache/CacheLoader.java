@@ -122,6 +122,36 @@ public abstract class CacheLoader<K, V> {
     throw new UnsupportedLoadingOperationException();
   }
 
+  /**
+   * Computes or retrieves replacement values corresponding to several already-cached keys. This
+   * method is called when refreshes are performed together: by the task of
+   * {@link CacheBuilder#refreshScheduler}, and for the batches of
+   * {@link CacheBuilder#batchRefreshes}.
+   *
+   * <p>This implementation synchronously delegates to {@link #loadAll}. If neither method is
+   * overridden, the keys are reloaded individually with {@link #reload}. It is recommended that it
+   * be overridden with an asynchronous implementation when the backend can compute replacement
+   * values in bulk, or more cheaply from the old values.
+   *
+   * <p>If the returned map doesn't contain all requested keys then the entries it does contain will
+   * be cached, and the refresh of the other keys fails. Extra keys are ignored.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown by this method will be logged and then swallowed</i>.
+   *
+   * @param oldValues the non-null old values corresponding to the unique, non-null keys to reload
+   * @return the future map from each key in {@code oldValues} to its new value;
+   *     <b>must not be null, must not return null, may not contain null values</b>
+   * @throws Exception if unable to reload the result
+   * @throws InterruptedException if this method is interrupted. {@code InterruptedException} is
+   *     treated like any other {@code Exception} in all respects except that, when it is caught,
+   *     the thread's interrupt status is set
+   */
+  @Beta
+  @GwtIncompatible("Futures")
+  public ListenableFuture<Map<K, V>> reloadAll(Map<K, V> oldValues) throws Exception {
+    return Futures.immediateFuture(loadAll(oldValues.keySet()));
+  }
+
   /**
    * Returns a cache loader based on an <i>existing</i> function instance. Note that there's no need
    * to create a <i>new</i> function just to pass it in here; just subclass {@code CacheLoader} and
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkElementIndex;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.base.Objects;
+import net.tribe7.common.collect.ImmutableList;
+
+/**
+ * Detailed metrics about the performance of a {@link Cache}, complementing its {@link CacheStats}.
+ * Instances of this class are immutable snapshots, returned by {@link #of}.
+ *
+ * <p>Metrics are only recorded by caches built with {@link CacheBuilder#recordDetailedStats};
+ * other caches return metrics which are all zero. They include:
+ *
+ * <ul>
+ * <li>A histogram of the time taken by each load, successful or not, in buckets whose bounds are
+ *     powers of two nanoseconds, from which percentiles of the load latency can be estimated.
+ * <li>The number of entries removed from the cache for each {@link RemovalCause}, including
+ *     explicit removals.
+ * <li>For each segment of the cache, the number of times its lock was acquired, how many of those
+ *     acquisitions had to wait for another thread and for how long, and how many times the segment
+ *     had to evict entries to stay within its maximum size or weight.
+ * </ul>
+ *
+ * <p>Like {@code CacheStats}, the values are cumulative over the lifetime of the cache, and
+ * {@link #minus} can be used to obtain the metrics of an interval.
+ */
+@Beta
+@GwtCompatible
+public final class CacheMetrics {
+  private static final int CAUSES = RemovalCause.values().length;
+
+  private final LatencyHistogram loadLatency;
+  private final long[] removalCounts;
+  private final ImmutableList<SegmentMetrics> segments;
+
+  CacheMetrics(LatencyHistogram loadLatency, long[] removalCounts,
+      List<SegmentMetrics> segments) {
+    checkArgument(removalCounts.length == CAUSES);
+    this.loadLatency = checkNotNull(loadLatency);
+    this.removalCounts = removalCounts;
+    this.segments = ImmutableList.copyOf(segments);
+  }
+
+  /**
+   * Returns a current snapshot of the detailed metrics of {@code cache}, which must have been
+   * built by {@link CacheBuilder}, or be a {@link ForwardingCache} of such a cache. All metrics are
+   * zero unless the cache was built with {@link CacheBuilder#recordDetailedStats}.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@code CacheBuilder}
+   */
+  public static CacheMetrics of(Cache<?, ?> cache) {
+    return LocalCache.localCacheOf(cache).metrics();
+  }
+
+  /** Returns metrics which are all zero, for a cache with no segments. */
+  static CacheMetrics empty() {
+    return new CacheMetrics(new LatencyHistogram(new long[LatencyHistogram.BUCKETS]),
+        new long[CAUSES], ImmutableList.<SegmentMetrics>of());
+  }
+
+  /** Returns the histogram of the time taken by loads, in nanoseconds. */
+  public LatencyHistogram loadLatency() {
+    return loadLatency;
+  }
+
+  /** Returns the number of entries which were removed from the cache for {@code cause}. */
+  public long removalCount(RemovalCause cause) {
+    return removalCounts[cause.ordinal()];
+  }
+
+  /** Returns the metrics of each segment of the cache. */
+  public List<SegmentMetrics> segments() {
+    return segments;
+  }
+
+  /** Returns the total number of times the locks of the segments were acquired. */
+  public long lockCount() {
+    long sum = 0;
+    for (SegmentMetrics segment : segments) {
+      sum += segment.lockCount();
+    }
+    return sum;
+  }
+
+  /** Returns the total number of lock acquisitions which had to wait for another thread. */
+  public long contendedLockCount() {
+    long sum = 0;
+    for (SegmentMetrics segment : segments) {
+      sum += segment.contendedLockCount();
+    }
+    return sum;
+  }
+
+  /** Returns the total number of nanoseconds spent waiting to acquire the locks of the segments. */
+  public long totalLockWaitTime() {
+    long sum = 0;
+    for (SegmentMetrics segment : segments) {
+      sum += segment.totalLockWaitTime();
+    }
+    return sum;
+  }
+
+  /** Returns the total number of times the segments evicted entries. */
+  public long evictionRunCount() {
+    long sum = 0;
+    for (SegmentMetrics segment : segments) {
+      sum += segment.evictionRunCount();
+    }
+    return sum;
+  }
+
+  /**
+   * Returns a new {@code CacheMetrics} representing the difference between these metrics and
+   * {@code other}, which should be an earlier snapshot of the same cache. Negative values are
+   * rounded up to zero.
+   */
+  public CacheMetrics minus(CacheMetrics other) {
+    long[] removals = new long[CAUSES];
+    for (int i = 0; i < CAUSES; i++) {
+      removals[i] = Math.max(0, removalCounts[i] - other.removalCounts[i]);
+    }
+    ImmutableList.Builder<SegmentMetrics> builder = ImmutableList.builder();
+    for (int i = 0; i < segments.size(); i++) {
+      builder.add((i < other.segments.size())
+          ? segments.get(i).minus(other.segments.get(i))
+          : segments.get(i));
+    }
+    return new CacheMetrics(loadLatency.minus(other.loadLatency), removals, builder.build());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(loadLatency, Arrays.hashCode(removalCounts), segments);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object instanceof CacheMetrics) {
+      CacheMetrics other = (CacheMetrics) object;
+      return loadLatency.equals(other.loadLatency)
+          && Arrays.equals(removalCounts, other.removalCounts)
+          && segments.equals(other.segments);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper s = Objects.toStringHelper(this)
+        .add("loadLatency", loadLatency);
+    for (RemovalCause cause : RemovalCause.values()) {
+      s.add(cause.name(), removalCounts[cause.ordinal()]);
+    }
+    return s
+        .add("lockCount", lockCount())
+        .add("contendedLockCount", contendedLockCount())
+        .add("totalLockWaitTime", totalLockWaitTime())
+        .add("evictionRunCount", evictionRunCount())
+        .toString();
+  }
+
+  /**
+   * A histogram of durations in nanoseconds, whose buckets are bounded by powers of two. Bucket
+   * {@code 0} counts durations of zero, and bucket {@code i} counts durations from
+   * <code>2<sup>i-1</sup></code> to <code>2<sup>i</sup> - 1</code> nanoseconds. Estimates derived
+   * from the histogram are thus within a factor of two of the recorded durations.
+   */
+  public static final class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    private final long[] counts;
+
+    LatencyHistogram(long[] counts) {
+      checkArgument(counts.length == BUCKETS);
+      this.counts = counts;
+    }
+
+    /** Returns the bucket counting {@code nanos}, treating negative durations as zero. */
+    static int bucketFor(long nanos) {
+      return (nanos <= 0) ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /** Returns the number of buckets. */
+    public int bucketCount() {
+      return BUCKETS;
+    }
+
+    /** Returns the number of durations counted by {@code bucket}. */
+    public long count(int bucket) {
+      checkElementIndex(bucket, BUCKETS);
+      return counts[bucket];
+    }
+
+    /** Returns the shortest duration counted by {@code bucket}, in nanoseconds. */
+    public long lowerBound(int bucket) {
+      checkElementIndex(bucket, BUCKETS);
+      return (bucket == 0) ? 0 : 1L << (bucket - 1);
+    }
+
+    /** Returns the longest duration counted by {@code bucket}, in nanoseconds. */
+    public long upperBound(int bucket) {
+      checkElementIndex(bucket, BUCKETS);
+      return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /** Returns the total number of durations recorded. */
+    public long totalCount() {
+      long sum = 0;
+      for (long count : counts) {
+        sum += count;
+      }
+      return sum;
+    }
+
+    /**
+     * Returns an upper bound of the duration below which {@code percentile} percent of the
+     * recorded durations fall, or zero if no durations were recorded. For example,
+     * {@code percentile(99)} estimates the 99th percentile.
+     *
+     * @throws IllegalArgumentException if {@code percentile} is not between 0 and 100
+     */
+    public long percentile(double percentile) {
+      checkArgument(percentile >= 0 && percentile <= 100, "percentile out of range: %s",
+          percentile);
+      long total = totalCount();
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return upperBound(i);
+        }
+      }
+      return upperBound(BUCKETS - 1);
+    }
+
+    LatencyHistogram minus(LatencyHistogram other) {
+      long[] difference = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        difference[i] = Math.max(0, counts[i] - other.counts[i]);
+      }
+      return new LatencyHistogram(difference);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(counts);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object object) {
+      return (object instanceof LatencyHistogram)
+          && Arrays.equals(counts, ((LatencyHistogram) object).counts);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("count", totalCount())
+          .add("p50", percentile(50))
+          .add("p99", percentile(99))
+          .add("p999", percentile(99.9))
+          .toString();
+    }
+  }
+
+  /** Metrics about the lock and the eviction of a single segment of a cache. */
+  public static final class SegmentMetrics {
+    private final long lockCount;
+    private final long contendedLockCount;
+    private final long totalLockWaitTime;
+    private final long evictionRunCount;
+
+    SegmentMetrics(long lockCount, long contendedLockCount, long totalLockWaitTime,
+        long evictionRunCount) {
+      this.lockCount = lockCount;
+      this.contendedLockCount = contendedLockCount;
+      this.totalLockWaitTime = totalLockWaitTime;
+      this.evictionRunCount = evictionRunCount;
+    }
+
+    /** Returns the number of times the lock of the segment was acquired. */
+    public long lockCount() {
+      return lockCount;
+    }
+
+    /** Returns the number of lock acquisitions which had to wait for another thread. */
+    public long contendedLockCount() {
+      return contendedLockCount;
+    }
+
+    /** Returns the total number of nanoseconds spent waiting to acquire the lock. */
+    public long totalLockWaitTime() {
+      return totalLockWaitTime;
+    }
+
+    /**
+     * Returns the average time spent waiting by a contended lock acquisition. This is defined as
+     * {@code totalLockWaitTime / contendedLockCount}, or {@code 0.0} when there were none.
+     */
+    public double averageLockWaitTime() {
+      return (contendedLockCount == 0) ? 0.0 : (double) totalLockWaitTime / contendedLockCount;
+    }
+
+    /**
+     * Returns the number of times the segment evicted one or more entries to stay within its
+     * maximum size or weight.
+     */
+    public long evictionRunCount() {
+      return evictionRunCount;
+    }
+
+    SegmentMetrics minus(SegmentMetrics other) {
+      return new SegmentMetrics(
+          Math.max(0, lockCount - other.lockCount),
+          Math.max(0, contendedLockCount - other.contendedLockCount),
+          Math.max(0, totalLockWaitTime - other.totalLockWaitTime),
+          Math.max(0, evictionRunCount - other.evictionRunCount));
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(lockCount, contendedLockCount, totalLockWaitTime, evictionRunCount);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object object) {
+      if (object instanceof SegmentMetrics) {
+        SegmentMetrics other = (SegmentMetrics) object;
+        return lockCount == other.lockCount
+            && contendedLockCount == other.contendedLockCount
+            && totalLockWaitTime == other.totalLockWaitTime
+            && evictionRunCount == other.evictionRunCount;
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("lockCount", lockCount)
+          .add("contendedLockCount", contendedLockCount)
+          .add("totalLockWaitTime", totalLockWaitTime)
+          .add("evictionRunCount", evictionRunCount)
+          .toString();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.cache.LocalCache.LocalPolicy;
+
+/**
+ * Static methods for obtaining the {@link CachePolicy} of a {@link Cache}.
+ */
+@Beta
+@GwtCompatible
+public final class CachePolicies {
+  private CachePolicies() {}
+
+  /**
+   * Returns a handle for inspecting and adjusting the eviction policy of {@code cache}, such as
+   * its maximum size, at runtime. The cache must have been built by {@link CacheBuilder}, or be a
+   * {@link ForwardingCache} of such a cache.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@code CacheBuilder}
+   */
+  public static <K, V> CachePolicy<K, V> of(Cache<K, V> cache) {
+    return new LocalPolicy<K, V>(LocalCache.localCacheOf(cache));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.collect.ImmutableList;
+
+/**
+ * A handle for inspecting and adjusting the eviction policy of a {@link Cache} at runtime,
+ * obtained from {@link CachePolicies#of}. Changes made through the handle apply to the cache itself.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe.
+ */
+@Beta
+@GwtCompatible
+public interface CachePolicy<K, V> {
+
+  /**
+   * Returns whether the cache is bounded by a {@linkplain CacheBuilder#maximumSize maximum size}
+   * or a {@linkplain CacheBuilder#maximumWeight maximum weight}.
+   */
+  boolean isBounded();
+
+  /**
+   * Returns whether the entries of the cache are weighed by a {@link Weigher}, in which case the
+   * maximum and the weighted size are weights rather than numbers of entries.
+   */
+  boolean isWeighted();
+
+  /**
+   * Returns the maximum size or weight of the cache.
+   *
+   * @throws IllegalStateException if the cache is not bounded
+   */
+  long getMaximum();
+
+  /**
+   * Changes the maximum size or weight of the cache. If the cache now exceeds its maximum, entries
+   * are evicted before this method returns, as they would be by a write. The eviction is done in
+   * small batches, so the cache remains available to other threads meanwhile.
+   *
+   * <p>As with {@link CacheBuilder#maximumSize}, the cache may evict an entry before the maximum is
+   * exceeded.
+   *
+   * @throws IllegalArgumentException if {@code maximum} is negative
+   * @throws IllegalStateException if the cache is not bounded
+   */
+  void setMaximum(long maximum);
+
+  /**
+   * Returns the approximate total weight of the entries in the cache, or their number if the cache
+   * is not weighted.
+   */
+  long weightedSize();
+
+  /**
+   * Returns up to {@code limit} keys of the cache, approximately most recently used first. Only
+   * the requested keys are copied. If the cache does not order its entries by access, which is
+   * the case unless it is bounded or expires entries after access, the keys are returned in no
+   * particular order.
+   *
+   * @throws IllegalArgumentException if {@code limit} is negative
+   */
+  ImmutableList<K> hottest(int limit);
+
+  /**
+   * Returns up to {@code limit} keys of the cache, approximately least recently used first, which
+   * are thus the next candidates for eviction. Only the requested keys are copied. If the cache
+   * does not order its entries by access, the keys are returned in no particular order.
+   *
+   * @throws IllegalArgumentException if {@code limit} is negative
+   */
+  ImmutableList<K> coldest(int limit);
+}
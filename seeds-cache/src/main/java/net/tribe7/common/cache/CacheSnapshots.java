@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.cache.LocalCache.LocalManualCache;
+import net.tribe7.common.collect.Iterators;
+import net.tribe7.common.collect.Lists;
+import net.tribe7.common.collect.Maps;
+
+/**
+ * Static methods which save the contents of a {@link Cache} to a stream and load them back, so
+ * that a newly started process can warm its cache from the entries of a previous one instead of
+ * reloading them one miss at a time.
+ *
+ * <p>Keys and values are serialized with a {@link ValueCodec} each. The snapshot is a sequence of
+ * length-prefixed key and value encodings, preceded by a header; no timing information is saved,
+ * so loaded entries are treated as if they had just been written.
+ *
+ * <p>Usage example: <pre>   {@code
+ *
+ *   OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+ *   try {
+ *     CacheSnapshots.write(cache, out, keyCodec, valueCodec);
+ *   } finally {
+ *     out.close();
+ *   }
+ *
+ *   // at startup
+ *   InputStream in = new BufferedInputStream(new FileInputStream(file));
+ *   try {
+ *     CacheSnapshots.read(in, newCache, keyCodec, valueCodec);
+ *   } finally {
+ *     in.close();
+ *   }}</pre>
+ */
+@Beta
+@GwtIncompatible("java.io")
+public final class CacheSnapshots {
+  private CacheSnapshots() {}
+
+  private static final int MAGIC = 0x53454544;
+  private static final int VERSION = 1;
+  private static final int END_OF_SNAPSHOT = -1;
+
+  /** The number of entries which {@link #read} decodes before inserting them. */
+  static final int READ_BATCH_SIZE = 1024;
+
+  /**
+   * Writes the entries of {@code cache} to {@code out}, and returns the number of entries written.
+   * The stream is flushed but not closed.
+   *
+   * <p>For caches created by {@link CacheBuilder}, the entries are written approximately hottest
+   * first when the cache orders its entries by access, which is the case when it has a maximum
+   * size or weight or expires entries after access. The cache is not locked while entries are
+   * encoded and written: each segment is locked only long enough to list its entries, so the
+   * snapshot is not an atomic view of the cache. Entries held in an
+   * {@linkplain CacheBuilder#offHeapTier off-heap tier} are written after the others, most recently
+   * moved to the tier first, and are decoded by the tier's codec one segment at a time.
+   *
+   * @throws IOException if writing to {@code out} fails
+   */
+  public static <K, V> int write(Cache<K, V> cache, OutputStream out,
+      ValueCodec<? super K> keyCodec, ValueCodec<? super V> valueCodec) throws IOException {
+    checkNotNull(keyCodec);
+    checkNotNull(valueCodec);
+    Iterator<Entry<K, V>> entries;
+    if (cache instanceof LocalManualCache) {
+      LocalCache<K, V> localCache = ((LocalManualCache<K, V>) cache).localCache;
+      entries = Iterators.concat(
+          localCache.orderedEntries(true, Integer.MAX_VALUE), localCache.offHeapEntries());
+    } else {
+      entries = cache.asMap().entrySet().iterator();
+    }
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    int count = 0;
+    while (entries.hasNext()) {
+      Entry<K, V> entry = entries.next();
+      writeBytes(data, keyCodec.encode(entry.getKey()));
+      writeBytes(data, valueCodec.encode(entry.getValue()));
+      count++;
+    }
+    data.writeInt(END_OF_SNAPSHOT);
+    data.flush();
+    return count;
+  }
+
+  private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write} from {@code in}, and inserts its entries into
+   * {@code cache}. Entries whose keys are already present in the cache are skipped, so values
+   * loaded since the cache was created take precedence. Returns the number of entries inserted.
+   * The stream is not closed.
+   *
+   * <p>The snapshot is decoded and inserted in batches of up to 1024 entries, so that it is never
+   * held in memory as a whole. For caches created by {@link CacheBuilder}, the entries of a batch
+   * are partitioned by segment, so that each segment is locked once per batch rather than once per
+   * entry. Loading never evicts: if the cache has a maximum size or weight, only the hottest
+   * entries which fit are inserted, and the hottest entries of each batch become its most recently
+   * used.
+   *
+   * @throws IOException if reading from {@code in} fails, or if it does not contain a snapshot
+   */
+  public static <K, V> int read(InputStream in, Cache<K, V> cache,
+      ValueCodec<? extends K> keyCodec, ValueCodec<? extends V> valueCodec) throws IOException {
+    checkNotNull(cache);
+    checkNotNull(keyCodec);
+    checkNotNull(valueCodec);
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a cache snapshot");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported cache snapshot version: " + version);
+    }
+
+    int inserted = 0;
+    List<Entry<K, V>> batch = Lists.newArrayListWithCapacity(READ_BATCH_SIZE);
+    for (int length = data.readInt(); length != END_OF_SNAPSHOT; length = data.readInt()) {
+      K key = keyCodec.decode(readBytes(data, length));
+      V value = valueCodec.decode(readBytes(data, data.readInt()));
+      batch.add(Maps.immutableEntry(key, value));
+      if (batch.size() == READ_BATCH_SIZE) {
+        inserted += insert(cache, batch);
+        batch.clear();
+      }
+    }
+    return inserted + insert(cache, batch);
+  }
+
+  private static ByteBuffer readBytes(DataInputStream data, int length) throws IOException {
+    if (length < 0) {
+      throw new IOException("corrupt cache snapshot");
+    }
+    byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  private static <K, V> int insert(Cache<K, V> cache, List<Entry<K, V>> entries) {
+    if (cache instanceof LocalManualCache) {
+      return ((LocalManualCache<K, V>) cache).localCache.putAllIfAbsent(entries);
+    }
+    int inserted = 0;
+    for (Entry<K, V> entry : entries) {
+      if (cache.asMap().putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+        inserted++;
+      }
+    }
+    return inserted;
+  }
+}
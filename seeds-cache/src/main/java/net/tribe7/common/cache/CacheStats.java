@@ -45,6 +45,19 @@ import net.tribe7.common.base.Objects;
  *     for loading to complete (whether successful or not) and then increment {@code missCount}.
  * </ul>
  * <li>When an entry is evicted from the cache, {@code evictionCount} is incremented.
+ * <li>When a cache {@linkplain CacheBuilder#batchLoads batches loads}, each batch of loads
+ *     increments {@code loadBatchCount}, adds the number of keys it loaded to
+ *     {@code batchedLoadCount}, and adds the time spent loading it, in nanoseconds, to
+ *     {@code totalBatchLoadTime}. The individual loads of the batch are also counted as described
+ *     above.
+ * <li>When a cache has an {@linkplain CacheBuilder#offHeapTier off-heap tier}, an entry evicted
+ *     from the heap and stored in the tier increments {@code evictionCount}. Each lookup which
+ *     misses on the heap and then finds a value in the tier increments {@code offHeapHitCount},
+ *     and each one which finds no value there increments {@code offHeapMissCount}. When the tier
+ *     evicts an entry to make room for others, {@code offHeapEvictionCount} is incremented and the
+ *     size of the entry, in bytes, is added to {@code offHeapEvictionWeight}.
+ * <li>When a lookup is answered by a {@linkplain NearCaches#threadLocal near cache}, both
+ *     {@code hitCount} and {@code nearCacheHitCount} are incremented.
  * <li>No stats are modified when a cache entry is invalidated or manually removed.
  * <li>No stats are modified on a query to {@link Cache#getIfPresent}.
  * <li>No stats are modified by operations invoked on the {@linkplain Cache#asMap asMap} view of
@@ -67,6 +80,14 @@ public final class CacheStats {
   private final long loadExceptionCount;
   private final long totalLoadTime;
   private final long evictionCount;
+  private final long loadBatchCount;
+  private final long batchedLoadCount;
+  private final long totalBatchLoadTime;
+  private final long offHeapHitCount;
+  private final long offHeapMissCount;
+  private final long offHeapEvictionCount;
+  private final long offHeapEvictionWeight;
+  private final long nearCacheHitCount;
 
   /**
    * Constructs a new {@code CacheStats} instance.
@@ -76,12 +97,32 @@ public final class CacheStats {
    */
   public CacheStats(long hitCount, long missCount, long loadSuccessCount,
       long loadExceptionCount, long totalLoadTime, long evictionCount) {
+    this(hitCount, missCount, loadSuccessCount, loadExceptionCount, totalLoadTime, evictionCount,
+        0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Constructs a new {@code CacheStats} instance, including the statistics about batched loads, the
+   * off-heap tier and near caches which are only recorded by the caches of this package.
+   */
+  CacheStats(long hitCount, long missCount, long loadSuccessCount,
+      long loadExceptionCount, long totalLoadTime, long evictionCount, long loadBatchCount,
+      long batchedLoadCount, long totalBatchLoadTime, long offHeapHitCount, long offHeapMissCount,
+      long offHeapEvictionCount, long offHeapEvictionWeight, long nearCacheHitCount) {
     checkArgument(hitCount >= 0);
     checkArgument(missCount >= 0);
     checkArgument(loadSuccessCount >= 0);
     checkArgument(loadExceptionCount >= 0);
     checkArgument(totalLoadTime >= 0);
     checkArgument(evictionCount >= 0);
+    checkArgument(loadBatchCount >= 0);
+    checkArgument(batchedLoadCount >= 0);
+    checkArgument(totalBatchLoadTime >= 0);
+    checkArgument(offHeapHitCount >= 0);
+    checkArgument(offHeapMissCount >= 0);
+    checkArgument(offHeapEvictionCount >= 0);
+    checkArgument(offHeapEvictionWeight >= 0);
+    checkArgument(nearCacheHitCount >= 0);
 
     this.hitCount = hitCount;
     this.missCount = missCount;
@@ -89,6 +130,14 @@ public final class CacheStats {
     this.loadExceptionCount = loadExceptionCount;
     this.totalLoadTime = totalLoadTime;
     this.evictionCount = evictionCount;
+    this.loadBatchCount = loadBatchCount;
+    this.batchedLoadCount = batchedLoadCount;
+    this.totalBatchLoadTime = totalBatchLoadTime;
+    this.offHeapHitCount = offHeapHitCount;
+    this.offHeapMissCount = offHeapMissCount;
+    this.offHeapEvictionCount = offHeapEvictionCount;
+    this.offHeapEvictionWeight = offHeapEvictionWeight;
+    this.nearCacheHitCount = nearCacheHitCount;
   }
 
   /**
@@ -211,6 +260,111 @@ public final class CacheStats {
     return evictionCount;
   }
 
+  /**
+   * Returns the number of batches of loads performed by a cache which
+   * {@linkplain CacheBuilder#batchLoads batches loads}.
+   */
+  @Beta
+  public long loadBatchCount() {
+    return loadBatchCount;
+  }
+
+  /**
+   * Returns the total number of keys loaded in batches. This is always at least
+   * {@link #loadBatchCount}.
+   */
+  @Beta
+  public long batchedLoadCount() {
+    return batchedLoadCount;
+  }
+
+  /**
+   * Returns the average number of keys loaded per batch. This is defined as
+   * {@code batchedLoadCount / loadBatchCount}, or {@code 0.0} when {@code loadBatchCount == 0}.
+   */
+  @Beta
+  public double averageLoadBatchSize() {
+    return (loadBatchCount == 0)
+        ? 0.0
+        : (double) batchedLoadCount / loadBatchCount;
+  }
+
+  /**
+   * Returns the total number of nanoseconds the cache has spent loading batches. This does not
+   * include the time that loads spent waiting for their batch to be closed.
+   */
+  @Beta
+  public long totalBatchLoadTime() {
+    return totalBatchLoadTime;
+  }
+
+  /**
+   * Returns the average time spent loading a batch. This is defined as
+   * {@code totalBatchLoadTime / loadBatchCount}, or {@code 0.0} when {@code loadBatchCount == 0}.
+   */
+  @Beta
+  public double averageBatchLoadPenalty() {
+    return (loadBatchCount == 0)
+        ? 0.0
+        : (double) totalBatchLoadTime / loadBatchCount;
+  }
+
+  /**
+   * Returns the number of times a lookup which missed on the heap found a value in the
+   * {@linkplain CacheBuilder#offHeapTier off-heap tier}. These lookups are also counted by
+   * {@link #hitCount}.
+   */
+  @Beta
+  public long offHeapHitCount() {
+    return offHeapHitCount;
+  }
+
+  /**
+   * Returns the number of times a lookup which missed on the heap found no value in the
+   * {@linkplain CacheBuilder#offHeapTier off-heap tier}.
+   */
+  @Beta
+  public long offHeapMissCount() {
+    return offHeapMissCount;
+  }
+
+  /**
+   * Returns the ratio of lookups reaching the off-heap tier which found a value there. This is
+   * defined as {@code offHeapHitCount / (offHeapHitCount + offHeapMissCount)}, or {@code 1.0} when
+   * no lookup has reached the tier.
+   */
+  @Beta
+  public double offHeapHitRate() {
+    long offHeapRequestCount = offHeapHitCount + offHeapMissCount;
+    return (offHeapRequestCount == 0) ? 1.0 : (double) offHeapHitCount / offHeapRequestCount;
+  }
+
+  /**
+   * Returns the number of entries evicted from the off-heap tier to make room for others. This
+   * count is separate from {@link #evictionCount}, which counts evictions from the heap.
+   */
+  @Beta
+  public long offHeapEvictionCount() {
+    return offHeapEvictionCount;
+  }
+
+  /**
+   * Returns the total size, in bytes, of the entries evicted from the off-heap tier.
+   */
+  @Beta
+  public long offHeapEvictionWeight() {
+    return offHeapEvictionWeight;
+  }
+
+  /**
+   * Returns the number of lookups answered by a {@linkplain NearCaches#threadLocal near cache}
+   * without consulting the cache itself. These lookups are also counted by {@link #hitCount}.
+   */
+  @Beta
+  public long nearCacheHitCount() {
+    return nearCacheHitCount;
+  }
+
   /**
    * Returns a new {@code CacheStats} representing the difference between this {@code CacheStats}
    * and {@code other}. Negative values, which aren't supported by {@code CacheStats} will be
@@ -223,7 +377,15 @@ public final class CacheStats {
         Math.max(0, loadSuccessCount - other.loadSuccessCount),
         Math.max(0, loadExceptionCount - other.loadExceptionCount),
         Math.max(0, totalLoadTime - other.totalLoadTime),
-        Math.max(0, evictionCount - other.evictionCount));
+        Math.max(0, evictionCount - other.evictionCount),
+        Math.max(0, loadBatchCount - other.loadBatchCount),
+        Math.max(0, batchedLoadCount - other.batchedLoadCount),
+        Math.max(0, totalBatchLoadTime - other.totalBatchLoadTime),
+        Math.max(0, offHeapHitCount - other.offHeapHitCount),
+        Math.max(0, offHeapMissCount - other.offHeapMissCount),
+        Math.max(0, offHeapEvictionCount - other.offHeapEvictionCount),
+        Math.max(0, offHeapEvictionWeight - other.offHeapEvictionWeight),
+        Math.max(0, nearCacheHitCount - other.nearCacheHitCount));
   }
 
   /**
@@ -239,13 +401,23 @@ public final class CacheStats {
         loadSuccessCount + other.loadSuccessCount,
         loadExceptionCount + other.loadExceptionCount,
         totalLoadTime + other.totalLoadTime,
-        evictionCount + other.evictionCount);
+        evictionCount + other.evictionCount,
+        loadBatchCount + other.loadBatchCount,
+        batchedLoadCount + other.batchedLoadCount,
+        totalBatchLoadTime + other.totalBatchLoadTime,
+        offHeapHitCount + other.offHeapHitCount,
+        offHeapMissCount + other.offHeapMissCount,
+        offHeapEvictionCount + other.offHeapEvictionCount,
+        offHeapEvictionWeight + other.offHeapEvictionWeight,
+        nearCacheHitCount + other.nearCacheHitCount);
   }
 
   @Override
   public int hashCode() {
     return Objects.hashCode(hitCount, missCount, loadSuccessCount, loadExceptionCount,
-        totalLoadTime, evictionCount);
+        totalLoadTime, evictionCount, loadBatchCount, batchedLoadCount, totalBatchLoadTime,
+        offHeapHitCount, offHeapMissCount, offHeapEvictionCount, offHeapEvictionWeight,
+        nearCacheHitCount);
   }
 
   @Override
@@ -257,7 +429,15 @@ public final class CacheStats {
           && loadSuccessCount == other.loadSuccessCount
           && loadExceptionCount == other.loadExceptionCount
           && totalLoadTime == other.totalLoadTime
-          && evictionCount == other.evictionCount;
+          && evictionCount == other.evictionCount
+          && loadBatchCount == other.loadBatchCount
+          && batchedLoadCount == other.batchedLoadCount
+          && totalBatchLoadTime == other.totalBatchLoadTime
+          && offHeapHitCount == other.offHeapHitCount
+          && offHeapMissCount == other.offHeapMissCount
+          && offHeapEvictionCount == other.offHeapEvictionCount
+          && offHeapEvictionWeight == other.offHeapEvictionWeight
+          && nearCacheHitCount == other.nearCacheHitCount;
     }
     return false;
   }
@@ -271,6 +451,14 @@ public final class CacheStats {
         .add("loadExceptionCount", loadExceptionCount)
         .add("totalLoadTime", totalLoadTime)
         .add("evictionCount", evictionCount)
+        .add("loadBatchCount", loadBatchCount)
+        .add("batchedLoadCount", batchedLoadCount)
+        .add("totalBatchLoadTime", totalBatchLoadTime)
+        .add("offHeapHitCount", offHeapHitCount)
+        .add("offHeapMissCount", offHeapMissCount)
+        .add("offHeapEvictionCount", offHeapEvictionCount)
+        .add("offHeapEvictionWeight", offHeapEvictionWeight)
+        .add("nearCacheHitCount", nearCacheHitCount)
         .toString();
   }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * Calculates when cache entries expire. A cache built with {@link CacheBuilder#expireAfter} asks
+ * its expiry for the lifetime of each entry when the entry is created, when its value is
+ * replaced, and when it is read.
+ *
+ * <p>All durations and times are in nanoseconds, as measured by the cache's
+ * {@linkplain CacheBuilder#ticker ticker}. Returning {@code currentDuration} leaves the expiration
+ * time of the entry unchanged. Negative durations are treated as zero, and durations longer than
+ * about 146 years are treated as never expiring.
+ *
+ * <p>These methods are called while the cache performs the corresponding operation, so they should
+ * be fast and must not access the cache.
+ */
+@Beta
+@GwtCompatible
+public interface Expiry<K, V> {
+
+  /**
+   * Returns the length of time after which a newly created entry should expire.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current time
+   * @return the length of time before the entry expires, in nanoseconds
+   */
+  long expireAfterCreate(K key, V value, long currentTime);
+
+  /**
+   * Returns the length of time after which an entry whose value was just replaced should expire.
+   *
+   * @param key the key of the entry
+   * @param value the new value of the entry
+   * @param currentTime the current time
+   * @param currentDuration the remaining lifetime of the entry before its value was replaced
+   * @return the length of time before the entry expires, in nanoseconds
+   */
+  long expireAfterUpdate(K key, V value, long currentTime, long currentDuration);
+
+  /**
+   * Returns the length of time after which an entry which was just read should expire.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current time
+   * @param currentDuration the remaining lifetime of the entry
+   * @return the length of time before the entry expires, in nanoseconds
+   */
+  long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
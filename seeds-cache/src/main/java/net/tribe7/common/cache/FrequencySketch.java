@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * A probabilistic multiset for estimating the popularity of an element within a time window. The
+ * maximum frequency of an element is limited to 15 (4-bits) and an aging process periodically
+ * halves the popularity of all elements.
+ *
+ * <p>This is a count-min sketch of depth four. The table is a power-of-two array of {@code long}
+ * words, each packing sixteen 4-bit counters. Each of the four hash functions selects a word, and
+ * the element selects a group of four counters within every word, one per hash function. When the
+ * number of increments reaches the sample size every counter is halved, which lets the sketch
+ * forget elements that were once popular but are no longer being accessed.
+ *
+ * <p>Elements are identified by their (already spread) hash code, so distinct elements that share a
+ * hash code share a frequency.
+ *
+ * <p>Adapted from the {@code FrequencySketch} of Ben Manes' Caffeine library.
+ */
+@GwtCompatible
+@NotThreadSafe
+final class FrequencySketch {
+
+  /** Seeds for the four hash functions; taken from FNV-1a and CityHash. */
+  private static final long[] SEED = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  /** Mask that clears the high bit of every counter, used when halving. */
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  /** Mask that selects the low bit of every counter, used to correct the sample size. */
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /** The largest table this sketch will allocate. */
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  private int sampleSize;
+  private int tableMask;
+  private long[] table;
+  private int size;
+
+  /**
+   * Creates a sketch sized to estimate the frequencies of {@code expectedSize} distinct elements.
+   */
+  FrequencySketch(long expectedSize) {
+    ensureCapacity(expectedSize);
+  }
+
+  /**
+   * Grows the sketch so that it can accurately estimate the frequencies of {@code expectedSize}
+   * distinct elements. The frequencies recorded so far are kept.
+   */
+  void ensureCapacity(long expectedSize) {
+    checkArgument(expectedSize >= 0);
+    int maximum = (int) Math.min(Math.max(expectedSize, 1), MAXIMUM_CAPACITY);
+    if ((table != null) && (table.length >= maximum)) {
+      return;
+    }
+
+    int capacity = 1;
+    while (capacity < maximum) {
+      capacity <<= 1;
+    }
+    long[] newTable = new long[capacity];
+    if (table != null) {
+      // an index into the larger table keeps the bits of the index into the smaller one, so every
+      // copy of a word holds the counters the element had before
+      for (int i = 0; i < capacity; i += table.length) {
+        System.arraycopy(table, 0, newTable, i, table.length);
+      }
+    }
+    table = newTable;
+    tableMask = capacity - 1;
+    sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+  }
+
+  /** Returns the number of distinct elements this sketch can estimate accurately. */
+  int capacity() {
+    return table.length;
+  }
+
+  /**
+   * Returns the estimated number of occurrences of the element with the given hash, up to the
+   * maximum of 15.
+   */
+  int frequency(int hash) {
+    int spread = spread(hash);
+    int start = (spread & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(spread, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Increments the popularity of the element with the given hash if it does not exceed the maximum
+   * of 15. All counters are periodically halved once enough increments have been observed.
+   */
+  void increment(int hash) {
+    int spread = spread(hash);
+    int start = (spread & 3) << 2;
+
+    int index0 = indexOf(spread, 0);
+    int index1 = indexOf(spread, 1);
+    int index2 = indexOf(spread, 2);
+    int index3 = indexOf(spread, 3);
+
+    boolean added = incrementAt(index0, start);
+    added |= incrementAt(index1, start + 1);
+    added |= incrementAt(index2, start + 2);
+    added |= incrementAt(index3, start + 3);
+
+    if (added && (++size == sampleSize)) {
+      reset();
+    }
+  }
+
+  /**
+   * Increments the counter at {@code j} of the word at index {@code i}, unless it is saturated.
+   * Returns whether the counter was incremented.
+   */
+  private boolean incrementAt(int i, int j) {
+    int offset = j << 2;
+    long mask = (0xfL << offset);
+    if ((table[i] & mask) != mask) {
+      table[i] += (1L << offset);
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves every counter, adjusting the sample size for the truncated odd counts. */
+  private void reset() {
+    int count = 0;
+    for (int i = 0; i < table.length; i++) {
+      count += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (count >>> 2);
+  }
+
+  /** Returns the table index for the {@code i}-th hash function applied to {@code item}. */
+  private int indexOf(int item, int i) {
+    long hash = (item + SEED[i]) * SEED[i];
+    hash += (hash >>> 32);
+    return ((int) hash) & tableMask;
+  }
+
+  /**
+   * Applies a supplemental hash function, as the element's hash is also used to pick its segment
+   * and bucket and so its low and high bits are not independent of the sketch's.
+   */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
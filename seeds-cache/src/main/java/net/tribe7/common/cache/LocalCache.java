@@ -17,12 +17,14 @@
 package net.tribe7.common.cache;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static net.tribe7.common.base.Preconditions.checkArgument;
 import static net.tribe7.common.base.Preconditions.checkNotNull;
 import static net.tribe7.common.base.Preconditions.checkState;
 import static net.tribe7.common.cache.CacheBuilder.NULL_TICKER;
 import static net.tribe7.common.cache.CacheBuilder.UNSET_INT;
 import static net.tribe7.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
@@ -35,7 +37,9 @@ import java.util.AbstractMap;
 import java.util.AbstractQueue;
 import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -45,7 +49,13 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
@@ -61,6 +71,7 @@ import net.tribe7.common.annotations.VisibleForTesting;
 import net.tribe7.common.base.Equivalence;
 import net.tribe7.common.base.Function;
 import net.tribe7.common.base.Stopwatch;
+import net.tribe7.common.base.Supplier;
 import net.tribe7.common.base.Ticker;
 import net.tribe7.common.cache.AbstractCache.SimpleStatsCounter;
 import net.tribe7.common.cache.AbstractCache.StatsCounter;
@@ -68,15 +79,23 @@ import net.tribe7.common.cache.CacheBuilder.NullListener;
 import net.tribe7.common.cache.CacheBuilder.OneWeigher;
 import net.tribe7.common.cache.CacheLoader.InvalidCacheLoadException;
 import net.tribe7.common.cache.CacheLoader.UnsupportedLoadingOperationException;
+import net.tribe7.common.cache.CacheMetrics.SegmentMetrics;
+import net.tribe7.common.cache.MetricsCounter.SegmentCounter;
+import net.tribe7.common.collect.AbstractIterator;
 import net.tribe7.common.collect.AbstractSequentialIterator;
+import net.tribe7.common.collect.ImmutableList;
 import net.tribe7.common.collect.ImmutableMap;
 import net.tribe7.common.collect.Iterators;
+import net.tribe7.common.collect.Lists;
 import net.tribe7.common.collect.Maps;
 import net.tribe7.common.collect.Sets;
 import net.tribe7.common.primitives.Ints;
 import net.tribe7.common.util.concurrent.ExecutionError;
+import net.tribe7.common.util.concurrent.FutureCallback;
+import net.tribe7.common.util.concurrent.FutureFallback;
 import net.tribe7.common.util.concurrent.Futures;
 import net.tribe7.common.util.concurrent.ListenableFuture;
+import net.tribe7.common.util.concurrent.ListenableFutureTask;
 import net.tribe7.common.util.concurrent.ListeningExecutorService;
 import net.tribe7.common.util.concurrent.MoreExecutors;
 import net.tribe7.common.util.concurrent.SettableFuture;
@@ -153,6 +172,27 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   // TODO(fry): empirically optimize this
   static final int DRAIN_MAX = 16;
 
+  /** Maximum number of entries evicted while holding a segment lock when a map is resized. */
+  static final int EVICTION_BATCH_SIZE = 64;
+
+  /**
+   * Number of acquisitions of a segment's lock over which its contention is sampled, when the map
+   * adapts its concurrency level.
+   */
+  static final int CONTENTION_SAMPLE_SIZE = 1024;
+
+  /**
+   * A sampled segment is considered contended, and the number of segments is doubled, when at
+   * least one in this many acquisitions of its lock had to wait for another thread.
+   */
+  static final int CONTENTION_THRESHOLD = 8;
+
+  /**
+   * Maximum number of removal notifications delivered by a single task running on the maintenance
+   * executor, so that a large backlog does not monopolize one of its threads.
+   */
+  static final int NOTIFICATION_BATCH_SIZE = 256;
+
   // Fields
 
   static final Logger logger = Logger.getLogger(LocalCache.class.getName());
@@ -160,22 +200,26 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   static final ListeningExecutorService sameThreadExecutor = MoreExecutors.sameThreadExecutor();
 
   /**
-   * Mask value for indexing into segments. The upper bits of a key's hash code are used to choose
-   * the segment.
+   * The segments, each of which is a specialized hash table. The upper bits of a key's hash code
+   * choose its segment, see {@link #segmentFor}. The array is only replaced when the map
+   * {@linkplain #growSegments grows} the number of segments.
    */
-  final int segmentMask;
+  volatile Segment<K, V>[] segments;
+
+  /** The concurrency level. */
+  final int concurrencyLevel;
 
   /**
-   * Shift value for indexing within segments. Helps prevent entries that end up in the same segment
-   * from also ending up in the same bucket.
+   * Whether the number of segments is doubled when their locks are contended, as specified by
+   * {@link CacheBuilder#adaptiveConcurrencyLevel}.
    */
-  final int segmentShift;
+  final boolean adaptsConcurrencyLevel;
 
-  /** The segments, each of which is a specialized hash table. */
-  final Segment<K, V>[] segments;
+  /** The number of segments beyond which the map does not grow them. */
+  final int maximumSegmentCount;
 
-  /** The concurrency level. */
-  final int concurrencyLevel;
+  /** Supplies the stats counters of new segments. */
+  final Supplier<? extends StatsCounter> statsCounterSupplier;
 
   /** Strategy for comparing keys. */
   final Equivalence<Object> keyEquivalence;
@@ -189,12 +233,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** Strategy for referencing values. */
   final Strength valueStrength;
 
-  /** The maximum weight of this map. UNSET_INT if there is no maximum. */
-  final long maxWeight;
+  /**
+   * The maximum weight of this map. UNSET_INT if there is no maximum. A bounded map may be
+   * resized by {@link #setMaximumWeight}, but never becomes unbounded.
+   */
+  volatile long maxWeight;
 
   /** Weigher to weigh cache entries. */
   final Weigher<K, V> weigher;
 
+  /** Computes the variable expiration time of each entry, if configured. */
+  @Nullable
+  final Expiry<K, V> expiry;
+
+  /** Whether size-based eviction admits entries by their frequency of access. */
+  final boolean frequencyAdmission;
+
+  /** Serializes the values of the off-heap tier, if configured. */
+  @Nullable
+  final ValueCodec<V> offHeapCodec;
+
+  /** The maximum size of the off-heap tier, in bytes. */
+  final long offHeapMaximumBytes;
+
+  /** The directory of memory-mapped off-heap slabs, or null if they are direct buffers. */
+  @Nullable
+  final File offHeapDirectory;
+
   /** How long after the last access to an entry the map will retain that entry. */
   final long expireAfterAccessNanos;
 
@@ -204,6 +269,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** How long after the last write an entry becomes a candidate for refresh. */
   final long refreshNanos;
 
+  /**
+   * Whether eligible entries are refreshed by a task scheduled on the builder's refresh scheduler,
+   * rather than when they are read.
+   */
+  final boolean refreshesProactively;
+
   /** Entries waiting to be consumed by the removal listener. */
   // TODO(fry): define a new type which creates event objects and automates the clear logic
   final Queue<RemovalNotification<K, V>> removalNotificationQueue;
@@ -214,30 +285,96 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    */
   final RemovalListener<K, V> removalListener;
 
+  /**
+   * Runs the amortized cleanup of the segments and delivers removal notifications, if specified
+   * by {@link CacheBuilder#maintenanceExecutor}. Otherwise they are performed by the threads
+   * accessing the cache.
+   */
+  @Nullable
+  final Executor maintenanceExecutor;
+
+  /** Whether a task delivering removal notifications is waiting to run on the executor. */
+  final AtomicBoolean notificationDrainScheduled = new AtomicBoolean();
+
   /** Measures time in a testable way. */
   final Ticker ticker;
 
   /** Factory used to create new entries. */
   final EntryFactory entryFactory;
 
+  /**
+   * Whether the keys of this map are {@code Long}s stored as primitive values, for a
+   * {@link LongKeyLoadingCache}.
+   */
+  final boolean longKeys;
+
   /**
    * Accumulates global cache statistics. Note that there are also per-segments stats counters
    * which must be aggregated to obtain a global stats view.
    */
   final StatsCounter globalStatsCounter;
 
+  /** Whether statistics are recorded, as specified by {@link CacheBuilder#recordStats}. */
+  final boolean recordsStats;
+
+  /**
+   * Accumulates the cache-wide detailed metrics, if {@link CacheBuilder#recordDetailedStats} was
+   * specified. The per-segment metrics are held by each segment.
+   */
+  @Nullable
+  final MetricsCounter metricsCounter;
+
+  /**
+   * Counts the lookups answered by {@linkplain NearCaches near caches} of this cache, if statistics
+   * are recorded.
+   */
+  @Nullable
+  final LongAddable nearCacheHitCount;
+
   /**
-   * The default cache loader to use on loading operations.
+   * The default cache loader to use on loading operations. This is the loader the cache was built
+   * with, wrapped by {@link #loadBatcher} if loads are batched.
    */
   @Nullable
   final CacheLoader<? super K, V> defaultLoader;
 
+  /** Coalesces concurrent loads by the default loader into batches, if configured. */
+  @Nullable
+  final BatchingCacheLoader<K, V> loadBatcher;
+
+  /**
+   * Coalesces refreshes by the default loader into batches, if specified by
+   * {@link CacheBuilder#batchRefreshes}.
+   */
+  @Nullable
+  final RefreshCoordinator<K, V> refreshCoordinator;
+
+  /**
+   * Runs the individual loads of {@link #getAll} when the loader doesn't implement
+   * {@code loadAll}, if specified by {@link CacheBuilder#parallelGetAll}.
+   */
+  @Nullable
+  final Executor getAllExecutor;
+
+  /** The maximum number of loads of a single {@link #getAll} run concurrently. */
+  final int maximumGetAllLoads;
+
   /**
    * Creates a new, empty map with the specified strategy, initial capacity and concurrency level.
    */
   LocalCache(
       CacheBuilder<? super K, ? super V> builder, @Nullable CacheLoader<? super K, V> loader) {
+    this(builder, loader, false);
+  }
+
+  /**
+   * Creates a new, empty map with the specified strategy, initial capacity and concurrency level,
+   * whose keys are stored as primitive values if {@code longKeys}.
+   */
+  LocalCache(CacheBuilder<? super K, ? super V> builder,
+      @Nullable CacheLoader<? super K, V> loader, boolean longKeys) {
     concurrencyLevel = Math.min(builder.getConcurrencyLevel(), MAX_SEGMENTS);
+    adaptsConcurrencyLevel = builder.adaptsConcurrencyLevel();
 
     keyStrength = builder.getKeyStrength();
     valueStrength = builder.getValueStrength();
@@ -247,19 +384,46 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     maxWeight = builder.getMaximumWeight();
     weigher = builder.getWeigher();
+    frequencyAdmission = builder.usesFrequencyAdmission();
+    offHeapCodec = builder.getOffHeapCodec();
+    offHeapMaximumBytes = builder.getOffHeapMaximumBytes();
+    offHeapDirectory = builder.getOffHeapDirectory();
     expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
     expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
     refreshNanos = builder.getRefreshNanos();
+    expiry = builder.getExpiry();
+    refreshesProactively = (loader != null) && (builder.getRefreshScheduler() != null);
 
     removalListener = builder.getRemovalListener();
     removalNotificationQueue = (removalListener == NullListener.INSTANCE)
         ? LocalCache.<RemovalNotification<K, V>>discardingQueue()
         : new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
+    maintenanceExecutor = builder.getMaintenanceExecutor();
 
     ticker = builder.getTicker(recordsTime());
-    entryFactory = EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
-    globalStatsCounter = builder.getStatsCounterSupplier().get();
-    defaultLoader = loader;
+    this.longKeys = longKeys;
+    entryFactory = longKeys
+        ? EntryFactory.getLongFactory(usesAccessEntries(), usesWriteEntries())
+        : EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
+    metricsCounter = builder.isRecordingDetailedStats() ? new MetricsCounter() : null;
+    statsCounterSupplier = builder.getStatsCounterSupplier();
+    globalStatsCounter = newStatsCounter();
+    recordsStats = builder.isRecordingStats();
+    nearCacheHitCount = recordsStats ? LongAddables.create() : null;
+    if (loader != null && builder.batchesLoads()) {
+      loadBatcher = new BatchingCacheLoader<K, V>(loader, builder.getMaximumLoadBatchSize(),
+          builder.getLoadBatchDelayNanos(), builder.isRecordingStats());
+      defaultLoader = loadBatcher;
+    } else {
+      loadBatcher = null;
+      defaultLoader = loader;
+    }
+    refreshCoordinator = (loader != null && builder.getRefreshBatchScheduler() != null)
+        ? new RefreshCoordinator<K, V>(this, defaultLoader, builder.getMaximumRefreshBatchSize(),
+            builder.getRefreshBatchDelayNanos(), builder.getRefreshBatchScheduler())
+        : null;
+    getAllExecutor = builder.getGetAllExecutor();
+    maximumGetAllLoads = builder.getMaximumGetAllLoads();
 
     int initialCapacity = Math.min(builder.getInitialCapacity(), MAXIMUM_CAPACITY);
     if (evictsBySize() && !customWeigher()) {
@@ -271,15 +435,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     // entries. The special casing for size-based eviction is only necessary because that eviction
     // happens per segment instead of globally, so too many segments compared to the maximum size
     // will result in random eviction behavior.
-    int segmentShift = 0;
     int segmentCount = 1;
-    while (segmentCount < concurrencyLevel
-           && (!evictsBySize() || segmentCount * 20 <= maxWeight)) {
-      ++segmentShift;
+    while (segmentCount < concurrencyLevel && canSplitSegments(segmentCount)) {
       segmentCount <<= 1;
     }
-    this.segmentShift = 32 - segmentShift;
-    segmentMask = segmentCount - 1;
+    int maximumSegmentCount = segmentCount;
+    if (adaptsConcurrencyLevel) {
+      // beyond a few segments per processor, contention is more likely caused by hot keys
+      int processors = Runtime.getRuntime().availableProcessors();
+      while (maximumSegmentCount < MAX_SEGMENTS && maximumSegmentCount < 4 * processors
+          && canSplitSegments(maximumSegmentCount)) {
+        maximumSegmentCount <<= 1;
+      }
+    }
+    this.maximumSegmentCount = maximumSegmentCount;
 
     this.segments = newSegmentArray(segmentCount);
 
@@ -295,33 +464,58 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     if (evictsBySize()) {
       // Ensure sum of segment max weights = overall max weights
-      long maxSegmentWeight = maxWeight / segmentCount + 1;
-      long remainder = maxWeight % segmentCount;
       for (int i = 0; i < this.segments.length; ++i) {
-        if (i == remainder) {
-          maxSegmentWeight--;
-        }
+        long maxSegmentWeight = segmentMaximumWeight(maxWeight, segmentCount, i);
         this.segments[i] =
-            createSegment(segmentSize, maxSegmentWeight, builder.getStatsCounterSupplier().get());
+            createSegment(segmentSize, maxSegmentWeight, newStatsCounter());
       }
     } else {
       for (int i = 0; i < this.segments.length; ++i) {
         this.segments[i] =
-            createSegment(segmentSize, UNSET_INT, builder.getStatsCounterSupplier().get());
+            createSegment(segmentSize, UNSET_INT, newStatsCounter());
       }
     }
   }
 
+  /**
+   * Starts the scheduled refreshes of a cache built with {@link CacheBuilder#refreshScheduler}.
+   * Called once the cache has been constructed, so that the scheduler never sees it partially
+   * initialized.
+   */
+  void startScheduledRefreshes(CacheBuilder<?, ?> builder) {
+    if (refreshesProactively) {
+      ScheduledRefresher.schedule(this, builder.getRefreshScheduler());
+    }
+  }
+
+  /** Returns a new stats counter, which also records load latencies if metrics are recorded. */
+  private StatsCounter newStatsCounter() {
+    StatsCounter statsCounter = statsCounterSupplier.get();
+    return (metricsCounter == null) ? statsCounter : metricsCounter.wrap(statsCounter);
+  }
+
   boolean evictsBySize() {
     return maxWeight >= 0;
   }
 
+  /**
+   * Returns whether a map of {@code segmentCount} segments may be split into twice as many, leaving
+   * room for at least 10 entries in each segment of a bounded map.
+   */
+  private boolean canSplitSegments(int segmentCount) {
+    return !evictsBySize() || segmentCount * 20 <= maxWeight;
+  }
+
   boolean customWeigher() {
     return weigher != OneWeigher.INSTANCE;
   }
 
+  boolean admitsByFrequency() {
+    return frequencyAdmission && evictsBySize();
+  }
+
   boolean expires() {
-    return expiresAfterWrite() || expiresAfterAccess();
+    return expiresAfterWrite() || expiresAfterAccess() || expiresVariably();
   }
 
   boolean expiresAfterWrite() {
@@ -332,6 +526,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return expireAfterAccessNanos > 0;
   }
 
+  boolean expiresVariably() {
+    return expiry != null;
+  }
+
   boolean refreshes() {
     return refreshNanos > 0;
   }
@@ -341,7 +539,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   boolean usesWriteQueue() {
-    return expiresAfterWrite();
+    // proactive refreshes find the entries written longest ago at the head of the write queue
+    return expiresAfterWrite() || expiresVariably() || refreshesProactively;
   }
 
   boolean recordsWrite() {
@@ -349,11 +548,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   boolean recordsAccess() {
-    return expiresAfterAccess();
+    // proactive refreshes skip entries which were not read since they were last written
+    return expiresAfterAccess() || refreshesProactively;
   }
 
   boolean recordsTime() {
-    return recordsWrite() || recordsAccess();
+    return recordsWrite() || recordsAccess() || expiresVariably();
   }
 
   boolean usesWriteEntries() {
@@ -373,18 +573,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   enum Strength {
-    /*
-     * TODO(kevinb): If we strongly reference the value and aren't loading, we needn't wrap the
-     * value. This could save ~8 bytes per entry.
-     */
-
     STRONG {
       @Override
       <K, V> ValueReference<K, V> referenceValue(
           Segment<K, V> segment, ReferenceEntry<K, V> entry, V value, int weight) {
-        return (weight == 1)
-            ? new StrongValueReference<K, V>(value)
-            : new WeightedStrongValueReference<K, V>(value, weight);
+        if (weight != 1) {
+          return new WeightedStrongValueReference<K, V>(value, weight);
+        }
+        return (entry instanceof InlineValueEntry)
+            ? ((InlineValueEntry<K, V>) entry).inlineValue(value)
+            : new StrongValueReference<K, V>(value);
       }
 
       @Override
@@ -541,6 +739,60 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         return new WeakAccessWriteEntry<K, V>(segment.keyReferenceQueue, key, hash, next);
       }
 
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        return newEntry;
+      }
+    },
+
+    LONG {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new LongEntry<K, V>((Long) key, hash, next);
+      }
+    },
+    LONG_ACCESS {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new LongAccessEntry<K, V>((Long) key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        return newEntry;
+      }
+    },
+    LONG_WRITE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new LongWriteEntry<K, V>((Long) key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyWriteEntry(original, newEntry);
+        return newEntry;
+      }
+    },
+    LONG_ACCESS_WRITE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new LongAccessWriteEntry<K, V>((Long) key, hash, next);
+      }
+
       @Override
       <K, V> ReferenceEntry<K, V> copyEntry(
           Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
@@ -566,6 +818,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       WEAK, WEAK_ACCESS, WEAK_WRITE, WEAK_ACCESS_WRITE,
     };
 
+    /**
+     * Look-up table for the factories of maps with primitive long keys, which are always strongly
+     * referenced.
+     */
+    static final EntryFactory[] longFactories = {
+      LONG, LONG_ACCESS, LONG_WRITE, LONG_ACCESS_WRITE,
+    };
+
     static EntryFactory getFactory(Strength keyStrength, boolean usesAccessQueue,
         boolean usesWriteQueue) {
       int flags = ((keyStrength == Strength.WEAK) ? WEAK_MASK : 0)
@@ -574,6 +834,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return factories[flags];
     }
 
+    static EntryFactory getLongFactory(boolean usesAccessQueue, boolean usesWriteQueue) {
+      int flags = (usesAccessQueue ? ACCESS_MASK : 0) | (usesWriteQueue ? WRITE_MASK : 0);
+      return longFactories[flags];
+    }
+
     /**
      * Creates a new entry.
      *
@@ -602,6 +867,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       // TODO(fry): when we link values instead of entries this method can go
       // away, as can connectAccessOrder, nullifyAccessOrder.
       newEntry.setAccessTime(original.getAccessTime());
+      newEntry.setAccessRegion(original.getAccessRegion());
 
       connectAccessOrder(original.getPreviousInAccessQueue(), newEntry);
       connectAccessOrder(newEntry, original.getNextInAccessQueue());
@@ -814,6 +1080,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     void setPreviousInAccessQueue(ReferenceEntry<K, V> previous);
 
+    /**
+     * Returns the region of the access queue this entry is linked into. This is only maintained by
+     * caches that admit entries by frequency, which split the access queue into several regions.
+     */
+    int getAccessRegion();
+
+    /**
+     * Sets the region of the access queue this entry is linked into.
+     */
+    void setAccessRegion(int region);
+
     /*
      * Implemented by entries that use write order. Write entries are maintained in a
      * doubly-linked list. New entries are added at the tail of the list at write time and stale
@@ -901,6 +1178,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @Override
     public void setPreviousInAccessQueue(ReferenceEntry<Object, Object> previous) {}
 
+    @Override
+    public int getAccessRegion() {
+      return 0;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {}
+
     @Override
     public long getWriteTime() {
       return 0;
@@ -982,6 +1267,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public int getAccessRegion() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public long getWriteTime() {
       throw new UnsupportedOperationException();
@@ -1053,6 +1348,87 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return (Queue) DISCARDING_QUEUE;
   }
 
+  /**
+   * An entry which can hold a strongly referenced value of weight one itself, acting as its own
+   * value reference instead of pointing to a separate {@link StrongValueReference}. The value
+   * field usually fits in the padding of the entry, so this saves the 16 bytes of the separate
+   * reference. Loading and weighted values still use separate references. While a value is
+   * loading, the value field keeps the last value stored inline, which the loading reference
+   * returns as its old value; once another reference holds the value, the field is cleared so that
+   * the old value can be collected.
+   */
+  static abstract class InlineValueEntry<K, V> extends AbstractReferenceEntry<K, V>
+      implements ValueReference<K, V> {
+    volatile V value;
+
+    /** Stores {@code value} in this entry, and returns this entry as its value reference. */
+    @GuardedBy("Segment.this")
+    ValueReference<K, V> inlineValue(V value) {
+      this.value = value;
+      return this;
+    }
+
+    /**
+     * Clears the value stored inline once {@code valueReference}, which has just been set as the
+     * value reference of this entry, holds the value instead.
+     */
+    @GuardedBy("Segment.this")
+    void releaseInlineValue(ValueReference<K, V> valueReference) {
+      if (valueReference != this && !valueReference.isLoading()) {
+        value = null;
+      }
+    }
+
+    @Override
+    public V get() {
+      V value = this.value;
+      if (value == null) {
+        // a reader may still hold this entry as the reference which was just replaced
+        ValueReference<K, V> current = getValueReference();
+        if (current != this && !current.isLoading()) {
+          return current.get();
+        }
+      }
+      return value;
+    }
+
+    @Override
+    public int getWeight() {
+      return 1;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return null;
+    }
+
+    @Override
+    public ValueReference<K, V> copyFor(
+        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
+      return (entry instanceof InlineValueEntry)
+          ? ((InlineValueEntry<K, V>) entry).inlineValue(value)
+          : new StrongValueReference<K, V>(value);
+    }
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public V waitForValue() {
+      return get();
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+  }
+
   /*
    * Note: All of this duplicate code sucks, but it saves a lot of memory. If only Java had mixins!
    * To maintain this code, make a change for the strong reference type. Then, cut and paste, and
@@ -1064,7 +1440,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /**
    * Used for strongly-referenced keys.
    */
-  static class StrongEntry<K, V> extends AbstractReferenceEntry<K, V> {
+  static class StrongEntry<K, V> extends InlineValueEntry<K, V> {
     final K key;
 
     StrongEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
@@ -1092,6 +1468,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @Override
     public void setValueReference(ValueReference<K, V> valueReference) {
       this.valueReference = valueReference;
+      releaseInlineValue(valueReference);
     }
 
     @Override
@@ -1149,6 +1526,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
       this.previousAccess = previous;
     }
+
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
   }
 
   static final class StrongWriteEntry<K, V> extends StrongEntry<K, V> {
@@ -1242,6 +1632,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.previousAccess = previous;
     }
 
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
+
     // The code below is exactly the same for each write entry type.
 
     volatile long writeTime = Long.MAX_VALUE;
@@ -1284,103 +1687,41 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   /**
-   * Used for weakly-referenced keys.
+   * Used for the keys of a {@link LongKeyLoadingCache}, which are stored as primitive values so
+   * that lookups by a {@code long} don't need to box it. {@link #getKey} boxes the key, so the
+   * lookups by a {@code long} compare {@link #key} directly, and check the entry with
+   * {@link Segment#getLiveLongValue}, which never reads the key.
    */
-  static class WeakEntry<K, V> extends WeakReference<K> implements ReferenceEntry<K, V> {
-    WeakEntry(ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
-      super(key, queue);
+  static class LongEntry<K, V> extends InlineValueEntry<K, V> {
+    final long key;
+
+    LongEntry(long key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      this.key = key;
       this.hash = hash;
       this.next = next;
     }
 
+    @SuppressWarnings("unchecked") // only used in maps whose keys are Longs
     @Override
     public K getKey() {
-      return get();
+      return (K) Long.valueOf(key);
     }
 
-    /*
-     * It'd be nice to get these for free from AbstractReferenceEntry, but we're already extending
-     * WeakReference<K>.
-     */
+    // The code below is exactly the same for each entry type.
 
-    // null access
+    final int hash;
+    final ReferenceEntry<K, V> next;
+    volatile ValueReference<K, V> valueReference = unset();
 
     @Override
-    public long getAccessTime() {
-      throw new UnsupportedOperationException();
+    public ValueReference<K, V> getValueReference() {
+      return valueReference;
     }
 
     @Override
-    public void setAccessTime(long time) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public ReferenceEntry<K, V> getNextInAccessQueue() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
-      throw new UnsupportedOperationException();
-    }
-
-    // null write
-
-    @Override
-    public long getWriteTime() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void setWriteTime(long time) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public ReferenceEntry<K, V> getNextInWriteQueue() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
-      throw new UnsupportedOperationException();
-    }
-
-    // The code below is exactly the same for each entry type.
-
-    final int hash;
-    final ReferenceEntry<K, V> next;
-    volatile ValueReference<K, V> valueReference = unset();
-
-    @Override
-    public ValueReference<K, V> getValueReference() {
-      return valueReference;
-    }
-
-    @Override
-    public void setValueReference(ValueReference<K, V> valueReference) {
-      this.valueReference = valueReference;
+    public void setValueReference(ValueReference<K, V> valueReference) {
+      this.valueReference = valueReference;
+      releaseInlineValue(valueReference);
     }
 
     @Override
@@ -1394,10 +1735,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class WeakAccessEntry<K, V> extends WeakEntry<K, V> {
-    WeakAccessEntry(
-        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
-      super(queue, key, hash, next);
+  static final class LongAccessEntry<K, V> extends LongEntry<K, V> {
+    LongAccessEntry(long key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
     }
 
     // The code below is exactly the same for each access entry type.
@@ -1439,12 +1779,24 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
       this.previousAccess = previous;
     }
+
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
   }
 
-  static final class WeakWriteEntry<K, V> extends WeakEntry<K, V> {
-    WeakWriteEntry(
-        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
-      super(queue, key, hash, next);
+  static final class LongWriteEntry<K, V> extends LongEntry<K, V> {
+    LongWriteEntry(long key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
     }
 
     // The code below is exactly the same for each write entry type.
@@ -1488,10 +1840,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static final class WeakAccessWriteEntry<K, V> extends WeakEntry<K, V> {
-    WeakAccessWriteEntry(
-        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
-      super(queue, key, hash, next);
+  static final class LongAccessWriteEntry<K, V> extends LongEntry<K, V> {
+    LongAccessWriteEntry(long key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
     }
 
     // The code below is exactly the same for each access entry type.
@@ -1534,6 +1885,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.previousAccess = previous;
     }
 
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
+
     // The code below is exactly the same for each write entry type.
 
     volatile long writeTime = Long.MAX_VALUE;
@@ -1576,148 +1940,476 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   /**
-   * References a weak value.
+   * Used for weakly-referenced keys.
    */
-  static class WeakValueReference<K, V>
-      extends WeakReference<V> implements ValueReference<K, V> {
-    final ReferenceEntry<K, V> entry;
-
-    WeakValueReference(ReferenceQueue<V> queue, V referent, ReferenceEntry<K, V> entry) {
-      super(referent, queue);
-      this.entry = entry;
+  static class WeakEntry<K, V> extends WeakReference<K> implements ReferenceEntry<K, V> {
+    WeakEntry(ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, queue);
+      this.hash = hash;
+      this.next = next;
     }
 
     @Override
-    public int getWeight() {
-      return 1;
+    public K getKey() {
+      return get();
     }
 
+    /*
+     * It'd be nice to get these for free from AbstractReferenceEntry, but we're already extending
+     * WeakReference<K>.
+     */
+
+    // null access
+
     @Override
-    public ReferenceEntry<K, V> getEntry() {
-      return entry;
+    public long getAccessTime() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public void notifyNewValue(V newValue) {}
+    public void setAccessTime(long time) {
+      throw new UnsupportedOperationException();
+    }
 
     @Override
-    public ValueReference<K, V> copyFor(
-        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
-      return new WeakValueReference<K, V>(queue, value, entry);
+    public ReferenceEntry<K, V> getNextInAccessQueue() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public boolean isLoading() {
-      return false;
+    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public boolean isActive() {
-      return true;
+    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public V waitForValue() {
-      return get();
+    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
     }
-  }
-
-  /**
-   * References a soft value.
-   */
-  static class SoftValueReference<K, V>
-      extends SoftReference<V> implements ValueReference<K, V> {
-    final ReferenceEntry<K, V> entry;
 
-    SoftValueReference(ReferenceQueue<V> queue, V referent, ReferenceEntry<K, V> entry) {
-      super(referent, queue);
-      this.entry = entry;
+    @Override
+    public int getAccessRegion() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public int getWeight() {
-      return 1;
+    public void setAccessRegion(int region) {
+      throw new UnsupportedOperationException();
     }
 
+    // null write
+
     @Override
-    public ReferenceEntry<K, V> getEntry() {
-      return entry;
+    public long getWriteTime() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public void notifyNewValue(V newValue) {}
+    public void setWriteTime(long time) {
+      throw new UnsupportedOperationException();
+    }
 
     @Override
-    public ValueReference<K, V> copyFor(
-        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
-      return new SoftValueReference<K, V>(queue, value, entry);
+    public ReferenceEntry<K, V> getNextInWriteQueue() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public boolean isLoading() {
-      return false;
+    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public boolean isActive() {
-      return true;
+    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+      throw new UnsupportedOperationException();
     }
 
     @Override
-    public V waitForValue() {
-      return get();
+    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
     }
-  }
 
-  /**
-   * References a strong value.
-   */
-  static class StrongValueReference<K, V> implements ValueReference<K, V> {
-    final V referent;
+    // The code below is exactly the same for each entry type.
 
-    StrongValueReference(V referent) {
-      this.referent = referent;
+    final int hash;
+    final ReferenceEntry<K, V> next;
+    volatile ValueReference<K, V> valueReference = unset();
+
+    @Override
+    public ValueReference<K, V> getValueReference() {
+      return valueReference;
     }
 
     @Override
-    public V get() {
-      return referent;
+    public void setValueReference(ValueReference<K, V> valueReference) {
+      this.valueReference = valueReference;
     }
 
     @Override
-    public int getWeight() {
-      return 1;
+    public int getHash() {
+      return hash;
     }
 
     @Override
-    public ReferenceEntry<K, V> getEntry() {
-      return null;
+    public ReferenceEntry<K, V> getNext() {
+      return next;
+    }
+  }
+
+  static final class WeakAccessEntry<K, V> extends WeakEntry<K, V> {
+    WeakAccessEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
     }
 
+    // The code below is exactly the same for each access entry type.
+
+    volatile long accessTime = Long.MAX_VALUE;
+
     @Override
-    public ValueReference<K, V> copyFor(
-        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
-      return this;
+    public long getAccessTime() {
+      return accessTime;
     }
 
     @Override
-    public boolean isLoading() {
-      return false;
+    public void setAccessTime(long time) {
+      this.accessTime = time;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextAccess = nullEntry();
+
     @Override
-    public boolean isActive() {
-      return true;
+    public ReferenceEntry<K, V> getNextInAccessQueue() {
+      return nextAccess;
     }
 
     @Override
-    public V waitForValue() {
-      return get();
+    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
+      this.nextAccess = next;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousAccess = nullEntry();
+
     @Override
-    public void notifyNewValue(V newValue) {}
-  }
+    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
+      return previousAccess;
+    }
+
+    @Override
+    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
+      this.previousAccess = previous;
+    }
+
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
+  }
+
+  static final class WeakWriteEntry<K, V> extends WeakEntry<K, V> {
+    WeakWriteEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
+    }
+
+    // The code below is exactly the same for each write entry type.
+
+    volatile long writeTime = Long.MAX_VALUE;
+
+    @Override
+    public long getWriteTime() {
+      return writeTime;
+    }
+
+    @Override
+    public void setWriteTime(long time) {
+      this.writeTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInWriteQueue() {
+      return nextWrite;
+    }
+
+    @Override
+    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+      this.nextWrite = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+      return previousWrite;
+    }
+
+    @Override
+    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+      this.previousWrite = previous;
+    }
+  }
+
+  static final class WeakAccessWriteEntry<K, V> extends WeakEntry<K, V> {
+    WeakAccessWriteEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
+    }
+
+    // The code below is exactly the same for each access entry type.
+
+    volatile long accessTime = Long.MAX_VALUE;
+
+    @Override
+    public long getAccessTime() {
+      return accessTime;
+    }
+
+    @Override
+    public void setAccessTime(long time) {
+      this.accessTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextAccess = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInAccessQueue() {
+      return nextAccess;
+    }
+
+    @Override
+    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
+      this.nextAccess = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousAccess = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
+      return previousAccess;
+    }
+
+    @Override
+    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
+      this.previousAccess = previous;
+    }
+
+    @GuardedBy("Segment.this")
+    int accessRegion;
+
+    @Override
+    public int getAccessRegion() {
+      return accessRegion;
+    }
+
+    @Override
+    public void setAccessRegion(int region) {
+      this.accessRegion = region;
+    }
+
+    // The code below is exactly the same for each write entry type.
+
+    volatile long writeTime = Long.MAX_VALUE;
+
+    @Override
+    public long getWriteTime() {
+      return writeTime;
+    }
+
+    @Override
+    public void setWriteTime(long time) {
+      this.writeTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInWriteQueue() {
+      return nextWrite;
+    }
+
+    @Override
+    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+      this.nextWrite = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+      return previousWrite;
+    }
+
+    @Override
+    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+      this.previousWrite = previous;
+    }
+  }
+
+  /**
+   * References a weak value.
+   */
+  static class WeakValueReference<K, V>
+      extends WeakReference<V> implements ValueReference<K, V> {
+    final ReferenceEntry<K, V> entry;
+
+    WeakValueReference(ReferenceQueue<V> queue, V referent, ReferenceEntry<K, V> entry) {
+      super(referent, queue);
+      this.entry = entry;
+    }
+
+    @Override
+    public int getWeight() {
+      return 1;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return entry;
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+
+    @Override
+    public ValueReference<K, V> copyFor(
+        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
+      return new WeakValueReference<K, V>(queue, value, entry);
+    }
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public V waitForValue() {
+      return get();
+    }
+  }
+
+  /**
+   * References a soft value.
+   */
+  static class SoftValueReference<K, V>
+      extends SoftReference<V> implements ValueReference<K, V> {
+    final ReferenceEntry<K, V> entry;
+
+    SoftValueReference(ReferenceQueue<V> queue, V referent, ReferenceEntry<K, V> entry) {
+      super(referent, queue);
+      this.entry = entry;
+    }
+
+    @Override
+    public int getWeight() {
+      return 1;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return entry;
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+
+    @Override
+    public ValueReference<K, V> copyFor(
+        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
+      return new SoftValueReference<K, V>(queue, value, entry);
+    }
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public V waitForValue() {
+      return get();
+    }
+  }
+
+  /**
+   * References a strong value.
+   */
+  static class StrongValueReference<K, V> implements ValueReference<K, V> {
+    final V referent;
+
+    StrongValueReference(V referent) {
+      this.referent = referent;
+    }
+
+    @Override
+    public V get() {
+      return referent;
+    }
+
+    @Override
+    public int getWeight() {
+      return 1;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return null;
+    }
+
+    @Override
+    public ValueReference<K, V> copyFor(
+        ReferenceQueue<V> queue, V value, ReferenceEntry<K, V> entry) {
+      return this;
+    }
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public V waitForValue() {
+      return get();
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+  }
 
   /**
    * References a weak value.
@@ -1833,6 +2525,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return valueStrength.referenceValue(segmentFor(hash), entry, checkNotNull(value), weight);
   }
 
+  /** Returns the hash of a primitive key, which is the same as the hash of the boxed key. */
+  static int hash(long key) {
+    return rehash((int) (key ^ (key >>> 32)));
+  }
+
   int hash(@Nullable Object key) {
     int h = keyEquivalence.hash(key);
     return rehash(h);
@@ -1866,7 +2563,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    */
   Segment<K, V> segmentFor(int hash) {
     // TODO(fry): Lazily create segments?
-    return segments[(hash >>> segmentShift) & segmentMask];
+    Segment<K, V>[] segments = this.segments;
+    return segments[segmentIndex(hash, segments.length)];
+  }
+
+  /**
+   * Returns the index of the segment for the given hash among {@code segmentCount} segments, a
+   * power of two. The upper bits of the hash are used, so that entries which end up in the same
+   * segment do not also end up in the same bucket.
+   */
+  static int segmentIndex(int hash, int segmentCount) {
+    int mask = segmentCount - 1;
+    return (hash >>> Integer.numberOfLeadingZeros(mask)) & mask;
   }
 
   Segment<K, V> createSegment(
@@ -1911,9 +2619,67 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         && (now - entry.getWriteTime() >= expireAfterWriteNanos)) {
       return true;
     }
+    if (expiresVariably() && (now - entry.getWriteTime() >= 0)) {
+      // the write time holds the expiration time
+      return true;
+    }
     return false;
   }
 
+  /**
+   * Returns the time at which {@code entry} expires, which is only meaningful if this map
+   * {@linkplain #expires expires} entries.
+   */
+  long expirationTime(ReferenceEntry<K, V> entry) {
+    if (expiresVariably()) {
+      return entry.getWriteTime();
+    }
+    if (!expiresAfterWrite()) {
+      return entry.getAccessTime() + expireAfterAccessNanos;
+    }
+    long time = entry.getWriteTime() + expireAfterWriteNanos;
+    if (expiresAfterAccess()) {
+      long accessExpirationTime = entry.getAccessTime() + expireAfterAccessNanos;
+      if (accessExpirationTime - time < 0) {
+        time = accessExpirationTime;
+      }
+    }
+    return time;
+  }
+
+  /**
+   * The longest duration an entry may live before expiring, which keeps expiration times from
+   * overflowing (about 146 years).
+   */
+  static final long MAXIMUM_EXPIRY = Long.MAX_VALUE >> 1;
+
+  /** Returns the time at which an entry expires, given a duration returned by the expiry. */
+  static long expirationTime(long now, long duration) {
+    return now + Math.max(0, Math.min(duration, MAXIMUM_EXPIRY));
+  }
+
+  /**
+   * Sets the expiration time of {@code entry}, whose value is being set to {@code value}. The
+   * entry was created unless {@code oldValue} is present.
+   */
+  void setWriteExpiration(
+      ReferenceEntry<K, V> entry, K key, V value, @Nullable V oldValue, long now) {
+    long duration = (oldValue == null)
+        ? expiry.expireAfterCreate(key, value, now)
+        : expiry.expireAfterUpdate(key, value, now, entry.getWriteTime() - now);
+    entry.setWriteTime(expirationTime(now, duration));
+  }
+
+  /** Updates the expiration time of {@code entry}, which was just read. */
+  void setReadExpiration(ReferenceEntry<K, V> entry, long now) {
+    K key = entry.getKey();
+    V value = entry.getValueReference().get();
+    if (key != null && value != null) {
+      long duration = expiry.expireAfterRead(key, value, now, entry.getWriteTime() - now);
+      entry.setWriteTime(expirationTime(now, duration));
+    }
+  }
+
   // queues
 
   @GuardedBy("Segment.this")
@@ -1948,14 +2714,63 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    * evictEntry is called (once the lock is released).
    */
   void processPendingNotifications() {
+    processPendingNotifications(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Delivers up to {@code limit} pending removal notifications, returning whether any remain.
+   */
+  boolean processPendingNotifications(int limit) {
     RemovalNotification<K, V> notification;
-    while ((notification = removalNotificationQueue.poll()) != null) {
+    for (int i = 0; i < limit; i++) {
+      if ((notification = removalNotificationQueue.poll()) == null) {
+        return false;
+      }
       try {
         removalListener.onRemoval(notification);
       } catch (Throwable e) {
         logger.log(Level.WARNING, "Exception thrown by removal listener", e);
       }
     }
+    return !removalNotificationQueue.isEmpty();
+  }
+
+  /**
+   * Delivers the pending removal notifications, or has them delivered by a task running on the
+   * maintenance executor if one was specified.
+   */
+  void dispatchPendingNotifications() {
+    if (maintenanceExecutor == null) {
+      processPendingNotifications();
+    } else if (!removalNotificationQueue.isEmpty()) {
+      scheduleNotificationDrain();
+    }
+  }
+
+  /**
+   * Submits a task delivering a batch of removal notifications, unless one is already waiting to
+   * run. The task resubmits itself while notifications remain. If the executor rejects it, the
+   * notifications are delivered by the current thread instead.
+   */
+  void scheduleNotificationDrain() {
+    if (!notificationDrainScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      maintenanceExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          notificationDrainScheduled.set(false);
+          if (processPendingNotifications(NOTIFICATION_BATCH_SIZE)) {
+            scheduleNotificationDrain();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the executor is saturated or shut down
+      notificationDrainScheduled.set(false);
+      processPendingNotifications();
+    }
   }
 
   @SuppressWarnings("unchecked")
@@ -2024,7 +2839,36 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * loading size or checking containsValue, then we might have an inconsistent view of state
      * so (usually) must retry.
      */
-    int modCount;
+    int modCount;
+
+    /**
+     * Advanced after each hold of the segment lock during which the segment was modified, once the
+     * modifications are visible. A value read from the segment is therefore still current as long
+     * as the version read before reading the value is unchanged. Used by near caches, see
+     * {@link NearCaches}.
+     */
+    volatile int version;
+
+    /** The {@link #modCount} when the {@link #version} was last advanced. */
+    @GuardedBy("Segment.this")
+    int versionedModCount;
+
+    /**
+     * Set once the map has replaced this segment by two new ones, while holding its lock. A retired
+     * segment is never modified again: operations which lock it instead operate on the segment now
+     * holding their key, and lock-free reads see the entries it held when it was retired.
+     */
+    volatile boolean retired;
+
+    /**
+     * The values of the lock counts of the {@link #segmentCounter} when the current contention
+     * sample started.
+     */
+    @GuardedBy("Segment.this")
+    long sampledLockCount;
+
+    @GuardedBy("Segment.this")
+    long sampledContendedLockCount;
 
     /**
      * The table is expanded when its size exceeds this threshold. (The value of this field is
@@ -2040,7 +2884,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * The maximum weight of this segment. UNSET_INT if there is no maximum.
      */
-    final long maxSegmentWeight;
+    @GuardedBy("Segment.this")
+    long maxSegmentWeight;
 
     /**
      * The key reference queue contains entries whose keys have been garbage collected, and which
@@ -2055,11 +2900,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     final ReferenceQueue<V> valueReferenceQueue;
 
     /**
-     * The recency queue is used to record which entries were accessed for updating the access
+     * The read buffer is used to record which entries were accessed for updating the access
      * list's ordering. It is drained as a batch operation when either the DRAIN_THRESHOLD is
-     * crossed or a write occurs on the segment.
+     * crossed, the reading thread's stripe of the buffer is full, or a write occurs on the segment.
+     * Reads are dropped rather than recorded when the buffer is contended. Only present when the
+     * access queue is used.
      */
-    final Queue<ReferenceEntry<K, V>> recencyQueue;
+    final ReadBuffer<ReferenceEntry<K, V>> readBuffer;
 
     /**
      * A counter of the number of reads since the last write, used to drain queues on a small
@@ -2067,6 +2914,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     final AtomicInteger readCount = new AtomicInteger();
 
+    /** Whether a task cleaning up this segment is waiting to run on the maintenance executor. */
+    final AtomicBoolean cleanUpScheduled = new AtomicBoolean();
+
     /**
      * A queue of elements currently in the map, ordered by write time. Elements are added to the
      * tail of the queue on write.
@@ -2081,14 +2931,37 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     final Queue<ReferenceEntry<K, V>> accessQueue;
 
+    /**
+     * The entries evicted from this segment and serialized off the heap, if the map has an
+     * off-heap tier. A key has a value either in the segment or in the tier, never both.
+     */
+    @Nullable
+    final OffHeapTier<K, V> offHeapTier;
+
     /** Accumulates cache statistics. */
     final StatsCounter statsCounter;
 
+    /**
+     * Accumulates the lock and eviction metrics of this segment, if metrics are recorded or the
+     * map samples the contention of the segment locks to adapt its concurrency level.
+     */
+    @Nullable
+    final SegmentCounter segmentCounter;
+
     Segment(LocalCache<K, V> map, int initialCapacity, long maxSegmentWeight,
         StatsCounter statsCounter) {
+      this(map, initialCapacity, maxSegmentWeight, statsCounter,
+          (map.metricsCounter == null && !map.adaptsConcurrencyLevel)
+              ? null
+              : new SegmentCounter());
+    }
+
+    Segment(LocalCache<K, V> map, int initialCapacity, long maxSegmentWeight,
+        StatsCounter statsCounter, @Nullable SegmentCounter segmentCounter) {
       this.map = map;
       this.maxSegmentWeight = maxSegmentWeight;
       this.statsCounter = checkNotNull(statsCounter);
+      this.segmentCounter = segmentCounter;
       initTable(newEntryArray(initialCapacity));
 
       keyReferenceQueue = map.usesKeyReferences()
@@ -2097,23 +2970,136 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       valueReferenceQueue = map.usesValueReferences()
            ? new ReferenceQueue<V>() : null;
 
-      recencyQueue = map.usesAccessQueue()
-          ? new ConcurrentLinkedQueue<ReferenceEntry<K, V>>()
-          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      readBuffer = map.usesAccessQueue()
+          ? new ReadBuffer<ReferenceEntry<K, V>>() : null;
 
-      writeQueue = map.usesWriteQueue()
-          ? new WriteQueue<K, V>()
-          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      if (map.expiresVariably()) {
+        writeQueue = new TimerWheel<K, V>(map.ticker.read());
+      } else {
+        writeQueue = map.usesWriteQueue()
+            ? new WriteQueue<K, V>()
+            : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      }
+
+      if (map.admitsByFrequency()) {
+        // without a custom weigher the maximum weight is also the maximum number of entries
+        accessQueue = new AdmissionQueue<K, V>(
+            map.customWeigher() ? initialCapacity : maxSegmentWeight);
+      } else {
+        accessQueue = map.usesAccessQueue()
+            ? new AccessQueue<K, V>()
+            : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      }
 
-      accessQueue = map.usesAccessQueue()
-          ? new AccessQueue<K, V>()
-          : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+      offHeapTier = (map.offHeapCodec == null)
+          ? null
+          : new OffHeapTier<K, V>(map.offHeapCodec,
+              (map.offHeapMaximumBytes - 1) / map.segments.length + 1, map.offHeapDirectory,
+              map.expires(), map.removalNotificationQueue,
+              map.removalNotificationQueue != DISCARDING_QUEUE, map.recordsStats);
     }
 
     AtomicReferenceArray<ReferenceEntry<K, V>> newEntryArray(int size) {
       return new AtomicReferenceArray<ReferenceEntry<K, V>>(size);
     }
 
+    // lock metrics
+
+    /**
+     * Acquires the segment lock, recording the acquisition and whether it failed to barge in
+     * immediately if the segment has a {@link #segmentCounter}. Only a contended acquisition is
+     * timed, so uncontended locking does not read the clock. Reentrant acquisitions are not
+     * counted.
+     */
+    @Override
+    public void lock() {
+      SegmentCounter counter = segmentCounter;
+      if (super.tryLock()) {
+        if (counter != null && getHoldCount() == 1) {
+          counter.recordLock();
+        }
+      } else {
+        long start = (counter == null) ? 0 : System.nanoTime();
+        super.lock();
+        if (counter != null) {
+          counter.recordContendedLock(System.nanoTime() - start);
+        }
+      }
+    }
+
+    /**
+     * Acquires the segment lock if it is available and the segment is not {@linkplain #retired
+     * retired}, so that opportunistic cleanup skips retired segments.
+     */
+    @Override
+    public boolean tryLock() {
+      if (!super.tryLock()) {
+        return false;
+      }
+      if (retired) {
+        super.unlock();
+        return false;
+      }
+      if (segmentCounter != null && getHoldCount() == 1) {
+        segmentCounter.recordLock();
+      }
+      return true;
+    }
+
+    /**
+     * Acquires the segment lock, unless the segment turns out to be {@linkplain #retired retired},
+     * in which case the lock is released again and the caller should retry the operation on
+     * {@link LocalCache#segmentFor the segment now holding its key}.
+     */
+    boolean lockUnlessRetired() {
+      lock();
+      if (retired) {
+        unlock();
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Releases the segment lock. Releasing the outermost hold advances the {@link #version} if the
+     * holder modified the segment, and schedules growing the map's segments if their locks are
+     * found to be contended.
+     */
+    @Override
+    public void unlock() {
+      boolean contended = false;
+      if (getHoldCount() == 1) {
+        if (modCount != versionedModCount) {
+          versionedModCount = modCount;
+          version++; // only written while holding the lock
+        }
+        contended = map.adaptsConcurrencyLevel && !retired && sampleContention();
+      }
+      super.unlock();
+      if (contended) {
+        map.scheduleGrowSegments(this);
+      }
+    }
+
+    /**
+     * Returns whether at least one in {@link #CONTENTION_THRESHOLD} of the last
+     * {@link #CONTENTION_SAMPLE_SIZE} acquisitions of the lock had to wait, once that many have
+     * been counted, and then starts a new sample.
+     */
+    @GuardedBy("Segment.this")
+    boolean sampleContention() {
+      long lockCount = segmentCounter.lockCount();
+      long locks = lockCount - sampledLockCount;
+      if (locks < CONTENTION_SAMPLE_SIZE) {
+        return false;
+      }
+      long contendedLockCount = segmentCounter.contendedLockCount();
+      long contended = contendedLockCount - sampledContendedLockCount;
+      sampledLockCount = lockCount;
+      sampledContendedLockCount = contendedLockCount;
+      return contended * CONTENTION_THRESHOLD >= locks;
+    }
+
     void initTable(AtomicReferenceArray<ReferenceEntry<K, V>> newTable) {
       this.threshold = newTable.length() * 3 / 4; // 0.75
       if (!map.customWeigher() && this.threshold == maxSegmentWeight) {
@@ -2160,6 +3146,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       int weight = map.weigher.weigh(key, value);
       checkState(weight >= 0, "Weights must be non-negative");
 
+      if (map.expiresVariably()) {
+        map.setWriteExpiration(entry, key, value, previous.get(), now);
+      }
+      if (offHeapTier != null) {
+        offHeapTier.invalidate(key);
+      }
+
       ValueReference<K, V> valueReference =
           map.valueStrength.referenceValue(this, entry, value, weight);
       entry.setValueReference(valueReference);
@@ -2192,6 +3185,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         }
 
         // at this point e is either null or expired;
+        if (offHeapTier != null) {
+          V value = promote(key, hash);
+          if (value != null) {
+            statsCounter.recordHits(1);
+            return value;
+          }
+        }
         return lockedGetOrLoad(key, hash, loader);
       } catch (ExecutionException ee) {
         Throwable cause = ee.getCause();
@@ -2206,6 +3206,63 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Like {@link #get(Object, int, CacheLoader)} for a map with primitive long keys. The key is
+     * only boxed if its value must be loaded or refreshed, or is held in the off-heap tier.
+     */
+    V getLong(long key, int hash, CacheLoader<? super K, V> loader) throws ExecutionException {
+      if (count != 0) { // read-volatile
+        ReferenceEntry<K, V> e = getLongEntry(key, hash);
+        if (e != null) {
+          long now = map.ticker.read();
+          V value = getLiveLongValue(e, now);
+          if (value != null && !refreshDue(e, now)) {
+            try {
+              recordRead(e, now);
+              statsCounter.recordHits(1);
+              return value;
+            } finally {
+              postReadCleanup();
+            }
+          }
+        }
+      }
+      @SuppressWarnings("unchecked") // only used in maps whose keys are Longs
+      K boxedKey = (K) Long.valueOf(key);
+      return get(boxedKey, hash, loader);
+    }
+
+    /**
+     * Like {@link #get(Object, int)} for a map with primitive long keys. The key is only boxed if
+     * it is absent from the segment.
+     */
+    @Nullable
+    V getLongIfPresent(long key, int hash) {
+      if (count != 0) { // read-volatile
+        ReferenceEntry<K, V> e = getLongEntry(key, hash);
+        if (e != null) {
+          long now = map.ticker.read();
+          V value = getLiveLongValue(e, now);
+          if (value != null && !refreshDue(e, now)) {
+            try {
+              recordRead(e, now);
+              return value;
+            } finally {
+              postReadCleanup();
+            }
+          }
+        }
+      }
+      return getIfPresent(Long.valueOf(key), hash);
+    }
+
+    /** Returns whether a read of {@code entry} would trigger a refresh by scheduleRefresh. */
+    boolean refreshDue(ReferenceEntry<K, V> entry, long now) {
+      return map.refreshes() && !map.refreshesProactively
+          && (now - entry.getWriteTime() > map.refreshNanos)
+          && !entry.getValueReference().isLoading();
+    }
+
     V lockedGetOrLoad(K key, int hash, CacheLoader<? super K, V> loader)
         throws ExecutionException {
       ReferenceEntry<K, V> e;
@@ -2213,7 +3270,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       LoadingValueReference<K, V> loadingValueReference = null;
       boolean createNewEntry = true;
 
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).lockedGetOrLoad(key, hash, loader);
+      }
       try {
         // re-read ticker once inside the lock
         long now = map.ticker.read();
@@ -2360,8 +3419,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     V scheduleRefresh(ReferenceEntry<K, V> entry, K key, int hash, V oldValue, long now,
         CacheLoader<? super K, V> loader) {
-      if (map.refreshes() && (now - entry.getWriteTime() > map.refreshNanos)
-          && !entry.getValueReference().isLoading()) {
+      if (refreshDue(entry, now)) {
         V newValue = refresh(key, hash, loader, true);
         if (newValue != null) {
           return newValue;
@@ -2373,8 +3431,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * Refreshes the value associated with {@code key}, unless another thread is already doing so.
      * Returns the newly refreshed value associated with {@code key} if it was refreshed inline, or
-     * {@code null} if another thread is performing the refresh or if an error occurs during
-     * refresh.
+     * {@code null} if another thread is performing the refresh, if the refresh was added to a
+     * batch of the {@link #refreshCoordinator}, or if an error occurs during refresh.
      */
     @Nullable
     V refresh(K key, int hash, CacheLoader<? super K, V> loader, boolean checkTime) {
@@ -2383,6 +3441,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (loadingValueReference == null) {
         return null;
       }
+      if (map.refreshCoordinator != null && loader == map.defaultLoader
+          && loadingValueReference.oldValue.get() != null) {
+        map.refreshCoordinator.refresh(key, hash, loadingValueReference);
+        return null;
+      }
 
       ListenableFuture<V> result = loadAsync(key, hash, loadingValueReference, loader);
       if (result.isDone()) {
@@ -2395,6 +3458,59 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return null;
     }
 
+    /**
+     * Refreshes the entries of this segment which are eligible for refresh and have been read since
+     * they were last written. The entries are reloaded with a single call to
+     * {@link CacheLoader#reloadAll}, as by {@link LocalCache#reloadAll}. Readers continue to see the
+     * old values until the new ones are stored.
+     *
+     * <p>The write queue is ordered by write time, so only the entries at its head which were
+     * written more than a refresh interval ago are visited, rather than the whole table.
+     */
+    void refreshEligibleEntries(CacheLoader<? super K, V> loader) {
+      List<K> keys = Lists.newArrayList();
+      List<Integer> hashes = Lists.newArrayList();
+      if (count != 0 && lockUnlessRetired()) { // read-volatile
+        try {
+          long now = map.ticker.read();
+          preWriteCleanup(now);
+          for (ReferenceEntry<K, V> e : writeQueue) {
+            if (now - e.getWriteTime() <= map.refreshNanos) {
+              break;
+            }
+            K key = e.getKey();
+            if (key != null && getLiveValue(e, now) != null
+                && !e.getValueReference().isLoading()
+                && (e.getAccessTime() - e.getWriteTime() > 0)) {
+              keys.add(key);
+              hashes.add(e.getHash());
+            }
+          }
+        } finally {
+          unlock();
+          postWriteCleanup();
+        }
+      }
+
+      // skip the entries which were written or started loading since they were scanned
+      List<K> refreshingKeys = Lists.newArrayListWithCapacity(keys.size());
+      List<Integer> refreshingHashes = Lists.newArrayListWithCapacity(keys.size());
+      List<LoadingValueReference<K, V>> loadingValueReferences =
+          Lists.newArrayListWithCapacity(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        LoadingValueReference<K, V> loadingValueReference =
+            insertLoadingValueReference(keys.get(i), hashes.get(i), true);
+        if (loadingValueReference != null) {
+          refreshingKeys.add(keys.get(i));
+          refreshingHashes.add(hashes.get(i));
+          loadingValueReferences.add(loadingValueReference);
+        }
+      }
+      if (!refreshingKeys.isEmpty()) {
+        map.reloadAll(refreshingKeys, refreshingHashes, loadingValueReferences, loader);
+      }
+    }
+
     /**
      * Returns a newly inserted {@code LoadingValueReference}, or null if the live value reference
      * is already loading.
@@ -2403,7 +3519,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     LoadingValueReference<K, V> insertLoadingValueReference(final K key, final int hash,
         boolean checkTime) {
       ReferenceEntry<K, V> e = null;
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).insertLoadingValueReference(key, hash, checkTime);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -2449,13 +3567,162 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    // asynchronous loading
+
+    /**
+     * Returns a future for the value associated with {@code key}, starting an asynchronous load if
+     * the value is neither present nor already loading. Never waits for a load to complete.
+     */
+    ListenableFuture<V> getFuture(K key, int hash, AsyncCacheLoader<? super K, V> loader) {
+      checkNotNull(key);
+      checkNotNull(loader);
+      try {
+        if (count != 0) { // read-volatile
+          // don't call getLiveEntry, which would ignore loading values
+          ReferenceEntry<K, V> e = getEntry(key, hash);
+          if (e != null) {
+            long now = map.ticker.read();
+            V value = getLiveValue(e, now);
+            if (value != null) {
+              recordRead(e, now);
+              statsCounter.recordHits(1);
+              return Futures.immediateFuture(
+                  scheduleRefresh(e, key, hash, value, now, map.defaultLoader));
+            }
+            ValueReference<K, V> valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              statsCounter.recordMisses(1);
+              return ((LoadingValueReference<K, V>) valueReference).getFuture();
+            }
+          }
+        }
+
+        // at this point e is either null or expired;
+        if (offHeapTier != null) {
+          V value = promote(key, hash);
+          if (value != null) {
+            statsCounter.recordHits(1);
+            return Futures.immediateFuture(value);
+          }
+        }
+        return lockedGetOrLoadFuture(key, hash, loader);
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    ListenableFuture<V> lockedGetOrLoadFuture(K key, int hash,
+        AsyncCacheLoader<? super K, V> loader) {
+      ReferenceEntry<K, V> e;
+      ValueReference<K, V> valueReference = null;
+      LoadingValueReference<K, V> loadingValueReference = null;
+      boolean createNewEntry = true;
+
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).lockedGetOrLoadFuture(key, hash, loader);
+      }
+      try {
+        // re-read ticker once inside the lock
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count - 1;
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              createNewEntry = false;
+            } else {
+              V value = valueReference.get();
+              if (value == null) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.COLLECTED);
+              } else if (map.isExpired(e, now)) {
+                // This is a duplicate check, as preWriteCleanup already purged expired
+                // entries, but let's accomodate an incorrect expiration queue.
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.EXPIRED);
+              } else {
+                recordLockedRead(e, now);
+                statsCounter.recordHits(1);
+                // we were concurrent with loading; don't consider refresh
+                return Futures.immediateFuture(value);
+              }
+
+              // immediately reuse invalid entries
+              writeQueue.remove(e);
+              accessQueue.remove(e);
+              this.count = newCount; // write-volatile
+            }
+            break;
+          }
+        }
+
+        if (createNewEntry) {
+          loadingValueReference = new LoadingValueReference<K, V>();
+
+          if (e == null) {
+            e = newEntry(key, hash, first);
+            e.setValueReference(loadingValueReference);
+            table.set(index, e);
+          } else {
+            e.setValueReference(loadingValueReference);
+          }
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+
+      statsCounter.recordMisses(1);
+      if (createNewEntry) {
+        loadAsync(key, hash, loadingValueReference, loader);
+        return loadingValueReference.getFuture();
+      } else {
+        // The entry already exists. Share its load.
+        return ((LoadingValueReference<K, V>) valueReference).getFuture();
+      }
+    }
+
+    /**
+     * Starts loading a new value using {@code loader}, and stores it once loading has completed.
+     * The outcome is then reported through the future of {@code loadingValueReference}, so callers
+     * sharing the load only observe the value once it is present in the cache.
+     */
+    void loadAsync(final K key, final int hash,
+        final LoadingValueReference<K, V> loadingValueReference,
+        AsyncCacheLoader<? super K, V> loader) {
+      final ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
+      loadingFuture.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                loadingValueReference.set(
+                    getAndRecordStats(key, hash, loadingValueReference, loadingFuture));
+              } catch (ExecutionException e) {
+                loadingValueReference.setException(e.getCause());
+              } catch (Throwable t) {
+                loadingValueReference.setException(t);
+              }
+            }
+          }, sameThreadExecutor);
+    }
+
     // reference queues, for garbage collection cleanup
 
     /**
-     * Cleanup collected entries when the lock is available.
+     * Cleanup collected entries when the lock is available, or on the maintenance executor if one
+     * was specified, so that readers don't do it.
      */
     void tryDrainReferenceQueues() {
-      if (tryLock()) {
+      if (map.maintenanceExecutor != null) {
+        scheduleCleanUp();
+      } else if (tryLock()) {
         try {
           drainReferenceQueues();
         } finally {
@@ -2530,8 +3797,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     /**
      * Records the relative order in which this read was performed by adding {@code entry} to the
-     * recency queue. At write-time, or when the queue is full past the threshold, the queue will
-     * be drained and the entries therein processed.
+     * read buffer. At write-time, or when the buffer is full, the buffer will be drained and the
+     * entries therein processed.
      *
      * <p>Note: locked reads should use {@link #recordLockedRead}.
      */
@@ -2539,7 +3806,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
-      recencyQueue.add(entry);
+      if (map.expiresVariably()) {
+        // rescheduled in the timer wheel once its current bucket is passed
+        map.setReadExpiration(entry, now);
+      }
+      if (readBuffer != null && readBuffer.offer(entry) == ReadBuffer.FULL) {
+        if (map.maintenanceExecutor == null) {
+          tryDrainReadBuffer();
+        } else {
+          scheduleCleanUp();
+        }
+      }
+    }
+
+    /**
+     * Drains the read buffer if the lock is available, so that subsequent reads can be recorded.
+     */
+    void tryDrainReadBuffer() {
+      if (tryLock()) {
+        try {
+          drainReadBuffer();
+        } finally {
+          unlock();
+        }
+      }
     }
 
     /**
@@ -2554,6 +3844,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
+      if (map.expiresVariably()) {
+        map.setReadExpiration(entry, now);
+        writeQueue.add(entry);
+      }
       accessQueue.add(entry);
     }
 
@@ -2563,8 +3857,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     @GuardedBy("Segment.this")
     void recordWrite(ReferenceEntry<K, V> entry, int weight, long now) {
-      // we are already under lock, so drain the recency queue immediately
-      drainRecencyQueue();
+      // we are already under lock, so drain the read buffer immediately
+      drainReadBuffer();
       totalWeight += weight;
 
       if (map.recordsAccess()) {
@@ -2578,16 +3872,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     /**
-     * Drains the recency queue, updating eviction metadata that the entries therein were read in
+     * Drains the read buffer, updating eviction metadata that the entries therein were read in
      * the specified relative order. This currently amounts to adding them to relevant eviction
      * lists (accounting for the fact that they could have been removed from the map since being
-     * added to the recency queue).
+     * added to the read buffer).
      */
     @GuardedBy("Segment.this")
-    void drainRecencyQueue() {
+    void drainReadBuffer() {
+      if (readBuffer == null) {
+        return;
+      }
       ReferenceEntry<K, V> e;
-      while ((e = recencyQueue.poll()) != null) {
-        // An entry may be in the recency queue despite it being removed from
+      while ((e = readBuffer.poll()) != null) {
+        // An entry may be in the read buffer despite it being removed from
         // the map . This can occur when the entry was concurrently read while a
         // writer is removing it from the segment or after a clear has removed
         // all of the segment's entries.
@@ -2600,10 +3897,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     // expiration
 
     /**
-     * Cleanup expired entries when the lock is available.
+     * Cleanup expired entries when the lock is available, or on the maintenance executor if one was
+     * specified, so that readers don't do it.
      */
     void tryExpireEntries(long now) {
-      if (tryLock()) {
+      if (map.maintenanceExecutor != null) {
+        scheduleCleanUp();
+      } else if (tryLock()) {
         try {
           expireEntries(now);
         } finally {
@@ -2615,12 +3915,27 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @GuardedBy("Segment.this")
     void expireEntries(long now) {
-      drainRecencyQueue();
+      drainReadBuffer();
 
       ReferenceEntry<K, V> e;
-      while ((e = writeQueue.peek()) != null && map.isExpired(e, now)) {
-        if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
-          throw new AssertionError();
+      if (map.expiresVariably()) {
+        TimerWheel<K, V> timerWheel = (TimerWheel<K, V>) writeQueue;
+        timerWheel.advance(now);
+        while ((e = timerWheel.pollExpired()) != null) {
+          if (map.isExpired(e, now)) {
+            if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
+              throw new AssertionError();
+            }
+          } else {
+            // its expiration time was extended since the wheel was advanced
+            timerWheel.add(e);
+          }
+        }
+      } else {
+        while ((e = writeQueue.peek()) != null && map.isExpired(e, now)) {
+          if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
+            throw new AssertionError();
+          }
         }
       }
       while ((e = accessQueue.peek()) != null && map.isExpired(e, now)) {
@@ -2644,6 +3959,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (cause.wasEvicted()) {
         statsCounter.recordEviction();
       }
+      if (map.metricsCounter != null) {
+        map.metricsCounter.recordRemoval(cause);
+      }
       if (map.removalNotificationQueue != DISCARDING_QUEUE) {
         V value = valueReference.get();
         RemovalNotification<K, V> notification = new RemovalNotification<K, V>(key, value, cause);
@@ -2661,17 +3979,182 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         return;
       }
 
-      drainRecencyQueue();
-      while (totalWeight > maxSegmentWeight) {
+      evictEntries(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evicts up to {@code limit} entries while the segment exceeds its maximum weight. Returns
+     * whether it still exceeds it.
+     */
+    @GuardedBy("Segment.this")
+    boolean evictEntries(int limit) {
+      drainReadBuffer();
+      if (segmentCounter != null && totalWeight > maxSegmentWeight) {
+        segmentCounter.recordEvictionRun();
+      }
+      for (int evicted = 0; evicted < limit && totalWeight > maxSegmentWeight; evicted++) {
         ReferenceEntry<K, V> e = getNextEvictable();
+        if (offHeapTier != null && demoteEntry(e)) {
+          continue;
+        }
         if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
           throw new AssertionError();
         }
       }
+      return totalWeight > maxSegmentWeight;
+    }
+
+    /**
+     * Changes the maximum weight of this segment, and then evicts the entries which exceed it in
+     * batches of {@link #EVICTION_BATCH_SIZE}, releasing the lock between batches so that other
+     * threads can use the segment.
+     */
+    void setMaxSegmentWeight(long maxSegmentWeight) {
+      boolean exceeded = true;
+      lock();
+      try {
+        this.maxSegmentWeight = maxSegmentWeight;
+      } finally {
+        unlock();
+      }
+      while (exceeded) {
+        lock();
+        try {
+          preWriteCleanup(map.ticker.read());
+          exceeded = evictEntries(EVICTION_BATCH_SIZE);
+        } finally {
+          unlock();
+          postWriteCleanup();
+        }
+      }
+    }
+
+    long weightedSize() {
+      lock();
+      try {
+        return totalWeight;
+      } finally {
+        unlock();
+      }
+    }
+
+    /**
+     * Moves {@code entry}, which is being evicted, to the off-heap tier, where its value is pending
+     * until {@link #storeDemotedEntries} serializes it. Returns {@code false} if the entry has no
+     * live value, in which case it should be removed instead.
+     */
+    @GuardedBy("Segment.this")
+    boolean demoteEntry(ReferenceEntry<K, V> entry) {
+      K key = entry.getKey();
+      ValueReference<K, V> valueReference = entry.getValueReference();
+      V value = valueReference.get();
+      if (key == null || value == null) {
+        return false;
+      }
+      long writeTime = map.usesWriteEntries() ? entry.getWriteTime() : 0;
+      long expirationTime = map.expires() ? map.expirationTime(entry) : 0;
+      offHeapTier.put(key, value, writeTime, expirationTime);
+
+      // the entry is still in the cache, so there is no removal notification
+      totalWeight -= valueReference.getWeight();
+      statsCounter.recordEviction();
+      writeQueue.remove(entry);
+      accessQueue.remove(entry);
+
+      AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+      int index = entry.getHash() & (table.length() - 1);
+      ++modCount;
+      ReferenceEntry<K, V> newFirst = removeEntryFromChain(table.get(index), entry);
+      int newCount = this.count - 1;
+      table.set(index, newFirst);
+      this.count = newCount; // write-volatile
+      return true;
+    }
+
+    /**
+     * Serializes the values which were demoted to the off-heap tier since this was last called,
+     * without holding the segment lock, and then stores them in the tier.
+     */
+    void storeDemotedEntries() {
+      if (offHeapTier.pendingCount == 0) {
+        return;
+      }
+      List<OffHeapTier.Slot<K, V>> slots;
+      lock();
+      try {
+        slots = offHeapTier.drainPending();
+      } finally {
+        unlock();
+      }
+      if (slots.isEmpty()) {
+        return;
+      }
+      List<byte[]> encoded = offHeapTier.encode(slots);
+      lock();
+      try {
+        offHeapTier.store(slots, encoded, map.ticker.read());
+      } finally {
+        unlock();
+      }
+    }
+
+    /**
+     * Moves the value of {@code key} from the off-heap tier back into this segment and returns it,
+     * or returns {@code null} if the tier has no live value for {@code key}. The entry keeps the
+     * write time it had when it was demoted.
+     */
+    @Nullable
+    V promote(Object key, int hash) {
+      if (offHeapTier.isEmpty()) {
+        offHeapTier.recordMiss();
+        return null;
+      }
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).promote(key, hash);
+      }
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        // another thread may have promoted or loaded the value first
+        ReferenceEntry<K, V> e = getLiveEntry(key, hash, now);
+        if (e != null) {
+          V value = e.getValueReference().get();
+          if (value != null) {
+            recordLockedRead(e, now);
+            return value;
+          }
+        }
+
+        OffHeapTier.Slot<K, V> slot = offHeapTier.remove(key, now);
+        V value = (slot == null) ? null : offHeapTier.read(slot);
+        if (value == null) {
+          offHeapTier.recordMiss();
+          return null;
+        }
+        offHeapTier.recordHit();
+
+        put(slot.key, hash, value, true);
+        e = getEntry(slot.key, hash);
+        if (e != null) {
+          if (map.recordsWrite() || map.expiresVariably()) {
+            e.setWriteTime(slot.writeTime);
+            writeQueue.add(e);
+          }
+          recordLockedRead(e, now);
+        }
+        return value;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
     }
 
     // TODO(fry): instead implement this with an eviction head
     ReferenceEntry<K, V> getNextEvictable() {
+      if (map.admitsByFrequency()) {
+        return ((AdmissionQueue<K, V>) accessQueue).getNextEvictable();
+      }
       for (ReferenceEntry<K, V> e : accessQueue) {
         int weight = e.getValueReference().getWeight();
         if (weight > 0) {
@@ -2692,6 +4175,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     // Specialized implementations of map methods
 
+    /** Returns the entry for {@code key} in a map with primitive long keys, without boxing it. */
+    @Nullable
+    ReferenceEntry<K, V> getLongEntry(long key, int hash) {
+      for (ReferenceEntry<K, V> e = getFirst(hash); e != null; e = e.getNext()) {
+        if (e.getHash() == hash && ((LongEntry<K, V>) e).key == key) {
+          return e;
+        }
+      }
+      return null;
+    }
+
     @Nullable
     ReferenceEntry<K, V> getEntry(Object key, int hash) {
       for (ReferenceEntry<K, V> e = getFirst(hash); e != null; e = e.getNext()) {
@@ -2734,6 +4228,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         tryDrainReferenceQueues();
         return null;
       }
+      return getLiveLongValue(entry, now);
+    }
+
+    /**
+     * Like {@link #getLiveValue}, but without checking whether the key has been collected. Used
+     * directly for the entries of a map with primitive long keys, which are never collected, to
+     * avoid boxing the key.
+     */
+    V getLiveLongValue(ReferenceEntry<K, V> entry, long now) {
       V value = entry.getValueReference().get();
       if (value == null) {
         tryDrainReferenceQueues();
@@ -2753,16 +4256,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         if (count != 0) { // read-volatile
           long now = map.ticker.read();
           ReferenceEntry<K, V> e = getLiveEntry(key, hash, now);
-          if (e == null) {
-            return null;
-          }
-
-          V value = e.getValueReference().get();
-          if (value != null) {
-            recordRead(e, now);
-            return scheduleRefresh(e, e.getKey(), hash, value, now, map.defaultLoader);
+          if (e != null) {
+            V value = e.getValueReference().get();
+            if (value != null) {
+              recordRead(e, now);
+              return scheduleRefresh(e, e.getKey(), hash, value, now, map.defaultLoader);
+            }
+            tryDrainReferenceQueues();
           }
-          tryDrainReferenceQueues();
         }
         return null;
       } finally {
@@ -2770,6 +4271,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Returns the value of {@code key} as {@link #get(Object, int)} does, or moves it back from the
+     * off-heap tier if the segment has no live value for it. The tier is only seen by the methods
+     * of {@link Cache}, and not by its {@link Cache#asMap} view.
+     */
+    @Nullable
+    V getIfPresent(Object key, int hash) {
+      V value = get(key, hash);
+      return (value != null || offHeapTier == null) ? value : promote(key, hash);
+    }
+
     boolean containsKey(Object key, int hash) {
       try {
         if (count != 0) { // read-volatile
@@ -2819,73 +4331,195 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Nullable
     V put(K key, int hash, V value, boolean onlyIfAbsent) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).put(key, hash, value, onlyIfAbsent);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
+        return putLocked(key, hash, value, onlyIfAbsent, now);
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
 
-        int newCount = this.count + 1;
-        if (newCount > this.threshold) { // ensure capacity
-          expand();
-          newCount = this.count + 1;
+    /**
+     * Inserts {@code entries}, whose keys must all belong to this segment and which are ordered
+     * hottest first, while acquiring the lock once. Entries whose key is already present are
+     * skipped. If the segment is bounded, only the hottest entries which fit in its remaining
+     * weight are inserted, so that they don't evict each other. They are inserted coldest first,
+     * leaving the hottest entry as the most recently used. Returns the number of entries inserted.
+     */
+    int putAllIfAbsent(List<Entry<K, V>> entries) {
+      int inserted = 0;
+      if (!lockUnlessRetired()) {
+        return map.putAllIfAbsent(entries);
+      }
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        int fitting = entries.size();
+        if (map.evictsBySize()) {
+          long weight = totalWeight;
+          for (int i = 0; i < entries.size(); i++) {
+            Entry<K, V> entry = entries.get(i);
+            K key = entry.getKey();
+            if (getLiveEntry(key, map.hash(key), now) != null) {
+              continue; // skipped below, so it takes no room
+            }
+            weight += map.weigher.weigh(key, entry.getValue());
+            if (weight > maxSegmentWeight) {
+              fitting = i;
+              break;
+            }
+          }
+        }
+        for (int i = fitting - 1; i >= 0; i--) {
+          K key = entries.get(i).getKey();
+          if (putLocked(key, map.hash(key), entries.get(i).getValue(), true, now) == null) {
+            inserted++;
+          }
         }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+      return inserted;
+    }
 
-        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
-        int index = hash & (table.length() - 1);
-        ReferenceEntry<K, V> first = table.get(index);
+    @GuardedBy("Segment.this")
+    @Nullable
+    V putLocked(K key, int hash, V value, boolean onlyIfAbsent, long now) {
+      int newCount = this.count + 1;
+      if (newCount > this.threshold) { // ensure capacity
+        expand();
+        newCount = this.count + 1;
+      }
 
-        // Look for an existing entry.
-        for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
-          K entryKey = e.getKey();
-          if (e.getHash() == hash && entryKey != null
-              && map.keyEquivalence.equivalent(key, entryKey)) {
-            // We found an existing entry.
+      AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+      int index = hash & (table.length() - 1);
+      ReferenceEntry<K, V> first = table.get(index);
 
-            ValueReference<K, V> valueReference = e.getValueReference();
-            V entryValue = valueReference.get();
+      // Look for an existing entry.
+      for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
+        K entryKey = e.getKey();
+        if (e.getHash() == hash && entryKey != null
+            && map.keyEquivalence.equivalent(key, entryKey)) {
+          // We found an existing entry.
 
-            if (entryValue == null) {
-              ++modCount;
-              if (valueReference.isActive()) {
-                enqueueNotification(key, hash, valueReference, RemovalCause.COLLECTED);
-                setValue(e, key, value, now);
-                newCount = this.count; // count remains unchanged
-              } else {
-                setValue(e, key, value, now);
-                newCount = this.count + 1;
-              }
-              this.count = newCount; // write-volatile
-              evictEntries();
-              return null;
-            } else if (onlyIfAbsent) {
-              // Mimic
-              // "if (!map.containsKey(key)) ...
-              // else return map.get(key);
-              recordLockedRead(e, now);
-              return entryValue;
+          ValueReference<K, V> valueReference = e.getValueReference();
+          V entryValue = valueReference.get();
+
+          if (entryValue == null) {
+            ++modCount;
+            if (valueReference.isActive()) {
+              enqueueNotification(key, hash, valueReference, RemovalCause.COLLECTED);
+              setValue(e, key, value, now);
+              newCount = this.count; // count remains unchanged
             } else {
-              // clobber existing entry, count remains unchanged
-              ++modCount;
-              enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, value, now);
-              evictEntries();
-              return entryValue;
+              newCount = this.count + 1;
             }
+            this.count = newCount; // write-volatile
+            evictEntries();
+            return null;
+          } else if (onlyIfAbsent) {
+            // Mimic
+            // "if (!map.containsKey(key)) ...
+            // else return map.get(key);
+            recordLockedRead(e, now);
+            return entryValue;
+          } else {
+            // clobber existing entry, count remains unchanged
+            ++modCount;
+            enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
+            setValue(e, key, value, now);
+            evictEntries();
+            return entryValue;
           }
         }
+      }
 
-        // Create a new entry.
-        ++modCount;
-        ReferenceEntry<K, V> newEntry = newEntry(key, hash, first);
-        setValue(newEntry, key, value, now);
-        table.set(index, newEntry);
-        newCount = this.count + 1;
-        this.count = newCount; // write-volatile
-        evictEntries();
-        return null;
+      // Create a new entry.
+      ++modCount;
+      ReferenceEntry<K, V> newEntry = newEntry(key, hash, first);
+      setValue(newEntry, key, value, now);
+      table.set(index, newEntry);
+      newCount = this.count + 1;
+      this.count = newCount; // write-volatile
+      evictEntries();
+      return null;
+    }
+
+    /**
+     * Returns up to {@code limit} live entries of this segment, most recently accessed first if
+     * {@code hottestFirst} and least recently accessed first otherwise, or in no particular order
+     * if the segment does not maintain an access order. Only references are copied while the lock
+     * is held; the caller reads the values afterwards, so that a large segment is not locked while
+     * they are processed.
+     */
+    List<ReferenceEntry<K, V>> orderedEntries(boolean hottestFirst, int limit) {
+      List<ReferenceEntry<K, V>> entries = Lists.newArrayListWithCapacity(Math.min(count, limit));
+      lock();
+      try {
+        long now = map.ticker.read();
+        if (accessQueue instanceof AdmissionQueue) {
+          drainReadBuffer();
+          AdmissionQueue<K, V> queue = (AdmissionQueue<K, V>) accessQueue;
+          if (hottestFirst) {
+            addEntries(queue.protectedQueue, true, limit, now, entries);
+            addEntries(queue.window, true, limit, now, entries);
+            addEntries(queue.probation, true, limit, now, entries);
+          } else {
+            addEntries(queue.probation, false, limit, now, entries);
+            addEntries(queue.window, false, limit, now, entries);
+            addEntries(queue.protectedQueue, false, limit, now, entries);
+          }
+        } else if (accessQueue instanceof AccessQueue) {
+          drainReadBuffer();
+          addEntries((AccessQueue<K, V>) accessQueue, hottestFirst, limit, now, entries);
+        } else {
+          AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+          for (int i = 0; i < table.length() && entries.size() < limit; ++i) {
+            for (ReferenceEntry<K, V> e = table.get(i);
+                e != null && entries.size() < limit; e = e.getNext()) {
+              if (map.getLiveValue(e, now) != null) {
+                entries.add(e);
+              }
+            }
+          }
+        }
+      } finally {
+        unlock();
+      }
+      return entries;
+    }
+
+    /**
+     * Returns copies of the live entries of the off-heap tier, most recently demoted first, whose
+     * values may be read with {@link OffHeapTier#read} once the lock is released.
+     */
+    List<OffHeapTier.Slot<K, V>> offHeapEntries() {
+      lock();
+      try {
+        return offHeapTier.copyEntries(map.ticker.read());
       } finally {
         unlock();
-        postWriteCleanup();
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void addEntries(AccessQueue<K, V> queue, boolean mostRecentFirst, int limit, long now,
+        List<ReferenceEntry<K, V>> entries) {
+      ReferenceEntry<K, V> e = mostRecentFirst
+          ? queue.head.getPreviousInAccessQueue()
+          : queue.head.getNextInAccessQueue();
+      while (e != queue.head && entries.size() < limit) {
+        if (map.getLiveValue(e, now) != null) {
+          entries.add(e);
+        }
+        e = mostRecentFirst ? e.getPreviousInAccessQueue() : e.getNextInAccessQueue();
       }
     }
 
@@ -2957,12 +4591,92 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           }
         }
       }
-      table = newTable;
-      this.count = newCount;
+      table = newTable;
+      this.count = newCount;
+    }
+
+    /**
+     * Copies the entries of this segment into two new segments, which are stored at
+     * {@code 2 * index} and {@code 2 * index + 1} of {@code grown} and replace this segment when
+     * the map {@linkplain LocalCache#growSegments grows}. The copies keep their eviction and
+     * expiration order. The first new segment continues to accumulate the statistics and metrics of
+     * this segment. This segment itself is left unchanged.
+     */
+    @GuardedBy("Segment.this")
+    void splitInto(Segment<K, V>[] grown, int index) {
+      drainReadBuffer();
+      AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+      for (int i = 0; i < 2; i++) {
+        int child = 2 * index + i;
+        long maxChildWeight = map.evictsBySize()
+            ? segmentMaximumWeight(map.maxWeight, grown.length, child)
+            : UNSET_INT;
+        grown[child] = (i == 0)
+            ? new Segment<K, V>(map, table.length(), maxChildWeight, statsCounter, segmentCounter)
+            : new Segment<K, V>(map, table.length(), maxChildWeight, map.newStatsCounter());
+        grown[child].lock();
+      }
+      try {
+        Segment<K, V> first = grown[2 * index];
+        first.sampledLockCount = sampledLockCount;
+        first.sampledContendedLockCount = sampledContendedLockCount;
+
+        Map<ReferenceEntry<K, V>, ReferenceEntry<K, V>> copies = Maps.newIdentityHashMap();
+        for (int i = 0; i < table.length(); ++i) {
+          for (ReferenceEntry<K, V> e = table.get(i); e != null; e = e.getNext()) {
+            Segment<K, V> child = grown[segmentIndex(e.getHash(), grown.length)];
+            copies.put(e, child.adoptEntry(e));
+          }
+        }
+        for (ReferenceEntry<K, V> e : accessQueue) {
+          ReferenceEntry<K, V> copy = copies.get(e);
+          grown[segmentIndex(e.getHash(), grown.length)].accessQueue.add(copy);
+        }
+        for (ReferenceEntry<K, V> e : writeQueue) {
+          ReferenceEntry<K, V> copy = copies.get(e);
+          grown[segmentIndex(e.getHash(), grown.length)].writeQueue.add(copy);
+        }
+        // an uneven split may leave a new segment above its share of the maximum weight
+        grown[2 * index].evictEntries();
+        grown[2 * index + 1].evictEntries();
+      } finally {
+        grown[2 * index].unlock();
+        grown[2 * index + 1].unlock();
+      }
+    }
+
+    /**
+     * Adds a copy of {@code original}, an entry of a segment being split, to this new segment, and
+     * returns it. The copy is not added to the eviction and expiration queues.
+     */
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> adoptEntry(ReferenceEntry<K, V> original) {
+      AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+      int hash = original.getHash();
+      int index = hash & (table.length() - 1);
+      ReferenceEntry<K, V> copy = newEntry(original.getKey(), hash, table.get(index));
+      if (map.usesAccessEntries()) {
+        copy.setAccessTime(original.getAccessTime());
+      }
+      if (map.usesWriteEntries()) {
+        copy.setWriteTime(original.getWriteTime());
+      }
+      ValueReference<K, V> valueReference = original.getValueReference();
+      copy.setValueReference(
+          valueReference.copyFor(valueReferenceQueue, valueReference.get(), copy));
+      table.set(index, copy);
+      if (valueReference.isActive()) {
+        // loading entries without a previous value are not counted until they are loaded
+        totalWeight += valueReference.getWeight();
+        count++;
+      }
+      return copy;
     }
 
     boolean replace(K key, int hash, V oldValue, V newValue) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).replace(key, hash, oldValue, newValue);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -3015,7 +4729,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Nullable
     V replace(K key, int hash, V newValue) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).replace(key, hash, newValue);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -3061,7 +4777,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Nullable
     V remove(Object key, int hash) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).remove(key, hash);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -3098,6 +4816,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           }
         }
 
+        if (offHeapTier != null) {
+          OffHeapTier.Slot<K, V> slot = offHeapTier.remove(key, now);
+          if (slot != null) {
+            V value = offHeapTier.read(slot);
+            if (map.removalNotificationQueue != DISCARDING_QUEUE) {
+              map.removalNotificationQueue.offer(
+                  new RemovalNotification<K, V>(slot.key, value, RemovalCause.EXPLICIT));
+            }
+            return value;
+          }
+        }
         return null;
       } finally {
         unlock();
@@ -3107,7 +4836,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     boolean storeLoadedValue(K key, int hash, LoadingValueReference<K, V> oldValueReference,
         V newValue) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).storeLoadedValue(key, hash, oldValueReference, newValue);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -3166,7 +4897,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     boolean remove(Object key, int hash, Object value) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).remove(key, hash, value);
+      }
       try {
         long now = map.ticker.read();
         preWriteCleanup(now);
@@ -3211,8 +4944,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     void clear() {
-      if (count != 0) { // read-volatile
-        lock();
+      if (count != 0 // read-volatile
+          || (offHeapTier != null && !offHeapTier.isEmpty())) {
+        if (!lockUnlessRetired()) {
+          // the entries were moved to new segments, which the map clears
+          return;
+        }
         try {
           AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
           for (int i = 0; i < table.length(); ++i) {
@@ -3230,6 +4967,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           writeQueue.clear();
           accessQueue.clear();
           readCount.set(0);
+          if (offHeapTier != null) {
+            offHeapTier.clear();
+          }
 
           ++modCount;
           count = 0; // write-volatile
@@ -3287,7 +5027,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Removes an entry whose key has been garbage collected.
      */
     boolean reclaimKey(ReferenceEntry<K, V> entry, int hash) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return false;
+      }
       try {
         int newCount = count - 1;
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
@@ -3317,7 +5059,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Removes an entry whose value has been garbage collected.
      */
     boolean reclaimValue(K key, int hash, ValueReference<K, V> valueReference) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).reclaimValue(key, hash, valueReference);
+      }
       try {
         int newCount = this.count - 1;
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
@@ -3352,7 +5096,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     boolean removeLoadingValue(K key, int hash, LoadingValueReference<K, V> valueReference) {
-      lock();
+      if (!lockUnlessRetired()) {
+        return map.segmentFor(hash).removeLoadingValue(key, hash, valueReference);
+      }
       try {
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
         int index = hash & (table.length() - 1);
@@ -3407,10 +5153,38 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     /**
      * Performs routine cleanup following a read. Normally cleanup happens during writes. If cleanup
-     * is not observed after a sufficient number of reads, try cleaning up from the read thread.
+     * is not observed after a sufficient number of reads, try cleaning up from the read thread, or
+     * on the maintenance executor if one was specified.
      */
     void postReadCleanup() {
       if ((readCount.incrementAndGet() & DRAIN_THRESHOLD) == 0) {
+        if (map.maintenanceExecutor == null) {
+          cleanUp();
+        } else {
+          scheduleCleanUp();
+        }
+      }
+    }
+
+    /**
+     * Submits a task cleaning up this segment to the maintenance executor, unless one is already
+     * waiting to run. If the executor rejects it, the current thread cleans up instead.
+     */
+    void scheduleCleanUp() {
+      if (!cleanUpScheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        map.maintenanceExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            cleanUpScheduled.set(false);
+            cleanUp();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // the executor is saturated or shut down
+        cleanUpScheduled.set(false);
         cleanUp();
       }
     }
@@ -3443,7 +5217,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (tryLock()) {
         try {
           drainReferenceQueues();
-          expireEntries(now); // calls drainRecencyQueue
+          expireEntries(now); // calls drainReadBuffer
           readCount.set(0);
         } finally {
           unlock();
@@ -3454,7 +5228,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void runUnlockedCleanup() {
       // locked cleanup may generate notifications we can send unlocked
       if (!isHeldByCurrentThread()) {
-        map.processPendingNotifications();
+        if (offHeapTier != null) {
+          storeDemotedEntries();
+        }
+        map.dispatchPendingNotifications();
       }
     }
 
@@ -3545,6 +5322,45 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Starts loading a new value using {@code loader}, without waiting for the load to complete.
+     * The returned future fails if the loader produces a null value. Unless loading fails
+     * immediately, {@link #futureValue} is left for the caller to complete, so that it can first
+     * store the loaded value.
+     */
+    public ListenableFuture<V> loadFuture(final K key, AsyncCacheLoader<? super K, V> loader) {
+      stopwatch.start();
+      try {
+        ListenableFuture<V> newValue = loader.load(key);
+        if (newValue == null) {
+          return Futures.immediateFuture(null);
+        }
+        return Futures.transform(newValue, new Function<V, V>() {
+          @Override
+          public V apply(V newValue) {
+            if (newValue == null) {
+              throw new InvalidCacheLoadException(
+                  "CacheLoader returned null for key " + key + ".");
+            }
+            return newValue;
+          }
+        });
+      } catch (Throwable t) {
+        if (t instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        return setException(t) ? futureValue : fullyFailedFuture(t);
+      }
+    }
+
+    /**
+     * Returns a future for the loaded value, which may be shared by many callers and so does not
+     * cancel the load when cancelled.
+     */
+    public ListenableFuture<V> getFuture() {
+      return Futures.nonCancellationPropagating(futureValue);
+    }
+
     public long elapsedNanos() {
       return stopwatch.elapsed(NANOSECONDS);
     }
@@ -3689,26 +5505,334 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return size;
     }
 
-    @Override
-    public void clear() {
-      ReferenceEntry<K, V> e = head.getNextInWriteQueue();
-      while (e != head) {
+    @Override
+    public void clear() {
+      ReferenceEntry<K, V> e = head.getNextInWriteQueue();
+      while (e != head) {
+        ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+        nullifyWriteOrder(e);
+        e = next;
+      }
+
+      head.setNextInWriteQueue(head);
+      head.setPreviousInWriteQueue(head);
+    }
+
+    @Override
+    public Iterator<ReferenceEntry<K, V>> iterator() {
+      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(peek()) {
+        @Override
+        protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
+          ReferenceEntry<K, V> next = previous.getNextInWriteQueue();
+          return (next == head) ? null : next;
+        }
+      };
+    }
+  }
+
+  /**
+   * A hierarchical timing wheel which orders entries by their variable expiration time, as
+   * computed by an {@link Expiry}. It takes the place of the write queue when variable expiration
+   * is used, and is linked through the write queue pointers of {@code ReferenceEntry}; the
+   * expiration time of each entry is stored as its write time.
+   *
+   * <p>The wheel is a set of levels, each an array of buckets covering a fixed span of time. An
+   * entry is placed in the bucket of the lowest level whose total span covers the time remaining
+   * until it expires, so scheduling and descheduling an entry take constant time. As time advances
+   * the buckets that have been passed are emptied: their entries are either due for expiration, in
+   * which case they are moved to a list from which they are polled, or are rescheduled into a lower
+   * level. Each entry is thus cascaded at most once per level, which keeps expiration amortized
+   * O(1) regardless of the number of entries and the mix of their lifetimes. The trade-off is
+   * precision: an entry is only removed after the bucket containing it has been passed, about a
+   * second after it expired. Reads check the expiration time directly, so an expired entry is
+   * never returned.
+   *
+   * <p>Expiration times which are extended without the segment lock, such as by
+   * {@link Expiry#expireAfterRead}, are not reflected in the wheel until the entry's bucket is
+   * passed, at which point the entry is rescheduled.
+   *
+   * <p>The levels and their spans follow the {@code TimerWheel} of Ben Manes' Caffeine library.
+   */
+  static final class TimerWheel<K, V> extends AbstractQueue<ReferenceEntry<K, V>> {
+    /**
+     * The number of buckets of each level. Each level spans as much time as a single bucket of the
+     * next level; the last level holds everything beyond the span of the others.
+     */
+    static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+    /**
+     * The base two logarithm of the span of a bucket of each level, in nanoseconds: about 1.07
+     * seconds, 1.15 minutes, 1.22 hours, 1.63 days and 6.5 days.
+     */
+    static final int[] SHIFT = { 30, 36, 42, 47, 49 };
+
+    final ReferenceEntry<K, V>[][] wheel;
+
+    /** Entries whose expiration time has passed, waiting to be polled. */
+    final ReferenceEntry<K, V> expired = new Sentinel<K, V>();
+
+    /** The time of the last advance. */
+    long nanos;
+
+    int count;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long nanos) {
+      this.nanos = nanos;
+      wheel = new ReferenceEntry[BUCKETS.length][];
+      for (int i = 0; i < wheel.length; i++) {
+        wheel[i] = new ReferenceEntry[BUCKETS[i]];
+        for (int j = 0; j < wheel[i].length; j++) {
+          wheel[i][j] = new Sentinel<K, V>();
+        }
+      }
+    }
+
+    /** The head of a circular list of entries, linked through their write queue pointers. */
+    static final class Sentinel<K, V> extends AbstractReferenceEntry<K, V> {
+      ReferenceEntry<K, V> nextWrite = this;
+      ReferenceEntry<K, V> previousWrite = this;
+
+      @Override
+      public long getWriteTime() {
+        return Long.MAX_VALUE;
+      }
+
+      @Override
+      public void setWriteTime(long time) {}
+
+      @Override
+      public ReferenceEntry<K, V> getNextInWriteQueue() {
+        return nextWrite;
+      }
+
+      @Override
+      public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+        this.nextWrite = next;
+      }
+
+      @Override
+      public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+        return previousWrite;
+      }
+
+      @Override
+      public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+        this.previousWrite = previous;
+      }
+    }
+
+    /**
+     * Advances the wheel to {@code currentTimeNanos}, moving the entries which have expired by then
+     * to the list polled by {@link #pollExpired}.
+     */
+    void advance(long currentTimeNanos) {
+      long previousTimeNanos = nanos;
+      nanos = currentTimeNanos;
+      for (int i = 0; i < SHIFT.length; i++) {
+        long previousTicks = previousTimeNanos >>> SHIFT[i];
+        long currentTicks = currentTimeNanos >>> SHIFT[i];
+        long delta = currentTicks - previousTicks;
+        if (delta <= 0L) {
+          break;
+        }
+        expire(i, previousTicks, delta);
+      }
+    }
+
+    /**
+     * Empties the buckets of {@code level} which were passed by advancing {@code delta} ticks, and
+     * the bucket of the current tick, whose entries now belong in a lower level.
+     */
+    void expire(int level, long previousTicks, long delta) {
+      ReferenceEntry<K, V>[] buckets = wheel[level];
+      int mask = buckets.length - 1;
+      int steps = (int) Math.min(delta + 1, buckets.length);
+      int start = (int) (previousTicks & mask);
+      for (int i = 0; i < steps; i++) {
+        ReferenceEntry<K, V> sentinel = buckets[(start + i) & mask];
+        ReferenceEntry<K, V> e = sentinel.getNextInWriteQueue();
+        sentinel.setNextInWriteQueue(sentinel);
+        sentinel.setPreviousInWriteQueue(sentinel);
+        while (e != sentinel) {
+          ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+          if (e.getWriteTime() - nanos <= 0) {
+            link(expired, e);
+          } else {
+            link(findBucket(e.getWriteTime()), e);
+          }
+          e = next;
+        }
+      }
+    }
+
+    /**
+     * Removes and returns an entry whose expiration time had passed when the wheel was last
+     * advanced, or returns {@code null} if there are none.
+     */
+    @Nullable
+    ReferenceEntry<K, V> pollExpired() {
+      ReferenceEntry<K, V> next = expired.getNextInWriteQueue();
+      if (next == expired) {
+        return null;
+      }
+      remove(next);
+      return next;
+    }
+
+    /** Returns the sentinel of the bucket in which an entry expiring at {@code time} belongs. */
+    ReferenceEntry<K, V> findBucket(long time) {
+      long duration = time - nanos;
+      if (duration < 0) {
+        // already expired; it will be found when the current bucket is passed
+        time = nanos;
+        duration = 0;
+      }
+      int last = wheel.length - 1;
+      for (int i = 0; i < last; i++) {
+        if (duration < (1L << SHIFT[i + 1])) {
+          long ticks = time >>> SHIFT[i];
+          return wheel[i][(int) ticks & (wheel[i].length - 1)];
+        }
+      }
+      return wheel[last][0];
+    }
+
+    /** Adds {@code entry}, which must not be linked, to the tail of {@code sentinel}'s list. */
+    static <K, V> void link(ReferenceEntry<K, V> sentinel, ReferenceEntry<K, V> entry) {
+      connectWriteOrder(sentinel.getPreviousInWriteQueue(), entry);
+      connectWriteOrder(entry, sentinel);
+    }
+
+    // implements Queue
+
+    /**
+     * Schedules {@code entry} according to its current expiration time, rescheduling it if it was
+     * already present.
+     */
+    @Override
+    public boolean offer(ReferenceEntry<K, V> entry) {
+      if (contains(entry)) {
+        connectWriteOrder(entry.getPreviousInWriteQueue(), entry.getNextInWriteQueue());
+      } else {
+        count++;
+      }
+      link(findBucket(entry.getWriteTime()), entry);
+      return true;
+    }
+
+    /**
+     * Returns the first entry of the first non-empty bucket, searching the levels in order from the
+     * current time. This is not necessarily the entry which expires first.
+     */
+    @Override
+    public ReferenceEntry<K, V> peek() {
+      ReferenceEntry<K, V> next = expired.getNextInWriteQueue();
+      if (next != expired) {
+        return next;
+      }
+      for (int i = 0; i < wheel.length; i++) {
+        ReferenceEntry<K, V>[] buckets = wheel[i];
+        int start = (int) (nanos >>> SHIFT[i]);
+        for (int j = 0; j < buckets.length; j++) {
+          ReferenceEntry<K, V> sentinel = buckets[(start + j) & (buckets.length - 1)];
+          next = sentinel.getNextInWriteQueue();
+          if (next != sentinel) {
+            return next;
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> poll() {
+      ReferenceEntry<K, V> next = peek();
+      if (next == null) {
+        return null;
+      }
+
+      remove(next);
+      return next;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      ReferenceEntry<K, V> previous = e.getPreviousInWriteQueue();
+      ReferenceEntry<K, V> next = e.getNextInWriteQueue();
+      connectWriteOrder(previous, next);
+      nullifyWriteOrder(e);
+
+      if (next != NullEntry.INSTANCE) {
+        count--;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      return e.getNextInWriteQueue() != NullEntry.INSTANCE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return count == 0;
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public void clear() {
+      clear(expired);
+      for (ReferenceEntry<K, V>[] buckets : wheel) {
+        for (ReferenceEntry<K, V> sentinel : buckets) {
+          clear(sentinel);
+        }
+      }
+      count = 0;
+    }
+
+    static <K, V> void clear(ReferenceEntry<K, V> sentinel) {
+      ReferenceEntry<K, V> e = sentinel.getNextInWriteQueue();
+      while (e != sentinel) {
         ReferenceEntry<K, V> next = e.getNextInWriteQueue();
         nullifyWriteOrder(e);
         e = next;
       }
 
-      head.setNextInWriteQueue(head);
-      head.setPreviousInWriteQueue(head);
+      sentinel.setNextInWriteQueue(sentinel);
+      sentinel.setPreviousInWriteQueue(sentinel);
     }
 
     @Override
     public Iterator<ReferenceEntry<K, V>> iterator() {
-      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(peek()) {
+      List<Iterator<ReferenceEntry<K, V>>> iterators = Lists.newArrayList();
+      iterators.add(bucketIterator(expired));
+      for (ReferenceEntry<K, V>[] buckets : wheel) {
+        for (ReferenceEntry<K, V> sentinel : buckets) {
+          iterators.add(bucketIterator(sentinel));
+        }
+      }
+      return Iterators.concat(iterators.iterator());
+    }
+
+    static <K, V> Iterator<ReferenceEntry<K, V>> bucketIterator(
+        final ReferenceEntry<K, V> sentinel) {
+      ReferenceEntry<K, V> first = sentinel.getNextInWriteQueue();
+      return new AbstractSequentialIterator<ReferenceEntry<K, V>>(
+          (first == sentinel) ? null : first) {
         @Override
         protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
           ReferenceEntry<K, V> next = previous.getNextInWriteQueue();
-          return (next == head) ? null : next;
+          return (next == sentinel) ? null : next;
         }
       };
     }
@@ -3851,6 +5975,266 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * An access queue which decides which entries to evict according to the W-TinyLFU policy.
+   * Entries are split between a small admission window and a main region, which is in turn
+   * segmented into probation and protected regions. New entries are added to the window. Entries
+   * leaving the window are moved to probation, and probation entries are promoted to the
+   * protected region when they are accessed again. When the segment exceeds its maximum weight,
+   * the newest entry in probation (the candidate) is compared with the oldest one (the victim),
+   * and the candidate only displaces the victim if it has been accessed more often, as estimated
+   * by a {@link FrequencySketch}. This keeps a scan of keys which are only accessed once from
+   * flushing the frequently used entries out of the cache.
+   *
+   * <p>All regions are linked through the access queue pointers of {@code ReferenceEntry}, so an
+   * entry belongs to at most one of them; its region is recorded in the entry itself. The regions
+   * are sized as a proportion of the segment's entries rather than its weight, which allows them
+   * to be maintained without re-weighing entries whose values are replaced.
+   *
+   * <p>Iteration visits the probation, window and protected regions in that order, each from the
+   * least to the most recently accessed entry.
+   */
+  static final class AdmissionQueue<K, V> extends AbstractQueue<ReferenceEntry<K, V>> {
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    /** The percentage of the segment's entries held in the admission window. */
+    static final int WINDOW_PERCENT = 1;
+
+    /** The percentage of the main region's entries held in the protected region. */
+    static final int PROTECTED_PERCENT = 80;
+
+    final AccessQueue<K, V> window = new AccessQueue<K, V>();
+    final AccessQueue<K, V> probation = new AccessQueue<K, V>();
+    final AccessQueue<K, V> protectedQueue = new AccessQueue<K, V>();
+    final FrequencySketch sketch;
+
+    int windowSize;
+    int probationSize;
+    int protectedSize;
+
+    AdmissionQueue(long expectedSize) {
+      sketch = new FrequencySketch(expectedSize);
+    }
+
+    /**
+     * Returns the entry that should be evicted next, which always has a positive weight. Ties in
+     * frequency are resolved in favor of the victim, which has already proven itself by
+     * surviving in the main region.
+     */
+    ReferenceEntry<K, V> getNextEvictable() {
+      ReferenceEntry<K, V> victim = firstEvictable(probation);
+      if (victim == null) {
+        ReferenceEntry<K, V> e = firstEvictable(window);
+        if (e == null) {
+          e = firstEvictable(protectedQueue);
+        }
+        if (e == null) {
+          throw new AssertionError();
+        }
+        return e;
+      }
+
+      ReferenceEntry<K, V> candidate = victim;
+      for (ReferenceEntry<K, V> e = probation.head.getPreviousInAccessQueue(); e != victim;
+          e = e.getPreviousInAccessQueue()) {
+        if (e.getValueReference().getWeight() > 0) {
+          candidate = e;
+          break;
+        }
+      }
+      if (candidate == victim) {
+        return victim;
+      }
+      return (sketch.frequency(candidate.getHash()) > sketch.frequency(victim.getHash()))
+          ? victim
+          : candidate;
+    }
+
+    @Nullable
+    static <K, V> ReferenceEntry<K, V> firstEvictable(AccessQueue<K, V> queue) {
+      for (ReferenceEntry<K, V> e : queue) {
+        if (e.getValueReference().getWeight() > 0) {
+          return e;
+        }
+      }
+      return null;
+    }
+
+    AccessQueue<K, V> queueFor(int region) {
+      switch (region) {
+        case WINDOW:
+          return window;
+        case PROBATION:
+          return probation;
+        case PROTECTED:
+          return protectedQueue;
+        default:
+          throw new AssertionError();
+      }
+    }
+
+    /**
+     * Moves the least recently used entries of the window to probation while the window exceeds
+     * its share of the segment.
+     */
+    void drainWindow() {
+      long maximum = Math.max(1, (long) size() * WINDOW_PERCENT / 100);
+      while (windowSize > maximum) {
+        ReferenceEntry<K, V> e = window.peek();
+        e.setAccessRegion(PROBATION);
+        probation.offer(e);
+        windowSize--;
+        probationSize++;
+      }
+    }
+
+    /**
+     * Demotes the least recently used entries of the protected region to probation while the
+     * protected region exceeds its share of the main region.
+     */
+    void drainProtected() {
+      long maximum = (long) (probationSize + protectedSize) * PROTECTED_PERCENT / 100;
+      while (protectedSize > maximum) {
+        ReferenceEntry<K, V> e = protectedQueue.peek();
+        e.setAccessRegion(PROBATION);
+        probation.offer(e);
+        protectedSize--;
+        probationSize++;
+      }
+    }
+
+    // implements Queue
+
+    /**
+     * Records an access to {@code entry}, adding it to the window if it isn't already present.
+     */
+    @Override
+    public boolean offer(ReferenceEntry<K, V> entry) {
+      sketch.increment(entry.getHash());
+      if (!contains(entry)) {
+        entry.setAccessRegion(WINDOW);
+        window.offer(entry);
+        windowSize++;
+        if (size() > sketch.capacity()) {
+          sketch.ensureCapacity(2L * size());
+        }
+        drainWindow();
+        return true;
+      }
+
+      switch (entry.getAccessRegion()) {
+        case WINDOW:
+          window.offer(entry);
+          break;
+        case PROBATION:
+          entry.setAccessRegion(PROTECTED);
+          protectedQueue.offer(entry);
+          probationSize--;
+          protectedSize++;
+          drainProtected();
+          break;
+        case PROTECTED:
+          protectedQueue.offer(entry);
+          break;
+        default:
+          throw new AssertionError();
+      }
+      return true;
+    }
+
+    /**
+     * Returns the least recently accessed entry at the head of any region. Only the head of each
+     * region is considered, so entries demoted from the protected region may be reported later
+     * than their access time would suggest.
+     */
+    @Override
+    public ReferenceEntry<K, V> peek() {
+      ReferenceEntry<K, V> oldest = probation.peek();
+      oldest = olderOf(oldest, window.peek());
+      return olderOf(oldest, protectedQueue.peek());
+    }
+
+    @Nullable
+    static <K, V> ReferenceEntry<K, V> olderOf(
+        @Nullable ReferenceEntry<K, V> first, @Nullable ReferenceEntry<K, V> second) {
+      if (first == null) {
+        return second;
+      } else if (second == null) {
+        return first;
+      }
+      return (second.getAccessTime() < first.getAccessTime()) ? second : first;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> poll() {
+      ReferenceEntry<K, V> next = peek();
+      if (next == null) {
+        return null;
+      }
+
+      remove(next);
+      return next;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      if (!contains(e)) {
+        return false;
+      }
+      switch (e.getAccessRegion()) {
+        case WINDOW:
+          windowSize--;
+          break;
+        case PROBATION:
+          probationSize--;
+          break;
+        case PROTECTED:
+          protectedSize--;
+          break;
+        default:
+          throw new AssertionError();
+      }
+      return queueFor(e.getAccessRegion()).remove(e);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      return e.getNextInAccessQueue() != NullEntry.INSTANCE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size() == 0;
+    }
+
+    @Override
+    public int size() {
+      return windowSize + probationSize + protectedSize;
+    }
+
+    @Override
+    public void clear() {
+      window.clear();
+      probation.clear();
+      protectedQueue.clear();
+      windowSize = 0;
+      probationSize = 0;
+      protectedSize = 0;
+    }
+
+    @Override
+    public Iterator<ReferenceEntry<K, V>> iterator() {
+      return Iterators.concat(
+          probation.iterator(), window.iterator(), protectedQueue.iterator());
+    }
+  }
+
   // Cache support
 
   public void cleanUp() {
@@ -3859,6 +6243,232 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * Returns the map behind {@code cache}, which must have been built by {@link CacheBuilder},
+   * possibly viewed through {@linkplain ForwardingCache forwarding caches}.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@code CacheBuilder}
+   */
+  static <K, V> LocalCache<K, V> localCacheOf(Cache<K, V> cache) {
+    while (cache instanceof ForwardingCache) {
+      cache = ((ForwardingCache<K, V>) cache).delegate();
+    }
+    checkArgument(cache instanceof LocalManualCache,
+        "cache was not built by CacheBuilder: %s", cache);
+    return ((LocalManualCache<K, V>) cache).localCache;
+  }
+
+  /**
+   * Returns a snapshot of the detailed metrics of this cache, which are all zero unless
+   * {@link CacheBuilder#recordDetailedStats} was specified.
+   */
+  CacheMetrics metrics() {
+    if (metricsCounter == null) {
+      return CacheMetrics.empty();
+    }
+    List<SegmentMetrics> segmentMetrics = Lists.newArrayListWithCapacity(segments.length);
+    for (Segment<K, V> segment : segments) {
+      segmentMetrics.add(segment.segmentCounter.snapshot());
+    }
+    return metricsCounter.snapshot(segmentMetrics);
+  }
+
+  /**
+   * Returns an iterator over up to {@code limit} live entries of each segment, approximately most
+   * recently accessed first if {@code hottestFirst} and least recently accessed first otherwise.
+   * Each segment is locked in turn only to copy references to its entries in access order; the
+   * iterator then takes the next entry of each segment in rotation, and reads its value when it
+   * is reached. Entries in the off-heap tier are not included.
+   */
+  Iterator<Entry<K, V>> orderedEntries(boolean hottestFirst, int limit) {
+    final List<List<ReferenceEntry<K, V>>> orders =
+        Lists.newArrayListWithCapacity(segments.length);
+    for (Segment<K, V> segment : segments) {
+      orders.add(segment.orderedEntries(hottestFirst, limit));
+    }
+    return new AbstractIterator<Entry<K, V>>() {
+      int rank;
+      int segmentIndex;
+      boolean found;
+
+      @Override
+      protected Entry<K, V> computeNext() {
+        while (true) {
+          if (segmentIndex == orders.size()) {
+            if (!found) {
+              return endOfData();
+            }
+            rank++;
+            segmentIndex = 0;
+            found = false;
+          }
+          List<ReferenceEntry<K, V>> order = orders.get(segmentIndex++);
+          if (rank < order.size()) {
+            found = true;
+            ReferenceEntry<K, V> e = order.get(rank);
+            K key = e.getKey();
+            V value = getLiveValue(e, ticker.read());
+            if (key != null && value != null) {
+              return Maps.immutableEntry(key, value);
+            }
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns an iterator over the live entries of the off-heap tier, most recently demoted first
+   * within each segment. Each segment is locked in turn only to copy the serialized values of its
+   * entries, which are decoded when they are reached.
+   */
+  Iterator<Entry<K, V>> offHeapEntries() {
+    if (offHeapCodec == null) {
+      return Iterators.emptyIterator();
+    }
+    final Segment<K, V>[] segments = this.segments;
+    return new AbstractIterator<Entry<K, V>>() {
+      int segmentIndex;
+      Segment<K, V> segment;
+      Iterator<OffHeapTier.Slot<K, V>> slots = Iterators.emptyIterator();
+
+      @Override
+      protected Entry<K, V> computeNext() {
+        while (!slots.hasNext()) {
+          if (segmentIndex == segments.length) {
+            return endOfData();
+          }
+          segment = segments[segmentIndex++];
+          slots = segment.offHeapEntries().iterator();
+        }
+        OffHeapTier.Slot<K, V> slot = slots.next();
+        return Maps.immutableEntry(slot.key, segment.offHeapTier.read(slot));
+      }
+    };
+  }
+
+  /** Returns up to {@code limit} keys, in the order of {@link #orderedEntries}. */
+  ImmutableList<K> orderedKeys(boolean hottestFirst, int limit) {
+    checkArgument(limit >= 0, "limit must not be negative: %s", limit);
+    ImmutableList.Builder<K> keys = ImmutableList.builder();
+    Iterator<Entry<K, V>> entries = orderedEntries(hottestFirst, limit);
+    for (int i = 0; i < limit && entries.hasNext(); i++) {
+      keys.add(entries.next().getKey());
+    }
+    return keys.build();
+  }
+
+  /** Returns the total weight of the entries in this map. */
+  long weightedSize() {
+    long sum = 0;
+    for (Segment<K, V> segment : segments) {
+      sum += segment.weightedSize();
+    }
+    return sum;
+  }
+
+  /**
+   * Changes the maximum weight of this map, which must already be bounded, redistributing it
+   * across the segments. Each segment then evicts the entries exceeding its new maximum in
+   * batches, releasing its lock between them.
+   */
+  synchronized void setMaximumWeight(long maximumWeight) {
+    checkState(evictsBySize(), "cache is not bounded by maximum size or weight");
+    checkArgument(maximumWeight >= 0, "maximum must not be negative: %s", maximumWeight);
+    maxWeight = maximumWeight;
+    for (int i = 0; i < segments.length; ++i) {
+      segments[i].setMaxSegmentWeight(segmentMaximumWeight(maximumWeight, segments.length, i));
+    }
+  }
+
+  /**
+   * Grows the segments on the maintenance executor after the lock of {@code contended} was found
+   * to be contended. Growing is never performed by the caller, as it locks every segment; if the
+   * executor rejects the task, the segments grow once contention is sampled again.
+   */
+  void scheduleGrowSegments(final Segment<K, V> contended) {
+    if (segments.length >= maximumSegmentCount) {
+      return;
+    }
+    try {
+      maintenanceExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          growSegments(contended);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the executor is saturated or shut down
+    }
+  }
+
+  /**
+   * Doubles the number of segments, unless {@code contended} was already replaced or the maximum
+   * number of segments was reached. All of the segments are locked, each is split into two new
+   * segments, and the new segments are published before the old ones are retired and unlocked.
+   * Operations which were waiting for the lock of an old segment then continue on the new segment
+   * holding their key, while lock-free reads of an old segment still see the entries it held.
+   */
+  synchronized void growSegments(Segment<K, V> contended) {
+    Segment<K, V>[] segments = this.segments;
+    if (contended.retired || segments.length >= maximumSegmentCount) {
+      return;
+    }
+    Segment<K, V>[] grown = newSegmentArray(segments.length << 1);
+    int locked = 0;
+    try {
+      for (; locked < segments.length; locked++) {
+        segments[locked].lock();
+      }
+      for (int i = 0; i < segments.length; i++) {
+        segments[i].splitInto(grown, i);
+      }
+      this.segments = grown;
+      for (Segment<K, V> segment : segments) {
+        segment.retired = true;
+      }
+    } finally {
+      for (int i = 0; i < locked; i++) {
+        segments[i].unlock();
+      }
+    }
+    dispatchPendingNotifications();
+  }
+
+  /**
+   * Returns the maximum weight of the segment at {@code index}. The maximum weight of the map is
+   * split evenly, and the segments with the lowest indexes absorb the remainder.
+   */
+  static long segmentMaximumWeight(long maxWeight, int segmentCount, int index) {
+    return maxWeight / segmentCount + ((index < maxWeight % segmentCount) ? 1 : 0);
+  }
+
+  /**
+   * Inserts {@code entries}, which are ordered hottest first, partitioning them by segment so that
+   * each segment is locked only once. See {@link Segment#putAllIfAbsent} for the entries which
+   * are skipped. Returns the number of entries inserted.
+   */
+  int putAllIfAbsent(Iterable<? extends Entry<? extends K, ? extends V>> entries) {
+    Segment<K, V>[] segments = this.segments;
+    List<List<Entry<K, V>>> partitions = Lists.newArrayListWithCapacity(segments.length);
+    for (int i = 0; i < segments.length; i++) {
+      partitions.add(Lists.<Entry<K, V>>newArrayList());
+    }
+    for (Entry<? extends K, ? extends V> entry : entries) {
+      K key = checkNotNull(entry.getKey());
+      V value = checkNotNull(entry.getValue());
+      int hash = hash(key);
+      partitions.get(segmentIndex(hash, segments.length)).add(Maps.immutableEntry(key, value));
+    }
+    int inserted = 0;
+    for (int i = 0; i < segments.length; i++) {
+      if (!partitions.get(i).isEmpty()) {
+        inserted += segments[i].putAllIfAbsent(partitions.get(i));
+      }
+    }
+    return inserted;
+  }
+
   // ConcurrentMap methods
 
   @Override
@@ -3920,7 +6530,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   @Nullable
   public V getIfPresent(Object key) {
     int hash = hash(checkNotNull(key));
-    V value = segmentFor(hash).get(key, hash);
+    V value = segmentFor(hash).getIfPresent(key, hash);
     if (value == null) {
       globalStatsCounter.recordMisses(1);
     } else {
@@ -3938,13 +6548,85 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return get(key, defaultLoader);
   }
 
+  @Nullable
+  V getLongIfPresent(long key) {
+    int hash = hash(key);
+    V value = segmentFor(hash).getLongIfPresent(key, hash);
+    if (value == null) {
+      globalStatsCounter.recordMisses(1);
+    } else {
+      globalStatsCounter.recordHits(1);
+    }
+    return value;
+  }
+
+  V getLongOrLoad(long key) throws ExecutionException {
+    int hash = hash(key);
+    return segmentFor(hash).getLong(key, hash, defaultLoader);
+  }
+
+  /**
+   * Returns the values of {@code keys}, in the same order, loading the missing ones as
+   * {@link #getAll} does. Only the missing keys are boxed.
+   */
+  ImmutableList<V> getAllLong(long[] keys) throws ExecutionException {
+    Object[] values = new Object[keys.length];
+    getAllLong(keys, values);
+    @SuppressWarnings("unchecked") // every element is a V
+    ImmutableList<V> result = (ImmutableList<V>) ImmutableList.copyOf(values);
+    return result;
+  }
+
+  /**
+   * Stores the values of {@code keys} at the same indexes of {@code values}, loading the missing
+   * ones as {@link #getAll} does. Only the missing keys are boxed, so nothing is allocated if all
+   * of the keys are present.
+   */
+  void getAllLong(long[] keys, Object[] values) throws ExecutionException {
+    checkArgument(values.length >= keys.length,
+        "values (%s) is shorter than keys (%s)", values.length, keys.length);
+    List<K> keysToLoad = null;
+    int hits = 0;
+    for (int i = 0; i < keys.length; i++) {
+      long key = keys[i];
+      int hash = hash(key);
+      V value = segmentFor(hash).getLongIfPresent(key, hash);
+      values[i] = value;
+      if (value == null) {
+        if (keysToLoad == null) {
+          keysToLoad = Lists.newArrayList();
+        }
+        @SuppressWarnings("unchecked") // only used in maps whose keys are Longs
+        K boxedKey = (K) Long.valueOf(key);
+        keysToLoad.add(boxedKey);
+      } else {
+        hits++;
+      }
+    }
+    globalStatsCounter.recordHits(hits);
+
+    if (keysToLoad != null) {
+      // getAll records the misses
+      Map<K, V> loaded = getAll(keysToLoad);
+      for (int i = 0; i < keys.length; i++) {
+        if (values[i] == null) {
+          values[i] = loaded.get(Long.valueOf(keys[i]));
+        }
+      }
+    }
+  }
+
   ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
     int hits = 0;
     int misses = 0;
 
     Map<K, V> result = Maps.newLinkedHashMap();
     for (Object key : keys) {
-      V value = get(key);
+      V value = null;
+      if (key != null) {
+        int hash = hash(key);
+        value = segmentFor(hash).getIfPresent(key, hash);
+      }
       if (value == null) {
         misses++;
       } else {
@@ -3992,9 +6674,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           }
         } catch (UnsupportedLoadingOperationException e) {
           // loadAll not implemented, fallback to load
-          for (K key : keysToLoad) {
-            misses--; // get will count this miss
-            result.put(key, get(key, defaultLoader));
+          if (getAllExecutor != null) {
+            misses -= keysToLoad.size(); // get will count these misses
+            result.putAll(getInParallel(keysToLoad, defaultLoader));
+          } else {
+            for (K key : keysToLoad) {
+              misses--; // get will count this miss
+              result.put(key, get(key, defaultLoader));
+            }
           }
         }
       }
@@ -4005,6 +6692,63 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * Gets the values of {@code keys} with individual calls to {@link #get(Object, CacheLoader)} on
+   * the {@link #getAllExecutor}, with at most {@link #maximumGetAllLoads} of them in progress at a
+   * time. Returns once all of them have completed, throwing the failure of the first key whose
+   * load failed.
+   */
+  Map<K, V> getInParallel(Set<K> keys, final CacheLoader<? super K, V> loader)
+      throws ExecutionException {
+    final Semaphore permits = new Semaphore(maximumGetAllLoads);
+    List<ListenableFutureTask<V>> tasks = Lists.newArrayListWithCapacity(keys.size());
+    for (final K key : keys) {
+      ListenableFutureTask<V> task = ListenableFutureTask.create(new Callable<V>() {
+        @Override
+        public V call() throws ExecutionException {
+          try {
+            return get(key, loader);
+          } finally {
+            permits.release();
+          }
+        }
+      });
+      tasks.add(task);
+      permits.acquireUninterruptibly();
+      try {
+        getAllExecutor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+
+    Map<K, V> result = Maps.newLinkedHashMap();
+    ExecutionException failure = null;
+    int i = 0;
+    for (K key : keys) {
+      try {
+        result.put(key, getUninterruptibly(tasks.get(i++)));
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      // rethrow the exception thrown by get, as if it had been called on this thread
+      Throwable cause = failure.getCause();
+      if (cause instanceof ExecutionException) {
+        throw (ExecutionException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw failure;
+    }
+    return result;
+  }
+
   /**
    * Returns the result of calling {@link CacheLoader#loadAll}, or null if {@code loader} doesn't
    * implement {@code loadAll}.
@@ -4040,6 +6784,17 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    putLoadedEntries(result, loader, stopwatch);
+    return result;
+  }
+
+  /**
+   * Stores the entries returned by a call to {@code loadAll} on {@code loader}, and records the
+   * outcome of the load.
+   *
+   * @throws InvalidCacheLoadException if {@code result} is null or contains null keys or values
+   */
+  void putLoadedEntries(@Nullable Map<K, V> result, Object loader, Stopwatch stopwatch) {
     if (result == null) {
       globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
       throw new InvalidCacheLoadException(loader + " returned null map from loadAll");
@@ -4066,7 +6821,146 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     // TODO(fry): record count of loaded entries
     globalStatsCounter.recordLoadSuccess(stopwatch.elapsed(NANOSECONDS));
-    return result;
+  }
+
+  // asynchronous loading
+
+  ListenableFuture<V> getFuture(K key, AsyncCacheLoader<? super K, V> loader) {
+    int hash = hash(checkNotNull(key));
+    return segmentFor(hash).getFuture(key, hash, loader);
+  }
+
+  @Nullable
+  ListenableFuture<V> getIfPresentFuture(Object key) {
+    int hash = hash(checkNotNull(key));
+    Segment<K, V> segment = segmentFor(hash);
+    V value = segment.get(key, hash);
+    if (value != null) {
+      globalStatsCounter.recordHits(1);
+      return Futures.immediateFuture(value);
+    }
+    globalStatsCounter.recordMisses(1);
+    ReferenceEntry<K, V> e = segment.getEntry(key, hash);
+    if (e != null && e.getValueReference().isLoading()) {
+      return ((LoadingValueReference<K, V>) e.getValueReference()).getFuture();
+    }
+    return null;
+  }
+
+  ListenableFuture<ImmutableMap<K, V>> getAllFuture(Iterable<? extends K> keys,
+      final AsyncCacheLoader<? super K, V> loader) {
+    int hits = 0;
+
+    final Map<K, V> result = Maps.newLinkedHashMap();
+    final Set<K> keysToLoad = Sets.newLinkedHashSet();
+    for (K key : keys) {
+      V value = get(key);
+      if (!result.containsKey(key)) {
+        result.put(key, value);
+        if (value == null) {
+          keysToLoad.add(key);
+        } else {
+          hits++;
+        }
+      }
+    }
+    globalStatsCounter.recordHits(hits);
+    if (keysToLoad.isEmpty()) {
+      return Futures.immediateFuture(ImmutableMap.copyOf(result));
+    }
+
+    ListenableFuture<Map<K, V>> bulkLoaded = Futures.transform(loadAllFuture(keysToLoad, loader),
+        new Function<Map<K, V>, Map<K, V>>() {
+          @Override
+          public Map<K, V> apply(Map<K, V> newEntries) {
+            globalStatsCounter.recordMisses(keysToLoad.size());
+            return newEntries;
+          }
+        });
+    ListenableFuture<Map<K, V>> loaded = Futures.withFallback(bulkLoaded,
+        new FutureFallback<Map<K, V>>() {
+          @Override
+          public ListenableFuture<Map<K, V>> create(Throwable t) {
+            if (t instanceof UnsupportedLoadingOperationException) {
+              // loadAll not implemented, fallback to load; get will count the misses
+              return getEachFuture(keysToLoad, loader);
+            }
+            globalStatsCounter.recordMisses(keysToLoad.size());
+            return Futures.immediateFailedFuture(t);
+          }
+        });
+    return Futures.transform(loaded, new Function<Map<K, V>, ImmutableMap<K, V>>() {
+      @Override
+      public ImmutableMap<K, V> apply(Map<K, V> newEntries) {
+        for (K key : keysToLoad) {
+          V value = newEntries.get(key);
+          if (value == null) {
+            throw new InvalidCacheLoadException("loadAll failed to return a value for " + key);
+          }
+          result.put(key, value);
+        }
+        return ImmutableMap.copyOf(result);
+      }
+    });
+  }
+
+  /**
+   * Returns a future for the result of calling {@link AsyncCacheLoader#loadAll}, whose entries
+   * are stored in the cache once it completes. The future fails with an
+   * {@link UnsupportedLoadingOperationException} if {@code loader} doesn't implement
+   * {@code loadAll}.
+   */
+  ListenableFuture<Map<K, V>> loadAllFuture(final Set<? extends K> keys,
+      final AsyncCacheLoader<? super K, V> loader) {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    ListenableFuture<Map<K, V>> future;
+    try {
+      @SuppressWarnings("unchecked") // safe since all keys extend K
+      ListenableFuture<Map<K, V>> loading = (ListenableFuture) loader.loadAll(keys);
+      future = (loading == null) ? Futures.<Map<K, V>>immediateFuture(null) : loading;
+    } catch (Throwable t) {
+      if (t instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      future = Futures.immediateFailedFuture(t);
+    }
+
+    Futures.addCallback(future, new FutureCallback<Map<K, V>>() {
+      @Override
+      public void onSuccess(Map<K, V> result) {}
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (!(t instanceof UnsupportedLoadingOperationException)) {
+          globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
+        }
+      }
+    });
+    return Futures.transform(future, new Function<Map<K, V>, Map<K, V>>() {
+      @Override
+      public Map<K, V> apply(Map<K, V> result) {
+        putLoadedEntries(result, loader, stopwatch);
+        return result;
+      }
+    });
+  }
+
+  ListenableFuture<Map<K, V>> getEachFuture(Set<K> keys, AsyncCacheLoader<? super K, V> loader) {
+    final List<K> keyList = Lists.newArrayList(keys);
+    List<ListenableFuture<V>> futures = Lists.newArrayListWithCapacity(keyList.size());
+    for (K key : keyList) {
+      futures.add(getFuture(key, loader));
+    }
+    return Futures.transform(Futures.allAsList(futures), new Function<List<V>, Map<K, V>>() {
+      @Override
+      public Map<K, V> apply(List<V> values) {
+        Map<K, V> result = Maps.newHashMap();
+        for (int i = 0; i < keyList.size(); i++) {
+          result.put(keyList.get(i), values.get(i));
+        }
+        return result;
+      }
+    });
   }
 
   /**
@@ -4087,6 +6981,177 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     segmentFor(hash).refresh(key, hash, defaultLoader, false);
   }
 
+  /**
+   * Refreshes the entries which are eligible for refresh and have been read since they were last
+   * written, one segment at a time.
+   */
+  void refreshEligibleEntries() {
+    for (Segment<K, V> segment : segments) {
+      segment.refreshEligibleEntries(defaultLoader);
+    }
+  }
+
+  /**
+   * Reloads the values of {@code keys}, whose entries hold the corresponding loading value
+   * references, with a single call to {@link CacheLoader#reloadAll}. Keys are reloaded individually
+   * with {@link CacheLoader#reload} if {@code loader} implements neither {@code reloadAll} nor
+   * {@code loadAll}, and loaded with {@link CacheLoader#load} if their old value has since been
+   * removed. Each new value is stored once the batch completes, unless its entry was written in the
+   * meantime.
+   */
+  void reloadAll(List<K> keys, List<Integer> hashes,
+      List<LoadingValueReference<K, V>> loadingValueReferences,
+      final CacheLoader<? super K, V> loader) {
+    final List<K> reloadingKeys = Lists.newArrayListWithCapacity(keys.size());
+    final List<Integer> reloadingHashes = Lists.newArrayListWithCapacity(keys.size());
+    final List<LoadingValueReference<K, V>> reloadingReferences =
+        Lists.newArrayListWithCapacity(keys.size());
+    Map<K, V> oldValues = Maps.newLinkedHashMap();
+    for (int i = 0; i < keys.size(); i++) {
+      K key = keys.get(i);
+      int hash = hashes.get(i);
+      LoadingValueReference<K, V> loadingValueReference = loadingValueReferences.get(i);
+      V oldValue = loadingValueReference.oldValue.get();
+      if (oldValue == null) {
+        segmentFor(hash).loadAsync(key, hash, loadingValueReference, loader);
+      } else {
+        reloadingKeys.add(key);
+        reloadingHashes.add(hash);
+        reloadingReferences.add(loadingValueReference);
+        oldValues.put(key, oldValue);
+      }
+    }
+    if (reloadingKeys.isEmpty()) {
+      return;
+    }
+
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final ListenableFuture<Map<K, V>> future;
+    try {
+      @SuppressWarnings("unchecked") // safe since all keys extend K
+      CacheLoader<K, V> typedLoader = (CacheLoader<K, V>) loader;
+      future = typedLoader.reloadAll(Collections.unmodifiableMap(oldValues));
+      if (future == null) {
+        throw new InvalidCacheLoadException(loader + " returned null future from reloadAll");
+      }
+    } catch (UnsupportedLoadingOperationException e) {
+      // neither reloadAll nor loadAll implemented, fallback to reload
+      for (int i = 0; i < reloadingKeys.size(); i++) {
+        segmentFor(reloadingHashes.get(i)).loadAsync(
+            reloadingKeys.get(i), reloadingHashes.get(i), reloadingReferences.get(i), loader);
+      }
+      return;
+    } catch (Throwable t) {
+      if (t instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      failReload(reloadingKeys, reloadingHashes, reloadingReferences, t, stopwatch);
+      return;
+    }
+
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        Map<K, V> result;
+        try {
+          result = getUninterruptibly(future);
+          if (result == null) {
+            throw new InvalidCacheLoadException(loader + " returned null map from reloadAll");
+          }
+        } catch (Throwable t) {
+          failReload(reloadingKeys, reloadingHashes, reloadingReferences, t, stopwatch);
+          return;
+        }
+        storeReloadedValues(reloadingKeys, reloadingHashes, reloadingReferences, result,
+            stopwatch, loader);
+      }
+    }, sameThreadExecutor);
+  }
+
+  private void storeReloadedValues(List<K> keys, List<Integer> hashes,
+      List<LoadingValueReference<K, V>> loadingValueReferences, Map<K, V> result,
+      Stopwatch stopwatch, CacheLoader<? super K, V> loader) {
+    long elapsedNanos = stopwatch.elapsed(NANOSECONDS);
+    boolean nullsPresent = false;
+    for (int i = 0; i < keys.size(); i++) {
+      K key = keys.get(i);
+      LoadingValueReference<K, V> loadingValueReference = loadingValueReferences.get(i);
+      V value = result.get(key);
+      if (value == null) {
+        nullsPresent = true;
+        loadingValueReference.setException(
+            new InvalidCacheLoadException("reloadAll failed to return a value for " + key));
+        segmentFor(hashes.get(i)).removeLoadingValue(key, hashes.get(i), loadingValueReference);
+      } else {
+        loadingValueReference.set(value);
+        segmentFor(hashes.get(i)).storeLoadedValue(
+            key, hashes.get(i), loadingValueReference, value);
+      }
+    }
+    if (nullsPresent) {
+      logger.log(Level.WARNING, "Exception thrown during refresh", new InvalidCacheLoadException(
+          loader + " returned null keys or values from reloadAll"));
+      globalStatsCounter.recordLoadException(elapsedNanos);
+    } else {
+      globalStatsCounter.recordLoadSuccess(elapsedNanos);
+    }
+  }
+
+  private void failReload(List<K> keys, List<Integer> hashes,
+      List<LoadingValueReference<K, V>> loadingValueReferences, Throwable t,
+      Stopwatch stopwatch) {
+    logger.log(Level.WARNING, "Exception thrown during refresh", t);
+    for (int i = 0; i < keys.size(); i++) {
+      loadingValueReferences.get(i).setException(t);
+      segmentFor(hashes.get(i)).removeLoadingValue(
+          keys.get(i), hashes.get(i), loadingValueReferences.get(i));
+    }
+    globalStatsCounter.recordLoadException(stopwatch.elapsed(NANOSECONDS));
+  }
+
+  /**
+   * Periodically refreshes the eligible entries of a cache built with
+   * {@link CacheBuilder#refreshScheduler}. The cache is only weakly referenced, and the task
+   * cancels itself once the cache has been garbage collected.
+   */
+  static final class ScheduledRefresher implements Runnable {
+    final WeakReference<LocalCache<?, ?>> cacheReference;
+    volatile Future<?> future;
+
+    ScheduledRefresher(LocalCache<?, ?> cache) {
+      this.cacheReference = new WeakReference<LocalCache<?, ?>>(cache);
+    }
+
+    /**
+     * Schedules the refreshes of {@code cache}, checking for eligible entries four times per
+     * refresh interval so that entries are refreshed at most a quarter of an interval late.
+     */
+    static void schedule(LocalCache<?, ?> cache, ScheduledExecutorService scheduler) {
+      ScheduledRefresher refresher = new ScheduledRefresher(cache);
+      long period = Math.max(cache.refreshNanos / 4, 1);
+      refresher.future =
+          scheduler.scheduleWithFixedDelay(refresher, period, period, NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      LocalCache<?, ?> cache = cacheReference.get();
+      if (cache == null) {
+        Future<?> future = this.future;
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        cache.refreshEligibleEntries();
+      } catch (Throwable t) {
+        // an exception would cancel all future runs
+        logger.log(Level.WARNING, "Exception thrown during scheduled refresh", t);
+      }
+    }
+  }
+
   @Override
   public boolean containsKey(@Nullable Object key) {
     // does not impact recency ordering
@@ -4200,9 +7265,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   @Override
   public void clear() {
-    for (Segment<K, V> segment : segments) {
-      segment.clear();
-    }
+    Segment<K, V>[] cleared;
+    do {
+      cleared = segments;
+      for (Segment<K, V> segment : cleared) {
+        segment.clear();
+      }
+    } while (cleared != segments);
   }
 
   void invalidateAll(Iterable<?> keys) {
@@ -4244,6 +7313,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
   abstract class HashIterator<T> implements Iterator<T> {
 
+    final Segment<K, V>[] segments = LocalCache.this.segments;
     int nextSegmentIndex;
     int nextTableIndex;
     Segment<K, V> currentSegment;
@@ -4563,8 +7633,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     final Equivalence<Object> valueEquivalence;
     final long expireAfterWriteNanos;
     final long expireAfterAccessNanos;
+    final Expiry<K, V> expiry;
     final long maxWeight;
     final Weigher<K, V> weigher;
+    final boolean frequencyAdmission;
+    final ValueCodec<V> offHeapCodec;
+    final long offHeapMaximumBytes;
+    final File offHeapDirectory;
+    final int maximumLoadBatchSize;
+    final long loadBatchDelayNanos;
     final int concurrencyLevel;
     final RemovalListener<? super K, ? super V> removalListener;
     final Ticker ticker;
@@ -4580,29 +7657,56 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           cache.valueEquivalence,
           cache.expireAfterWriteNanos,
           cache.expireAfterAccessNanos,
+          cache.expiry,
           cache.maxWeight,
           cache.weigher,
+          cache.admitsByFrequency(),
+          cache.offHeapCodec,
+          cache.offHeapMaximumBytes,
+          cache.offHeapDirectory,
+          (cache.loadBatcher == null) ? UNSET_INT : cache.loadBatcher.maximumBatchSize,
+          (cache.loadBatcher == null) ? UNSET_INT : cache.loadBatcher.maximumDelayNanos,
           cache.concurrencyLevel,
           cache.removalListener,
           cache.ticker,
-          cache.defaultLoader);
+          unbatchedLoader(cache));
+    }
+
+    /** Returns the loader of {@code cache}, without the batching added by its builder. */
+    private static <K, V> CacheLoader<? super K, V> unbatchedLoader(LocalCache<K, V> cache) {
+      CacheLoader<? super K, V> loader;
+      if (cache.loadBatcher == null) {
+        loader = cache.defaultLoader;
+      } else {
+        loader = cache.loadBatcher.delegate;
+      }
+      return loader;
     }
 
     private ManualSerializationProxy(
         Strength keyStrength, Strength valueStrength,
         Equivalence<Object> keyEquivalence, Equivalence<Object> valueEquivalence,
-        long expireAfterWriteNanos, long expireAfterAccessNanos, long maxWeight,
-        Weigher<K, V> weigher, int concurrencyLevel,
-        RemovalListener<? super K, ? super V> removalListener,
-        Ticker ticker, CacheLoader<? super K, V> loader) {
+        long expireAfterWriteNanos, long expireAfterAccessNanos, Expiry<K, V> expiry,
+        long maxWeight, Weigher<K, V> weigher, boolean frequencyAdmission,
+        ValueCodec<V> offHeapCodec, long offHeapMaximumBytes, File offHeapDirectory,
+        int maximumLoadBatchSize, long loadBatchDelayNanos, int concurrencyLevel,
+        RemovalListener<? super K, ? super V> removalListener, Ticker ticker,
+        CacheLoader<? super K, V> loader) {
       this.keyStrength = keyStrength;
       this.valueStrength = valueStrength;
       this.keyEquivalence = keyEquivalence;
       this.valueEquivalence = valueEquivalence;
       this.expireAfterWriteNanos = expireAfterWriteNanos;
       this.expireAfterAccessNanos = expireAfterAccessNanos;
+      this.expiry = expiry;
       this.maxWeight = maxWeight;
       this.weigher = weigher;
+      this.frequencyAdmission = frequencyAdmission;
+      this.offHeapCodec = offHeapCodec;
+      this.offHeapMaximumBytes = offHeapMaximumBytes;
+      this.offHeapDirectory = offHeapDirectory;
+      this.maximumLoadBatchSize = maximumLoadBatchSize;
+      this.loadBatchDelayNanos = loadBatchDelayNanos;
       this.concurrencyLevel = concurrencyLevel;
       this.removalListener = removalListener;
       this.ticker = (ticker == Ticker.systemTicker() || ticker == NULL_TICKER)
@@ -4625,6 +7729,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (expireAfterAccessNanos > 0) {
         builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
       }
+      if (expiry != null) {
+        builder.expireAfter(expiry);
+      }
       if (weigher != OneWeigher.INSTANCE) {
         builder.weigher(weigher);
         if (maxWeight != UNSET_INT) {
@@ -4635,6 +7742,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           builder.maximumSize(maxWeight);
         }
       }
+      if (frequencyAdmission) {
+        builder.frequencyAdmission();
+      }
+      if (offHeapCodec != null) {
+        if (offHeapDirectory == null) {
+          builder.offHeapTier(offHeapCodec, offHeapMaximumBytes);
+        } else {
+          builder.offHeapTier(offHeapCodec, offHeapMaximumBytes, offHeapDirectory);
+        }
+      }
+      // adaptive concurrency needs the maintenance executor, which is not serialized
+      if (maximumLoadBatchSize != UNSET_INT) {
+        builder.batchLoads(maximumLoadBatchSize, loadBatchDelayNanos, TimeUnit.NANOSECONDS);
+      }
       if (ticker != null) {
         builder.ticker(ticker);
       }
@@ -4671,14 +7792,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     transient LoadingCache<K, V> autoDelegate;
 
+    final boolean longKeys;
+
     LoadingSerializationProxy(LocalCache<K, V> cache) {
       super(cache);
+      this.longKeys = cache.longKeys;
     }
 
+    @SuppressWarnings("unchecked") // a map with long keys is a LocalCache<Long, V>
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
       in.defaultReadObject();
       CacheBuilder<K, V> builder = recreateCacheBuilder();
-      this.autoDelegate = builder.build(loader);
+      this.autoDelegate = longKeys
+          ? (LoadingCache<K, V>) builder.buildLongKeyed((CacheLoader<? super Long, V>) loader)
+          : builder.build(loader);
     }
 
     @Override
@@ -4711,6 +7838,87 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  static class LocalAsyncLoadingCache<K, V> implements AsyncLoadingCache<K, V> {
+    final LocalLoadingCache<K, V> synchronous;
+    final LocalCache<K, V> localCache;
+    final AsyncCacheLoader<? super K, V> loader;
+
+    LocalAsyncLoadingCache(CacheBuilder<? super K, ? super V> builder,
+        AsyncCacheLoader<? super K, V> loader) {
+      this.loader = checkNotNull(loader);
+      this.synchronous =
+          new LocalLoadingCache<K, V>(builder, AsyncCacheLoader.synchronous(loader));
+      this.localCache = synchronous.localCache;
+    }
+
+    // AsyncLoadingCache methods
+
+    @Override
+    @Nullable
+    public ListenableFuture<V> getIfPresent(Object key) {
+      return localCache.getIfPresentFuture(key);
+    }
+
+    @Override
+    public ListenableFuture<V> get(K key) {
+      return localCache.getFuture(key, loader);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys) {
+      return localCache.getAllFuture(keys, loader);
+    }
+
+    @Override
+    public LoadingCache<K, V> synchronous() {
+      return synchronous;
+    }
+  }
+
+  static final class LocalPolicy<K, V> implements CachePolicy<K, V> {
+    final LocalCache<K, V> localCache;
+
+    LocalPolicy(LocalCache<K, V> localCache) {
+      this.localCache = localCache;
+    }
+
+    @Override
+    public boolean isBounded() {
+      return localCache.evictsBySize();
+    }
+
+    @Override
+    public boolean isWeighted() {
+      return localCache.customWeigher();
+    }
+
+    @Override
+    public long getMaximum() {
+      checkState(isBounded(), "cache is not bounded by maximum size or weight");
+      return localCache.maxWeight;
+    }
+
+    @Override
+    public void setMaximum(long maximum) {
+      localCache.setMaximumWeight(maximum);
+    }
+
+    @Override
+    public long weightedSize() {
+      return localCache.customWeigher() ? localCache.weightedSize() : localCache.longSize();
+    }
+
+    @Override
+    public ImmutableList<K> hottest(int limit) {
+      return localCache.orderedKeys(true, limit);
+    }
+
+    @Override
+    public ImmutableList<K> coldest(int limit) {
+      return localCache.orderedKeys(false, limit);
+    }
+  }
+
   static class LocalManualCache<K, V> implements Cache<K, V>, Serializable {
     final LocalCache<K, V> localCache;
 
@@ -4789,7 +7997,21 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       for (Segment<K, V> segment : localCache.segments) {
         aggregator.incrementBy(segment.statsCounter);
       }
-      return aggregator.snapshot();
+      CacheStats stats = aggregator.snapshot();
+      if (localCache.loadBatcher != null) {
+        stats = stats.plus(localCache.loadBatcher.stats());
+      }
+      for (Segment<K, V> segment : localCache.segments) {
+        if (segment.offHeapTier != null) {
+          stats = stats.plus(segment.offHeapTier.stats());
+        }
+      }
+      if (localCache.nearCacheHitCount != null) {
+        long nearCacheHits = localCache.nearCacheHitCount.sum();
+        stats = stats.plus(
+            new CacheStats(nearCacheHits, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, nearCacheHits));
+      }
+      return stats;
     }
 
     @Override
@@ -4812,6 +8034,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     LocalLoadingCache(CacheBuilder<? super K, ? super V> builder,
         CacheLoader<? super K, V> loader) {
       super(new LocalCache<K, V>(builder, checkNotNull(loader)));
+      localCache.startScheduledRefreshes(builder);
+    }
+
+    LocalLoadingCache(LocalCache<K, V> localCache) {
+      super(localCache);
     }
 
     // LoadingCache methods
@@ -4854,4 +8081,46 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return new LoadingSerializationProxy<K, V>(localCache);
     }
   }
+
+  static final class LocalLongKeyLoadingCache<V>
+      extends LocalLoadingCache<Long, V> implements LongKeyLoadingCache<V> {
+
+    LocalLongKeyLoadingCache(CacheBuilder<? super Long, ? super V> builder,
+        CacheLoader<? super Long, V> loader) {
+      super(new LocalCache<Long, V>(builder, checkNotNull(loader), true));
+      localCache.startScheduledRefreshes(builder);
+    }
+
+    @Override
+    @Nullable
+    public V getIfPresent(long key) {
+      return localCache.getLongIfPresent(key);
+    }
+
+    @Override
+    public V get(long key) throws ExecutionException {
+      return localCache.getLongOrLoad(key);
+    }
+
+    @Override
+    public V getUnchecked(long key) {
+      try {
+        return get(key);
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      }
+    }
+
+    @Override
+    public ImmutableList<V> getAll(long[] keys) throws ExecutionException {
+      return localCache.getAllLong(keys);
+    }
+
+    @Override
+    public void getAll(long[] keys, V[] values) throws ExecutionException {
+      localCache.getAllLong(keys, values);
+    }
+
+    private static final long serialVersionUID = 1;
+  }
 }
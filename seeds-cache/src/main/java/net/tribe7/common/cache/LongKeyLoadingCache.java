@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.collect.ImmutableList;
+import net.tribe7.common.util.concurrent.ExecutionError;
+import net.tribe7.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A {@link LoadingCache} whose keys are {@code long} values, built by
+ * {@link CacheBuilder#buildLongKeyed}. Its entries store their keys as primitive values rather
+ * than as {@code Long} objects, and the methods taking a {@code long} look up cached values without
+ * boxing the key, so that cache hits don't allocate. The key is boxed when its value has to be
+ * loaded or refreshed, and when it is passed to the loader, weigher, expiry or removal listener.
+ *
+ * <p>Apart from the way keys are stored, this cache behaves as any other {@code LoadingCache}
+ * built with the same settings, including its eviction, expiration, refresh and statistics. The
+ * methods inherited from {@code LoadingCache} accept boxed keys.
+ *
+ * @param <V> the type of the cache's values, which are not permitted to be null
+ */
+@Beta
+@GwtIncompatible("not needed in GWT")
+public interface LongKeyLoadingCache<V> extends LoadingCache<Long, V> {
+
+  /**
+   * Returns the value associated with {@code key} in this cache, or {@code null} if there is no
+   * cached value for {@code key}. Equivalent to {@link #getIfPresent(Object)} with a boxed key.
+   */
+  @Nullable
+  V getIfPresent(long key);
+
+  /**
+   * Returns the value associated with {@code key} in this cache, first loading that value if
+   * necessary. Equivalent to {@link #get(Object)} with a boxed key.
+   *
+   * @throws ExecutionException if a checked exception was thrown while loading the value
+   * @throws UncheckedExecutionException if an unchecked exception was thrown while loading the
+   *     value
+   * @throws ExecutionError if an error was thrown while loading the value
+   */
+  V get(long key) throws ExecutionException;
+
+  /**
+   * Returns the value associated with {@code key} in this cache, first loading that value if
+   * necessary. Equivalent to {@link #getUnchecked(Object)} with a boxed key.
+   *
+   * @throws UncheckedExecutionException if an exception was thrown while loading the value
+   * @throws ExecutionError if an error was thrown while loading the value
+   */
+  V getUnchecked(long key);
+
+  /**
+   * Returns the values associated with {@code keys}, loading the missing values as
+   * {@link #getAll(Iterable)} does. The value at each index of the returned list is associated
+   * with the key at the same index of {@code keys}, which may contain duplicates. Only the keys
+   * which must be loaded are boxed.
+   *
+   * @throws ExecutionException if a checked exception was thrown while loading the values
+   * @throws UncheckedExecutionException if an unchecked exception was thrown while loading the
+   *     values
+   * @throws ExecutionError if an error was thrown while loading the values
+   */
+  ImmutableList<V> getAll(long[] keys) throws ExecutionException;
+
+  /**
+   * Stores the values associated with {@code keys} at the same indexes of {@code values},
+   * loading the missing values as {@link #getAll(Iterable)} does. Unlike
+   * {@link #getAll(long[])}, this method allocates nothing if every key has a cached value, as
+   * the keys which must be loaded are the only ones boxed.
+   *
+   * @throws IllegalArgumentException if {@code values} is shorter than {@code keys}
+   * @throws ExecutionException if a checked exception was thrown while loading the values
+   * @throws UncheckedExecutionException if an unchecked exception was thrown while loading the
+   *     values
+   * @throws ExecutionError if an error was thrown while loading the values
+   */
+  void getAll(long[] keys, V[] values) throws ExecutionException;
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import net.tribe7.common.cache.AbstractCache.StatsCounter;
+import net.tribe7.common.cache.CacheMetrics.LatencyHistogram;
+import net.tribe7.common.cache.CacheMetrics.SegmentMetrics;
+
+/**
+ * Records the detailed metrics of a {@link LocalCache} built with
+ * {@link CacheBuilder#recordDetailedStats}. Every counter is a {@link LongAddable} allocated up
+ * front, so recording never allocates and threads updating the same counter don't contend on a
+ * single word.
+ */
+final class MetricsCounter {
+  private static final RemovalCause[] CAUSES = RemovalCause.values();
+
+  private final LongAddable[] loadLatency = newCounters(LatencyHistogram.BUCKETS);
+  private final LongAddable[] removalCounts = newCounters(CAUSES.length);
+
+  private static LongAddable[] newCounters(int length) {
+    LongAddable[] counters = new LongAddable[length];
+    for (int i = 0; i < length; i++) {
+      counters[i] = LongAddables.create();
+    }
+    return counters;
+  }
+
+  private static long[] sums(LongAddable[] counters) {
+    long[] sums = new long[counters.length];
+    for (int i = 0; i < counters.length; i++) {
+      sums[i] = counters[i].sum();
+    }
+    return sums;
+  }
+
+  void recordLoad(long loadTime) {
+    loadLatency[LatencyHistogram.bucketFor(loadTime)].increment();
+  }
+
+  void recordRemoval(RemovalCause cause) {
+    removalCounts[cause.ordinal()].increment();
+  }
+
+  /**
+   * Returns a stats counter which forwards to {@code delegate}, additionally recording the time
+   * taken by each load in this counter's histogram.
+   */
+  StatsCounter wrap(final StatsCounter delegate) {
+    checkNotNull(delegate);
+    return new StatsCounter() {
+      @Override
+      public void recordHits(int count) {
+        delegate.recordHits(count);
+      }
+
+      @Override
+      public void recordMisses(int count) {
+        delegate.recordMisses(count);
+      }
+
+      @Override
+      public void recordLoadSuccess(long loadTime) {
+        recordLoad(loadTime);
+        delegate.recordLoadSuccess(loadTime);
+      }
+
+      @Override
+      public void recordLoadException(long loadTime) {
+        recordLoad(loadTime);
+        delegate.recordLoadException(loadTime);
+      }
+
+      @Override
+      public void recordEviction() {
+        delegate.recordEviction();
+      }
+
+      @Override
+      public CacheStats snapshot() {
+        return delegate.snapshot();
+      }
+    };
+  }
+
+  /** Returns a snapshot of the cache-wide counters, with the metrics of the given segments. */
+  CacheMetrics snapshot(List<SegmentMetrics> segments) {
+    return new CacheMetrics(
+        new LatencyHistogram(sums(loadLatency)), sums(removalCounts), segments);
+  }
+
+  /** The lock and eviction counters of a single segment. */
+  static final class SegmentCounter {
+    private final LongAddable lockCount = LongAddables.create();
+    private final LongAddable contendedLockCount = LongAddables.create();
+    private final LongAddable lockWaitTime = LongAddables.create();
+    private final LongAddable evictionRunCount = LongAddables.create();
+
+    void recordLock() {
+      lockCount.increment();
+    }
+
+    void recordContendedLock(long waitTime) {
+      lockCount.increment();
+      contendedLockCount.increment();
+      lockWaitTime.add(waitTime);
+    }
+
+    void recordEvictionRun() {
+      evictionRunCount.increment();
+    }
+
+    long lockCount() {
+      return lockCount.sum();
+    }
+
+    long contendedLockCount() {
+      return contendedLockCount.sum();
+    }
+
+    SegmentMetrics snapshot() {
+      return new SegmentMetrics(lockCount.sum(), contendedLockCount.sum(), lockWaitTime.sum(),
+          evictionRunCount.sum());
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ExecutionException;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.cache.ForwardingLoadingCache.SimpleForwardingLoadingCache;
+import net.tribe7.common.cache.LocalCache.LocalLoadingCache;
+import net.tribe7.common.cache.LocalCache.ReferenceEntry;
+import net.tribe7.common.cache.LocalCache.Segment;
+import net.tribe7.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Near caches, which answer repeated lookups of the same keys by a thread from memory private to
+ * that thread, in front of a {@link LoadingCache} built by {@link CacheBuilder}.
+ */
+@Beta
+@GwtIncompatible("ThreadLocal")
+public final class NearCaches {
+
+  /** The maximum number of entries held per thread. */
+  static final int MAXIMUM_ENTRIES_PER_THREAD = 1 << 16;
+
+  private NearCaches() {}
+
+  /**
+   * Returns a view of {@code cache} in which each thread remembers the values it recently looked
+   * up with {@link LoadingCache#get}, {@link LoadingCache#getUnchecked} or
+   * {@link LoadingCache#apply}, in a small direct-mapped table of {@code entriesPerThread}
+   * entries. A lookup which finds its key in the thread's table returns the remembered value
+   * without reading the shared cache, recording the read or updating its statistics other than
+   * {@link CacheStats#nearCacheHitCount}. This is intended for small caches of values which are
+   * read very frequently and rarely change, such as configuration.
+   *
+   * <p>A remembered value is only returned while the segment of the cache holding its key has not
+   * been modified since the value was read from it, so the view remains coherent with writes,
+   * invalidations, evictions and loads performed through any view of {@code cache}. Entries are
+   * also forgotten once they become eligible for {@linkplain CacheBuilder#expireAfterWrite
+   * expiration} or {@linkplain CacheBuilder#refreshAfterWrite refresh}, so that the next lookup
+   * reaches the cache. Since lookups answered by the near cache are not recorded, frequently read
+   * entries may nevertheless be evicted from a cache with a maximum size.
+   *
+   * <p>All other methods are forwarded to {@code cache}. Each thread holds strong references to
+   * the keys and values it remembers until they are replaced by other lookups.
+   *
+   * @param cache the cache to look up values in, which must have been built by
+   *     {@link CacheBuilder} with strong keys and values, and without
+   *     {@linkplain CacheBuilder#expireAfterAccess expireAfterAccess} or
+   *     {@linkplain CacheBuilder#expireAfter expireAfter}
+   * @param entriesPerThread the number of entries remembered by each thread, rounded up to a power
+   *     of two
+   * @throws IllegalArgumentException if {@code entriesPerThread} is not positive, or
+   *     {@code cache} cannot be used with a near cache
+   */
+  public static <K, V> LoadingCache<K, V> threadLocal(
+      LoadingCache<K, V> cache, int entriesPerThread) {
+    checkArgument(entriesPerThread > 0, "entries per thread must be positive");
+    checkArgument(cache instanceof LocalLoadingCache,
+        "near caches require a cache built by CacheBuilder: %s", cache);
+    LocalCache<K, V> localCache = ((LocalLoadingCache<K, V>) cache).localCache;
+    checkArgument(!localCache.usesKeyReferences() && !localCache.usesValueReferences(),
+        "near caches require strong keys and values");
+    checkArgument(!localCache.expiresAfterAccess() && !localCache.expiresVariably(),
+        "near caches do not support expireAfterAccess or expireAfter");
+    return new ThreadLocalNearCache<K, V>(
+        cache, localCache, Math.min(entriesPerThread, MAXIMUM_ENTRIES_PER_THREAD));
+  }
+
+  /**
+   * A value remembered by a thread, with its segment and the version of the segment when it was
+   * read. The segment is compared as well as the version, since a cache which
+   * {@linkplain CacheBuilder#adaptiveConcurrencyLevel adapts its concurrency level} may replace it.
+   */
+  static final class NearEntry<K, V> {
+    final K key;
+    final int hash;
+    final V value;
+    final Segment<K, V> segment;
+    final int version;
+    final long writeTime;
+
+    NearEntry(K key, int hash, V value, Segment<K, V> segment, int version, long writeTime) {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+      this.segment = segment;
+      this.version = version;
+      this.writeTime = writeTime;
+    }
+  }
+
+  static final class ThreadLocalNearCache<K, V> extends SimpleForwardingLoadingCache<K, V> {
+    final LocalCache<K, V> localCache;
+    final int mask;
+
+    /**
+     * How long after being written an entry must be looked up in the cache again, or
+     * {@code Long.MAX_VALUE} if never.
+     */
+    final long lifetimeNanos;
+
+    final ThreadLocal<NearEntry<K, V>[]> tables;
+
+    ThreadLocalNearCache(LoadingCache<K, V> cache, LocalCache<K, V> localCache,
+        int entriesPerThread) {
+      super(cache);
+      this.localCache = localCache;
+      int size = 1;
+      while (size < entriesPerThread) {
+        size <<= 1;
+      }
+      this.mask = size - 1;
+
+      long lifetime = Long.MAX_VALUE;
+      if (localCache.expiresAfterWrite()) {
+        lifetime = localCache.expireAfterWriteNanos;
+      }
+      if (localCache.refreshes()) {
+        lifetime = Math.min(lifetime, localCache.refreshNanos);
+      }
+      this.lifetimeNanos = lifetime;
+
+      final int tableSize = size;
+      this.tables = new ThreadLocal<NearEntry<K, V>[]>() {
+        @SuppressWarnings("unchecked") // generic array creation
+        @Override
+        protected NearEntry<K, V>[] initialValue() {
+          return (NearEntry<K, V>[]) new NearEntry<?, ?>[tableSize];
+        }
+      };
+    }
+
+    @Override
+    public V get(K key) throws ExecutionException {
+      int hash = localCache.hash(checkNotNull(key));
+      Segment<K, V> segment = localCache.segmentFor(hash);
+      NearEntry<K, V>[] table = tables.get();
+      int index = hash & mask;
+      NearEntry<K, V> e = table[index];
+      if (e != null && e.hash == hash && e.segment == segment && e.version == segment.version
+          && localCache.keyEquivalence.equivalent(key, e.key) && isFresh(e)) {
+        if (localCache.nearCacheHitCount != null) {
+          localCache.nearCacheHitCount.increment();
+        }
+        return e.value;
+      }
+
+      // read the version first, so that a modification made concurrently invalidates the entry
+      int version = segment.version;
+      V value = delegate().get(key);
+      long writeTime = 0;
+      if (lifetimeNanos != Long.MAX_VALUE) {
+        ReferenceEntry<K, V> entry = segment.getEntry(key, hash);
+        if (entry == null) {
+          return value;
+        }
+        writeTime = entry.getWriteTime();
+      }
+      table[index] = new NearEntry<K, V>(key, hash, value, segment, version, writeTime);
+      return value;
+    }
+
+    private boolean isFresh(NearEntry<K, V> e) {
+      return (lifetimeNanos == Long.MAX_VALUE)
+          || (localCache.ticker.read() - e.writeTime < lifetimeNanos);
+    }
+
+    @Override
+    public V getUnchecked(K key) {
+      try {
+        return get(key);
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      }
+    }
+
+    @Override
+    public V apply(K key) {
+      return getUnchecked(key);
+    }
+  }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.collect.Lists;
+import net.tribe7.common.collect.Maps;
+
+/**
+ * The off-heap tier of a segment of a {@link LocalCache} built with
+ * {@link CacheBuilder#offHeapTier}. Entries evicted from the segment are serialized by a
+ * {@link ValueCodec} into large {@link ByteBuffer} slabs, which are either direct buffers or
+ * memory-mapped files, and are moved back into the segment when they are looked up. The tier keeps
+ * only a small index entry per key on the heap, so that the garbage collector does not need to
+ * trace the cached values.
+ *
+ * <p>Slabs are filled one after another, and the tier is bounded by the total size of its slabs.
+ * When it is full, the slab which was filled first is evicted as a whole, along with all of the
+ * entries still stored in it, and is then reused. The space of entries which were promoted or
+ * invalidated is reclaimed at the same time. This makes writes an append to the current slab and
+ * keeps the slabs free of fragmentation, at the cost of evicting in first-in, first-out order. A
+ * value which is larger than a slab is stored in a buffer of its own, which is released rather
+ * than reused once it is evicted.
+ *
+ * <p>Demoted values are first kept on the heap as pending entries, and are only serialized by
+ * {@link #encode}, which is called without holding the lock, before being copied into a slab by
+ * {@link #store}. Pending entries may be looked up like any other.
+ *
+ * <p>Except where noted, the methods of this class must be called while holding the lock of the
+ * owning segment.
+ */
+@GwtIncompatible("java.nio")
+final class OffHeapTier<K, V> {
+  private static final Logger logger = Logger.getLogger(OffHeapTier.class.getName());
+
+  /** The minimum number of slabs, so that each eviction only discards part of the tier. */
+  static final int MINIMUM_SLABS = 8;
+
+  /** The maximum size of a slab, within the capacity of a {@code ByteBuffer}. */
+  static final int MAXIMUM_SLAB_SIZE = 1 << 30;
+
+  final ValueCodec<V> codec;
+  final long maximumBytes;
+  final int slabSize;
+  @Nullable final File directory;
+  final boolean expires;
+
+  /** Removal notifications, which are only created if {@code notifiesRemovals}. */
+  final Queue<RemovalNotification<K, V>> notificationQueue;
+  final boolean notifiesRemovals;
+
+  /** The slabs in the order they were filled; the last one is being filled. */
+  @GuardedBy("Segment.this")
+  final Deque<Slab<K, V>> slabs = new ArrayDeque<Slab<K, V>>();
+
+  /** The total capacity of the allocated slabs, in bytes. */
+  @GuardedBy("Segment.this")
+  long allocatedBytes;
+
+  @GuardedBy("Segment.this")
+  final Map<K, Slot<K, V>> index = Maps.newHashMap();
+
+  /** The entries whose values have yet to be serialized, in the order they were demoted. */
+  @GuardedBy("Segment.this")
+  List<Slot<K, V>> pending = Lists.newArrayList();
+
+  /** The number of pending entries, which may be read without holding the lock. */
+  volatile int pendingCount;
+
+  /** The number of entries, which may be read without holding the lock. */
+  volatile int count;
+
+  /** The total size of the stored entries, in bytes. */
+  @GuardedBy("Segment.this")
+  long weight;
+
+  @Nullable private final LongAddable hitCount;
+  @Nullable private final LongAddable missCount;
+  @Nullable private final LongAddable evictionCount;
+  @Nullable private final LongAddable evictionWeight;
+
+  /**
+   * Creates a tier holding up to {@code maximumBytes} bytes of serialized values.
+   *
+   * @param directory the directory in which to create memory-mapped slabs, or {@code null} to use
+   *     direct buffers
+   * @param expires whether entries may expire, as given by their expiration time
+   */
+  OffHeapTier(ValueCodec<V> codec, long maximumBytes, @Nullable File directory, boolean expires,
+      Queue<RemovalNotification<K, V>> notificationQueue, boolean notifiesRemovals,
+      boolean recordStats) {
+    checkArgument(maximumBytes > 0);
+    this.codec = checkNotNull(codec);
+    this.maximumBytes = maximumBytes;
+    long slabs = Math.max(MINIMUM_SLABS, (maximumBytes - 1) / MAXIMUM_SLAB_SIZE + 1);
+    this.slabSize = (int) Math.max(1, maximumBytes / slabs);
+    this.directory = directory;
+    this.expires = expires;
+    this.notificationQueue = checkNotNull(notificationQueue);
+    this.notifiesRemovals = notifiesRemovals;
+    this.hitCount = recordStats ? LongAddables.create() : null;
+    this.missCount = recordStats ? LongAddables.create() : null;
+    this.evictionCount = recordStats ? LongAddables.create() : null;
+    this.evictionWeight = recordStats ? LongAddables.create() : null;
+  }
+
+  /** A fixed-size buffer which serialized values are appended to. */
+  static final class Slab<K, V> {
+    final ByteBuffer buffer;
+    final List<Slot<K, V>> slots = Lists.newArrayList();
+    int position;
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * The value of an entry, either pending serialization or stored in a slab, and the times
+   * recorded for the entry.
+   */
+  static final class Slot<K, V> {
+    final K key;
+    final long writeTime;
+    final long expirationTime;
+
+    /** The value, until it is stored in a slab. */
+    @Nullable V value;
+
+    /** The location of the serialized value, once it is stored in a slab. */
+    @Nullable Slab<K, V> slab;
+    int offset;
+    int length;
+
+    Slot(K key, V value, long writeTime, long expirationTime) {
+      this.key = key;
+      this.value = value;
+      this.writeTime = writeTime;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  /** Returns whether the tier is empty. This may be called without holding the lock. */
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Adds {@code value} as the pending value of {@code key}, replacing any value it already had.
+   * The value is serialized and stored once the lock is released, by {@link #encode} and
+   * {@link #store}.
+   *
+   * @param writeTime the write time of the entry, restored when it is promoted
+   * @param expirationTime the time at which the entry expires, if entries expire
+   */
+  void put(K key, V value, long writeTime, long expirationTime) {
+    invalidate(key);
+    Slot<K, V> slot = new Slot<K, V>(key, value, writeTime, expirationTime);
+    pending.add(slot);
+    pendingCount = pending.size();
+    index.put(key, slot);
+    count = index.size();
+  }
+
+  /** Removes and returns the pending entries, to be serialized by {@link #encode}. */
+  List<Slot<K, V>> drainPending() {
+    if (pending.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Slot<K, V>> drained = pending;
+    pending = Lists.newArrayList();
+    pendingCount = 0;
+    return drained;
+  }
+
+  /**
+   * Serializes the values of {@code slots}, which were returned by {@link #drainPending}. The
+   * serialized value of a slot is {@code null} if the codec failed to serialize it. This must be
+   * called without holding the lock.
+   */
+  List<byte[]> encode(List<Slot<K, V>> slots) {
+    List<byte[]> encoded = Lists.newArrayListWithCapacity(slots.size());
+    for (Slot<K, V> slot : slots) {
+      // only cleared by store, once this thread has serialized it
+      V value = slot.value;
+      byte[] bytes = null;
+      try {
+        bytes = codec.encode(value);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Exception thrown encoding a demoted value", e);
+      }
+      encoded.add(bytes);
+    }
+    return encoded;
+  }
+
+  /**
+   * Stores the values of {@code slots}, serialized by {@link #encode}, in the slabs. Entries which
+   * were promoted or invalidated since they were drained are skipped. Entries whose values could
+   * not be serialized, or are larger than the whole tier, are evicted.
+   */
+  void store(List<Slot<K, V>> slots, List<byte[]> encoded, long now) {
+    for (int i = 0; i < slots.size(); i++) {
+      Slot<K, V> slot = slots.get(i);
+      if (index.get(slot.key) != slot) {
+        continue;
+      }
+      byte[] bytes = encoded.get(i);
+      Slab<K, V> slab = (bytes == null) ? null : slabFor(bytes.length, now);
+      if (slab == null) {
+        index.remove(slot.key);
+        count = index.size();
+        recordEviction((bytes == null) ? 0 : bytes.length);
+        notifyRemoval(slot, RemovalCause.SIZE);
+        continue;
+      }
+
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(slab.position);
+      buffer.put(bytes);
+      slot.slab = slab;
+      slot.offset = slab.position;
+      slot.length = bytes.length;
+      slot.value = null;
+      slab.position += bytes.length;
+      slab.slots.add(slot);
+      weight += bytes.length;
+    }
+  }
+
+  /**
+   * Returns a slab with room for {@code length} more bytes, allocating a new slab or evicting the
+   * oldest ones if the current slab is full. Returns {@code null} if {@code length} is larger than
+   * the tier, or if a slab could not be allocated.
+   */
+  @Nullable
+  private Slab<K, V> slabFor(int length, long now) {
+    Slab<K, V> slab = slabs.peekLast();
+    if (slab != null && slab.buffer.capacity() - slab.position >= length) {
+      return slab;
+    }
+    if (length > maximumBytes) {
+      return null;
+    }
+
+    int size = Math.max(slabSize, length);
+    slab = null;
+    while (allocatedBytes + size > maximumBytes) {
+      Slab<K, V> oldest = slabs.removeFirst();
+      evict(oldest, now);
+      if (oldest.buffer.capacity() == size) {
+        slab = oldest;
+        break;
+      }
+      // released rather than reused, as it is not the size of the new slab
+      allocatedBytes -= oldest.buffer.capacity();
+    }
+    if (slab == null) {
+      try {
+        slab = new Slab<K, V>(allocate(size));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to allocate an off-heap slab", e);
+        return null;
+      }
+      allocatedBytes += size;
+    }
+    slabs.addLast(slab);
+    return slab;
+  }
+
+  private ByteBuffer allocate(int size) throws IOException {
+    if (directory == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    File file = File.createTempFile("slab", ".cache", directory);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(size);
+      // the mapping remains valid after the file is closed and deleted
+      return randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, size);
+    } finally {
+      randomAccessFile.close();
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /** Removes the entries still stored in {@code slab}, and empties it for reuse. */
+  private void evict(Slab<K, V> slab, long now) {
+    for (Slot<K, V> slot : slab.slots) {
+      if (index.get(slot.key) == slot) {
+        index.remove(slot.key);
+        weight -= slot.length;
+        if (expires && now - slot.expirationTime >= 0) {
+          notifyRemoval(slot, RemovalCause.EXPIRED);
+        } else {
+          recordEviction(slot.length);
+          notifyRemoval(slot, RemovalCause.SIZE);
+        }
+      }
+    }
+    slab.slots.clear();
+    slab.position = 0;
+    count = index.size();
+  }
+
+  private void recordEviction(int length) {
+    if (evictionCount != null) {
+      evictionCount.increment();
+      evictionWeight.add(length);
+    }
+  }
+
+  private void notifyRemoval(Slot<K, V> slot, RemovalCause cause) {
+    if (notifiesRemovals) {
+      V value;
+      try {
+        value = read(slot);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Exception thrown decoding a removed value", e);
+        return;
+      }
+      notificationQueue.offer(new RemovalNotification<K, V>(slot.key, value, cause));
+    }
+  }
+
+  /**
+   * Removes the entry for {@code key} and returns its slot, whose value may be read until the
+   * next call to {@link #store}. Returns {@code null} if there is no entry for {@code key}, or if
+   * it has expired, in which case the entry is discarded.
+   */
+  @Nullable
+  Slot<K, V> remove(Object key, long now) {
+    Slot<K, V> slot = index.remove(key);
+    if (slot == null) {
+      return null;
+    }
+    weight -= slot.length;
+    count = index.size();
+    if (expires && now - slot.expirationTime >= 0) {
+      notifyRemoval(slot, RemovalCause.EXPIRED);
+      return null;
+    }
+    return slot;
+  }
+
+  /** Discards the entry for {@code key}, if any, which has been superseded by a new value. */
+  void invalidate(Object key) {
+    if (!index.isEmpty()) {
+      Slot<K, V> slot = index.remove(key);
+      if (slot != null) {
+        weight -= slot.length;
+        count = index.size();
+      }
+    }
+  }
+
+  /** Returns the value of {@code slot}, decoding it if it was stored in a slab. */
+  V read(Slot<K, V> slot) {
+    if (slot.slab == null) {
+      return slot.value;
+    }
+    ByteBuffer buffer = slot.slab.buffer.duplicate();
+    buffer.limit(slot.offset + slot.length);
+    buffer.position(slot.offset);
+    return codec.decode(buffer.slice().asReadOnlyBuffer());
+  }
+
+  /**
+   * Returns copies of the slots of the live entries, most recently demoted first. The copies hold
+   * their own serialized values, so that they can be read without holding the lock. Entries which
+   * are being serialized by another thread are skipped.
+   */
+  List<Slot<K, V>> copyEntries(long now) {
+    List<Slot<K, V>> copies = Lists.newArrayListWithCapacity(count);
+    for (int i = pending.size() - 1; i >= 0; i--) {
+      addCopy(pending.get(i), now, copies);
+    }
+    for (Iterator<Slab<K, V>> slabIterator = slabs.descendingIterator(); slabIterator.hasNext(); ) {
+      List<Slot<K, V>> slots = slabIterator.next().slots;
+      for (int i = slots.size() - 1; i >= 0; i--) {
+        addCopy(slots.get(i), now, copies);
+      }
+    }
+    return copies;
+  }
+
+  private void addCopy(Slot<K, V> slot, long now, List<Slot<K, V>> copies) {
+    if (index.get(slot.key) != slot || (expires && now - slot.expirationTime >= 0)) {
+      return;
+    }
+    Slot<K, V> copy = new Slot<K, V>(slot.key, slot.value, slot.writeTime, slot.expirationTime);
+    if (slot.slab != null) {
+      byte[] bytes = new byte[slot.length];
+      ByteBuffer buffer = slot.slab.buffer.duplicate();
+      buffer.position(slot.offset);
+      buffer.get(bytes);
+      copy.slab = new Slab<K, V>(ByteBuffer.wrap(bytes));
+      copy.length = bytes.length;
+    }
+    copies.add(copy);
+  }
+
+  /** Removes all entries, notifying the removal listener of each of them. */
+  void clear() {
+    for (Slot<K, V> slot : index.values()) {
+      notifyRemoval(slot, RemovalCause.EXPLICIT);
+    }
+    index.clear();
+    pending.clear();
+    pendingCount = 0;
+    for (Slab<K, V> slab : slabs) {
+      slab.slots.clear();
+      slab.position = 0;
+    }
+    weight = 0;
+    count = 0;
+  }
+
+  /** Records a lookup which found a value in the tier. This may be called without the lock. */
+  void recordHit() {
+    if (hitCount != null) {
+      hitCount.increment();
+    }
+  }
+
+  /** Records a lookup which found no value in the tier. This may be called without the lock. */
+  void recordMiss() {
+    if (missCount != null) {
+      missCount.increment();
+    }
+  }
+
+  /** Returns the statistics recorded by this tier. This may be called without the lock. */
+  CacheStats stats() {
+    if (hitCount == null) {
+      return new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+    return new CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0,
+        hitCount.sum(), missCount.sum(), evictionCount.sum(), evictionWeight.sum(), 0);
+  }
+}
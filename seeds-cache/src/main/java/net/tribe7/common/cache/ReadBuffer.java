@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * A lossy, bounded buffer of elements recorded by many producer threads and drained by a single
+ * consumer. It is used by {@link LocalCache} to record reads without allocating and without
+ * contending on a shared queue head; the reads are later replayed against the eviction policy
+ * while holding the segment lock.
+ *
+ * <p>The buffer is split into a fixed number of stripes, each a ring buffer of
+ * {@link #STRIPE_SIZE} slots, and each producer thread is mapped to a stripe by its id. A
+ * producer claims a slot by advancing the stripe's write counter with a single compare-and-set.
+ * If the stripe is full, or another thread claims the slot first, the element is simply dropped:
+ * losing a few reads only makes the recency information slightly less precise, while retrying
+ * would make the readers contend with each other.
+ *
+ * <p>Elements recorded by the same thread are polled in the order they were offered, but no
+ * ordering is maintained across stripes. {@link #poll} may only be called by one thread at a
+ * time, typically the holder of a lock.
+ *
+ * <p>The design follows the striped, lossy read buffers of Caffeine by Ben Manes.
+ */
+final class ReadBuffer<E> {
+
+  /** The element was recorded. */
+  static final int SUCCESS = 0;
+
+  /** The element was dropped because another thread concurrently recorded an element. */
+  static final int FAILED = 1;
+
+  /** The element was dropped because its stripe was full; the buffer should be drained. */
+  static final int FULL = 2;
+
+  /** Number of elements each stripe can hold. This must be a power of two. */
+  static final int STRIPE_SIZE = 16;
+
+  static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+  /** The maximum number of stripes, which must be a power of two. */
+  static final int MAXIMUM_STRIPES = 8;
+
+  /** The number of stripes, enough to give each CPU its own stripe up to the maximum. */
+  static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+  static int stripesFor(int processors) {
+    int stripes = 1;
+    while (stripes < processors && stripes < MAXIMUM_STRIPES) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  private final Stripe<E>[] stripes;
+
+  ReadBuffer() {
+    stripes = newStripeArray(STRIPES);
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe<E>();
+    }
+  }
+
+  @SuppressWarnings("unchecked") // generic array creation
+  private static <E> Stripe<E>[] newStripeArray(int length) {
+    return (Stripe<E>[]) new Stripe<?>[length];
+  }
+
+  /**
+   * Records {@code e} in the current thread's stripe, unless that would require waiting on other
+   * threads. Returns {@link #SUCCESS}, {@link #FAILED} or {@link #FULL}.
+   */
+  int offer(E e) {
+    checkNotNull(e);
+    return stripes[stripeIndex()].offer(e);
+  }
+
+  /**
+   * Removes and returns a recorded element, or returns {@code null} if there are none. This method
+   * must not be called concurrently with itself.
+   */
+  @Nullable
+  E poll() {
+    for (Stripe<E> stripe : stripes) {
+      E e = stripe.poll();
+      if (e != null) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  private int stripeIndex() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (stripes.length - 1);
+  }
+
+  /**
+   * A single-consumer ring buffer. The write counter is advanced by producers when they claim a
+   * slot; the read counter is only advanced by the consumer, and is read by producers to detect
+   * that the stripe is full.
+   */
+  static final class Stripe<E> {
+    final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<E>(STRIPE_SIZE);
+    final AtomicLong writeCounter = new AtomicLong();
+    final AtomicLong readCounter = new AtomicLong();
+
+    int offer(E e) {
+      long head = readCounter.get();
+      long tail = writeCounter.get();
+      if (tail - head >= STRIPE_SIZE) {
+        return FULL;
+      }
+      if (!writeCounter.compareAndSet(tail, tail + 1)) {
+        return FAILED;
+      }
+      buffer.lazySet((int) tail & STRIPE_MASK, e);
+      return SUCCESS;
+    }
+
+    @Nullable
+    E poll() {
+      long head = readCounter.get();
+      if (head == writeCounter.get()) {
+        return null;
+      }
+      int index = (int) head & STRIPE_MASK;
+      E e = buffer.get(index);
+      if (e == null) {
+        // the slot was claimed, but the producer has not yet published its element
+        return null;
+      }
+      buffer.lazySet(index, null);
+      readCounter.lazySet(head + 1);
+      return e;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import net.tribe7.common.cache.LocalCache.LoadingValueReference;
+import net.tribe7.common.collect.Lists;
+
+/**
+ * Coalesces the refreshes of a {@link LocalCache} into batches, each reloaded with a single call to
+ * {@link CacheLoader#reloadAll}. Used when {@link CacheBuilder#batchRefreshes} is specified.
+ *
+ * <p>Refreshes are submitted once their entries hold a {@link LoadingValueReference}, so each key
+ * is refreshed by at most one batch at a time. The first refresh opens a batch and schedules it to
+ * be closed once the maximum delay has elapsed; the refresh which fills the batch closes it
+ * earlier. A closed batch is reloaded by a task on the scheduler. Neither the threads submitting
+ * refreshes nor the scheduler's threads wait for a batch to fill up.
+ */
+final class RefreshCoordinator<K, V> {
+  final LocalCache<K, V> map;
+  final CacheLoader<? super K, V> loader;
+  final int maximumBatchSize;
+  final long maximumDelayNanos;
+  final ScheduledExecutorService scheduler;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  @GuardedBy("lock")
+  @Nullable
+  private Batch<K, V> openBatch;
+
+  RefreshCoordinator(LocalCache<K, V> map, CacheLoader<? super K, V> loader,
+      int maximumBatchSize, long maximumDelayNanos, ScheduledExecutorService scheduler) {
+    checkArgument(maximumBatchSize > 0);
+    checkArgument(maximumDelayNanos >= 0);
+    this.map = checkNotNull(map);
+    this.loader = checkNotNull(loader);
+    this.maximumBatchSize = maximumBatchSize;
+    this.maximumDelayNanos = maximumDelayNanos;
+    this.scheduler = checkNotNull(scheduler);
+  }
+
+  /** The keys of a batch, with their hashes and the value references they are loading into. */
+  private static final class Batch<K, V> {
+    final List<K> keys = Lists.newArrayList();
+    final List<Integer> hashes = Lists.newArrayList();
+    final List<LoadingValueReference<K, V>> loadingValueReferences = Lists.newArrayList();
+
+    /** The scheduled closing of this batch, once it was scheduled. */
+    @GuardedBy("RefreshCoordinator.this.lock")
+    @Nullable
+    Future<?> closing;
+  }
+
+  /**
+   * Adds the refresh of {@code key}, whose entry now holds {@code loadingValueReference}, to the
+   * open batch.
+   */
+  void refresh(K key, int hash, LoadingValueReference<K, V> loadingValueReference) {
+    Batch<K, V> opened = null;
+    Batch<K, V> filled = null;
+    Future<?> closing = null;
+
+    lock.lock();
+    try {
+      Batch<K, V> batch = openBatch;
+      if (batch == null) {
+        batch = openBatch = new Batch<K, V>();
+        opened = batch;
+      }
+      batch.keys.add(key);
+      batch.hashes.add(hash);
+      batch.loadingValueReferences.add(loadingValueReference);
+      if (batch.keys.size() >= maximumBatchSize) {
+        openBatch = null;
+        filled = batch;
+        closing = batch.closing;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (opened != null && opened != filled) {
+      scheduleClose(opened);
+    }
+    if (filled != null) {
+      if (closing != null) {
+        closing.cancel(false);
+      }
+      scheduleDispatch(filled);
+    }
+  }
+
+  /** Closes {@code batch} and reloads it after the maximum delay, unless it filled up first. */
+  private void scheduleClose(final Batch<K, V> batch) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        if (close(batch)) {
+          dispatch(batch);
+        }
+      }
+    };
+    lock.lock();
+    try {
+      if (openBatch != batch) {
+        return; // already filled up and dispatched
+      }
+      try {
+        batch.closing = scheduler.schedule(task, maximumDelayNanos, TimeUnit.NANOSECONDS);
+        return;
+      } catch (RejectedExecutionException e) {
+        // the keys of the batch would otherwise never finish refreshing
+        openBatch = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    dispatch(batch);
+  }
+
+  /** Reloads the keys of {@code batch}, which was closed because it filled up, on the scheduler. */
+  private void scheduleDispatch(final Batch<K, V> batch) {
+    try {
+      scheduler.execute(new Runnable() {
+        @Override
+        public void run() {
+          dispatch(batch);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the keys of the batch would otherwise never finish refreshing
+      dispatch(batch);
+    }
+  }
+
+  /** Closes {@code batch} if it is still open, and returns whether it was. */
+  private boolean close(Batch<K, V> batch) {
+    lock.lock();
+    try {
+      if (openBatch == batch) {
+        openBatch = null;
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Reloads the keys of a closed batch. */
+  private void dispatch(Batch<K, V> batch) {
+    map.reloadAll(batch.keys, batch.hashes, batch.loadingValueReferences, loader);
+  }
+}
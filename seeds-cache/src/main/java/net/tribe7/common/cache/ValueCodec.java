@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import java.nio.ByteBuffer;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtIncompatible;
+
+/**
+ * Converts cache values to and from bytes, so that they can be stored outside of the Java heap by
+ * a cache with an {@linkplain CacheBuilder#offHeapTier off-heap tier}. Codecs are also used to
+ * serialize both the keys and the values of a {@linkplain CacheSnapshots cache snapshot}.
+ *
+ * <p>A value decoded from the bytes produced by {@link #encode} should be equivalent to the
+ * original value. When used by an off-heap tier, these methods are called while the cache holds
+ * an internal lock, so they should be fast and must not access the cache.
+ */
+@Beta
+@GwtIncompatible("java.nio.ByteBuffer")
+public interface ValueCodec<V> {
+
+  /**
+   * Returns the serialized form of {@code value}. The returned array is not retained by the cache.
+   */
+  byte[] encode(V value);
+
+  /**
+   * Returns the value serialized in {@code bytes}, which are the remaining bytes of the buffer.
+   * The buffer is read-only, and must not be retained after this method returns.
+   */
+  V decode(ByteBuffer bytes);
+}
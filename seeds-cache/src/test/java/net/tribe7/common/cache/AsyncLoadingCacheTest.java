@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import net.tribe7.common.collect.ImmutableList;
+import net.tribe7.common.collect.ImmutableMap;
+import net.tribe7.common.collect.Lists;
+import net.tribe7.common.collect.Maps;
+import net.tribe7.common.util.concurrent.Futures;
+import net.tribe7.common.util.concurrent.ListenableFuture;
+import net.tribe7.common.util.concurrent.SettableFuture;
+
+/**
+ * Unit tests for {@link AsyncLoadingCache}.
+ */
+public class AsyncLoadingCacheTest extends TestCase {
+
+  /** A loader whose loads complete only once the test sets their futures. */
+  static class PendingLoader extends AsyncCacheLoader<String, String> {
+    final Map<String, SettableFuture<String>> loads = Maps.newConcurrentMap();
+    final AtomicInteger loadCount = new AtomicInteger();
+
+    @Override
+    public ListenableFuture<String> load(String key) {
+      loadCount.incrementAndGet();
+      SettableFuture<String> future = SettableFuture.create();
+      loads.put(key, future);
+      return future;
+    }
+  }
+
+  public void testGet_sharesLoad() throws Exception {
+    PendingLoader loader = new PendingLoader();
+    AsyncLoadingCache<String, String> cache =
+        CacheBuilder.newBuilder().recordStats().buildAsync(loader);
+
+    ListenableFuture<String> first = cache.get("a");
+    ListenableFuture<String> second = cache.get("a");
+    ListenableFuture<String> present = cache.getIfPresent("a");
+    assertEquals(1, loader.loadCount.get());
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+    assertNotNull(present);
+    assertFalse(present.isDone());
+
+    loader.loads.get("a").set("A");
+    assertEquals("A", first.get());
+    assertEquals("A", second.get());
+    assertEquals("A", present.get());
+    assertEquals("A", cache.getIfPresent("a").get());
+    assertEquals("A", cache.synchronous().getIfPresent("a"));
+    assertEquals(1, loader.loadCount.get());
+
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGetIfPresent_absent() {
+    AsyncLoadingCache<String, String> cache =
+        CacheBuilder.newBuilder().buildAsync(new PendingLoader());
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testGet_cancelDoesNotCancelSharedLoad() throws Exception {
+    PendingLoader loader = new PendingLoader();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(loader);
+
+    ListenableFuture<String> cancelled = cache.get("a");
+    ListenableFuture<String> waiting = cache.get("a");
+    assertTrue(cancelled.cancel(true));
+    assertTrue(cancelled.isCancelled());
+
+    SettableFuture<String> load = loader.loads.get("a");
+    assertFalse(load.isCancelled());
+    assertFalse(waiting.isDone());
+
+    load.set("A");
+    assertEquals("A", waiting.get());
+    assertEquals("A", cache.synchronous().getIfPresent("a"));
+    assertEquals(1, loader.loadCount.get());
+  }
+
+  public void testGetAll_loadAllUnimplemented_fallsBackToLoad() throws Exception {
+    final List<String> loaded = Lists.newArrayList();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(
+        new AsyncCacheLoader<String, String>() {
+          @Override
+          public ListenableFuture<String> load(String key) {
+            synchronized (loaded) {
+              loaded.add(key);
+            }
+            return Futures.immediateFuture(key.toUpperCase());
+          }
+        });
+    cache.synchronous().put("b", "cached");
+
+    ImmutableMap<String, String> result = cache.getAll(Arrays.asList("a", "b", "c", "a")).get();
+    assertEquals(ImmutableList.of("a", "b", "c"), result.keySet().asList());
+    assertEquals("A", result.get("a"));
+    assertEquals("cached", result.get("b"));
+    assertEquals("C", result.get("c"));
+    assertEquals(ImmutableList.of("a", "c"), ImmutableList.copyOf(loaded));
+    assertEquals("C", cache.synchronous().getIfPresent("c"));
+  }
+
+  public void testGetAll_usesLoadAll() throws Exception {
+    final AtomicInteger loadAllCount = new AtomicInteger();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(
+        new AsyncCacheLoader<String, String>() {
+          @Override
+          public ListenableFuture<String> load(String key) {
+            throw new AssertionError();
+          }
+
+          @Override
+          public ListenableFuture<Map<String, String>> loadAll(Iterable<? extends String> keys) {
+            loadAllCount.incrementAndGet();
+            Map<String, String> result = Maps.newHashMap();
+            for (String key : keys) {
+              result.put(key, key.toUpperCase());
+            }
+            return Futures.immediateFuture(result);
+          }
+        });
+
+    ImmutableMap<String, String> result = cache.getAll(Arrays.asList("a", "b")).get();
+    assertEquals(ImmutableMap.of("a", "A", "b", "B"), result);
+    assertEquals(1, loadAllCount.get());
+    assertEquals("B", cache.synchronous().getIfPresent("b"));
+  }
+
+  public void testGet_failedLoadLeavesNoEntry() throws Exception {
+    final Exception failure = new Exception("failed");
+    final AtomicInteger loadCount = new AtomicInteger();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().recordStats().buildAsync(
+        new AsyncCacheLoader<String, String>() {
+          @Override
+          public ListenableFuture<String> load(String key) {
+            loadCount.incrementAndGet();
+            return Futures.immediateFailedFuture(failure);
+          }
+        });
+
+    ListenableFuture<String> future = cache.get("a");
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(failure, expected.getCause());
+    }
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(0, cache.synchronous().size());
+    assertEquals(1, cache.synchronous().stats().loadExceptionCount());
+
+    // the next request loads again instead of returning the failure
+    assertTrue(cache.get("a").isDone());
+    assertEquals(2, loadCount.get());
+  }
+
+  public void testGet_pendingLoadFails() throws Exception {
+    PendingLoader loader = new PendingLoader();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(loader);
+
+    ListenableFuture<String> future = cache.get("a");
+    assertNotNull(cache.getIfPresent("a"));
+    Exception failure = new Exception("failed");
+    loader.loads.get("a").setException(failure);
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(failure, expected.getCause());
+    }
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testGet_nullFuture() throws Exception {
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(
+        new AsyncCacheLoader<String, String>() {
+          @Override
+          public ListenableFuture<String> load(String key) {
+            return Futures.immediateFuture(null);
+          }
+        });
+    try {
+      cache.get("a").get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof CacheLoader.InvalidCacheLoadException);
+    }
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testSynchronousRefresh_doesNotWait() throws Exception {
+    final SettableFuture<String> reload = SettableFuture.create();
+    AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder().buildAsync(
+        new AsyncCacheLoader<String, String>() {
+          @Override
+          public ListenableFuture<String> load(String key) {
+            return Futures.immediateFuture("old");
+          }
+
+          @Override
+          public ListenableFuture<String> reload(String key, String oldValue) {
+            return reload;
+          }
+        });
+    LoadingCache<String, String> synchronous = cache.synchronous();
+    assertEquals("old", synchronous.get("a"));
+
+    synchronous.refresh("a");
+    assertEquals("old", synchronous.get("a"));
+    assertEquals("old", cache.get("a").get());
+
+    reload.set("new");
+    assertEquals("new", synchronous.get("a"));
+    assertEquals("new", cache.get("a").get());
+  }
+
+  public void testSynchronousReloadAll_doesNotWait() throws Exception {
+    final SettableFuture<Map<String, String>> reloadAll = SettableFuture.create();
+    final CountDownLatch reloadAllCalled = new CountDownLatch(1);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      AsyncLoadingCache<String, String> cache = CacheBuilder.newBuilder()
+          .batchRefreshes(2, 1, TimeUnit.HOURS, scheduler)
+          .buildAsync(new AsyncCacheLoader<String, String>() {
+            @Override
+            public ListenableFuture<String> load(String key) {
+              return Futures.immediateFuture("old");
+            }
+
+            @Override
+            public ListenableFuture<Map<String, String>> loadAll(
+                Iterable<? extends String> keys) {
+              reloadAllCalled.countDown();
+              return reloadAll;
+            }
+          });
+      LoadingCache<String, String> synchronous = cache.synchronous();
+      synchronous.get("a");
+      synchronous.get("b");
+
+      synchronous.refresh("a");
+      synchronous.refresh("b");
+      assertTrue(reloadAllCalled.await(10, TimeUnit.SECONDS));
+
+      // the scheduler isn't blocked by the pending bulk reload
+      assertTrue(scheduler.submit(new Runnable() {
+        @Override
+        public void run() {}
+      }).get(10, TimeUnit.SECONDS) == null);
+      assertEquals("old", synchronous.get("a"));
+      assertEquals("old", synchronous.get("b"));
+
+      reloadAll.set(ImmutableMap.of("a", "newA", "b", "newB"));
+      assertEquals("newA", synchronous.get("a"));
+      assertEquals("newB", synchronous.get("b"));
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
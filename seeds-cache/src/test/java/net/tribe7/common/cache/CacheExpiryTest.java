@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.tribe7.common.collect.ImmutableList;
+import net.tribe7.common.collect.Lists;
+
+/**
+ * Tests the variable expiration of caches built with {@link CacheBuilder#expireAfter}.
+ */
+public class CacheExpiryTest extends TestCase {
+
+  /**
+   * An expiry with a fixed duration for each kind of access, which returns the current duration
+   * for the kinds whose duration is negative. Records the current durations it was passed.
+   */
+  static final class FixedExpiry implements Expiry<String, Long> {
+    long createNanos = Long.MAX_VALUE;
+    long updateNanos = -1;
+    long readNanos = -1;
+    final List<Long> currentDurations = Lists.newArrayList();
+
+    @Override
+    public long expireAfterCreate(String key, Long value, long currentTime) {
+      return createNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(String key, Long value, long currentTime, long currentDuration) {
+      currentDurations.add(currentDuration);
+      return (updateNanos < 0) ? currentDuration : updateNanos;
+    }
+
+    @Override
+    public long expireAfterRead(String key, Long value, long currentTime, long currentDuration) {
+      currentDurations.add(currentDuration);
+      return (readNanos < 0) ? currentDuration : readNanos;
+    }
+  }
+
+  /** A removal listener which records the keys of expired entries. */
+  static final class ExpirationListener implements RemovalListener<String, Long> {
+    final List<String> expired = Lists.newArrayList();
+
+    @Override
+    public void onRemoval(RemovalNotification<String, Long> notification) {
+      assertEquals(RemovalCause.EXPIRED, notification.getCause());
+      expired.add(notification.getKey());
+    }
+  }
+
+  final FakeTicker ticker = new FakeTicker();
+  final FixedExpiry expiry = new FixedExpiry();
+  final ExpirationListener listener = new ExpirationListener();
+
+  private Cache<String, Long> newCache() {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .ticker(ticker)
+        .expireAfter(expiry)
+        .removalListener(listener)
+        .build();
+  }
+
+  public void testExpireAfterCreate() {
+    expiry.createNanos = SECONDS.toNanos(10);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+
+    ticker.advance(SECONDS.toNanos(10) - 1, NANOSECONDS);
+    assertEquals(Long.valueOf(1L), cache.getIfPresent("a"));
+    ticker.advance(1, NANOSECONDS);
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testExpireAfterCreate_negativeDurationExpiresImmediately() {
+    expiry.createNanos = -SECONDS.toNanos(1);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testExpireAfterUpdate() {
+    expiry.createNanos = SECONDS.toNanos(10);
+    expiry.updateNanos = SECONDS.toNanos(20);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+
+    ticker.advance(4, SECONDS);
+    cache.put("a", 2L);
+    assertEquals(ImmutableList.of(SECONDS.toNanos(6)), expiry.currentDurations);
+
+    ticker.advance(SECONDS.toNanos(20) - 1, NANOSECONDS);
+    assertEquals(Long.valueOf(2L), cache.getIfPresent("a"));
+    ticker.advance(1, NANOSECONDS);
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testExpireAfterUpdate_currentDurationKeepsExpiration() {
+    expiry.createNanos = SECONDS.toNanos(10);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+
+    ticker.advance(4, SECONDS);
+    cache.put("a", 2L);
+    ticker.advance(SECONDS.toNanos(6) - 1, NANOSECONDS);
+    assertEquals(Long.valueOf(2L), cache.getIfPresent("a"));
+    ticker.advance(1, NANOSECONDS);
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testExpireAfterRead() {
+    expiry.createNanos = SECONDS.toNanos(10);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+
+    ticker.advance(3, SECONDS);
+    expiry.readNanos = SECONDS.toNanos(30);
+    assertEquals(Long.valueOf(1L), cache.getIfPresent("a"));
+    assertEquals(ImmutableList.of(SECONDS.toNanos(7)), expiry.currentDurations);
+
+    // reads which return the current duration don't extend it
+    expiry.readNanos = -1;
+    ticker.advance(SECONDS.toNanos(30) - 1, NANOSECONDS);
+    assertEquals(Long.valueOf(1L), cache.getIfPresent("a"));
+    ticker.advance(1, NANOSECONDS);
+    assertNull(cache.getIfPresent("a"));
+  }
+
+  public void testExpireAfterRead_extensionIsRescheduledLazily() {
+    expiry.createNanos = SECONDS.toNanos(10);
+    expiry.readNanos = MINUTES.toNanos(2);
+    Cache<String, Long> cache = newCache();
+    cache.put("a", 1L);
+    cache.put("b", 2L);
+
+    ticker.advance(5, SECONDS);
+    assertEquals(Long.valueOf(1L), cache.getIfPresent("a"));
+
+    // the wheel still holds "a" at its original deadline, and must not expire it there
+    ticker.advance(10, SECONDS);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of("b"), listener.expired);
+    assertEquals(1, cache.size());
+
+    ticker.advance(MINUTES.toNanos(2) - SECONDS.toNanos(10), NANOSECONDS);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of("b", "a"), listener.expired);
+    assertEquals(0, cache.size());
+  }
+
+  public void testCleanUp_removesExpiredEntriesWithinGranularity() {
+    long[] durations = {
+        SECONDS.toNanos(1), SECONDS.toNanos(90), HOURS.toNanos(2), DAYS.toNanos(2),
+        DAYS.toNanos(10) };
+    for (long duration : durations) {
+      listener.expired.clear();
+      expiry.createNanos = duration;
+      Cache<String, Long> cache = newCache();
+      cache.put("a", 1L);
+
+      ticker.advance(duration - MILLISECONDS.toNanos(1), NANOSECONDS);
+      cache.cleanUp();
+      assertEquals(1, cache.size());
+      assertTrue(listener.expired.isEmpty());
+
+      // the documented granularity is about a second
+      ticker.advance(1L << LocalCache.TimerWheel.SHIFT[0], NANOSECONDS);
+      cache.cleanUp();
+      assertEquals(0, cache.size());
+      assertEquals(ImmutableList.of("a"), listener.expired);
+    }
+  }
+
+  public void testCleanUp_removesInExpirationOrder() {
+    Cache<String, Long> cache = newCache();
+    expiry.createNanos = HOURS.toNanos(3);
+    cache.put("c", 3L);
+    expiry.createNanos = MINUTES.toNanos(5);
+    cache.put("b", 2L);
+    expiry.createNanos = SECONDS.toNanos(5);
+    cache.put("a", 1L);
+
+    ticker.advance(1, MINUTES);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of("a"), listener.expired);
+    ticker.advance(1, HOURS);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of("a", "b"), listener.expired);
+    ticker.advance(2, HOURS);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of("a", "b", "c"), listener.expired);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tribe7.common.base.Ticker;
+
+/**
+ * A ticker whose value is only changed by the test using it.
+ */
+final class FakeTicker extends Ticker {
+  private final AtomicLong nanos = new AtomicLong();
+
+  /** Advances the ticker value by {@code time} in {@code timeUnit}. */
+  FakeTicker advance(long time, TimeUnit timeUnit) {
+    nanos.addAndGet(timeUnit.toNanos(time));
+    return this;
+  }
+
+  @Override
+  public long read() {
+    return nanos.get();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest extends TestCase {
+
+  public void testIncrement() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    assertEquals(0, sketch.frequency(42));
+    sketch.increment(42);
+    assertEquals(1, sketch.frequency(42));
+    sketch.increment(42);
+    assertEquals(2, sketch.frequency(42));
+  }
+
+  public void testIncrement_saturates() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(42);
+    }
+    assertEquals(15, sketch.frequency(42));
+  }
+
+  public void testReset_halvesFrequencies() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 0; i < 15; i++) {
+      sketch.increment(42);
+    }
+    int hash = 1000;
+    while (sketch.frequency(42) == 15) {
+      sketch.increment(hash++);
+    }
+    int frequency = sketch.frequency(42);
+    assertTrue("frequency after reset: " + frequency, frequency == 7 || frequency == 8);
+  }
+
+  public void testEnsureCapacity_keepsFrequencies() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    int[] before = new int[100];
+    for (int hash = 0; hash < before.length; hash++) {
+      for (int i = 0; i <= hash % 10; i++) {
+        sketch.increment(hash);
+      }
+    }
+    for (int hash = 0; hash < before.length; hash++) {
+      before[hash] = sketch.frequency(hash);
+    }
+
+    sketch.ensureCapacity(1024);
+    assertEquals(1024, sketch.capacity());
+    for (int hash = 0; hash < before.length; hash++) {
+      assertEquals(before[hash], sketch.frequency(hash));
+    }
+  }
+
+  public void testEnsureCapacity_smallerIsIgnored() {
+    FrequencySketch sketch = new FrequencySketch(1024);
+    sketch.increment(42);
+    sketch.ensureCapacity(16);
+    assertEquals(1024, sketch.capacity());
+    assertEquals(1, sketch.frequency(42));
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.tribe7.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import net.tribe7.common.cache.LocalCache.LocalManualCache;
+import net.tribe7.common.cache.LocalCache.ReferenceEntry;
+import net.tribe7.common.cache.LocalCache.Segment;
+import net.tribe7.common.collect.Lists;
+import net.tribe7.common.collect.Maps;
+
+/**
+ * Tests the online doubling of the segments of a cache built with
+ * {@link CacheBuilder#adaptiveConcurrencyLevel}.
+ */
+public class SegmentGrowthTest extends TestCase {
+
+  static final CacheLoader<Integer, Integer> DOUBLING_LOADER =
+      new CacheLoader<Integer, Integer>() {
+        @Override
+        public Integer load(Integer key) {
+          return 2 * key;
+        }
+      };
+
+  private static CacheBuilder<Object, Object> adaptiveBuilder() {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .adaptiveConcurrencyLevel()
+        .maintenanceExecutor(sameThreadExecutor());
+  }
+
+  public void testGrowSegments_concurrentOperations() throws Exception {
+    final int threadCount = 4;
+    final int keysPerThread = 64;
+    final int operationsPerThread = 20000;
+    Random random = new Random(0x5DEECE66DL);
+    for (int trial = 0; trial < 10; trial++) {
+      final LoadingCache<Integer, Integer> cache = adaptiveBuilder().build(DOUBLING_LOADER);
+      final LocalCache<Integer, Integer> map = localCache(cache);
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final List<Map<Integer, Integer>> expected = Lists.newArrayList();
+      List<Thread> threads = Lists.newArrayList();
+      for (int t = 0; t < threadCount; t++) {
+        // each thread owns its keys, so that it can check every operation against its own map
+        final Map<Integer, Integer> reference = Maps.newHashMap();
+        final int firstKey = t * keysPerThread;
+        final long seed = random.nextLong();
+        expected.add(reference);
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              exercise(cache, reference, firstKey, keysPerThread, operationsPerThread, seed);
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            }
+          }
+        };
+        thread.start();
+        threads.add(thread);
+      }
+
+      start.countDown();
+      int delay = random.nextInt(1000);
+      while (map.segments.length < map.maximumSegmentCount) {
+        for (int i = 0; i < delay; i++) {
+          Thread.yield();
+        }
+        map.growSegments(map.segments[random.nextInt(map.segments.length)]);
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new AssertionError(failure.get());
+      }
+
+      Map<Integer, Integer> all = Maps.newHashMap();
+      for (Map<Integer, Integer> reference : expected) {
+        all.putAll(reference);
+      }
+      assertEquals(all, cache.asMap());
+      assertEquals(all.size(), cache.size());
+    }
+  }
+
+  /** Applies random operations on the keys of a thread, checking each against {@code reference}. */
+  static void exercise(LoadingCache<Integer, Integer> cache, Map<Integer, Integer> reference,
+      int firstKey, int keyCount, int operations, long seed) throws ExecutionException {
+    Random random = new Random(seed);
+    for (int i = 0; i < operations; i++) {
+      Integer key = firstKey + random.nextInt(keyCount);
+      Integer value = random.nextInt();
+      switch (random.nextInt(6)) {
+        case 0:
+          cache.put(key, value);
+          reference.put(key, value);
+          break;
+        case 1:
+          Integer present = cache.asMap().putIfAbsent(key, value);
+          assertEquals(reference.get(key), present);
+          if (present == null) {
+            reference.put(key, value);
+          }
+          break;
+        case 2:
+          cache.invalidate(key);
+          reference.remove(key);
+          break;
+        case 3:
+          Integer loaded = cache.get(key);
+          if (!reference.containsKey(key)) {
+            reference.put(key, 2 * key);
+          }
+          assertEquals(reference.get(key), loaded);
+          break;
+        default:
+          assertEquals(reference.get(key), cache.getIfPresent(key));
+          break;
+      }
+    }
+  }
+
+  public void testGrowSegments_keepsEvictionOrder() {
+    final List<Integer> evicted = Lists.newArrayList();
+    Cache<Integer, Integer> cache = adaptiveBuilder()
+        .maximumSize(400)
+        .removalListener(new RemovalListener<Integer, Integer>() {
+          @Override
+          public void onRemoval(RemovalNotification<Integer, Integer> notification) {
+            assertEquals(RemovalCause.SIZE, notification.getCause());
+            evicted.add(notification.getKey());
+          }
+        })
+        .build();
+    LocalCache<Integer, Integer> map = localCache(cache);
+    assertEquals(1, map.segments.length);
+
+    for (int i = 0; i < 300; i++) {
+      cache.put(i, i);
+    }
+    List<Integer> keys = Lists.newArrayList(cache.asMap().keySet());
+    Collections.shuffle(keys, new Random(0x5DEECE66DL));
+    for (Integer key : keys.subList(0, 150)) {
+      cache.getIfPresent(key);
+    }
+    cache.cleanUp();
+    Segment<Integer, Integer> old = map.segments[0];
+    List<Integer> accessOrder = keysOf(old.accessQueue);
+
+    map.growSegments(old);
+    assertEquals(2, map.segments.length);
+    Map<Segment<Integer, Integer>, LinkedList<Integer>> remaining = Maps.newIdentityHashMap();
+    for (Segment<Integer, Integer> segment : map.segments) {
+      LinkedList<Integer> expected = Lists.newLinkedList();
+      for (Integer key : accessOrder) {
+        if (map.segmentFor(map.hash(key)) == segment) {
+          expected.add(key);
+        }
+      }
+      assertEquals(expected, keysOf(segment.accessQueue));
+      remaining.put(segment, expected);
+    }
+
+    // each segment now evicts its least recently used entries first
+    int evictions = 0;
+    for (int i = 1000; evictions < 100; i++) {
+      cache.put(i, i);
+      remaining.get(map.segmentFor(map.hash(i))).add(i);
+      for (Integer key : evicted) {
+        assertEquals(remaining.get(map.segmentFor(map.hash(key))).removeFirst(), key);
+      }
+      evictions += evicted.size();
+      evicted.clear();
+    }
+  }
+
+  public void testGrowSegments_keepsExpirationOrder() {
+    final List<Integer> expired = Lists.newArrayList();
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = adaptiveBuilder()
+        .ticker(ticker)
+        .expireAfterWrite(1, HOURS)
+        .removalListener(new RemovalListener<Integer, Integer>() {
+          @Override
+          public void onRemoval(RemovalNotification<Integer, Integer> notification) {
+            assertEquals(RemovalCause.EXPIRED, notification.getCause());
+            expired.add(notification.getKey());
+          }
+        })
+        .build();
+    LocalCache<Integer, Integer> map = localCache(cache);
+
+    // written in a different order than the keys, one millisecond apart
+    List<Integer> writeOrder = Lists.newArrayList();
+    for (int i = 0; i < 200; i++) {
+      writeOrder.add(i);
+    }
+    Collections.shuffle(writeOrder, new Random(0x5DEECE66DL));
+    for (Integer key : writeOrder) {
+      cache.put(key, key);
+      ticker.advance(1, MILLISECONDS);
+    }
+
+    map.growSegments(map.segments[0]);
+    map.growSegments(map.segments[0]);
+    assertEquals(4, map.segments.length);
+    for (Segment<Integer, Integer> segment : map.segments) {
+      List<Integer> expected = Lists.newArrayList();
+      for (Integer key : writeOrder) {
+        if (map.segmentFor(map.hash(key)) == segment) {
+          expected.add(key);
+        }
+      }
+      assertEquals(expected, keysOf(segment.writeQueue));
+    }
+
+    ticker.advance(HOURS.toNanos(1) - MILLISECONDS.toNanos(201), NANOSECONDS);
+    for (Integer key : writeOrder) {
+      cache.cleanUp();
+      assertTrue(expired.isEmpty());
+      ticker.advance(1, MILLISECONDS);
+      cache.cleanUp();
+      assertEquals(Collections.singletonList(key), expired);
+      expired.clear();
+    }
+    assertEquals(0, cache.size());
+  }
+
+  public void testRetiredSegment_writesLandInNewSegment() throws ExecutionException {
+    LoadingCache<Integer, Integer> cache = adaptiveBuilder().build(DOUBLING_LOADER);
+    LocalCache<Integer, Integer> map = localCache(cache);
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+    Segment<Integer, Integer> old = map.segments[0];
+    map.growSegments(old);
+    assertTrue(old.retired);
+    assertEquals(2, map.segments.length);
+
+    // writers which looked up the segment before it was retired retry on the new one
+    int hash = map.hash(1000);
+    assertNull(old.put(1000, hash, 1, false));
+    assertNotSame(old, map.segmentFor(hash));
+    assertEquals(Integer.valueOf(1), map.segmentFor(hash).get(1000, hash));
+    assertNull(old.getEntry(1000, hash));
+
+    hash = map.hash(1);
+    assertEquals(Integer.valueOf(1), old.remove(1, hash));
+    assertNull(cache.getIfPresent(1));
+
+    hash = map.hash(2);
+    assertTrue(old.replace(2, hash, 2, 20));
+    assertEquals(Integer.valueOf(20), cache.getIfPresent(2));
+
+    hash = map.hash(2000);
+    assertEquals(Integer.valueOf(4000), old.get(2000, hash, DOUBLING_LOADER));
+    assertEquals(Integer.valueOf(4000), cache.getIfPresent(2000));
+
+    assertEquals(101, cache.size());
+  }
+
+  public void testRetiredSegment_queuedWritersRetryOnNewSegment() throws Exception {
+    final LoadingCache<Integer, Integer> cache = adaptiveBuilder().build(DOUBLING_LOADER);
+    final LocalCache<Integer, Integer> map = localCache(cache);
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+    final Segment<Integer, Integer> old = map.segments[0];
+    List<Thread> threads = Lists.newArrayList();
+
+    // queue the growth first and the writers behind it, so that they acquire the lock once the
+    // segment was retired
+    old.lock();
+    try {
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          map.growSegments(old);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.put(1000, 1);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.asMap().putIfAbsent(1001, 1);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.invalidate(1);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.asMap().replace(2, 20);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.asMap().remove(3, 3);
+        }
+      }));
+      threads.add(startQueued(old, new Runnable() {
+        @Override
+        public void run() {
+          cache.getUnchecked(2000);
+        }
+      }));
+    } finally {
+      old.unlock();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(old.retired);
+    Map<Integer, Integer> expected = Maps.newHashMap();
+    for (int i = 0; i < 100; i++) {
+      expected.put(i, i);
+    }
+    expected.remove(1);
+    expected.put(2, 20);
+    expected.remove(3);
+    expected.put(1000, 1);
+    expected.put(1001, 1);
+    expected.put(2000, 4000);
+    assertEquals(expected, cache.asMap());
+    assertEquals(expected.size(), cache.size());
+  }
+
+  /** Starts a thread running {@code task}, and waits until it is queued for {@code segment}. */
+  private static Thread startQueued(Segment<?, ?> segment, Runnable task)
+      throws InterruptedException {
+    Thread thread = new Thread(task);
+    thread.start();
+    long deadline = System.nanoTime() + SECONDS.toNanos(10);
+    while (!segment.hasQueuedThread(thread)) {
+      assertTrue("thread wasn't queued for the segment lock", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  public void testRetiredSegment_lockFreeReadsSeeFrozenEntries() {
+    Cache<Integer, Integer> cache = adaptiveBuilder().build();
+    LocalCache<Integer, Integer> map = localCache(cache);
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+    Segment<Integer, Integer> old = map.segments[0];
+    map.growSegments(old);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, -i);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), old.get(i, map.hash(i)));
+      assertEquals(Integer.valueOf(-i), cache.getIfPresent(i));
+    }
+  }
+
+  public void testGrowSegments_stopsAtMaximum() {
+    Cache<Integer, Integer> cache = adaptiveBuilder().build();
+    LocalCache<Integer, Integer> map = localCache(cache);
+    while (map.segments.length < map.maximumSegmentCount) {
+      map.growSegments(map.segments[0]);
+    }
+    Segment<Integer, Integer>[] segments = map.segments;
+    map.growSegments(segments[0]);
+    assertSame(segments, map.segments);
+  }
+
+  private static <K, V> LocalCache<K, V> localCache(Cache<K, V> cache) {
+    return ((LocalManualCache<K, V>) cache).localCache;
+  }
+
+  private static <K, V> LinkedList<K> keysOf(Iterable<ReferenceEntry<K, V>> queue) {
+    LinkedList<K> keys = Lists.newLinkedList();
+    for (ReferenceEntry<K, V> e : queue) {
+      keys.add(e.getKey());
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.cache;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import net.tribe7.common.cache.LocalCache.ReferenceEntry;
+import net.tribe7.common.cache.LocalCache.StrongWriteEntry;
+import net.tribe7.common.cache.LocalCache.TimerWheel;
+import net.tribe7.common.collect.Maps;
+
+/**
+ * Unit tests for {@link LocalCache.TimerWheel}.
+ */
+public class TimerWheelTest extends TestCase {
+  /** An arbitrary starting time, which isn't aligned to the span of any bucket. */
+  static final long START = 12345678901234L;
+
+  /** The span of a bucket of the first level, which bounds how late an entry is polled. */
+  static final long TICK = 1L << TimerWheel.SHIFT[0];
+
+  public void testOffer_placesEntryByDuration() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+    assertEquals(0, levelOf(wheel, schedule(wheel, 0, START + SECONDS.toNanos(30))));
+    assertEquals(1, levelOf(wheel, schedule(wheel, 1, START + MINUTES.toNanos(30))));
+    assertEquals(2, levelOf(wheel, schedule(wheel, 2, START + HOURS.toNanos(20))));
+    assertEquals(3, levelOf(wheel, schedule(wheel, 3, START + DAYS.toNanos(3))));
+    assertEquals(4, levelOf(wheel, schedule(wheel, 4, START + DAYS.toNanos(30))));
+    assertEquals(5, wheel.size());
+  }
+
+  public void testOffer_reschedulesPresentEntry() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+    ReferenceEntry<Integer, Integer> entry = schedule(wheel, 0, START + DAYS.toNanos(3));
+    entry.setWriteTime(START + SECONDS.toNanos(30));
+    wheel.offer(entry);
+    assertEquals(0, levelOf(wheel, entry));
+    assertEquals(1, wheel.size());
+  }
+
+  public void testRemove() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+    ReferenceEntry<Integer, Integer> entry = schedule(wheel, 0, START + SECONDS.toNanos(30));
+    assertTrue(wheel.contains(entry));
+    assertTrue(wheel.remove(entry));
+    assertFalse(wheel.contains(entry));
+    assertTrue(wheel.isEmpty());
+
+    wheel.advance(START + MINUTES.toNanos(1));
+    assertNull(wheel.pollExpired());
+  }
+
+  public void testAdvance_cascadesToFirstLevel() {
+    long[] durations = {
+        SECONDS.toNanos(30), MINUTES.toNanos(30), HOURS.toNanos(20), DAYS.toNanos(3),
+        DAYS.toNanos(30) };
+    for (long duration : durations) {
+      TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+      long deadline = START + duration;
+      ReferenceEntry<Integer, Integer> entry = schedule(wheel, 0, deadline);
+
+      wheel.advance(deadline - MILLISECONDS.toNanos(500));
+      assertNull(wheel.pollExpired());
+      assertEquals(0, levelOf(wheel, entry));
+
+      wheel.advance(deadline + TICK);
+      assertSame(entry, wheel.pollExpired());
+      assertNull(wheel.pollExpired());
+      assertTrue(wheel.isEmpty());
+    }
+  }
+
+  public void testAdvance_cascadesOneLevelAtATime() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+    long deadline = START + DAYS.toNanos(3);
+    ReferenceEntry<Integer, Integer> entry = schedule(wheel, 0, deadline);
+
+    int level = levelOf(wheel, entry);
+    long now = START;
+    while (true) {
+      now += MINUTES.toNanos(1);
+      wheel.advance(now);
+      ReferenceEntry<Integer, Integer> expired = wheel.pollExpired();
+      if (expired != null) {
+        assertSame(entry, expired);
+        break;
+      }
+      int nextLevel = levelOf(wheel, entry);
+      assertTrue(nextLevel <= level);
+      level = nextLevel;
+    }
+    assertTrue(now >= deadline);
+    assertTrue(now - deadline < MINUTES.toNanos(1));
+  }
+
+  public void testAdvance_reschedulesExtendedDeadline() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(START);
+    ReferenceEntry<Integer, Integer> entry = schedule(wheel, 0, START + SECONDS.toNanos(10));
+
+    // extended without rescheduling, as by a read outside of the segment lock
+    long extended = START + MINUTES.toNanos(10);
+    entry.setWriteTime(extended);
+
+    wheel.advance(START + SECONDS.toNanos(20));
+    assertNull(wheel.pollExpired());
+    assertTrue(wheel.contains(entry));
+    assertEquals(1, levelOf(wheel, entry));
+
+    wheel.advance(extended - 1);
+    assertNull(wheel.pollExpired());
+    wheel.advance(extended + TICK);
+    assertSame(entry, wheel.pollExpired());
+  }
+
+  public void testAdvance_randomDeadlines() {
+    Random random = new Random(0x5DEECE66DL);
+    for (int trial = 0; trial < 20; trial++) {
+      long now = START + random.nextInt();
+      TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(now);
+      Map<ReferenceEntry<Integer, Integer>, Long> deadlines = Maps.newHashMap();
+      for (int i = 0; i < 500; i++) {
+        // skewed towards short lifetimes, up to 10 days
+        long duration = 1 + (long) (random.nextDouble() * random.nextDouble() * DAYS.toNanos(10));
+        deadlines.put(schedule(wheel, i, now + duration), now + duration);
+      }
+
+      while (!deadlines.isEmpty()) {
+        now += random.nextBoolean()
+            ? (long) (random.nextDouble() * 2 * TICK)
+            : (long) (random.nextDouble() * random.nextDouble() * HOURS.toNanos(3));
+        wheel.advance(now);
+        ReferenceEntry<Integer, Integer> e;
+        while ((e = wheel.pollExpired()) != null) {
+          long deadline = deadlines.remove(e);
+          assertTrue("polled before its deadline", deadline <= now);
+        }
+        for (long deadline : deadlines.values()) {
+          assertTrue("not polled a bucket after its deadline", deadline > now - TICK);
+        }
+        assertEquals(deadlines.size(), wheel.size());
+      }
+    }
+  }
+
+  private static ReferenceEntry<Integer, Integer> schedule(
+      TimerWheel<Integer, Integer> wheel, int key, long deadline) {
+    ReferenceEntry<Integer, Integer> entry = new StrongWriteEntry<Integer, Integer>(key, key, null);
+    entry.setWriteTime(deadline);
+    wheel.offer(entry);
+    return entry;
+  }
+
+  /** Returns the level of the bucket holding {@code entry}, or -1 if it has expired. */
+  private static int levelOf(
+      TimerWheel<Integer, Integer> wheel, ReferenceEntry<Integer, Integer> entry) {
+    ReferenceEntry<Integer, Integer> sentinel = entry.getNextInWriteQueue();
+    while (!(sentinel instanceof TimerWheel.Sentinel)) {
+      sentinel = sentinel.getNextInWriteQueue();
+    }
+    for (int i = 0; i < wheel.wheel.length; i++) {
+      for (ReferenceEntry<Integer, Integer> bucket : wheel.wheel[i]) {
+        if (bucket == sentinel) {
+          return i;
+        }
+      }
+    }
+    assertSame(wheel.expired, sentinel);
+    return -1;
+  }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.math.IntMath;
+import net.tribe7.common.primitives.Ints;
+
+/**
+ * A multiset which estimates the counts of its elements in a fixed amount of memory, however many
+ * distinct elements are added, and remembers only its most frequent elements. It suits counting
+ * requests per key over an unbounded key space, where an exact multiset such as
+ * {@link ConcurrentHashMultiset} would keep every key of the long tail.
+ *
+ * <p>Counts are estimated by a Count-Min sketch: a {@code depth} by {@code width} array of
+ * counters, where each element increments one counter per row, chosen by its hash code, and
+ * {@link #count} returns the smallest of the counters of an element. An estimate is never less
+ * than the true count. With probability {@code 1 - errorProbability}, it exceeds the true count
+ * by at most {@code relativeError} times the {@link #size} of the multiset. Elements with equal
+ * hash codes share all of their counters.
+ *
+ * <p>The most frequent elements, or heavy hitters, are tracked by a Space-Saving summary of
+ * {@code maxHeavyHitters} slots, whose counts are the estimates of the sketch: an element which
+ * isn't tracked takes the slot of the least frequent tracked element once its estimate exceeds
+ * the estimate of that element. {@link #entrySet}, {@link #elementSet} and {@link #iterator} only
+ * contain the heavy hitters, in order of decreasing count. Note that this violates the
+ * {@link Multiset} contract for elements which aren't heavy hitters, for which {@link #contains}
+ * may even return {@code true} although they were never added.
+ *
+ * <p>Adding occurrences is thread-safe and lock-free: it increments the counters with atomic
+ * operations, looks the element up in a concurrent set of the tracked elements, and only scans
+ * the heavy hitters when an untracked element's estimate exceeds that of the least frequent one. Occurrences can't be removed. Two multisets of the same
+ * {@linkplain #isCompatible shape} can be {@linkplain #merge merged}, for example to combine
+ * multisets counted by several threads. Null elements are not supported.
+ */
+@Beta
+public final class ApproximateMultiset<E> extends AbstractMultiset<E> {
+  private final int depth;
+  // 'and' with a hash to get a column of the sketch
+  private final int widthMask;
+  // the counter of row i and column j is at index i * width + j
+  private final AtomicLongArray counters;
+
+  // each slot holds a heavy hitter, or null until the summary fills up
+  private final AtomicReferenceArray<E> heavyHitters;
+  // the elements which are heavy hitters or being made one, so that add finds them without a scan
+  private final Set<E> tracked = Sets.newConcurrentHashSet();
+  // at most the smallest estimate of a heavy hitter, or 0 while a slot is free; a stale, lower
+  // value only makes add scan the heavy hitters needlessly, and the scan then raises it
+  private volatile long threshold;
+
+  /**
+   * Creates a new, empty {@code ApproximateMultiset}. Its sketch takes
+   * {@code 8 * ceil(ln(1 / errorProbability)) * 2^ceil(log2(e / relativeError))} bytes.
+   *
+   * @param maxHeavyHitters the number of most frequent elements to track
+   * @param relativeError the maximum error of an estimated count, as a fraction of the total
+   *     number of occurrences; must be positive and less than 1.0
+   * @param errorProbability the probability that the error of an estimated count exceeds
+   *     {@code relativeError}; must be positive and less than 1.0
+   * @throws IllegalArgumentException if an argument is out of range, or if the sketch would hold
+   *     more than {@code Integer.MAX_VALUE} counters
+   */
+  public static <E> ApproximateMultiset<E> create(
+      int maxHeavyHitters, double relativeError, double errorProbability) {
+    checkArgument(maxHeavyHitters > 0, "maxHeavyHitters (%s) must be > 0", maxHeavyHitters);
+    checkArgument(relativeError > 0.0 && relativeError < 1.0,
+        "relativeError (%s) must be > 0.0 and < 1.0", relativeError);
+    checkArgument(errorProbability > 0.0 && errorProbability < 1.0,
+        "errorProbability (%s) must be > 0.0 and < 1.0", errorProbability);
+    double minimumWidth = Math.ceil(Math.E / relativeError);
+    checkArgument(minimumWidth <= Ints.MAX_POWER_OF_TWO, "relativeError (%s) is too small",
+        relativeError);
+    int width = 1 << IntMath.log2((int) minimumWidth, RoundingMode.CEILING);
+    int depth = (int) Math.ceil(Math.log(1.0 / errorProbability));
+    return new ApproximateMultiset<E>(maxHeavyHitters, width, depth);
+  }
+
+  private ApproximateMultiset(int maxHeavyHitters, int width, int depth) {
+    checkArgument((long) width * depth <= Integer.MAX_VALUE, "sketch too large: %s x %s",
+        depth, width);
+    this.depth = depth;
+    this.widthMask = width - 1;
+    this.counters = new AtomicLongArray(width * depth);
+    this.heavyHitters = new AtomicReferenceArray<E>(maxHeavyHitters);
+  }
+
+  /**
+   * Returns the index of the counter of {@code hash} in {@code row}. The columns of the rows are
+   * derived from two hashes, as the bits of a Bloom filter often are.
+   */
+  private int counterIndex(int hash, int row) {
+    int hash1 = Hashing.smear(hash);
+    int hash2 = Hashing.smear(hash1) | 1;
+    return row * (widthMask + 1) + ((hash1 + row * hash2) & widthMask);
+  }
+
+  // Query Operations
+
+  /**
+   * Returns the estimated number of occurrences of {@code element} in this multiset, which is at
+   * least the true number of occurrences.
+   */
+  @Override public int count(@Nullable Object element) {
+    return (element == null) ? 0 : Ints.saturatedCast(estimate(element.hashCode()));
+  }
+
+  private long estimate(int hash) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.get(counterIndex(hash, row)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the total number of occurrences added to this multiset, which is exact unless
+   * occurrences are being added concurrently.
+   */
+  @Override public int size() {
+    // every occurrence increments one counter of each row
+    long size = 0L;
+    for (int column = 0; column <= widthMask; column++) {
+      size += counters.get(column);
+    }
+    return Ints.saturatedCast(size);
+  }
+
+  @Override public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  // Modification Operations
+
+  /**
+   * Adds a number of occurrences of the specified element to this multiset.
+   *
+   * @param element the element to add
+   * @param occurrences the number of occurrences to add
+   * @return the estimated count of the element before the operation; possibly zero
+   * @throws IllegalArgumentException if {@code occurrences} is negative
+   */
+  @Override public int add(E element, int occurrences) {
+    checkNotNull(element);
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(occurrences > 0, "Invalid occurrences: %s", occurrences);
+    int hash = element.hashCode();
+    long previous = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      previous = Math.min(previous, counters.getAndAdd(counterIndex(hash, row), occurrences));
+    }
+    long estimate = previous + occurrences;
+    if (estimate > threshold && !tracked.contains(element)) {
+      offer(element, estimate);
+    }
+    return Ints.saturatedCast(previous);
+  }
+
+  /**
+   * Makes {@code element}, which isn't tracked, a heavy hitter in place of the least frequent one,
+   * if {@code estimate} is greater than the estimate of that heavy hitter or a slot is free.
+   * Otherwise raises the threshold to the smallest estimate of a heavy hitter.
+   */
+  private void offer(E element, long estimate) {
+    AtomicReferenceArray<E> heavyHitters = this.heavyHitters;
+    boolean claimed = false;
+    while (true) {
+      int minSlot = -1;
+      E min = null;
+      long minEstimate = Long.MAX_VALUE;
+      long nextEstimate = Long.MAX_VALUE;
+      for (int slot = 0; slot < heavyHitters.length(); slot++) {
+        E current = heavyHitters.get(slot);
+        long currentEstimate = (current == null) ? 0L : estimate(current.hashCode());
+        if (currentEstimate < minEstimate) {
+          nextEstimate = minEstimate;
+          minSlot = slot;
+          min = current;
+          minEstimate = currentEstimate;
+        } else {
+          nextEstimate = Math.min(nextEstimate, currentEstimate);
+        }
+      }
+      if (minEstimate >= estimate) {
+        if (claimed) {
+          tracked.remove(element);
+        }
+        raiseThreshold(minEstimate);
+        return;
+      }
+      if (!claimed) {
+        if (!tracked.add(element)) {
+          return; // another thread is making it a heavy hitter
+        }
+        claimed = true;
+      }
+      if (heavyHitters.compareAndSet(minSlot, min, element)) {
+        if (min != null) {
+          tracked.remove(min);
+        }
+        raiseThreshold(Math.min(estimate, nextEstimate));
+        return;
+      }
+    }
+  }
+
+  private void raiseThreshold(long min) {
+    // concurrent updates may have raised the threshold further
+    if (min > threshold) {
+      threshold = min;
+    }
+  }
+
+  /**
+   * Not supported: occurrences can't be removed from a Count-Min sketch without making its
+   * estimates unreliable.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public int remove(@Nullable Object element, int occurrences) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Not supported.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public int setCount(E element, int count) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Not supported.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean setCount(E element, int oldCount, int newCount) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Occurrences added concurrently by other threads may or may not be removed.
+   */
+  @Override public void clear() {
+    for (int i = 0; i < heavyHitters.length(); i++) {
+      heavyHitters.set(i, null);
+    }
+    // after the slots, so that an element being made a heavy hitter concurrently is not left
+    // tracked without a slot
+    tracked.clear();
+    for (int i = 0; i < counters.length(); i++) {
+      counters.set(i, 0L);
+    }
+    threshold = 0L;
+  }
+
+  // Merging
+
+  /**
+   * Determines whether {@code that} can be {@linkplain #merge merged} into this multiset. Two
+   * multisets are compatible if they are not the same instance, and if they were created with
+   * the same {@code relativeError} and {@code errorProbability}, or at least with arguments
+   * which give sketches of the same shape.
+   *
+   * @param that the multiset to check for compatibility
+   */
+  public boolean isCompatible(ApproximateMultiset<E> that) {
+    checkNotNull(that);
+    return this != that
+        && this.depth == that.depth
+        && this.widthMask == that.widthMask;
+  }
+
+  /**
+   * Adds all of the occurrences counted by {@code that} to this multiset, which then estimates
+   * the counts of both multisets together. The heavy hitters of {@code that} are then offered to
+   * this multiset with their merged counts. {@code that} is not changed; occurrences added to it
+   * concurrently may or may not be merged.
+   *
+   * @param that the multiset to merge into this multiset
+   * @throws IllegalArgumentException if {@code isCompatible(that) == false}
+   */
+  public void merge(ApproximateMultiset<E> that) {
+    checkArgument(isCompatible(that),
+        "Cannot merge incompatible multisets: %s x %s and %s x %s",
+        depth, widthMask + 1, that.depth, that.widthMask + 1);
+    for (int i = 0; i < counters.length(); i++) {
+      long count = that.counters.get(i);
+      if (count != 0) {
+        counters.addAndGet(i, count);
+      }
+    }
+    for (int slot = 0; slot < that.heavyHitters.length(); slot++) {
+      E element = that.heavyHitters.get(slot);
+      if (element != null && !tracked.contains(element)) {
+        offer(element, estimate(element.hashCode()));
+      }
+    }
+  }
+
+  // Views
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The returned set contains the heavy hitters of this multiset, in order of decreasing
+   * count. Each iteration takes a snapshot of their current estimated counts.
+   */
+  @Override public Set<Multiset.Entry<E>> entrySet() {
+    return super.entrySet();
+  }
+
+  @Override Iterator<Entry<E>> entryIterator() {
+    return Iterators.unmodifiableIterator(snapshot().iterator());
+  }
+
+  @Override int distinctElements() {
+    return snapshot().size();
+  }
+
+  private static final Comparator<Entry<?>> DECREASING_COUNT = new Comparator<Entry<?>>() {
+    @Override
+    public int compare(Entry<?> entry1, Entry<?> entry2) {
+      return Ints.compare(entry2.getCount(), entry1.getCount());
+    }
+  };
+
+  /** Returns the heavy hitters and their current estimated counts, most frequent first. */
+  private List<Entry<E>> snapshot() {
+    // a concurrent clear may leave an element in two slots; keep one entry for it
+    Map<E, Entry<E>> entries = Maps.newLinkedHashMap();
+    for (int slot = 0; slot < heavyHitters.length(); slot++) {
+      E element = heavyHitters.get(slot);
+      if (element != null && !entries.containsKey(element)) {
+        entries.put(element, Multisets.immutableEntry(element, count(element)));
+      }
+    }
+    List<Entry<E>> result = Lists.newArrayList(entries.values());
+    Collections.sort(result, DECREASING_COUNT);
+    return result;
+  }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkNotNull;
+import static net.tribe7.common.base.Preconditions.checkState;
+import static net.tribe7.common.collect.CollectPreconditions.checkNonnegative;
+import static net.tribe7.common.collect.CollectPreconditions.checkRemove;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.collect.Serialization.FieldSetter;
+import net.tribe7.common.math.IntMath;
+import net.tribe7.common.primitives.Ints;
+
+/**
+ * A multiset that supports concurrent modifications, which keeps its distinct elements and their
+ * counts in parallel arrays of open-addressed hash tables, like {@link CompactHashMultiset}.
+ * Unlike {@link ConcurrentHashMultiset}, it allocates no map entry and no {@code AtomicInteger}
+ * per distinct element. Null elements are not supported.
+ *
+ * <p>The elements are divided among a fixed number of segments by their hash codes. Each segment
+ * has its own table, whose counts are updated with compare-and-set operations, without locking.
+ * Only adding an element which isn't in the table locks its segment. Like the other operations of
+ * {@code ConcurrentHashMultiset}, {@link #add}, {@link #remove}, {@link #setCount(Object, int)}
+ * and {@link #setCount(Object, int, int)} are atomic; {@link #size}, the iterators and the views
+ * are weakly consistent.
+ *
+ * <p>An element whose count drops to zero keeps its slot, so that its count can be updated without
+ * locking if the element is added again; such slots are reclaimed when their table is rebuilt,
+ * before it would grow.
+ */
+@Beta
+public final class CompactConcurrentHashMultiset<E> extends AbstractMultiset<E>
+    implements Serializable {
+
+  /*
+   * Slots of a table are only claimed, never freed or reassigned, so a slot found to hold an
+   * element keeps holding it for the lifetime of the table. Rebuilding a table under the lock of
+   * its segment first atomically replaces each count with MOVED, which makes every later
+   * compare-and-set on the old table fail; operations which observe MOVED wait for the lock of the
+   * segment, which guarantees that the new table has been published, and retry.
+   */
+
+  private static final double MAX_LOAD_FACTOR = 0.75;
+
+  /** The count of a slot whose element has been copied to a new table. */
+  private static final int MOVED = -1;
+
+  // the top four bits of a hash select its segment
+  private static final int SEGMENT_SHIFT = Integer.SIZE - 4;
+  private static final int SEGMENT_COUNT = 1 << (Integer.SIZE - SEGMENT_SHIFT);
+
+  private final transient Segment[] segments;
+
+  // This constant allows the deserialization code to set a final field. This holder class
+  // makes sure it is not initialized unless an instance is deserialized.
+  private static class FieldSettersHolder {
+    static final FieldSetter<CompactConcurrentHashMultiset> SEGMENTS_FIELD_SETTER =
+        Serialization.getFieldSetter(CompactConcurrentHashMultiset.class, "segments");
+  }
+
+  /**
+   * Creates a new, empty {@code CompactConcurrentHashMultiset} using the default initial
+   * capacity.
+   */
+  public static <E> CompactConcurrentHashMultiset<E> create() {
+    return new CompactConcurrentHashMultiset<E>(0);
+  }
+
+  /**
+   * Creates a new, empty {@code CompactConcurrentHashMultiset} with the specified expected number
+   * of distinct elements.
+   *
+   * @param distinctElements the expected number of distinct elements
+   * @throws IllegalArgumentException if {@code distinctElements} is negative
+   */
+  public static <E> CompactConcurrentHashMultiset<E> create(int distinctElements) {
+    return new CompactConcurrentHashMultiset<E>(
+        checkNonnegative(distinctElements, "distinctElements"));
+  }
+
+  /**
+   * Creates a new {@code CompactConcurrentHashMultiset} containing the specified elements.
+   *
+   * <p>This implementation is highly efficient when {@code elements} is itself a
+   * {@link Multiset}.
+   *
+   * @param elements the elements that the multiset should contain
+   */
+  public static <E> CompactConcurrentHashMultiset<E> create(Iterable<? extends E> elements) {
+    CompactConcurrentHashMultiset<E> multiset =
+        create(Multisets.inferDistinctElements(elements));
+    Iterables.addAll(multiset, elements);
+    return multiset;
+  }
+
+  private CompactConcurrentHashMultiset(int distinctElements) {
+    this.segments = newSegments(distinctElements);
+  }
+
+  private static Segment[] newSegments(int distinctElements) {
+    // round up, so that the elements of an unevenly hashed segment fit too
+    int segmentSize = (distinctElements + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+    Segment[] segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment(segmentSize);
+    }
+    return segments;
+  }
+
+  Segment segmentFor(int hash) {
+    return segments[hash >>> SEGMENT_SHIFT];
+  }
+
+  /** An open-addressed table of elements and their counts. */
+  static final class Table {
+    // elements.get(i) is the element in slot i, or null if it is free
+    final AtomicReferenceArray<Object> elements;
+    // counts.get(i) is the count of elements.get(i), zero for a removed element, or MOVED
+    final AtomicIntegerArray counts;
+    final int mask;
+    // the number of slots which may be claimed before the table is rebuilt
+    final int capacity;
+
+    Table(int tableSize) {
+      elements = new AtomicReferenceArray<Object>(tableSize);
+      counts = new AtomicIntegerArray(tableSize);
+      mask = tableSize - 1;
+      // the table always keeps a free slot, which ends every probe
+      capacity = Math.min((int) (tableSize * MAX_LOAD_FACTOR), tableSize - 1);
+    }
+
+    /** Returns the slot of {@code element}, or -1 if it is absent. */
+    int slotOf(Object element, int hash) {
+      AtomicReferenceArray<Object> elements = this.elements;
+      int mask = this.mask;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        Object candidate = elements.get(slot);
+        if (candidate == null) {
+          return -1;
+        } else if (candidate == element || candidate.equals(element)) {
+          return slot;
+        }
+      }
+    }
+
+    /** Claims a free slot for {@code element}, which must be absent, and publishes it. */
+    void claim(Object element, int hash, int count) {
+      int slot = hash & mask;
+      while (elements.get(slot) != null) {
+        slot = (slot + 1) & mask;
+      }
+      counts.set(slot, count);
+      elements.set(slot, element);
+    }
+  }
+
+  /**
+   * A segment, whose lock guards the claiming of slots in its table and the replacement of its
+   * table.
+   */
+  @SuppressWarnings("serial") // This class is never serialized.
+  static final class Segment extends ReentrantLock {
+    volatile Table table;
+
+    // the number of claimed slots in table, guarded by this
+    int claimed;
+
+    Segment(int distinctElements) {
+      table = new Table(Hashing.openTableSize(distinctElements, MAX_LOAD_FACTOR));
+    }
+
+    /**
+     * Adds {@code element}, which wasn't found in the table, with {@code count} occurrences unless
+     * a concurrent operation added it first.
+     *
+     * @return {@code true} if {@code element} has been added, or {@code false} if it was already
+     *     present
+     */
+    boolean addAbsent(Object element, int hash, int count) {
+      lock();
+      try {
+        Table table = this.table;
+        if (table.slotOf(element, hash) >= 0) {
+          return false;
+        }
+        if (claimed == table.capacity) {
+          table = rebuild(true);
+          checkState(claimed < table.capacity, "too many distinct elements");
+        }
+        table.claim(element, hash, count);
+        claimed++;
+        return true;
+      } finally {
+        unlock();
+      }
+    }
+
+    /**
+     * Replaces the table by a new one, sized for the elements whose count is positive, which are
+     * copied to it if {@code copy} is true. Must be called with the lock held.
+     */
+    Table rebuild(boolean copy) {
+      Table oldTable = table;
+      AtomicReferenceArray<Object> oldElements = oldTable.elements;
+      AtomicIntegerArray oldCounts = oldTable.counts;
+      int length = oldElements.length();
+      List<Object> live = Lists.newArrayList();
+      int[] liveCounts = new int[claimed];
+      for (int i = 0; i < length; i++) {
+        Object element = oldElements.get(i);
+        if (element != null) {
+          int count = oldCounts.getAndSet(i, MOVED);
+          if (count > 0) {
+            liveCounts[live.size()] = count;
+            live.add(element);
+          }
+        }
+      }
+      int distinctElements = copy ? live.size() : 0;
+      // leave room for half as many new elements before the next rebuild
+      int expected = distinctElements + (distinctElements >>> 1) + 1;
+      Table newTable = new Table(Hashing.openTableSize(expected, MAX_LOAD_FACTOR));
+      for (int i = 0; i < distinctElements; i++) {
+        Object element = live.get(i);
+        newTable.claim(element, Hashing.smear(element.hashCode()), liveCounts[i]);
+      }
+      claimed = distinctElements;
+      table = newTable;
+      return newTable;
+    }
+
+    /** Waits until a rebuild of the table, which may be in progress, has completed. */
+    void awaitRebuild() {
+      lock();
+      unlock();
+    }
+  }
+
+  // Query Operations
+
+  /**
+   * Returns the number of occurrences of {@code element} in this multiset.
+   *
+   * @param element the element to look for
+   * @return the nonnegative number of occurrences of the element
+   */
+  @Override public int count(@Nullable Object element) {
+    if (element == null) {
+      return 0;
+    }
+    int hash = Hashing.smear(element.hashCode());
+    Segment segment = segmentFor(hash);
+    while (true) {
+      Table table = segment.table;
+      int slot = table.slotOf(element, hash);
+      if (slot < 0) {
+        return 0;
+      }
+      int count = table.counts.get(slot);
+      if (count != MOVED) {
+        return count;
+      }
+      segment.awaitRebuild();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the data in the multiset is modified by any other threads during this method,
+   * it is undefined which (if any) of these modifications will be reflected in the result.
+   */
+  @Override public int size() {
+    long sum = 0L;
+    for (Iterator<Entry<E>> entries = entryIterator(); entries.hasNext(); ) {
+      sum += entries.next().getCount();
+    }
+    return Ints.saturatedCast(sum);
+  }
+
+  /*
+   * Note: the superclass toArray() methods assume that size() gives a correct
+   * answer, which ours does not.
+   */
+
+  @Override public Object[] toArray() {
+    return snapshot().toArray();
+  }
+
+  @Override public <T> T[] toArray(T[] array) {
+    return snapshot().toArray(array);
+  }
+
+  private List<E> snapshot() {
+    List<E> list = Lists.newArrayListWithExpectedSize(size());
+    for (Multiset.Entry<E> entry : entrySet()) {
+      E element = entry.getElement();
+      for (int i = entry.getCount(); i > 0; i--) {
+        list.add(element);
+      }
+    }
+    return list;
+  }
+
+  // Modification Operations
+
+  /**
+   * Adds a number of occurrences of the specified element to this multiset.
+   *
+   * @param element the element to add
+   * @param occurrences the number of occurrences to add
+   * @return the previous count of the element before the operation; possibly zero
+   * @throws IllegalArgumentException if {@code occurrences} is negative, or if
+   *     the resulting amount would exceed {@link Integer#MAX_VALUE}
+   */
+  @Override public int add(E element, int occurrences) {
+    checkNotNull(element);
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(occurrences > 0, "Invalid occurrences: %s", occurrences);
+
+    int hash = Hashing.smear(element.hashCode());
+    Segment segment = segmentFor(hash);
+    while (true) {
+      Table table = segment.table;
+      int slot = table.slotOf(element, hash);
+      if (slot < 0) {
+        if (segment.addAbsent(element, hash, occurrences)) {
+          return 0;
+        }
+        // added concurrently: look it up again
+        continue;
+      }
+      AtomicIntegerArray counts = table.counts;
+      while (true) {
+        int oldValue = counts.get(slot);
+        if (oldValue == MOVED) {
+          break;
+        }
+        try {
+          int newValue = IntMath.checkedAdd(oldValue, occurrences);
+          if (counts.compareAndSet(slot, oldValue, newValue)) {
+            return oldValue;
+          }
+        } catch (ArithmeticException overflow) {
+          throw new IllegalArgumentException("Overflow adding " + occurrences
+              + " occurrences to a count of " + oldValue);
+        }
+      }
+      segment.awaitRebuild();
+    }
+  }
+
+  /**
+   * Removes a number of occurrences of the specified element from this multiset. If the multiset
+   * contains fewer than this number of occurrences to begin with, all occurrences will be removed.
+   *
+   * @param element the element whose occurrences should be removed
+   * @param occurrences the number of occurrences of the element to remove
+   * @return the count of the element before the operation; possibly zero
+   * @throws IllegalArgumentException if {@code occurrences} is negative
+   */
+  @Override public int remove(@Nullable Object element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(occurrences > 0, "Invalid occurrences: %s", occurrences);
+    if (element == null) {
+      return 0;
+    }
+
+    int hash = Hashing.smear(element.hashCode());
+    Segment segment = segmentFor(hash);
+    while (true) {
+      Table table = segment.table;
+      int slot = table.slotOf(element, hash);
+      if (slot < 0) {
+        return 0;
+      }
+      AtomicIntegerArray counts = table.counts;
+      while (true) {
+        int oldValue = counts.get(slot);
+        if (oldValue == MOVED) {
+          break;
+        } else if (oldValue == 0
+            || counts.compareAndSet(slot, oldValue, Math.max(0, oldValue - occurrences))) {
+          return oldValue;
+        }
+      }
+      segment.awaitRebuild();
+    }
+  }
+
+  /**
+   * Adds or removes occurrences of {@code element} such that the {@link #count} of the
+   * element becomes {@code count}.
+   *
+   * @return the count of {@code element} in the multiset before this call
+   * @throws IllegalArgumentException if {@code count} is negative
+   */
+  @Override public int setCount(E element, int count) {
+    checkNotNull(element);
+    checkNonnegative(count, "count");
+
+    int hash = Hashing.smear(element.hashCode());
+    Segment segment = segmentFor(hash);
+    while (true) {
+      Table table = segment.table;
+      int slot = table.slotOf(element, hash);
+      if (slot < 0) {
+        if (count == 0) {
+          return 0;
+        }
+        if (segment.addAbsent(element, hash, count)) {
+          return 0;
+        }
+        continue;
+      }
+      AtomicIntegerArray counts = table.counts;
+      while (true) {
+        int oldValue = counts.get(slot);
+        if (oldValue == MOVED) {
+          break;
+        } else if (counts.compareAndSet(slot, oldValue, count)) {
+          return oldValue;
+        }
+      }
+      segment.awaitRebuild();
+    }
+  }
+
+  /**
+   * Sets the number of occurrences of {@code element} to {@code newCount}, but only if
+   * the count is currently {@code expectedOldCount}. If {@code element} does not appear
+   * in the multiset exactly {@code expectedOldCount} times, no changes will be made.
+   *
+   * @return {@code true} if the change was successful. This usually indicates
+   *     that the multiset has been modified, but not always: in the case that
+   *     {@code expectedOldCount == newCount}, the method will return {@code true} if
+   *     the condition was met.
+   * @throws IllegalArgumentException if {@code expectedOldCount} or {@code newCount} is negative
+   */
+  @Override public boolean setCount(E element, int expectedOldCount, int newCount) {
+    checkNotNull(element);
+    checkNonnegative(expectedOldCount, "oldCount");
+    checkNonnegative(newCount, "newCount");
+
+    int hash = Hashing.smear(element.hashCode());
+    Segment segment = segmentFor(hash);
+    while (true) {
+      Table table = segment.table;
+      int slot = table.slotOf(element, hash);
+      if (slot < 0) {
+        if (expectedOldCount != 0) {
+          return false;
+        } else if (newCount == 0) {
+          return true;
+        }
+        if (segment.addAbsent(element, hash, newCount)) {
+          return true;
+        }
+        continue;
+      }
+      AtomicIntegerArray counts = table.counts;
+      while (true) {
+        int oldValue = counts.get(slot);
+        if (oldValue == MOVED) {
+          break;
+        } else if (oldValue != expectedOldCount) {
+          return false;
+        } else if (counts.compareAndSet(slot, oldValue, newCount)) {
+          return true;
+        }
+      }
+      segment.awaitRebuild();
+    }
+  }
+
+  // Views
+
+  @Override int distinctElements() {
+    int distinctElements = 0;
+    for (Iterator<Entry<E>> entries = entryIterator(); entries.hasNext(); entries.next()) {
+      distinctElements++;
+    }
+    return distinctElements;
+  }
+
+  @Override public boolean isEmpty() {
+    return !entryIterator().hasNext();
+  }
+
+  @Override Iterator<Entry<E>> entryIterator() {
+    // AbstractIterator makes this fairly clean, but it doesn't support remove(). To support
+    // remove(), we create an AbstractIterator, and then use ForwardingIterator to delegate to it.
+    final Iterator<Entry<E>> readOnlyIterator =
+        new AbstractIterator<Entry<E>>() {
+          int segmentIndex = -1;
+          Table table;
+          int slot;
+
+          @Override protected Entry<E> computeNext() {
+            while (true) {
+              while (table == null || ++slot == table.elements.length()) {
+                if (++segmentIndex == segments.length) {
+                  return endOfData();
+                }
+                table = segments[segmentIndex].table;
+                slot = -1;
+              }
+              @SuppressWarnings("unchecked") // only elements of type E are stored
+              E element = (E) table.elements.get(slot);
+              if (element != null) {
+                int count = table.counts.get(slot);
+                if (count == MOVED) {
+                  count = count(element);
+                }
+                if (count != 0) {
+                  return Multisets.immutableEntry(element, count);
+                }
+              }
+            }
+          }
+        };
+
+    return new ForwardingIterator<Entry<E>>() {
+      private Entry<E> last;
+
+      @Override protected Iterator<Entry<E>> delegate() {
+        return readOnlyIterator;
+      }
+
+      @Override public Entry<E> next() {
+        last = super.next();
+        return last;
+      }
+
+      @Override public void remove() {
+        checkRemove(last != null);
+        CompactConcurrentHashMultiset.this.setCount(last.getElement(), 0);
+        last = null;
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This also frees the tables of the segments. Occurrences added concurrently by other
+   * threads may or may not be removed.
+   */
+  @Override public void clear() {
+    for (Segment segment : segments) {
+      segment.lock();
+      try {
+        segment.rebuild(false);
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  private transient EntrySet entrySet;
+
+  @Override public Set<Multiset.Entry<E>> entrySet() {
+    EntrySet result = entrySet;
+    if (result == null) {
+      entrySet = result = new EntrySet();
+    }
+    return result;
+  }
+
+  private class EntrySet extends AbstractMultiset<E>.EntrySet {
+    @Override CompactConcurrentHashMultiset<E> multiset() {
+      return CompactConcurrentHashMultiset.this;
+    }
+
+    /*
+     * Note: the superclass toArray() methods assume that size() gives a correct
+     * answer, which ours does not.
+     */
+
+    @Override public Object[] toArray() {
+      return snapshot().toArray();
+    }
+
+    @Override public <T> T[] toArray(T[] array) {
+      return snapshot().toArray(array);
+    }
+
+    private List<Multiset.Entry<E>> snapshot() {
+      List<Multiset.Entry<E>> list = Lists.newArrayListWithExpectedSize(size());
+      // Not Iterables.addAll(list, this), because that'll forward right back here.
+      Iterators.addAll(list, iterator());
+      return list;
+    }
+  }
+
+  /**
+   * @serialData the number of distinct elements, the first element, its count,
+   *     the second element, its count, and so on
+   */
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    stream.defaultWriteObject();
+    Serialization.writeMultiset(this, stream);
+  }
+
+  private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+    stream.defaultReadObject();
+    int distinctElements = Serialization.readCount(stream);
+    FieldSettersHolder.SEGMENTS_FIELD_SETTER.set(this, newSegments(distinctElements));
+    Serialization.populateMultiset(this, stream, distinctElements);
+  }
+
+  private static final long serialVersionUID = 0;
+}
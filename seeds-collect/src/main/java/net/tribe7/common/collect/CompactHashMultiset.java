@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkArgument;
+import static net.tribe7.common.base.Preconditions.checkState;
+import static net.tribe7.common.collect.CollectPreconditions.checkNonnegative;
+import static net.tribe7.common.collect.CollectPreconditions.checkRemove;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.annotations.GwtIncompatible;
+import net.tribe7.common.primitives.Ints;
+
+/**
+ * A multiset which keeps its distinct elements and their counts in two parallel arrays, forming
+ * an open-addressed hash table. Unlike {@link HashMultiset}, it allocates no map entry and no
+ * count object per distinct element, and so needs about a fifth of the memory for large numbers
+ * of distinct elements, as in word counting. Null elements are supported.
+ *
+ * <p>The table is probed linearly and kept at most three quarters full. Removing the last
+ * occurrence of an element moves the elements which collided with it back, rather than leaving a
+ * marker behind, so the table never fills up with removed elements.
+ *
+ * <p>Like {@code HashMultiset}, this class is not thread-safe; see
+ * {@link CompactConcurrentHashMultiset} for a concurrent equivalent. The iterators of this
+ * multiset and of its views are fail-fast.
+ */
+@Beta
+@GwtCompatible(serializable = true, emulated = true)
+public final class CompactHashMultiset<E> extends AbstractMultiset<E> implements Serializable {
+  private static final double MAX_LOAD_FACTOR = 0.75;
+
+  /** Stands for the null element in the table, where null marks a free slot. */
+  private static final Object NULL_ELEMENT = new Object();
+
+  /**
+   * Creates a new, empty {@code CompactHashMultiset} using the default initial capacity.
+   */
+  public static <E> CompactHashMultiset<E> create() {
+    return new CompactHashMultiset<E>(0);
+  }
+
+  /**
+   * Creates a new, empty {@code CompactHashMultiset} with the specified expected number of
+   * distinct elements, which it holds without growing its table.
+   *
+   * @param distinctElements the expected number of distinct elements
+   * @throws IllegalArgumentException if {@code distinctElements} is negative
+   */
+  public static <E> CompactHashMultiset<E> create(int distinctElements) {
+    return new CompactHashMultiset<E>(checkNonnegative(distinctElements, "distinctElements"));
+  }
+
+  /**
+   * Creates a new {@code CompactHashMultiset} containing the specified elements.
+   *
+   * <p>This implementation is highly efficient when {@code elements} is itself a
+   * {@link Multiset}.
+   *
+   * @param elements the elements that the multiset should contain
+   */
+  public static <E> CompactHashMultiset<E> create(Iterable<? extends E> elements) {
+    CompactHashMultiset<E> multiset = create(Multisets.inferDistinctElements(elements));
+    Iterables.addAll(multiset, elements);
+    return multiset;
+  }
+
+  // elements[i] is the distinct element in slot i, NULL_ELEMENT for null, or null if it is free
+  private transient Object[] elements;
+  // counts[i] is the positive count of elements[i]
+  private transient int[] counts;
+  // 'and' with a hash to get a table index
+  private transient int mask;
+  private transient int distinctElements;
+  // the number of distinct elements the table holds before it is doubled
+  private transient int resizeThreshold;
+  // a long, like in AbstractMapBasedMultiset, so that size() saturates instead of overflowing
+  private transient long size;
+  // incremented when an element is added to or removed from the table
+  private transient int modCount;
+
+  private CompactHashMultiset(int distinctElements) {
+    allocate(Hashing.openTableSize(distinctElements, MAX_LOAD_FACTOR));
+  }
+
+  private void allocate(int tableSize) {
+    elements = new Object[tableSize];
+    counts = new int[tableSize];
+    mask = tableSize - 1;
+    // the table always keeps a free slot, which ends every probe
+    resizeThreshold = Math.min((int) (tableSize * MAX_LOAD_FACTOR), tableSize - 1);
+  }
+
+  private static Object maskNull(@Nullable Object element) {
+    return (element == null) ? NULL_ELEMENT : element;
+  }
+
+  @SuppressWarnings("unchecked") // only elements of type E are stored
+  private static <E> E unmaskNull(Object element) {
+    return (element == NULL_ELEMENT) ? null : (E) element;
+  }
+
+  /** Returns the slot of the masked {@code element}, or -1 if it is absent. */
+  private int slotOf(Object element) {
+    Object[] elements = this.elements;
+    int mask = this.mask;
+    for (int slot = Hashing.smear(element.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+      Object candidate = elements[slot];
+      if (candidate == null) {
+        return -1;
+      } else if (candidate == element || candidate.equals(element)) {
+        return slot;
+      }
+    }
+  }
+
+  /** Places the masked {@code element}, which must be absent, in the table. */
+  private void insert(Object element, int count) {
+    if (distinctElements == resizeThreshold) {
+      checkState(elements.length < Ints.MAX_POWER_OF_TWO, "too many distinct elements");
+      resize();
+    }
+    int slot = freeSlot(elements, mask, element);
+    elements[slot] = element;
+    counts[slot] = count;
+    distinctElements++;
+    modCount++;
+  }
+
+  private static int freeSlot(Object[] elements, int mask, Object element) {
+    int slot = Hashing.smear(element.hashCode()) & mask;
+    while (elements[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void resize() {
+    Object[] oldElements = elements;
+    int[] oldCounts = counts;
+    allocate(oldElements.length * 2);
+    for (int i = 0; i < oldElements.length; i++) {
+      Object element = oldElements[i];
+      if (element != null) {
+        int slot = freeSlot(elements, mask, element);
+        elements[slot] = element;
+        counts[slot] = oldCounts[i];
+      }
+    }
+  }
+
+  /**
+   * Frees {@code slot} by moving back the elements which follow it in its cluster and were placed
+   * after it by a collision. Elements moved from the start of the table to its end, across the
+   * slot being freed, are added to {@code wrapped} if it is not null.
+   */
+  private void delete(int slot, @Nullable List<Object> wrapped) {
+    Object[] elements = this.elements;
+    int[] counts = this.counts;
+    int mask = this.mask;
+    while (true) {
+      int free = slot;
+      Object element;
+      while (true) {
+        slot = (slot + 1) & mask;
+        element = elements[slot];
+        if (element == null) {
+          elements[free] = null;
+          counts[free] = 0;
+          distinctElements--;
+          modCount++;
+          return;
+        }
+        int home = Hashing.smear(element.hashCode()) & mask;
+        // move the element back unless its home slot lies cyclically in (free, slot]
+        if ((free <= slot) ? (free >= home || home > slot) : (free >= home && home > slot)) {
+          break;
+        }
+      }
+      if (slot < free && wrapped != null) {
+        wrapped.add(element);
+      }
+      elements[free] = element;
+      counts[free] = counts[slot];
+    }
+  }
+
+  // Query Operations
+
+  @Override public int count(@Nullable Object element) {
+    int slot = slotOf(maskNull(element));
+    return (slot < 0) ? 0 : counts[slot];
+  }
+
+  @Override public int size() {
+    return Ints.saturatedCast(size);
+  }
+
+  @Override public boolean isEmpty() {
+    return distinctElements == 0;
+  }
+
+  @Override int distinctElements() {
+    return distinctElements;
+  }
+
+  // Modification Operations
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if the call would result in more than
+   *     {@link Integer#MAX_VALUE} occurrences of {@code element} in this
+   *     multiset.
+   */
+  @Override public int add(@Nullable E element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(
+        occurrences > 0, "occurrences cannot be negative: %s", occurrences);
+    Object masked = maskNull(element);
+    int slot = slotOf(masked);
+    int oldCount;
+    if (slot < 0) {
+      oldCount = 0;
+      insert(masked, occurrences);
+    } else {
+      oldCount = counts[slot];
+      long newCount = (long) oldCount + (long) occurrences;
+      checkArgument(newCount <= Integer.MAX_VALUE,
+          "too many occurrences: %s", newCount);
+      counts[slot] = (int) newCount;
+    }
+    size += occurrences;
+    return oldCount;
+  }
+
+  @Override public int remove(@Nullable Object element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(
+        occurrences > 0, "occurrences cannot be negative: %s", occurrences);
+    int slot = slotOf(maskNull(element));
+    if (slot < 0) {
+      return 0;
+    }
+    int oldCount = counts[slot];
+    if (oldCount > occurrences) {
+      counts[slot] = oldCount - occurrences;
+      size -= occurrences;
+    } else {
+      delete(slot, null);
+      size -= oldCount;
+    }
+    return oldCount;
+  }
+
+  @Override public int setCount(@Nullable E element, int count) {
+    checkNonnegative(count, "count");
+    Object masked = maskNull(element);
+    int slot = slotOf(masked);
+    int oldCount;
+    if (slot < 0) {
+      oldCount = 0;
+      if (count > 0) {
+        insert(masked, count);
+      }
+    } else {
+      oldCount = counts[slot];
+      if (count > 0) {
+        counts[slot] = count;
+      } else {
+        delete(slot, null);
+      }
+    }
+    size += (count - oldCount);
+    return oldCount;
+  }
+
+  @Override public void clear() {
+    Arrays.fill(elements, null);
+    Arrays.fill(counts, 0);
+    distinctElements = 0;
+    size = 0L;
+    modCount++;
+  }
+
+  // Views
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Invoking {@link Multiset.Entry#getCount} on an entry in the returned
+   * set always returns the current count of that element in the multiset, as
+   * opposed to the count at the time the entry was retrieved.
+   */
+  @Override
+  public Set<Multiset.Entry<E>> entrySet() {
+    return super.entrySet();
+  }
+
+  @Override
+  Iterator<Entry<E>> entryIterator() {
+    return new EntryIterator();
+  }
+
+  /**
+   * Visits the slots of the table from last to first. Removing the current entry then only moves
+   * entries which were already visited, except for those moved from the start of the table to its
+   * end, which are remembered and visited after the table.
+   */
+  private final class EntryIterator implements Iterator<Entry<E>> {
+    int nextSlot = previousOccupiedSlot(elements.length);
+    @Nullable List<Object> wrapped;
+    int wrappedIndex;
+    // the masked element of the last returned entry, or null once it has been removed
+    @Nullable Object current;
+    // the slot of current, or -1 if it was returned from wrapped
+    int currentSlot;
+    int expectedModCount = modCount;
+
+    private int previousOccupiedSlot(int slot) {
+      while (--slot >= 0 && elements[slot] == null) {}
+      return slot;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlot >= 0 || (wrapped != null && wrappedIndex < wrapped.size());
+    }
+
+    @Override
+    public Entry<E> next() {
+      checkForComodification();
+      if (nextSlot >= 0) {
+        currentSlot = nextSlot;
+        current = elements[currentSlot];
+        nextSlot = previousOccupiedSlot(currentSlot);
+      } else if (wrapped != null && wrappedIndex < wrapped.size()) {
+        currentSlot = -1;
+        current = wrapped.get(wrappedIndex++);
+      } else {
+        throw new NoSuchElementException();
+      }
+      return new SlotEntry(current, currentSlot);
+    }
+
+    @Override
+    public void remove() {
+      checkRemove(current != null);
+      checkForComodification();
+      if (currentSlot >= 0) {
+        if (wrapped == null) {
+          wrapped = Lists.newArrayList();
+        }
+        size -= counts[currentSlot];
+        delete(currentSlot, wrapped);
+        nextSlot = previousOccupiedSlot(currentSlot);
+      } else {
+        int slot = slotOf(current);
+        size -= counts[slot];
+        delete(slot, null);
+      }
+      current = null;
+      expectedModCount = modCount;
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * An entry whose count is read from the slot where its element was found, as long as the
+   * element is still there.
+   */
+  private final class SlotEntry extends Multisets.AbstractEntry<E> {
+    private final Object element;
+    private final int slot;
+
+    SlotEntry(Object element, int slot) {
+      this.element = element;
+      this.slot = slot;
+    }
+
+    @Override
+    public E getElement() {
+      return unmaskNull(element);
+    }
+
+    @Override
+    public int getCount() {
+      if (slot >= 0 && slot < elements.length && elements[slot] == element) {
+        return counts[slot];
+      }
+      int current = slotOf(element);
+      return (current < 0) ? 0 : counts[current];
+    }
+  }
+
+  /**
+   * @serialData the number of distinct elements, the first element, its count,
+   *     the second element, its count, and so on
+   */
+  @GwtIncompatible("java.io.ObjectOutputStream")
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    stream.defaultWriteObject();
+    Serialization.writeMultiset(this, stream);
+  }
+
+  @GwtIncompatible("java.io.ObjectInputStream")
+  private void readObject(ObjectInputStream stream)
+      throws IOException, ClassNotFoundException {
+    stream.defaultReadObject();
+    int distinctElements = Serialization.readCount(stream);
+    allocate(Hashing.openTableSize(distinctElements, MAX_LOAD_FACTOR));
+    Serialization.populateMultiset(this, stream, distinctElements);
+  }
+
+  @GwtIncompatible("Not needed in emulated source.")
+  private static final long serialVersionUID = 0;
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkElementIndex;
+import static net.tribe7.common.collect.CollectPreconditions.checkEntryNotNull;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * Implementation of {@link ImmutableMap} for larger maps, which stores its keys and values in a
+ * single array instead of in an entry object per mapping.
+ *
+ * <p>The keys and values are interleaved in insertion order in {@code alternatingKeysAndValues},
+ * and found through an open-addressed table of indices into that array, probed linearly. A map
+ * therefore costs two references and a few table slots per mapping, with no object headers, and a
+ * lookup reads consecutive table slots instead of following a chain of entries. Entries are only
+ * created when {@link #entrySet} is iterated; {@link #keySet} and {@link #values} read the array
+ * directly.
+ *
+ * <p>{@link ImmutableMap} uses this layout for maps of at least {@link #MINIMUM_SIZE} mappings.
+ * Smaller maps use {@link RegularImmutableMap}, which shares the entries of the builder and can
+ * iterate its entry set without allocating.
+ */
+@GwtCompatible(serializable = true)
+final class CompactImmutableMap<K, V> extends ImmutableMap<K, V> {
+
+  /** The number of mappings from which {@link ImmutableMap} prefers this layout. */
+  static final int MINIMUM_SIZE = 64;
+
+  /**
+   * Linear probing degrades quickly as the table fills up, so keep it at most half full; the table
+   * is still much smaller than the entry objects it replaces.
+   */
+  private static final double MAX_LOAD_FACTOR = 0.5;
+
+  // keys at even indices and values at odd indices, in insertion order
+  private final transient Object[] alternatingKeysAndValues;
+  // each slot holds one more than the index of a key in alternatingKeysAndValues, or 0 if empty
+  private final transient int[] table;
+  // 'and' with an int to get a table index
+  private final transient int mask;
+
+  /**
+   * Constructor for CompactImmutableMap that takes as input the first {@code size} entries of
+   * {@code theEntries}, and checks them for null keys, null values and duplicate keys.
+   */
+  CompactImmutableMap(int size, Entry<?, ?>[] theEntries) {
+    alternatingKeysAndValues = new Object[2 * size];
+    int tableSize = Hashing.openTableSize(size, MAX_LOAD_FACTOR);
+    table = new int[tableSize];
+    mask = tableSize - 1;
+    for (int entryIndex = 0; entryIndex < size; entryIndex++) {
+      Entry<?, ?> entry = theEntries[entryIndex];
+      Object key = entry.getKey();
+      Object value = entry.getValue();
+      checkEntryNotNull(key, value);
+      int keyIndex = 2 * entryIndex;
+      for (int h = Hashing.smear(key.hashCode()); ; h++) {
+        int tableIndex = h & mask;
+        int slot = table[tableIndex];
+        if (slot == 0) {
+          table[tableIndex] = keyIndex + 1;
+          break;
+        }
+        Object existingKey = alternatingKeysAndValues[slot - 1];
+        if (key.equals(existingKey)) {
+          checkNoConflict(false, "key", entry,
+              Maps.immutableEntry(existingKey, alternatingKeysAndValues[slot]));
+        }
+      }
+      alternatingKeysAndValues[keyIndex] = key;
+      alternatingKeysAndValues[keyIndex + 1] = value;
+    }
+  }
+
+  @Override public V get(@Nullable Object key) {
+    if (key == null) {
+      return null;
+    }
+    for (int h = Hashing.smear(key.hashCode()); ; h++) {
+      int slot = table[h & mask];
+      if (slot == 0) {
+        return null;
+      }
+      // see RegularImmutableMap.get for why hash codes are not compared first
+      if (key.equals(alternatingKeysAndValues[slot - 1])) {
+        @SuppressWarnings("unchecked") // values are only ever stored at odd indices
+        V value = (V) alternatingKeysAndValues[slot];
+        return value;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return alternatingKeysAndValues.length / 2;
+  }
+
+  @Override boolean isPartialView() {
+    return false;
+  }
+
+  @Override
+  ImmutableSet<Entry<K, V>> createEntrySet() {
+    return new EntrySet();
+  }
+
+  @Override
+  ImmutableSet<K> createKeySet() {
+    return new KeySet();
+  }
+
+  @Override
+  ImmutableCollection<V> createValues() {
+    return new KeysOrValuesAsList<V>(alternatingKeysAndValues, 1, size());
+  }
+
+  @SuppressWarnings("serial") // uses writeReplace(), not default serialization
+  private final class EntrySet extends ImmutableMapEntrySet<K, V> {
+    @Override ImmutableMap<K, V> map() {
+      return CompactImmutableMap.this;
+    }
+
+    @Override
+    public UnmodifiableIterator<Entry<K, V>> iterator() {
+      return asList().iterator();
+    }
+
+    @Override
+    ImmutableList<Entry<K, V>> createAsList() {
+      return new ImmutableAsList<Entry<K, V>>() {
+        @SuppressWarnings("unchecked") // keys and values are stored at even and odd indices
+        @Override
+        public Entry<K, V> get(int index) {
+          return Maps.immutableEntry((K) alternatingKeysAndValues[2 * index],
+              (V) alternatingKeysAndValues[2 * index + 1]);
+        }
+
+        @Override
+        ImmutableCollection<Entry<K, V>> delegateCollection() {
+          return EntrySet.this;
+        }
+      };
+    }
+  }
+
+  @SuppressWarnings("serial") // uses writeReplace(), not default serialization
+  private final class KeySet extends ImmutableSet<K> {
+    @Override
+    public int size() {
+      return CompactImmutableMap.this.size();
+    }
+
+    @Override
+    public UnmodifiableIterator<K> iterator() {
+      return asList().iterator();
+    }
+
+    @Override
+    public boolean contains(@Nullable Object object) {
+      return containsKey(object);
+    }
+
+    @Override
+    ImmutableList<K> createAsList() {
+      final ImmutableList<K> keys = new KeysOrValuesAsList<K>(alternatingKeysAndValues, 0, size());
+      return new ImmutableAsList<K>() {
+        @Override
+        public K get(int index) {
+          return keys.get(index);
+        }
+
+        @Override
+        ImmutableCollection<K> delegateCollection() {
+          return KeySet.this;
+        }
+      };
+    }
+
+    @Override
+    boolean isPartialView() {
+      return true;
+    }
+  }
+
+  /** A list view of the keys or the values of {@code alternatingKeysAndValues}. */
+  @SuppressWarnings("serial") // uses writeReplace(), not default serialization
+  private static final class KeysOrValuesAsList<E> extends ImmutableList<E> {
+    private final transient Object[] alternatingKeysAndValues;
+    private final transient int offset;
+    private final transient int size;
+
+    KeysOrValuesAsList(Object[] alternatingKeysAndValues, int offset, int size) {
+      this.alternatingKeysAndValues = alternatingKeysAndValues;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    @Override
+    public E get(int index) {
+      checkElementIndex(index, size);
+      @SuppressWarnings("unchecked") // keys and values are stored at even and odd indices
+      E element = (E) alternatingKeysAndValues[2 * index + offset];
+      return element;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    boolean isPartialView() {
+      return true;
+    }
+  }
+
+  // This class is never actually serialized directly, but we have to make the
+  // warning go away (and suppressing would suppress for all nested classes too)
+  private static final long serialVersionUID = 0;
+}
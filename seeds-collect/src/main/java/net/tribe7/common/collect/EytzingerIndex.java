@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.Comparator;
+import java.util.List;
+
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * A copy of a sorted list in Eytzinger order, in which binary searches find the position of a key
+ * while reading memory far more predictably than a search of the list itself. Used by
+ * {@link RegularImmutableSortedSet} when a {@linkplain ImmutableSortedSet.Builder#withSearchIndex
+ * search index} is requested.
+ *
+ * <p>The elements are stored as an implicit binary search tree laid out breadth first: the root is
+ * at index 1, and the children of index {@code k} are at {@code 2k} and {@code 2k + 1}. A search
+ * only ever moves to higher indices, and the first levels of the tree, which every search visits,
+ * share a few cache lines, where a binary search of the sorted list jumps between distant elements
+ * from its first step. Each node also records its position in the sorted list, so that a search
+ * can answer with a list index.
+ */
+@GwtCompatible
+final class EytzingerIndex {
+  // tree[k] is the node at index k; tree[0] is unused
+  private final Object[] tree;
+  // ranks[k] is the index in the sorted list of tree[k]
+  private final int[] ranks;
+
+  EytzingerIndex(List<?> sortedElements) {
+    int size = sortedElements.size();
+    tree = new Object[size + 1];
+    ranks = new int[size + 1];
+    fill(sortedElements, 0, 1);
+  }
+
+  /**
+   * Places the elements of the subtree rooted at {@code k}, which are the elements of the sorted
+   * list starting at {@code rank}, and returns the rank following them.
+   */
+  private int fill(List<?> sortedElements, int rank, int k) {
+    if (k < tree.length) {
+      rank = fill(sortedElements, rank, 2 * k);
+      tree[k] = sortedElements.get(rank);
+      ranks[k] = rank;
+      rank = fill(sortedElements, rank + 1, 2 * k + 1);
+    }
+    return rank;
+  }
+
+  int size() {
+    return tree.length - 1;
+  }
+
+  /**
+   * Returns the index in the sorted list of the least element greater than or equal to
+   * {@code key}, or strictly greater than {@code key} if not {@code inclusive}, or the size of the
+   * list if there is no such element.
+   *
+   * @throws ClassCastException if {@code comparator} cannot compare {@code key} to the elements
+   */
+  int ceilingIndex(Object key, Comparator<Object> comparator, boolean inclusive) {
+    Object[] tree = this.tree;
+    int k = 1;
+    while (k < tree.length) {
+      int cmp = comparator.compare(tree[k], key);
+      // descend right past elements which are too small, left otherwise
+      k = 2 * k + ((cmp < 0 || (cmp == 0 && !inclusive)) ? 1 : 0);
+    }
+    // the answer is the last node where the search went left: drop the right turns after it
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return (k == 0) ? size() : ranks[k];
+  }
+
+  /**
+   * Returns the index in the sorted list of an element equal to {@code key}, or the inverted
+   * insertion index of {@code key} if there is none, as {@link java.util.Collections#binarySearch}
+   * does.
+   *
+   * @throws ClassCastException if {@code comparator} cannot compare {@code key} to the elements
+   */
+  int indexOf(Object key, Comparator<Object> comparator) {
+    Object[] tree = this.tree;
+    int k = 1;
+    while (k < tree.length) {
+      int cmp = comparator.compare(tree[k], key);
+      if (cmp == 0) {
+        return ranks[k];
+      }
+      k = 2 * k + ((cmp < 0) ? 1 : 0);
+    }
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return -((k == 0) ? size() : ranks[k]) - 1;
+  }
+}
@@ -66,6 +66,20 @@ final class Hashing {
     return tableSize;
   }
   
+  /**
+   * Returns the smallest power of two table size in which {@code expectedEntries} occupy at most
+   * {@code loadFactor} of the table, as needed by open addressing. Unlike
+   * {@link #closedTableSize}, the result never exceeds the load factor below the maximum size.
+   */
+  static int openTableSize(int expectedEntries, double loadFactor) {
+    expectedEntries = Math.max(expectedEntries, 2);
+    int tableSize = Integer.highestOneBit(expectedEntries - 1) << 1;
+    while (tableSize > 0 && expectedEntries > loadFactor * tableSize) {
+      tableSize <<= 1;
+    }
+    return (tableSize > 0) ? tableSize : MAX_TABLE_SIZE;
+  }
+
   static boolean needsResizing(int size, int tableSize, double loadFactor) {
     return size > loadFactor * tableSize && tableSize < MAX_TABLE_SIZE;
   }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * An immutable {@link IntSet}. Its table is sized once, for the elements it holds.
+ */
+@Beta
+@GwtCompatible
+public final class ImmutableIntSet extends IntSet {
+  private static final ImmutableIntSet EMPTY = new ImmutableIntSet(0);
+
+  /** Returns the empty set. */
+  public static ImmutableIntSet of() {
+    return EMPTY;
+  }
+
+  /** Returns an immutable set containing the given elements, ignoring duplicates. */
+  public static ImmutableIntSet of(int... elements) {
+    if (elements.length == 0) {
+      return EMPTY;
+    }
+    ImmutableIntSet result = new ImmutableIntSet(elements.length);
+    for (int element : elements) {
+      result.addInternal(element);
+    }
+    return result;
+  }
+
+  /** Returns an immutable set with the same elements as {@code set}. */
+  public static ImmutableIntSet copyOf(IntSet set) {
+    if (set instanceof ImmutableIntSet) {
+      return (ImmutableIntSet) set;
+    }
+    if (set.isEmpty()) {
+      return EMPTY;
+    }
+    ImmutableIntSet result = new ImmutableIntSet(set.size());
+    for (IntSet.Cursor cursor = set.cursor(); cursor.advance(); ) {
+      result.addInternal(cursor.element());
+    }
+    return result;
+  }
+
+  /**
+   * Returns an immutable set containing the given elements, ignoring duplicates.
+   *
+   * @throws NullPointerException if any of {@code elements} is null
+   */
+  public static ImmutableIntSet copyOf(Iterable<? extends Integer> elements) {
+    ImmutableIntSet.Builder builder = builder();
+    for (Integer element : elements) {
+      builder.add(element);
+    }
+    return builder.build();
+  }
+
+  /** Returns a new builder. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private ImmutableIntSet(int expectedSize) {
+    super(expectedSize, false);
+  }
+
+  /**
+   * A builder for creating immutable {@code IntSet} instances. Duplicate elements are ignored.
+   */
+  public static final class Builder {
+    private final IntHashSet elements = IntHashSet.create();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableIntSet#builder}.
+     */
+    public Builder() {}
+
+    /** Adds {@code element} to the built set. */
+    public Builder add(int element) {
+      elements.add(element);
+      return this;
+    }
+
+    /** Adds each of {@code elements} to the built set. */
+    public Builder add(int... elements) {
+      for (int element : elements) {
+        this.elements.add(element);
+      }
+      return this;
+    }
+
+    /** Adds all of the elements of {@code set} to the built set. */
+    public Builder addAll(IntSet set) {
+      elements.addAll(set);
+      return this;
+    }
+
+    /** Returns a newly-created immutable set. */
+    public ImmutableIntSet build() {
+      return copyOf(elements);
+    }
+  }
+}
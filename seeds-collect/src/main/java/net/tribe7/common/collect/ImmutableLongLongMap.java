@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.Map;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * An immutable {@link LongLongMap}. Its table is sized once, for the mappings it holds.
+ */
+@Beta
+@GwtCompatible
+public final class ImmutableLongLongMap extends LongLongMap {
+  private static final ImmutableLongLongMap EMPTY = new ImmutableLongLongMap(0);
+
+  /** Returns the empty map. */
+  public static ImmutableLongLongMap of() {
+    return EMPTY;
+  }
+
+  /** Returns an immutable map with the same mappings as {@code map}. */
+  public static ImmutableLongLongMap copyOf(LongLongMap map) {
+    if (map instanceof ImmutableLongLongMap) {
+      return (ImmutableLongLongMap) map;
+    }
+    if (map.isEmpty()) {
+      return of();
+    }
+    ImmutableLongLongMap result = new ImmutableLongLongMap(map.size());
+    for (LongLongMap.Cursor cursor = map.cursor(); cursor.advance(); ) {
+      result.putInternal(cursor.key(), cursor.value());
+    }
+    return result;
+  }
+
+  /**
+   * Returns an immutable map with the same mappings as {@code map}.
+   *
+   * @throws NullPointerException if any key or value in {@code map} is null
+   */
+  public static ImmutableLongLongMap copyOf(
+      Map<? extends Long, ? extends Long> map) {
+    if (map.isEmpty()) {
+      return of();
+    }
+    ImmutableLongLongMap result = new ImmutableLongLongMap(map.size());
+    for (Map.Entry<? extends Long, ? extends Long> entry : map.entrySet()) {
+      result.putInternal(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /** Returns a new builder. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private ImmutableLongLongMap(int expectedSize) {
+    super(expectedSize, false);
+  }
+
+  /**
+   * A builder for creating immutable {@code LongLongMap} instances. If a key is put more than
+   * once, its last value is the one kept.
+   */
+  public static final class Builder {
+    private final LongLongHashMap mappings = LongLongHashMap.create();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableLongLongMap#builder}.
+     */
+    public Builder() {}
+
+    /** Associates {@code value} with {@code key} in the built map. */
+    public Builder put(long key, long value) {
+      mappings.put(key, value);
+      return this;
+    }
+
+    /** Associates all of the mappings of {@code map} in the built map. */
+    public Builder putAll(LongLongMap map) {
+      mappings.putAll(map);
+      return this;
+    }
+
+    /** Returns a newly-created immutable map. */
+    public ImmutableLongLongMap build() {
+      return copyOf(mappings);
+    }
+  }
+}
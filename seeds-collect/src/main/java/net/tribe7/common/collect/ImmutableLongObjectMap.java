@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.Map;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * An immutable {@link LongObjectMap}. Its table is sized once, for the mappings it holds.
+ */
+@Beta
+@GwtCompatible
+public final class ImmutableLongObjectMap<V> extends LongObjectMap<V> {
+  private static final ImmutableLongObjectMap<Object> EMPTY = new ImmutableLongObjectMap<Object>(0);
+
+  /** Returns the empty map. */
+  @SuppressWarnings("unchecked") // the empty map holds no values
+  public static <V> ImmutableLongObjectMap<V> of() {
+    return (ImmutableLongObjectMap<V>) (ImmutableLongObjectMap<?>) EMPTY;
+  }
+
+  /** Returns an immutable map with the same mappings as {@code map}. */
+  @SuppressWarnings("unchecked") // safe since an immutable map never accepts values
+  public static <V> ImmutableLongObjectMap<V> copyOf(LongObjectMap<? extends V> map) {
+    if (map instanceof ImmutableLongObjectMap) {
+      return (ImmutableLongObjectMap<V>) map;
+    }
+    if (map.isEmpty()) {
+      return of();
+    }
+    ImmutableLongObjectMap<V> result = new ImmutableLongObjectMap<V>(map.size());
+    for (LongObjectMap.Cursor<? extends V> cursor = map.cursor(); cursor.advance(); ) {
+      result.putInternal(cursor.key(), cursor.value());
+    }
+    return result;
+  }
+
+  /**
+   * Returns an immutable map with the same mappings as {@code map}.
+   *
+   * @throws NullPointerException if any key or value in {@code map} is null
+   */
+  public static <V> ImmutableLongObjectMap<V> copyOf(
+      Map<? extends Long, ? extends V> map) {
+    if (map.isEmpty()) {
+      return of();
+    }
+    ImmutableLongObjectMap<V> result = new ImmutableLongObjectMap<V>(map.size());
+    for (Map.Entry<? extends Long, ? extends V> entry : map.entrySet()) {
+      result.putInternal(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /** Returns a new builder. */
+  public static <V> Builder<V> builder() {
+    return new Builder<V>();
+  }
+
+  private ImmutableLongObjectMap(int expectedSize) {
+    super(expectedSize, false);
+  }
+
+  /**
+   * A builder for creating immutable {@code LongObjectMap} instances. If a key is put more than
+   * once, its last value is the one kept.
+   */
+  public static final class Builder<V> {
+    private final LongObjectHashMap<V> mappings = LongObjectHashMap.create();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableLongObjectMap#builder}.
+     */
+    public Builder() {}
+
+    /** Associates {@code value} with {@code key} in the built map. */
+    public Builder<V> put(long key, V value) {
+      mappings.put(key, value);
+      return this;
+    }
+
+    /** Associates all of the mappings of {@code map} in the built map. */
+    public Builder<V> putAll(LongObjectMap<? extends V> map) {
+      mappings.putAll(map);
+      return this;
+    }
+
+    /** Returns a newly-created immutable map. */
+    public ImmutableLongObjectMap<V> build() {
+      return copyOf(mappings);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * An immutable {@link LongSet}. Its table is sized once, for the elements it holds.
+ */
+@Beta
+@GwtCompatible
+public final class ImmutableLongSet extends LongSet {
+  private static final ImmutableLongSet EMPTY = new ImmutableLongSet(0);
+
+  /** Returns the empty set. */
+  public static ImmutableLongSet of() {
+    return EMPTY;
+  }
+
+  /** Returns an immutable set containing the given elements, ignoring duplicates. */
+  public static ImmutableLongSet of(long... elements) {
+    if (elements.length == 0) {
+      return EMPTY;
+    }
+    ImmutableLongSet result = new ImmutableLongSet(elements.length);
+    for (long element : elements) {
+      result.addInternal(element);
+    }
+    return result;
+  }
+
+  /** Returns an immutable set with the same elements as {@code set}. */
+  public static ImmutableLongSet copyOf(LongSet set) {
+    if (set instanceof ImmutableLongSet) {
+      return (ImmutableLongSet) set;
+    }
+    if (set.isEmpty()) {
+      return EMPTY;
+    }
+    ImmutableLongSet result = new ImmutableLongSet(set.size());
+    for (LongSet.Cursor cursor = set.cursor(); cursor.advance(); ) {
+      result.addInternal(cursor.element());
+    }
+    return result;
+  }
+
+  /**
+   * Returns an immutable set containing the given elements, ignoring duplicates.
+   *
+   * @throws NullPointerException if any of {@code elements} is null
+   */
+  public static ImmutableLongSet copyOf(Iterable<? extends Long> elements) {
+    ImmutableLongSet.Builder builder = builder();
+    for (Long element : elements) {
+      builder.add(element);
+    }
+    return builder.build();
+  }
+
+  /** Returns a new builder. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private ImmutableLongSet(int expectedSize) {
+    super(expectedSize, false);
+  }
+
+  /**
+   * A builder for creating immutable {@code LongSet} instances. Duplicate elements are ignored.
+   */
+  public static final class Builder {
+    private final LongHashSet elements = LongHashSet.create();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableLongSet#builder}.
+     */
+    public Builder() {}
+
+    /** Adds {@code element} to the built set. */
+    public Builder add(long element) {
+      elements.add(element);
+      return this;
+    }
+
+    /** Adds each of {@code elements} to the built set. */
+    public Builder add(long... elements) {
+      for (long element : elements) {
+        this.elements.add(element);
+      }
+      return this;
+    }
+
+    /** Adds all of the elements of {@code set} to the built set. */
+    public Builder addAll(LongSet set) {
+      elements.addAll(set);
+      return this;
+    }
+
+    /** Returns a newly-created immutable set. */
+    public ImmutableLongSet build() {
+      return copyOf(elements);
+    }
+  }
+}
@@ -251,7 +251,9 @@ public abstract class ImmutableMap<K, V> implements Map<K, V>, Serializable {
         case 1:
           return of(entries[0].getKey(), entries[0].getValue());
         default:
-          return new RegularImmutableMap<K, V>(size, entries);
+          return (size >= CompactImmutableMap.MINIMUM_SIZE)
+              ? new CompactImmutableMap<K, V>(size, entries)
+              : new RegularImmutableMap<K, V>(size, entries);
       }
     }
   }
@@ -291,7 +293,9 @@ public abstract class ImmutableMap<K, V> implements Map<K, V>, Serializable {
         Entry<K, V> onlyEntry = (Entry<K, V>) entries[0];
         return of(onlyEntry.getKey(), onlyEntry.getValue());
       default:
-        return new RegularImmutableMap<K, V>(entries);
+        return (entries.length >= CompactImmutableMap.MINIMUM_SIZE)
+            ? new CompactImmutableMap<K, V>(entries.length, entries)
+            : new RegularImmutableMap<K, V>(entries);
     }
   }
 
@@ -420,7 +424,11 @@ public abstract class ImmutableMap<K, V> implements Map<K, V>, Serializable {
   @Override
   public ImmutableCollection<V> values() {
     ImmutableCollection<V> result = values;
-    return (result == null) ? values = new ImmutableMapValues<K, V>(this) : result;
+    return (result == null) ? values = createValues() : result;
+  }
+
+  ImmutableCollection<V> createValues() {
+    return new ImmutableMapValues<K, V>(this);
   }
 
   // cached so that this.multimapView().inverse() only computes inverse once
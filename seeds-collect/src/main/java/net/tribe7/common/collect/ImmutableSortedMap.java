@@ -30,6 +30,7 @@ import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
+import net.tribe7.common.annotations.Beta;
 import net.tribe7.common.annotations.GwtCompatible;
 
 /**
@@ -353,6 +354,7 @@ public abstract class ImmutableSortedMap<K, V>
    */
   public static class Builder<K, V> extends ImmutableMap.Builder<K, V> {
     private final Comparator<? super K> comparator;
+    private boolean searchIndex;
 
     /**
      * Creates a new builder. The returned builder is equivalent to the builder
@@ -405,7 +407,25 @@ public abstract class ImmutableSortedMap<K, V>
      *     the comparator (which might be the keys' natural order)
      */
     @Override public ImmutableSortedMap<K, V> build() {
-      return fromEntries(comparator, false, size, entries);
+      ImmutableSortedMap<K, V> result = fromEntries(comparator, false, size, entries);
+      if (searchIndex && result instanceof RegularImmutableSortedMap) {
+        result = ((RegularImmutableSortedMap<K, V>) result).withSearchIndex();
+      }
+      return result;
+    }
+
+    /**
+     * Specifies that the maps built by this builder should search their keys with an index, as
+     * described by {@link ImmutableSortedSet.Builder#withSearchIndex}. This speeds up
+     * {@code get}, {@code floorKey}, {@code ceilingKey} and the other navigation methods, and the
+     * bounds of submaps, of large maps.
+     *
+     * @return this {@code Builder} object
+     */
+    @Beta
+    public Builder<K, V> withSearchIndex() {
+      this.searchIndex = true;
+      return this;
     }
   }
 
@@ -33,6 +33,7 @@ import java.util.SortedSet;
 
 import javax.annotation.Nullable;
 
+import net.tribe7.common.annotations.Beta;
 import net.tribe7.common.annotations.GwtCompatible;
 import net.tribe7.common.annotations.GwtIncompatible;
 
@@ -489,6 +490,7 @@ public abstract class ImmutableSortedSet<E> extends ImmutableSortedSetFauxveride
    */
   public static final class Builder<E> extends ImmutableSet.Builder<E> {
     private final Comparator<? super E> comparator;
+    private boolean searchIndex;
 
     /**
      * Creates a new builder. The returned builder is equivalent to the builder
@@ -561,8 +563,31 @@ public abstract class ImmutableSortedSet<E> extends ImmutableSortedSetFauxveride
       E[] contentsArray = (E[]) contents;
       ImmutableSortedSet<E> result = construct(comparator, size, contentsArray);
       this.size = result.size(); // we eliminated duplicates in-place in contentsArray
+      if (searchIndex && result instanceof RegularImmutableSortedSet) {
+        result = ((RegularImmutableSortedSet<E>) result).withSearchIndex();
+      }
       return result;
     }
+
+    /**
+     * Specifies that the sets built by this builder should search their elements with an index,
+     * built together with the sorted array of the elements. The index holds the elements a
+     * second time, in an order which lets a search read the same few cache lines for its first
+     * steps, and so speeds up {@code contains}, {@code floor}, {@code ceiling}, {@code lower},
+     * {@code higher} and the bounds of subsets of large sets, whose binary searches would
+     * otherwise miss the processor caches at almost every step. It costs a reference and an
+     * {@code int} per element.
+     *
+     * <p>Subsets of an indexed set share its index; descending sets and deserialized copies
+     * are not indexed.
+     *
+     * @return this {@code Builder} object
+     */
+    @Beta
+    public Builder<E> withSearchIndex() {
+      this.searchIndex = true;
+      return this;
+    }
   }
 
   int unsafeCompare(Object a, Object b) {
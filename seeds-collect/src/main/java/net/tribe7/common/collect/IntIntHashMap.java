@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.collect.CollectPreconditions.checkNonnegative;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * A mutable {@link IntIntMap}, whose table doubles in size as mappings are added.
+ */
+@Beta
+@GwtCompatible
+public final class IntIntHashMap extends IntIntMap {
+  /** Creates a new, empty map. */
+  public static IntIntHashMap create() {
+    return new IntIntHashMap(0);
+  }
+
+  /**
+   * Creates a new, empty map which holds {@code expectedSize} mappings without growing.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static IntIntHashMap createWithExpectedSize(int expectedSize) {
+    return new IntIntHashMap(checkNonnegative(expectedSize, "expectedSize"));
+  }
+
+  /** Creates a new map with the same mappings as {@code map}. */
+  public static IntIntHashMap create(IntIntMap map) {
+    IntIntHashMap result = new IntIntHashMap(map.size());
+    result.putAll(map);
+    return result;
+  }
+
+  private IntIntHashMap(int expectedSize) {
+    super(expectedSize, true);
+  }
+
+  /**
+   * Associates {@code value} with {@code key}, replacing any previous value of {@code key}.
+   *
+   * @return {@code true} if this map contained no mapping for {@code key}
+   */
+  public boolean put(int key, int value) {
+    return putInternal(key, value);
+  }
+
+  /**
+   * Adds {@code increment} to the value of {@code key}, which is taken to be {@code 0} if there is
+   * no mapping for it.
+   *
+   * @return the new value of {@code key}
+   */
+  public int addTo(int key, int increment) {
+    int value = getOrDefault(key, 0) + increment;
+    putInternal(key, value);
+    return value;
+  }
+
+  /**
+   * Copies all of the mappings of {@code map} to this map, replacing the previous values of their
+   * keys.
+   */
+  public void putAll(IntIntMap map) {
+    for (IntIntMap.Cursor cursor = map.cursor(); cursor.advance(); ) {
+      putInternal(cursor.key(), cursor.value());
+    }
+  }
+
+  /**
+   * Removes the mapping for {@code key}, if there is one.
+   *
+   * @return {@code true} if this map contained a mapping for {@code key}
+   */
+  public boolean remove(int key) {
+    return removeInternal(key);
+  }
+
+  /** Removes all of the mappings of this map. The size of its table is unchanged. */
+  public void clear() {
+    clearInternal();
+  }
+}
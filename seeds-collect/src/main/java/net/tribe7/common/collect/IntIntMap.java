@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkState;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.primitives.Ints;
+
+/**
+ * A map from {@code int} keys to {@code int} values, which stores its keys and values in arrays
+ * instead of as boxed objects in an entry per mapping. It is either an {@link IntIntHashMap},
+ * which can be modified, or an {@link ImmutableIntIntMap}.
+ *
+ * <p>The keys are placed in an open-addressed table, probed linearly and at most three quarters
+ * full; the key {@code 0} marks free slots, so a mapping of the key {@code 0} is held apart from
+ * the table. Lookups, and updates which don't grow the table, therefore never allocate. The
+ * mappings are iterated without allocating through a {@link Cursor}, in no particular order:
+ *
+ * <pre>   {@code
+ *
+ *   for (IntIntMap.Cursor cursor = map.cursor(); cursor.advance(); ) {
+ *     use(cursor.key(), cursor.value());
+ *   }}</pre>
+ *
+ * <p>{@link #asMap} returns a view of the map as a {@code java.util.Map}, for code which needs
+ * one; it shares the arrays of this map, but boxes each key and value it returns.
+ *
+ * <p>Like {@link java.util.HashMap}, a mutable map is not thread-safe, and the behavior of a
+ * cursor or iterator is undefined if the map is modified while it is in use.
+ */
+@Beta
+@GwtCompatible
+public abstract class IntIntMap {
+  /** The maximum fraction of the table occupied by keys, above which the table is doubled. */
+  static final double MAX_LOAD_FACTOR = 0.75;
+
+  // keys[i] is the key in slot i, or 0 if the slot is free
+  int[] keys;
+  // values[i] is the value of keys[i]
+  int[] values;
+  // 'and' with a hash to get a table index
+  int mask;
+  // the number of keys in the table, excluding the key 0
+  int assigned;
+  // the number of keys the table holds before it is doubled
+  int resizeThreshold;
+  boolean hasZeroKey;
+  int zeroValue;
+
+  private final boolean mutable;
+  private transient Map<Integer, Integer> mapView;
+
+  IntIntMap(int expectedSize, boolean mutable) {
+    this.mutable = mutable;
+    allocate(Hashing.openTableSize(expectedSize, MAX_LOAD_FACTOR));
+  }
+
+  private void allocate(int tableSize) {
+    keys = new int[tableSize];
+    values = new int[tableSize];
+    mask = tableSize - 1;
+    // the table always keeps a free slot, which ends every probe
+    resizeThreshold = Math.min((int) (tableSize * MAX_LOAD_FACTOR), tableSize - 1);
+  }
+
+  static int hash(int key) {
+    return Hashing.smear(key);
+  }
+
+  /** Returns the number of mappings in this map. */
+  public int size() {
+    return hasZeroKey ? assigned + 1 : assigned;
+  }
+
+  /** Returns {@code true} if this map contains no mappings. */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /** Returns {@code true} if this map contains a mapping for {@code key}. */
+  public boolean containsKey(int key) {
+    return (key == 0) ? hasZeroKey : slotOf(key) >= 0;
+  }
+
+  /**
+   * Returns the value to which {@code key} is mapped, or {@code defaultValue} if there is no
+   * mapping for it.
+   */
+  public int getOrDefault(int key, int defaultValue) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : defaultValue;
+    }
+    int slot = slotOf(key);
+    return (slot < 0) ? defaultValue : values[slot];
+  }
+
+  /** Returns the slot of {@code key}, which must not be {@code 0}, or -1 if it is absent. */
+  int slotOf(int key) {
+    int[] keys = this.keys;
+    int mask = this.mask;
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      int candidate = keys[slot];
+      if (candidate == key) {
+        return slot;
+      } else if (candidate == 0) {
+        return -1;
+      }
+    }
+  }
+
+  /** Associates {@code value} with {@code key}, and returns whether {@code key} was absent. */
+  boolean putInternal(int key, int value) {
+    if (key == 0) {
+      boolean added = !hasZeroKey;
+      hasZeroKey = true;
+      zeroValue = value;
+      return added;
+    }
+    int[] keys = this.keys;
+    int mask = this.mask;
+    int slot = hash(key) & mask;
+    for (int candidate; (candidate = keys[slot]) != 0; slot = (slot + 1) & mask) {
+      if (candidate == key) {
+        values[slot] = value;
+        return false;
+      }
+    }
+    if (assigned == resizeThreshold) {
+      resize();
+      return putInternal(key, value);
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    assigned++;
+    return true;
+  }
+
+  /** Removes the mapping for {@code key}, and returns whether there was one. */
+  boolean removeInternal(int key) {
+    if (key == 0) {
+      boolean removed = hasZeroKey;
+      hasZeroKey = false;
+      zeroValue = 0;
+      return removed;
+    }
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return false;
+    }
+    shiftKeys(slot);
+    assigned--;
+    return true;
+  }
+
+  void clearInternal() {
+    Arrays.fill(keys, 0);
+    assigned = 0;
+    hasZeroKey = false;
+    zeroValue = 0;
+  }
+
+  /**
+   * Frees {@code slot} by moving back the keys which follow it in its cluster and were placed
+   * after it by a collision, so that probes never need to skip removed keys.
+   */
+  private void shiftKeys(int slot) {
+    int[] keys = this.keys;
+    int[] values = this.values;
+    int mask = this.mask;
+    while (true) {
+      int free = slot;
+      int key;
+      while (true) {
+        slot = (slot + 1) & mask;
+        key = keys[slot];
+        if (key == 0) {
+          keys[free] = 0;
+          values[free] = 0;
+          return;
+        }
+        int home = hash(key) & mask;
+        // move the key back unless its home slot lies cyclically in (free, slot]
+        if ((free <= slot) ? (free >= home || home > slot) : (free >= home && home > slot)) {
+          break;
+        }
+      }
+      keys[free] = key;
+      values[free] = values[slot];
+    }
+  }
+
+  private void resize() {
+    checkState(keys.length < Ints.MAX_POWER_OF_TWO, "too many keys");
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    int[] keys = this.keys;
+    int[] values = this.values;
+    int mask = this.mask;
+    for (int i = 0; i < oldKeys.length; i++) {
+      int key = oldKeys[i];
+      if (key != 0) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Returns a new cursor positioned before the first mapping of this map. Iterating with a cursor
+   * reads the keys and values directly, without boxing them.
+   */
+  public Cursor cursor() {
+    return new TableCursor();
+  }
+
+  /**
+   * A position in the mappings of a {@link IntIntMap}. A cursor starts before the first
+   * mapping; each call to {@link #advance} moves it to the next one.
+   */
+  public interface Cursor {
+    /**
+     * Moves to the next mapping, and returns {@code true}, or returns {@code false} if there are
+     * no more mappings.
+     */
+    boolean advance();
+
+    /**
+     * Returns the key of the current mapping.
+     *
+     * @throws IllegalStateException if the cursor is not positioned on a mapping
+     */
+    int key();
+
+    /**
+     * Returns the value of the current mapping.
+     *
+     * @throws IllegalStateException if the cursor is not positioned on a mapping
+     */
+    int value();
+  }
+
+  private final class TableCursor implements Cursor {
+    // BEFORE_FIRST, then ZERO_KEY if the key 0 is present, then the slots of the table
+    int slot = BEFORE_FIRST;
+
+    @Override
+    public boolean advance() {
+      if (slot == BEFORE_FIRST) {
+        slot = ZERO_KEY;
+        if (hasZeroKey) {
+          return true;
+        }
+      }
+      int[] keys = IntIntMap.this.keys;
+      while (++slot < keys.length) {
+        if (keys[slot] != 0) {
+          return true;
+        }
+      }
+      slot = keys.length;
+      return false;
+    }
+
+    @Override
+    public int key() {
+      checkPosition();
+      return (slot == ZERO_KEY) ? 0 : keys[slot];
+    }
+
+    @Override
+    public int value() {
+      checkPosition();
+      return (slot == ZERO_KEY) ? zeroValue : values[slot];
+    }
+
+    private void checkPosition() {
+      checkState(slot != BEFORE_FIRST && slot < keys.length, "no current mapping");
+    }
+  }
+
+  private static final int BEFORE_FIRST = -2;
+  private static final int ZERO_KEY = -1;
+
+  /**
+   * Returns a view of this map as a {@code Map}, which shares the storage of this map and boxes
+   * its keys and values. The view of a mutable map supports {@code put}, {@code remove} and
+   * {@code clear}, but its iterators do not support removal; the view of an immutable map is
+   * unmodifiable.
+   */
+  public Map<Integer, Integer> asMap() {
+    Map<Integer, Integer> result = mapView;
+    return (result == null) ? mapView = new MapView() : result;
+  }
+
+  private final class MapView extends AbstractMap<Integer, Integer> {
+    @Override
+    public int size() {
+      return IntIntMap.this.size();
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+      return (key instanceof Integer) && IntIntMap.this.containsKey((Integer) key);
+    }
+
+    @Override
+    public Integer get(@Nullable Object key) {
+      if (key instanceof Integer) {
+        int k = (Integer) key;
+        if (k == 0) {
+          return hasZeroKey ? zeroValue : null;
+        }
+        int slot = slotOf(k);
+        return (slot < 0) ? null : values[slot];
+      }
+      return null;
+    }
+
+    @Override
+    public Integer put(Integer key, Integer value) {
+      checkMutable();
+      Integer previous = get(key);
+      putInternal(key, value);
+      return previous;
+    }
+
+    @Override
+    public Integer remove(@Nullable Object key) {
+      checkMutable();
+      Integer previous = get(key);
+      if (previous != null) {
+        removeInternal((Integer) key);
+      }
+      return previous;
+    }
+
+    @Override
+    public void clear() {
+      checkMutable();
+      clearInternal();
+    }
+
+    private void checkMutable() {
+      if (!mutable) {
+        throw new UnsupportedOperationException();
+      }
+    }
+
+    @Override
+    public Set<Entry<Integer, Integer>> entrySet() {
+      return new AbstractSet<Entry<Integer, Integer>>() {
+        @Override
+        public int size() {
+          return IntIntMap.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<Integer, Integer>> iterator() {
+          final Cursor cursor = cursor();
+          return new AbstractIterator<Entry<Integer, Integer>>() {
+            @Override
+            protected Entry<Integer, Integer> computeNext() {
+              return cursor.advance()
+                  ? Maps.<Integer, Integer>immutableEntry(cursor.key(), cursor.value())
+                  : endOfData();
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns {@code true} if {@code object} is a {@code IntIntMap} with the same mappings as
+   * this map. Use {@link #asMap} to compare with a {@code java.util.Map}.
+   */
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof IntIntMap)) {
+      return false;
+    }
+    IntIntMap that = (IntIntMap) object;
+    if (size() != that.size()) {
+      return false;
+    }
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      int key = cursor.key();
+      if (!that.containsKey(key) || that.getOrDefault(key, 0) != cursor.value()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the hash code of the {@linkplain #asMap map view} of this map. */
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      hashCode += cursor.key() ^ cursor.value();
+    }
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = Collections2.newStringBuilderForCollection(size()).append('{');
+    boolean first = true;
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(cursor.key()).append('=').append(cursor.value());
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.collect.CollectPreconditions.checkNonnegative;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * A mutable {@link LongSet}, whose table doubles in size as elements are added.
+ */
+@Beta
+@GwtCompatible
+public final class LongHashSet extends LongSet {
+  /** Creates a new, empty set. */
+  public static LongHashSet create() {
+    return new LongHashSet(0);
+  }
+
+  /**
+   * Creates a new, empty set which holds {@code expectedSize} elements without growing.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static LongHashSet createWithExpectedSize(int expectedSize) {
+    return new LongHashSet(checkNonnegative(expectedSize, "expectedSize"));
+  }
+
+  /** Creates a new set with the same elements as {@code set}. */
+  public static LongHashSet create(LongSet set) {
+    LongHashSet result = new LongHashSet(set.size());
+    result.addAll(set);
+    return result;
+  }
+
+  private LongHashSet(int expectedSize) {
+    super(expectedSize, true);
+  }
+
+  /**
+   * Adds {@code element} to this set, if it is not already present.
+   *
+   * @return {@code true} if this set did not already contain {@code element}
+   */
+  public boolean add(long element) {
+    return addInternal(element);
+  }
+
+  /**
+   * Adds all of the elements of {@code set} to this set.
+   *
+   * @return {@code true} if this set changed as a result
+   */
+  public boolean addAll(LongSet set) {
+    boolean changed = false;
+    for (LongSet.Cursor cursor = set.cursor(); cursor.advance(); ) {
+      changed |= addInternal(cursor.element());
+    }
+    return changed;
+  }
+
+  /**
+   * Removes {@code element} from this set, if it is present.
+   *
+   * @return {@code true} if this set contained {@code element}
+   */
+  public boolean remove(long element) {
+    return removeInternal(element);
+  }
+
+  /** Removes all of the elements of this set. The size of its table is unchanged. */
+  public void clear() {
+    clearInternal();
+  }
+}
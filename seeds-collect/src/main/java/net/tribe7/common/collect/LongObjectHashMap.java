@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.collect.CollectPreconditions.checkNonnegative;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+
+/**
+ * A mutable {@link LongObjectMap}, whose table doubles in size as mappings are added.
+ */
+@Beta
+@GwtCompatible
+public final class LongObjectHashMap<V> extends LongObjectMap<V> {
+  /** Creates a new, empty map. */
+  public static <V> LongObjectHashMap<V> create() {
+    return new LongObjectHashMap<V>(0);
+  }
+
+  /**
+   * Creates a new, empty map which holds {@code expectedSize} mappings without growing.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static <V> LongObjectHashMap<V> createWithExpectedSize(int expectedSize) {
+    return new LongObjectHashMap<V>(checkNonnegative(expectedSize, "expectedSize"));
+  }
+
+  /** Creates a new map with the same mappings as {@code map}. */
+  public static <V> LongObjectHashMap<V> create(LongObjectMap<? extends V> map) {
+    LongObjectHashMap<V> result = new LongObjectHashMap<V>(map.size());
+    result.putAll(map);
+    return result;
+  }
+
+  private LongObjectHashMap(int expectedSize) {
+    super(expectedSize, true);
+  }
+
+  /**
+   * Associates {@code value} with {@code key}, replacing any previous value of {@code key}.
+   *
+   * @return {@code true} if this map contained no mapping for {@code key}
+   * @throws NullPointerException if {@code value} is null
+   */
+  public boolean put(long key, V value) {
+    return putInternal(key, value);
+  }
+
+  /**
+   * Copies all of the mappings of {@code map} to this map, replacing the previous values of their
+   * keys.
+   */
+  public void putAll(LongObjectMap<? extends V> map) {
+    for (LongObjectMap.Cursor<? extends V> cursor = map.cursor(); cursor.advance(); ) {
+      putInternal(cursor.key(), cursor.value());
+    }
+  }
+
+  /**
+   * Removes the mapping for {@code key}, if there is one.
+   *
+   * @return {@code true} if this map contained a mapping for {@code key}
+   */
+  public boolean remove(long key) {
+    return removeInternal(key);
+  }
+
+  /** Removes all of the mappings of this map. The size of its table is unchanged. */
+  public void clear() {
+    clearInternal();
+  }
+}
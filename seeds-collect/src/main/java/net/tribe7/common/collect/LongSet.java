@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static net.tribe7.common.base.Preconditions.checkState;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import net.tribe7.common.annotations.Beta;
+import net.tribe7.common.annotations.GwtCompatible;
+import net.tribe7.common.primitives.Ints;
+import net.tribe7.common.primitives.Longs;
+
+/**
+ * A set of {@code long} values, which stores its elements in an array instead of as boxed
+ * objects in an entry per element. It is either an {@link LongHashSet}, which can be modified,
+ * or an {@link ImmutableLongSet}.
+ *
+ * <p>The elements are placed in an open-addressed table, probed linearly and at most three
+ * quarters full; the value {@code 0} marks free slots, so the element {@code 0} is recorded apart
+ * from the table. Lookups, and updates which don't grow the table, therefore never allocate. The
+ * elements are iterated without allocating through a {@link Cursor}, in no particular order:
+ *
+ * <pre>   {@code
+ *
+ *   for (LongSet.Cursor cursor = set.cursor(); cursor.advance(); ) {
+ *     use(cursor.element());
+ *   }}</pre>
+ *
+ * <p>{@link #asSet} returns a view of the set as a {@code java.util.Set}, for code which needs
+ * one; it shares the array of this set, but boxes each element it returns.
+ *
+ * <p>Like {@link java.util.HashSet}, a mutable set is not thread-safe, and the behavior of a
+ * cursor or iterator is undefined if the set is modified while it is in use.
+ */
+@Beta
+@GwtCompatible
+public abstract class LongSet {
+  /** The maximum fraction of the table occupied by elements, above which the table is doubled. */
+  static final double MAX_LOAD_FACTOR = 0.75;
+
+  // elements[i] is the element in slot i, or 0 if the slot is free
+  long[] elements;
+  // 'and' with a hash to get a table index
+  int mask;
+  // the number of elements in the table, excluding the element 0
+  int assigned;
+  // the number of elements the table holds before it is doubled
+  int resizeThreshold;
+  boolean containsZero;
+
+  private final boolean mutable;
+  private transient Set<Long> setView;
+
+  LongSet(int expectedSize, boolean mutable) {
+    this.mutable = mutable;
+    allocate(Hashing.openTableSize(expectedSize, MAX_LOAD_FACTOR));
+  }
+
+  private void allocate(int tableSize) {
+    elements = new long[tableSize];
+    mask = tableSize - 1;
+    // the table always keeps a free slot, which ends every probe
+    resizeThreshold = Math.min((int) (tableSize * MAX_LOAD_FACTOR), tableSize - 1);
+  }
+
+  static int hash(long element) {
+    return Hashing.smear(Longs.hashCode(element));
+  }
+
+  /** Returns the number of elements in this set. */
+  public int size() {
+    return containsZero ? assigned + 1 : assigned;
+  }
+
+  /** Returns {@code true} if this set contains no elements. */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /** Returns {@code true} if this set contains {@code element}. */
+  public boolean contains(long element) {
+    return (element == 0) ? containsZero : slotOf(element) >= 0;
+  }
+
+  /** Returns the slot of {@code element}, which must not be {@code 0}, or -1 if it is absent. */
+  int slotOf(long element) {
+    long[] elements = this.elements;
+    int mask = this.mask;
+    for (int slot = hash(element) & mask; ; slot = (slot + 1) & mask) {
+      long candidate = elements[slot];
+      if (candidate == element) {
+        return slot;
+      } else if (candidate == 0) {
+        return -1;
+      }
+    }
+  }
+
+  /** Adds {@code element}, and returns whether it was absent. */
+  boolean addInternal(long element) {
+    if (element == 0) {
+      boolean added = !containsZero;
+      containsZero = true;
+      return added;
+    }
+    long[] elements = this.elements;
+    int mask = this.mask;
+    int slot = hash(element) & mask;
+    for (long candidate; (candidate = elements[slot]) != 0; slot = (slot + 1) & mask) {
+      if (candidate == element) {
+        return false;
+      }
+    }
+    if (assigned == resizeThreshold) {
+      resize();
+      return addInternal(element);
+    }
+    elements[slot] = element;
+    assigned++;
+    return true;
+  }
+
+  /** Removes {@code element}, and returns whether it was present. */
+  boolean removeInternal(long element) {
+    if (element == 0) {
+      boolean removed = containsZero;
+      containsZero = false;
+      return removed;
+    }
+    int slot = slotOf(element);
+    if (slot < 0) {
+      return false;
+    }
+    shiftKeys(slot);
+    assigned--;
+    return true;
+  }
+
+  void clearInternal() {
+    Arrays.fill(elements, 0);
+    assigned = 0;
+    containsZero = false;
+  }
+
+  /**
+   * Frees {@code slot} by moving back the elements which follow it in its cluster and were placed
+   * after it by a collision, so that probes never need to skip removed elements.
+   */
+  private void shiftKeys(int slot) {
+    long[] elements = this.elements;
+    int mask = this.mask;
+    while (true) {
+      int free = slot;
+      long element;
+      while (true) {
+        slot = (slot + 1) & mask;
+        element = elements[slot];
+        if (element == 0) {
+          elements[free] = 0;
+          return;
+        }
+        int home = hash(element) & mask;
+        // move the element back unless its home slot lies cyclically in (free, slot]
+        if ((free <= slot) ? (free >= home || home > slot) : (free >= home && home > slot)) {
+          break;
+        }
+      }
+      elements[free] = element;
+    }
+  }
+
+  private void resize() {
+    checkState(elements.length < Ints.MAX_POWER_OF_TWO, "too many elements");
+    long[] oldElements = elements;
+    allocate(oldElements.length * 2);
+    long[] elements = this.elements;
+    int mask = this.mask;
+    for (long element : oldElements) {
+      if (element != 0) {
+        int slot = hash(element) & mask;
+        while (elements[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        elements[slot] = element;
+      }
+    }
+  }
+
+  /**
+   * Returns a new cursor positioned before the first element of this set. Iterating with a cursor
+   * reads the elements directly, without boxing them.
+   */
+  public Cursor cursor() {
+    return new TableCursor();
+  }
+
+  /**
+   * A position in the elements of a {@link LongSet}. A cursor starts before the first element;
+   * each call to {@link #advance} moves it to the next one.
+   */
+  public interface Cursor {
+    /**
+     * Moves to the next element, and returns {@code true}, or returns {@code false} if there are
+     * no more elements.
+     */
+    boolean advance();
+
+    /**
+     * Returns the current element.
+     *
+     * @throws IllegalStateException if the cursor is not positioned on an element
+     */
+    long element();
+  }
+
+  private final class TableCursor implements Cursor {
+    // BEFORE_FIRST, then ZERO if the element 0 is present, then the slots of the table
+    int slot = BEFORE_FIRST;
+
+    @Override
+    public boolean advance() {
+      if (slot == BEFORE_FIRST) {
+        slot = ZERO;
+        if (containsZero) {
+          return true;
+        }
+      }
+      long[] elements = LongSet.this.elements;
+      while (++slot < elements.length) {
+        if (elements[slot] != 0) {
+          return true;
+        }
+      }
+      slot = elements.length;
+      return false;
+    }
+
+    @Override
+    public long element() {
+      checkState(slot != BEFORE_FIRST && slot < elements.length, "no current element");
+      return (slot == ZERO) ? 0 : elements[slot];
+    }
+  }
+
+  private static final int BEFORE_FIRST = -2;
+  private static final int ZERO = -1;
+
+  /**
+   * Returns a view of this set as a {@code Set}, which shares the storage of this set and boxes
+   * its elements. The view of a mutable set supports {@code add}, {@code remove} and
+   * {@code clear}, but its iterators do not support removal; the view of an immutable set is
+   * unmodifiable.
+   */
+  public Set<Long> asSet() {
+    Set<Long> result = setView;
+    return (result == null) ? setView = new SetView() : result;
+  }
+
+  private final class SetView extends AbstractSet<Long> {
+    @Override
+    public int size() {
+      return LongSet.this.size();
+    }
+
+    @Override
+    public boolean contains(@Nullable Object object) {
+      return (object instanceof Long) && LongSet.this.contains((Long) object);
+    }
+
+    @Override
+    public boolean add(Long element) {
+      checkMutable();
+      return addInternal(element);
+    }
+
+    @Override
+    public boolean remove(@Nullable Object object) {
+      checkMutable();
+      return (object instanceof Long) && removeInternal((Long) object);
+    }
+
+    @Override
+    public void clear() {
+      checkMutable();
+      clearInternal();
+    }
+
+    private void checkMutable() {
+      if (!mutable) {
+        throw new UnsupportedOperationException();
+      }
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+      final Cursor cursor = cursor();
+      return new AbstractIterator<Long>() {
+        @Override
+        protected Long computeNext() {
+          // not a conditional expression, which would unbox the null returned by endOfData
+          if (cursor.advance()) {
+            return cursor.element();
+          }
+          return endOfData();
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns {@code true} if {@code object} is a {@code LongSet} with the same elements as this
+   * set. Use {@link #asSet} to compare with a {@code java.util.Set}.
+   */
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LongSet)) {
+      return false;
+    }
+    LongSet that = (LongSet) object;
+    if (size() != that.size()) {
+      return false;
+    }
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      if (!that.contains(cursor.element())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the hash code of the {@linkplain #asSet set view} of this set. */
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      hashCode += Longs.hashCode(cursor.element());
+    }
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = Collections2.newStringBuilderForCollection(size()).append('[');
+    boolean first = true;
+    for (Cursor cursor = cursor(); cursor.advance(); ) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(cursor.element());
+    }
+    return builder.append(']').toString();
+  }
+}
@@ -46,6 +46,11 @@ final class RegularImmutableSortedMap<K, V> extends ImmutableSortedMap<K, V> {
     this.valueList = valueList;
   }
 
+  /** Returns a map with the same entries as this one, which searches its keys with an index. */
+  RegularImmutableSortedMap<K, V> withSearchIndex() {
+    return new RegularImmutableSortedMap<K, V>(keySet.withSearchIndex(), valueList);
+  }
+
   @Override
   ImmutableSet<Entry<K, V>> createEntrySet() {
     return new EntrySet();
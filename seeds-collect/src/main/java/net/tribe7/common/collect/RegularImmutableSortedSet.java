@@ -49,13 +49,38 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
 
   private transient final ImmutableList<E> elements;
 
+  /**
+   * An index of {@code elements}, or of a list of which {@code elements} is a sublist, used
+   * instead of binary searches if {@linkplain ImmutableSortedSet.Builder#withSearchIndex
+   * requested}.
+   */
+  @Nullable private transient final EytzingerIndex searchIndex;
+
+  /** The index in the list indexed by {@link #searchIndex} of the first element of this set. */
+  private transient final int searchIndexOffset;
+
   RegularImmutableSortedSet(
       ImmutableList<E> elements, Comparator<? super E> comparator) {
+    this(elements, comparator, null, 0);
+  }
+
+  RegularImmutableSortedSet(ImmutableList<E> elements, Comparator<? super E> comparator,
+      @Nullable EytzingerIndex searchIndex, int searchIndexOffset) {
     super(comparator);
     this.elements = elements;
+    this.searchIndex = searchIndex;
+    this.searchIndexOffset = searchIndexOffset;
     checkArgument(!elements.isEmpty());
   }
 
+  /** Returns a set with the same elements as this one, which searches them with an index. */
+  RegularImmutableSortedSet<E> withSearchIndex() {
+    return (searchIndex != null)
+        ? this
+        : new RegularImmutableSortedSet<E>(
+            elements, comparator, new EytzingerIndex(elements), 0);
+  }
+
   @Override public UnmodifiableIterator<E> iterator() {
     return elements.iterator();
   }
@@ -134,9 +159,24 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
   }
 
   private int unsafeBinarySearch(Object key) throws ClassCastException {
+    if (searchIndex != null) {
+      // callers only need the sign when the key is absent
+      int index = searchIndex.indexOf(key, unsafeComparator()) - searchIndexOffset;
+      return (index >= 0 && index < size()) ? index : -1;
+    }
     return Collections.binarySearch(elements, key, unsafeComparator());
   }
 
+  /**
+   * Returns the index of the least element of this set greater than or equal to {@code key}, or
+   * strictly greater if not {@code inclusive}, or the size of this set if there is none. Must only
+   * be called if this set has a search index.
+   */
+  private int indexedCeilingIndex(Object key, boolean inclusive) throws ClassCastException {
+    int index = searchIndex.ceilingIndex(key, unsafeComparator(), inclusive) - searchIndexOffset;
+    return Math.max(0, Math.min(index, size()));
+  }
+
   @Override boolean isPartialView() {
     return elements.isPartialView();
   }
@@ -221,6 +261,9 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
   }
 
   int headIndex(E toElement, boolean inclusive) {
+    if (searchIndex != null) {
+      return indexedCeilingIndex(checkNotNull(toElement), !inclusive);
+    }
     return SortedLists.binarySearch(
         elements, checkNotNull(toElement), comparator(),
         inclusive ? FIRST_AFTER : FIRST_PRESENT, NEXT_HIGHER);
@@ -239,6 +282,9 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
   }
 
   int tailIndex(E fromElement, boolean inclusive) {
+    if (searchIndex != null) {
+      return indexedCeilingIndex(checkNotNull(fromElement), inclusive);
+    }
     return SortedLists.binarySearch(
         elements,
         checkNotNull(fromElement),
@@ -258,8 +304,8 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
     if (newFromIndex == 0 && newToIndex == size()) {
       return this;
     } else if (newFromIndex < newToIndex) {
-      return new RegularImmutableSortedSet<E>(
-          elements.subList(newFromIndex, newToIndex), comparator);
+      return new RegularImmutableSortedSet<E>(elements.subList(newFromIndex, newToIndex),
+          comparator, searchIndex, searchIndexOffset + newFromIndex);
     } else {
       return emptySet(comparator);
     }
@@ -271,8 +317,10 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
     }
     int position;
     try {
-      position = SortedLists.binarySearch(elements, target, unsafeComparator(),
-          ANY_PRESENT, INVERTED_INSERTION_INDEX);
+      position = (searchIndex != null)
+          ? unsafeBinarySearch(target)
+          : SortedLists.binarySearch(elements, target, unsafeComparator(),
+              ANY_PRESENT, INVERTED_INSERTION_INDEX);
     } catch (ClassCastException e) {
       return -1;
     }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.tribe7.common.collect.CompactHashMultisetTest.reserialize;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import net.tribe7.common.collect.CompactConcurrentHashMultiset.Segment;
+import net.tribe7.common.collect.CompactConcurrentHashMultiset.Table;
+
+/**
+ * Unit tests for {@link CompactConcurrentHashMultiset}.
+ */
+public class CompactConcurrentHashMultisetTest extends TestCase {
+
+  /** Returns {@code count} distinct integers which fall in the same segment as zero. */
+  static List<Integer> sameSegment(int count) {
+    int segment = Hashing.smear(0) >>> 28;
+    List<Integer> elements = Lists.newArrayList();
+    for (int i = 0; elements.size() < count; i++) {
+      if (Hashing.smear(i) >>> 28 == segment) {
+        elements.add(i);
+      }
+    }
+    return elements;
+  }
+
+  public void testRandomOperations_matchHashMultiset() {
+    Random random = new Random(0x5DEECE66DL);
+    // half of them in one segment, so that its table is rebuilt often
+    List<Integer> domain = sameSegment(40);
+    domain.addAll(ContiguousSet.create(Range.closedOpen(-40, 0), DiscreteDomain.integers()));
+
+    for (int trial = 0; trial < 20; trial++) {
+      CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+      HashMultiset<Integer> expected = HashMultiset.create();
+      for (int i = 0; i < 2000; i++) {
+        Integer element = domain.get(random.nextInt(domain.size()));
+        int count = random.nextInt(4);
+        switch (random.nextInt(7)) {
+          case 0:
+          case 1:
+            assertEquals(expected.add(element, count), multiset.add(element, count));
+            break;
+          case 2:
+            assertEquals(expected.remove(element, count), multiset.remove(element, count));
+            break;
+          case 3:
+            assertEquals(expected.setCount(element, count), multiset.setCount(element, count));
+            break;
+          case 4:
+            int oldCount = random.nextBoolean() ? expected.count(element) : random.nextInt(4);
+            assertEquals(expected.setCount(element, oldCount, count),
+                multiset.setCount(element, oldCount, count));
+            break;
+          case 5:
+            assertEquals(expected.elementSet().remove(element),
+                multiset.elementSet().remove(element));
+            break;
+          default:
+            if (random.nextInt(100) == 0) {
+              expected.clear();
+              multiset.clear();
+            }
+            break;
+        }
+        assertEquals(expected.count(element), multiset.count(element));
+        assertEquals(expected.size(), multiset.size());
+      }
+      assertEquals(expected, multiset);
+      assertEquals(expected.entrySet(), multiset.entrySet());
+      assertEquals(expected.elementSet(), multiset.elementSet());
+      assertEquals(expected.hashCode(), multiset.hashCode());
+      assertEquals(expected.isEmpty(), multiset.isEmpty());
+    }
+  }
+
+  public void testEntrySetIteratorRemove() {
+    CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+    HashMultiset<Integer> expected = HashMultiset.create();
+    for (Integer element : sameSegment(30)) {
+      multiset.add(element, element % 3 + 1);
+      expected.add(element, element % 3 + 1);
+    }
+
+    int visited = 0;
+    for (Iterator<Multiset.Entry<Integer>> entries = multiset.entrySet().iterator();
+        entries.hasNext(); visited++) {
+      Multiset.Entry<Integer> entry = entries.next();
+      assertEquals(expected.count(entry.getElement()), entry.getCount());
+      if (entry.getElement() % 2 == 0) {
+        entries.remove();
+        expected.setCount(entry.getElement(), 0);
+      }
+    }
+    assertEquals(30, visited);
+    assertEquals(expected, multiset);
+
+    // removed elements keep their slots until the next rebuild, but are skipped
+    int remaining = 0;
+    for (Multiset.Entry<Integer> entry : multiset.entrySet()) {
+      assertTrue(entry.getCount() > 0);
+      remaining++;
+    }
+    assertEquals(expected.elementSet().size(), remaining);
+  }
+
+  public void testElementSet_removalWritesThrough() {
+    CompactConcurrentHashMultiset<String> multiset = CompactConcurrentHashMultiset.create();
+    multiset.add("a", 2);
+    multiset.add("b", 3);
+    multiset.add("c");
+
+    assertTrue(multiset.elementSet().remove("a"));
+    assertFalse(multiset.elementSet().remove("a"));
+    assertEquals(4, multiset.size());
+
+    for (Iterator<String> elements = multiset.elementSet().iterator(); elements.hasNext(); ) {
+      if (elements.next().equals("b")) {
+        elements.remove();
+      }
+    }
+    assertEquals(0, multiset.count("b"));
+    assertEquals(ImmutableSet.of("c"), multiset.elementSet());
+
+    multiset.add("d", 2);
+    assertTrue(multiset.elementSet().retainAll(ImmutableSet.of("d")));
+    assertEquals(ImmutableMultiset.of("d", "d"), multiset);
+  }
+
+  public void testNullElement() {
+    CompactConcurrentHashMultiset<String> multiset = CompactConcurrentHashMultiset.create();
+    assertEquals(0, multiset.count(null));
+    assertFalse(multiset.contains(null));
+    assertEquals(0, multiset.remove(null, 1));
+    try {
+      multiset.add(null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+    try {
+      multiset.setCount(null, 1);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+    try {
+      multiset.setCount(null, 0, 1);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+    assertTrue(multiset.isEmpty());
+  }
+
+  public void testSerialization() throws Exception {
+    CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+    for (Integer element : sameSegment(50)) {
+      multiset.add(element, element % 5 + 1);
+    }
+    // a removed element, whose slot is kept until the next rebuild, isn't written
+    multiset.setCount(sameSegment(1).get(0), 0);
+
+    CompactConcurrentHashMultiset<Integer> copy = reserialize(multiset);
+    assertEquals(multiset, copy);
+    assertEquals(multiset.size(), copy.size());
+    assertEquals(49, copy.elementSet().size());
+
+    copy.add(-1);
+    assertEquals(1, copy.count(-1));
+    assertEquals(0, multiset.count(-1));
+  }
+
+  public void testClear_freesTables() {
+    CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+    List<Integer> elements = sameSegment(100);
+    multiset.addAll(elements);
+    multiset.clear();
+    assertTrue(multiset.isEmpty());
+    assertEquals(0, multiset.count(elements.get(0)));
+
+    multiset.addAll(elements);
+    assertEquals(HashMultiset.create(elements), multiset);
+  }
+
+  /**
+   * Operations which find their element in a table frozen by a rebuild wait for the rebuild,
+   * then apply to the new table.
+   */
+  public void testOperations_waitForRebuildOfFrozenTable() throws Exception {
+    final CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+    final List<Integer> elements = sameSegment(5);
+    for (Integer element : elements) {
+      multiset.add(element, 10);
+    }
+    Segment segment = multiset.segmentFor(Hashing.smear(elements.get(0)));
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = Lists.newArrayList();
+    segment.lock();
+    Table frozen = segment.table;
+    Table rebuilt = segment.rebuild(true);
+    try {
+      // publish the frozen table again, as seen by operations which read it before the rebuild
+      segment.table = frozen;
+
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          assertEquals(10, multiset.add(elements.get(0), 2));
+        }
+      }));
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          assertEquals(10, multiset.remove(elements.get(1), 3));
+        }
+      }));
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          assertEquals(10, multiset.setCount(elements.get(2), 4));
+        }
+      }));
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          assertTrue(multiset.setCount(elements.get(3), 10, 5));
+        }
+      }));
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          assertEquals(10, multiset.count(elements.get(4)));
+        }
+      }));
+      for (Thread thread : threads) {
+        awaitQueued(segment, thread);
+      }
+    } finally {
+      segment.table = rebuilt;
+      segment.unlock();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertEquals(ImmutableList.of(12, 7, 4, 5, 10), counts(multiset, elements));
+  }
+
+  public void testConcurrentAddRemove_acrossRebuilds() throws Exception {
+    final int threadCount = 4;
+    final int iterations = 3000;
+    // all in one segment, so that the churn of distinct elements rebuilds the shared table
+    final List<Integer> elements = sameSegment(8 + threadCount * iterations);
+    final List<Integer> shared = elements.subList(0, 8);
+    final CompactConcurrentHashMultiset<Integer> multiset = CompactConcurrentHashMultiset.create();
+    final int[][] added = new int[threadCount][shared.size()];
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    List<Thread> threads = Lists.newArrayList();
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      threads.add(start(failure, new Runnable() {
+        @Override public void run() {
+          try {
+            startSignal.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          Random random = new Random(thread);
+          int[] counts = added[thread];
+          List<Integer> own = elements.subList(
+              shared.size() + thread * iterations, shared.size() + (thread + 1) * iterations);
+          for (int i = 0; i < iterations; i++) {
+            int index = random.nextInt(shared.size());
+            if (counts[index] > 0 && random.nextBoolean()) {
+              // this thread's own occurrences are still there, so one is always removed
+              assertTrue(multiset.remove(shared.get(index), 1) > 0);
+              counts[index]--;
+            } else {
+              multiset.add(shared.get(index));
+              counts[index]++;
+            }
+            // keeps every tenth element, and frees the others' slots for the next rebuild
+            Integer element = own.get(i);
+            multiset.add(element, 2);
+            if (i % 10 != 0) {
+              assertEquals(2, multiset.setCount(element, 0));
+            }
+          }
+        }
+      }));
+    }
+    startSignal.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+
+    HashMultiset<Integer> expected = HashMultiset.create();
+    for (int t = 0; t < threadCount; t++) {
+      for (int i = 0; i < shared.size(); i++) {
+        expected.add(shared.get(i), added[t][i]);
+      }
+      for (int i = 0; i < iterations; i += 10) {
+        expected.add(elements.get(shared.size() + t * iterations + i), 2);
+      }
+    }
+    assertEquals(expected, multiset);
+    assertEquals(expected.size(), multiset.size());
+  }
+
+  private static List<Integer> counts(Multiset<Integer> multiset, List<Integer> elements) {
+    List<Integer> counts = Lists.newArrayList();
+    for (Integer element : elements) {
+      counts.add(multiset.count(element));
+    }
+    return counts;
+  }
+
+  /** Waits until {@code thread} is queued for the lock of {@code segment}. */
+  private static void awaitQueued(Segment segment, Thread thread) throws InterruptedException {
+    long deadline = System.nanoTime() + SECONDS.toNanos(10);
+    while (!segment.hasQueuedThread(thread)) {
+      assertTrue("thread wasn't queued for the segment lock", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  /** Starts a thread running {@code task}, which records its first failure in {@code failure}. */
+  private static Thread start(final AtomicReference<Throwable> failure, final Runnable task) {
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          task.run();
+        } catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CompactHashMultiset}.
+ */
+public class CompactHashMultisetTest extends TestCase {
+
+  /** An element with a chosen hash code, so that tests can choose its home slot. */
+  static final class Key implements Serializable {
+    final int id;
+    final int hashCode;
+
+    Key(int id, int hashCode) {
+      this.id = id;
+      this.hashCode = hashCode;
+    }
+
+    @Override public boolean equals(@Nullable Object object) {
+      return (object instanceof Key) && ((Key) object).id == id;
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+
+    @Override public String toString() {
+      return "Key" + id;
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  /** Returns {@code count} keys whose home slot in a table of {@code tableSize} is {@code home}. */
+  static List<Key> keysWithHome(int home, int tableSize, int count, int firstId) {
+    List<Key> keys = Lists.newArrayList();
+    for (int hashCode = 0; keys.size() < count; hashCode++) {
+      if ((Hashing.smear(hashCode) & (tableSize - 1)) == home) {
+        keys.add(new Key(firstId + keys.size(), hashCode));
+      }
+    }
+    return keys;
+  }
+
+  /** Returns a deserialized copy of {@code object}. */
+  @SuppressWarnings("unchecked")
+  static <T> T reserialize(T object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return (T) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+  }
+
+  public void testRandomOperations_matchHashMultiset() {
+    Random random = new Random(0x5DEECE66DL);
+    // keys crowded around the end of small tables, so that clusters wrap around
+    List<Key> domain = Lists.newArrayList();
+    for (int home = 12; home < 20; home++) {
+      domain.addAll(keysWithHome(home & 15, 16, 4, domain.size()));
+    }
+    domain.add(null);
+
+    for (int trial = 0; trial < 20; trial++) {
+      CompactHashMultiset<Key> multiset = CompactHashMultiset.create();
+      HashMultiset<Key> expected = HashMultiset.create();
+      for (int i = 0; i < 2000; i++) {
+        Key key = domain.get(random.nextInt(domain.size()));
+        int count = random.nextInt(4);
+        switch (random.nextInt(6)) {
+          case 0:
+          case 1:
+            assertEquals(expected.add(key, count), multiset.add(key, count));
+            break;
+          case 2:
+            assertEquals(expected.remove(key, count), multiset.remove(key, count));
+            break;
+          case 3:
+            assertEquals(expected.setCount(key, count), multiset.setCount(key, count));
+            break;
+          case 4:
+            int oldCount = random.nextBoolean() ? expected.count(key) : random.nextInt(4);
+            assertEquals(expected.setCount(key, oldCount, count),
+                multiset.setCount(key, oldCount, count));
+            break;
+          default:
+            assertEquals(expected.elementSet().remove(key), multiset.elementSet().remove(key));
+            break;
+        }
+        assertEquals(expected.count(key), multiset.count(key));
+        assertEquals(expected.size(), multiset.size());
+        assertEquals(expected.elementSet().size(), multiset.elementSet().size());
+      }
+      assertEquals(expected, multiset);
+      assertEquals(expected.entrySet(), multiset.entrySet());
+      assertEquals(expected.elementSet(), multiset.elementSet());
+      assertEquals(expected.hashCode(), multiset.hashCode());
+      assertEquals(expected, HashMultiset.create(multiset));
+    }
+  }
+
+  public void testEntrySetIteratorRemove_clusterWrapsAroundEndOfTable() {
+    // the iterator visits slots from last to first, so it returns these in reverse order
+    List<Key> keys = keysWithHome(15, 16, 3, 0);
+    CompactHashMultiset<Key> multiset = CompactHashMultiset.create(12);
+    for (int i = 0; i < keys.size(); i++) {
+      multiset.add(keys.get(i), i + 1);
+    }
+
+    // removing the first key, in the last slot, moves the others back across the wrap
+    Iterator<Multiset.Entry<Key>> entries = multiset.entrySet().iterator();
+    Multiset.Entry<Key> entry = entries.next();
+    assertEquals(keys.get(0), entry.getElement());
+    assertEquals(1, entry.getCount());
+    entries.remove();
+    assertEquals(0, entry.getCount());
+
+    List<Key> remaining = Lists.newArrayList();
+    while (entries.hasNext()) {
+      entry = entries.next();
+      remaining.add(entry.getElement());
+      assertEquals(keys.indexOf(entry.getElement()) + 1, entry.getCount());
+    }
+    assertEquals(ImmutableSet.copyOf(keys.subList(1, 3)), ImmutableSet.copyOf(remaining));
+    assertEquals(2, remaining.size());
+    assertEquals(5, multiset.size());
+  }
+
+  public void testEntrySetIteratorRemove_visitsEachEntryOnce() {
+    Random random = new Random(0x5DEECE66DL);
+    // hash codes with homes in the last and first slots of the table
+    int[] hashCodes = new int[7];
+    for (int i = 0; i < hashCodes.length; i++) {
+      hashCodes[i] = keysWithHome((12 + i) & 15, 16, 1, 0).get(0).hashCode;
+    }
+
+    for (int trial = 0; trial < 1000; trial++) {
+      CompactHashMultiset<Key> multiset = CompactHashMultiset.create(12);
+      HashMultiset<Key> expected = HashMultiset.create();
+      for (int i = 0, n = 1 + random.nextInt(12); i < n; i++) {
+        Key key = new Key(i, hashCodes[random.nextInt(hashCodes.length)]);
+        int count = 1 + random.nextInt(3);
+        multiset.add(key, count);
+        expected.add(key, count);
+      }
+      ImmutableSet<Key> present = ImmutableSet.copyOf(expected.elementSet());
+
+      Multiset<Key> visited = HashMultiset.create();
+      for (Iterator<Multiset.Entry<Key>> entries = multiset.entrySet().iterator();
+          entries.hasNext(); ) {
+        Multiset.Entry<Key> entry = entries.next();
+        visited.add(entry.getElement());
+        assertEquals(expected.count(entry.getElement()), entry.getCount());
+        if (random.nextBoolean()) {
+          entries.remove();
+          expected.setCount(entry.getElement(), 0);
+        }
+      }
+      assertEquals(present, visited.elementSet());
+      assertEquals(present.size(), visited.size());
+      assertEquals(expected, multiset);
+      assertEquals(expected.size(), multiset.size());
+    }
+  }
+
+  public void testIteratorRemove_removesOneOccurrence() {
+    CompactHashMultiset<String> multiset = CompactHashMultiset.create();
+    multiset.add("a", 2);
+    multiset.add("b");
+    boolean removed = false;
+    for (Iterator<String> elements = multiset.iterator(); elements.hasNext(); ) {
+      if (elements.next().equals("a") && !removed) {
+        elements.remove();
+        removed = true;
+      }
+    }
+    assertTrue(removed);
+    assertEquals(1, multiset.count("a"));
+    assertEquals(1, multiset.count("b"));
+    assertEquals(2, multiset.size());
+  }
+
+  public void testElementSet_removalWritesThrough() {
+    CompactHashMultiset<String> multiset = CompactHashMultiset.create();
+    multiset.add("a", 2);
+    multiset.add("b", 3);
+    multiset.add("c");
+
+    assertTrue(multiset.elementSet().remove("a"));
+    assertFalse(multiset.elementSet().remove("a"));
+    assertEquals(4, multiset.size());
+
+    for (Iterator<String> elements = multiset.elementSet().iterator(); elements.hasNext(); ) {
+      if (elements.next().equals("b")) {
+        elements.remove();
+      }
+    }
+    assertEquals(0, multiset.count("b"));
+    assertEquals(ImmutableSet.of("c"), multiset.elementSet());
+
+    multiset.add("d", 2);
+    assertTrue(multiset.elementSet().retainAll(ImmutableSet.of("d")));
+    assertEquals(ImmutableMultiset.of("d", "d"), multiset);
+  }
+
+  public void testEntry_countIsLive() {
+    CompactHashMultiset<String> multiset = CompactHashMultiset.create();
+    multiset.add("a", 2);
+    Multiset.Entry<String> entry = Iterables.getOnlyElement(multiset.entrySet());
+    multiset.add("a", 3);
+    assertEquals(5, entry.getCount());
+
+    // still found after the table has been resized
+    for (int i = 0; i < 100; i++) {
+      multiset.add("x" + i);
+    }
+    assertEquals(5, entry.getCount());
+    multiset.remove("a", 5);
+    assertEquals(0, entry.getCount());
+  }
+
+  public void testEntrySetIterator_failsFast() {
+    CompactHashMultiset<String> multiset = CompactHashMultiset.create();
+    multiset.add("a");
+    multiset.add("b");
+    Iterator<Multiset.Entry<String>> entries = multiset.entrySet().iterator();
+    entries.next();
+    multiset.add("c");
+    try {
+      entries.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {
+    }
+  }
+
+  public void testEntrySetIterator_removeTwiceFails() {
+    CompactHashMultiset<String> multiset = CompactHashMultiset.create();
+    multiset.add("a");
+    Iterator<Multiset.Entry<String>> entries = multiset.entrySet().iterator();
+    entries.next();
+    entries.remove();
+    try {
+      entries.remove();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertTrue(multiset.isEmpty());
+  }
+
+  public void testNullElement() {
+    // null shares its home slot with this key
+    Key collision = keysWithHome(Hashing.smear(0) & 15, 16, 1, 0).get(0);
+    CompactHashMultiset<Key> multiset = CompactHashMultiset.create(12);
+    assertEquals(0, multiset.count(null));
+    assertFalse(multiset.contains(null));
+
+    multiset.add(collision);
+    assertEquals(0, multiset.add(null, 2));
+    assertEquals(2, multiset.count(null));
+    assertTrue(multiset.contains(null));
+    assertTrue(multiset.elementSet().contains(null));
+    assertEquals(3, multiset.size());
+
+    int nulls = 0;
+    for (Multiset.Entry<Key> entry : multiset.entrySet()) {
+      if (entry.getElement() == null) {
+        assertEquals(2, entry.getCount());
+        nulls++;
+      }
+    }
+    assertEquals(1, nulls);
+
+    assertEquals(2, multiset.remove(null, 1));
+    assertEquals(1, multiset.setCount(null, 0));
+    assertFalse(multiset.contains(null));
+    assertEquals(1, multiset.count(collision));
+    assertTrue(multiset.setCount(null, 0, 3));
+    assertEquals(3, multiset.count(null));
+  }
+
+  public void testSerialization() throws Exception {
+    CompactHashMultiset<Key> multiset = CompactHashMultiset.create();
+    for (Key key : keysWithHome(15, 16, 20, 0)) {
+      multiset.add(key, key.id + 1);
+    }
+    multiset.add(null, 7);
+
+    CompactHashMultiset<Key> copy = reserialize(multiset);
+    assertEquals(multiset, copy);
+    assertEquals(multiset.size(), copy.size());
+    assertEquals(7, copy.count(null));
+
+    // the copy is usable, and independent of the original
+    copy.add(new Key(100, 0));
+    assertEquals(multiset.size() + 1, copy.size());
+    assertEquals(0, multiset.count(new Key(100, 0)));
+    assertEquals(CompactHashMultiset.create(), reserialize(CompactHashMultiset.create()));
+  }
+}
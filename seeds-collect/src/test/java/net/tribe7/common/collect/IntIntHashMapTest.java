@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link IntIntHashMap} and {@link ImmutableIntIntMap}.
+ */
+public class IntIntHashMapTest extends TestCase {
+
+  public void testZeroKey() {
+    IntIntHashMap map = IntIntHashMap.create();
+    assertFalse(map.containsKey(0));
+    assertEquals(-1, map.getOrDefault(0, -1));
+
+    assertTrue(map.put(0, 5));
+    assertFalse(map.put(0, 6));
+    assertTrue(map.containsKey(0));
+    assertEquals(6, map.getOrDefault(0, -1));
+    assertEquals(1, map.size());
+    assertEquals(Integer.valueOf(6), map.asMap().get(0));
+
+    IntIntMap.Cursor cursor = map.cursor();
+    assertTrue(cursor.advance());
+    assertEquals(0, cursor.key());
+    assertEquals(6, cursor.value());
+    assertFalse(cursor.advance());
+
+    assertTrue(map.remove(0));
+    assertFalse(map.remove(0));
+    assertFalse(map.containsKey(0));
+    assertTrue(map.isEmpty());
+  }
+
+  public void testRemove_clusterWrapsAroundEndOfTable() {
+    IntIntHashMap map = IntIntHashMap.createWithExpectedSize(8);
+    int lastSlot = map.mask;
+    int[] keys = keysWithHomeSlot(lastSlot, 3, map.mask);
+    for (int key : keys) {
+      map.put(key, -key);
+    }
+    // the second and third keys were placed at the start of the table
+    assertEquals(keys[0], map.keys[lastSlot]);
+    assertEquals(keys[1], map.keys[0]);
+    assertEquals(keys[2], map.keys[1]);
+
+    assertTrue(map.remove(keys[0]));
+    assertEquals(keys[1], map.keys[lastSlot]);
+    assertEquals(keys[2], map.keys[0]);
+    assertEquals(0, map.keys[1]);
+    assertEquals(-keys[1], map.getOrDefault(keys[1], 0));
+    assertEquals(-keys[2], map.getOrDefault(keys[2], 0));
+
+    assertTrue(map.remove(keys[2]));
+    assertEquals(-keys[1], map.getOrDefault(keys[1], 0));
+    assertTrue(map.remove(keys[1]));
+    assertTrue(map.isEmpty());
+  }
+
+  public void testAsMap_sharesStorage() {
+    IntIntHashMap map = IntIntHashMap.create();
+    Map<Integer, Integer> view = map.asMap();
+    map.put(1, 10);
+    assertEquals(Integer.valueOf(10), view.get(1));
+    assertNull(view.put(2, 20));
+    assertEquals(20, map.getOrDefault(2, 0));
+    assertEquals(Integer.valueOf(10), view.remove(1));
+    assertFalse(map.containsKey(1));
+    view.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  public void testEquals_agreesWithHashMap() {
+    IntIntHashMap map = IntIntHashMap.create();
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for (int i = -50; i < 50; i++) {
+      map.put(i * 7, i);
+      expected.put(i * 7, i);
+    }
+    assertEquals(expected, map.asMap());
+    assertEquals(map.asMap(), expected);
+    assertEquals(expected.hashCode(), map.asMap().hashCode());
+    assertEquals(expected.hashCode(), map.hashCode());
+
+    ImmutableIntIntMap copy = ImmutableIntIntMap.copyOf(map);
+    assertEquals(map, copy);
+    assertEquals(copy, map);
+    assertEquals(map.hashCode(), copy.hashCode());
+    assertEquals(expected, copy.asMap());
+
+    map.put(0, 1);
+    assertFalse(map.equals(copy));
+    assertFalse(expected.equals(map.asMap()));
+  }
+
+  /** Returns {@code count} keys whose home slot is {@code slot} in a table with {@code mask}. */
+  static int[] keysWithHomeSlot(int slot, int count, int mask) {
+    int[] keys = new int[count];
+    int found = 0;
+    for (int key = 1; found < count; key++) {
+      if ((IntIntMap.hash(key) & mask) == slot) {
+        keys[found++] = key;
+      }
+    }
+    return keys;
+  }
+}
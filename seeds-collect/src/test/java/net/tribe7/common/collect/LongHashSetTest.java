@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LongHashSet} and {@link ImmutableLongSet}.
+ */
+public class LongHashSetTest extends TestCase {
+
+  public void testZeroElement() {
+    LongHashSet set = LongHashSet.create();
+    assertFalse(set.contains(0L));
+    assertTrue(set.add(0L));
+    assertFalse(set.add(0L));
+    assertTrue(set.contains(0L));
+    assertTrue(set.asSet().contains(0L));
+    assertEquals(1, set.size());
+
+    LongSet.Cursor cursor = set.cursor();
+    assertTrue(cursor.advance());
+    assertEquals(0L, cursor.element());
+    assertFalse(cursor.advance());
+
+    assertTrue(set.remove(0L));
+    assertFalse(set.contains(0L));
+    assertTrue(set.isEmpty());
+  }
+
+  public void testRemove_clusterWrapsAroundEndOfTable() {
+    LongHashSet set = LongHashSet.createWithExpectedSize(8);
+    int lastSlot = set.mask;
+    long[] elements = new long[3];
+    int found = 0;
+    for (long element = 1; found < elements.length; element++) {
+      if ((LongSet.hash(element) & set.mask) == lastSlot) {
+        elements[found++] = element;
+      }
+    }
+    for (long element : elements) {
+      set.add(element);
+    }
+    assertEquals(elements[1], set.elements[0]);
+
+    assertTrue(set.remove(elements[0]));
+    assertEquals(elements[1], set.elements[lastSlot]);
+    assertEquals(elements[2], set.elements[0]);
+    assertEquals(0L, set.elements[1]);
+    assertTrue(set.contains(elements[1]));
+    assertTrue(set.contains(elements[2]));
+  }
+
+  public void testAsSet_sharesStorage() {
+    LongHashSet set = LongHashSet.create();
+    Set<Long> view = set.asSet();
+    set.add(1L);
+    assertTrue(view.contains(1L));
+    assertTrue(view.add(2L));
+    assertTrue(set.contains(2L));
+    assertTrue(view.remove(1L));
+    assertFalse(set.contains(1L));
+    view.clear();
+    assertTrue(set.isEmpty());
+  }
+
+  public void testEquals_agreesWithHashSet() {
+    LongHashSet set = LongHashSet.create();
+    Set<Long> expected = new HashSet<Long>();
+    for (long i = -50; i < 50; i++) {
+      set.add(i * 1000003L);
+      expected.add(i * 1000003L);
+    }
+    assertEquals(expected, set.asSet());
+    assertEquals(set.asSet(), expected);
+    assertEquals(expected.hashCode(), set.asSet().hashCode());
+    assertEquals(expected.hashCode(), set.hashCode());
+
+    ImmutableLongSet copy = ImmutableLongSet.copyOf(set);
+    assertEquals(set, copy);
+    assertEquals(copy, set);
+    assertEquals(set.hashCode(), copy.hashCode());
+  }
+}
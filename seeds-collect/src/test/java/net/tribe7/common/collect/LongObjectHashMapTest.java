@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.tribe7.common.collect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LongObjectHashMap} and {@link ImmutableLongObjectMap}.
+ */
+public class LongObjectHashMapTest extends TestCase {
+
+  public void testZeroKey() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    assertFalse(map.containsKey(0L));
+    assertNull(map.get(0L));
+
+    assertTrue(map.put(0L, "a"));
+    assertFalse(map.put(0L, "b"));
+    assertTrue(map.containsKey(0L));
+    assertEquals("b", map.get(0L));
+    assertEquals(1, map.size());
+    assertEquals("b", map.asMap().get(0L));
+
+    assertTrue(map.remove(0L));
+    assertFalse(map.containsKey(0L));
+    assertNull(map.get(0L));
+    assertTrue(map.isEmpty());
+  }
+
+  public void testRemove_clusterWrapsAroundEndOfTable() {
+    LongObjectHashMap<String> map = LongObjectHashMap.createWithExpectedSize(8);
+    int lastSlot = map.mask;
+    long[] keys = new long[3];
+    int found = 0;
+    for (long key = 1; found < keys.length; key++) {
+      if ((LongObjectMap.hash(key) & map.mask) == lastSlot) {
+        keys[found++] = key;
+      }
+    }
+    for (long key : keys) {
+      map.put(key, "v" + key);
+    }
+    assertEquals(keys[0], map.keys[lastSlot]);
+    assertEquals(keys[1], map.keys[0]);
+    assertEquals(keys[2], map.keys[1]);
+
+    assertTrue(map.remove(keys[0]));
+    assertEquals(keys[1], map.keys[lastSlot]);
+    assertEquals(keys[2], map.keys[0]);
+    assertEquals(0L, map.keys[1]);
+    assertEquals("v" + keys[1], map.get(keys[1]));
+    assertEquals("v" + keys[2], map.get(keys[2]));
+  }
+
+  public void testAsMap_sharesStorage() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    Map<Long, String> view = map.asMap();
+    map.put(1L, "a");
+    assertEquals("a", view.get(1L));
+    assertNull(view.put(2L, "b"));
+    assertEquals("b", map.get(2L));
+    assertEquals("a", view.remove(1L));
+    assertFalse(map.containsKey(1L));
+    view.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  public void testEquals_agreesWithHashMap() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    Map<Long, String> expected = new HashMap<Long, String>();
+    for (long i = -50; i < 50; i++) {
+      map.put(i << 33, "v" + i);
+      expected.put(i << 33, "v" + i);
+    }
+    assertEquals(expected, map.asMap());
+    assertEquals(map.asMap(), expected);
+    assertEquals(expected.hashCode(), map.asMap().hashCode());
+    assertEquals(expected.hashCode(), map.hashCode());
+
+    ImmutableLongObjectMap<String> copy = ImmutableLongObjectMap.copyOf(map);
+    assertEquals(map, copy);
+    assertEquals(copy, map);
+    assertEquals(map.hashCode(), copy.hashCode());
+    assertSame(copy, ImmutableLongObjectMap.copyOf(copy));
+  }
+}